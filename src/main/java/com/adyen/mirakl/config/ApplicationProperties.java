@@ -41,6 +41,7 @@ public class ApplicationProperties {
     private String emailRetryCron;
     private String removeSentEmailsCron;
     private String payoutRetryCron;
+    private String payoutReconciliationCron;
     private String retryDocsCron;
     private Integer initialDeltaDaysBack;
     private Integer maxPayoutFailed;
@@ -49,6 +50,100 @@ public class ApplicationProperties {
     private String basicUsername;
     private String basicPassword;
     private Integer defaultProcessingTier;
+    private Integer shopSyncParallelism;
+    private Integer adyenMaxConcurrentCalls;
+    private Integer miraklMaxConcurrentCalls;
+    private Boolean shopSyncCheckpointing;
+
+    private Integer accountHolderCacheTtlSeconds;
+
+    private Integer accountHolderCacheMaxSize;
+
+    private Integer miraklShopCacheTtlSeconds;
+
+    private Integer miraklShopCacheMaxSize;
+
+    private Integer miraklShopBatchWindowMillis;
+
+    private Integer notificationQueueBatchSize;
+
+    private Integer notificationQueueWorkers;
+
+    private Integer notificationPollDelayMillis;
+
+    private Integer notificationLeaseSeconds;
+
+    private Integer notificationMaxAttempts;
+
+    private Integer notificationRetryBaseDelaySeconds;
+
+    private Integer schedulerLeaseSeconds;
+
+    private Integer schedulerLeaseMinHoldSeconds;
+
+    private Boolean shopSyncPartitioning;
+
+    private Integer shopSyncPartitions;
+
+    private Integer clusterHeartbeatMillis;
+
+    private Integer clusterNodeTimeoutSeconds;
+
+    private Integer voucherInsertBatchSize;
+
+    private Integer payoutParallelism;
+
+    private Integer payoutBatchSize;
+
+    private Integer payoutRetryBaseDelaySeconds;
+
+    private Integer payoutRetryMaxDelaySeconds;
+
+    private Integer payoutRetryBatchSize;
+
+    private Integer payoutRetryLeaseSeconds;
+
+    private Integer documentDownloadParallelism;
+
+    private Integer documentEncodeParallelism;
+
+    private Integer documentUploadParallelism;
+
+    private Integer documentPipelineQueueCapacity;
+
+    private Boolean documentStreamingUpload;
+
+    private Integer mediaCleanupDelayMillis;
+
+    private Integer mediaCleanupParallelism;
+
+    private Integer notificationExecutorQueueCapacity;
+
+    private Integer mailExecutorPoolSize;
+
+    private Integer mailExecutorQueueCapacity;
+
+    private Integer documentRetryExecutorPoolSize;
+
+    private Integer documentRetryExecutorQueueCapacity;
+
+    private Integer payoutRunExecutorQueueCapacity;
+
+    private Boolean virtualThreads;
+
+    private Integer notificationCoalesceWindowMillis;
+
+    private Integer notificationIngestWindowMillis;
+
+    private Integer notificationIngestBatchSize;
+
+    private Integer notificationDedupRetentionDays;
+
+    private Integer notificationDedupCacheSize;
+
+    private String removeNotificationKeysCron;
+
+    private Integer payoutClaimLeaseMinutes;
 
     @Bean
     public Map<String, Pattern> houseNumberPatterns() {
@@ -89,6 +184,14 @@ public class ApplicationProperties {
         this.payoutRetryCron = payoutRetryCron;
     }
 
+    public String getPayoutReconciliationCron() {
+        return payoutReconciliationCron;
+    }
+
+    public void setPayoutReconciliationCron(String payoutReconciliationCron) {
+        this.payoutReconciliationCron = payoutReconciliationCron;
+    }
+
     public Integer getInitialDeltaDaysBack() {
         return initialDeltaDaysBack;
     }
@@ -152,4 +255,396 @@ public class ApplicationProperties {
     public void setDefaultProcessingTier(final Integer defaultProcessingTier) {
         this.defaultProcessingTier = defaultProcessingTier;
     }
+
+    public Integer getShopSyncParallelism() {
+        return shopSyncParallelism;
+    }
+
+    public void setShopSyncParallelism(final Integer shopSyncParallelism) {
+        this.shopSyncParallelism = shopSyncParallelism;
+    }
+
+    public Integer getAdyenMaxConcurrentCalls() {
+        return adyenMaxConcurrentCalls;
+    }
+
+    public void setAdyenMaxConcurrentCalls(final Integer adyenMaxConcurrentCalls) {
+        this.adyenMaxConcurrentCalls = adyenMaxConcurrentCalls;
+    }
+
+    public Integer getMiraklMaxConcurrentCalls() {
+        return miraklMaxConcurrentCalls;
+    }
+
+    public void setMiraklMaxConcurrentCalls(final Integer miraklMaxConcurrentCalls) {
+        this.miraklMaxConcurrentCalls = miraklMaxConcurrentCalls;
+    }
+
+    public Boolean getShopSyncCheckpointing() {
+        return shopSyncCheckpointing;
+    }
+
+    public void setShopSyncCheckpointing(final Boolean shopSyncCheckpointing) {
+        this.shopSyncCheckpointing = shopSyncCheckpointing;
+    }
+
+    public Integer getAccountHolderCacheTtlSeconds() {
+        return accountHolderCacheTtlSeconds;
+    }
+
+    public void setAccountHolderCacheTtlSeconds(final Integer accountHolderCacheTtlSeconds) {
+        this.accountHolderCacheTtlSeconds = accountHolderCacheTtlSeconds;
+    }
+
+    public Integer getAccountHolderCacheMaxSize() {
+        return accountHolderCacheMaxSize;
+    }
+
+    public void setAccountHolderCacheMaxSize(final Integer accountHolderCacheMaxSize) {
+        this.accountHolderCacheMaxSize = accountHolderCacheMaxSize;
+    }
+
+    public Integer getMiraklShopCacheTtlSeconds() {
+        return miraklShopCacheTtlSeconds;
+    }
+
+    public void setMiraklShopCacheTtlSeconds(final Integer miraklShopCacheTtlSeconds) {
+        this.miraklShopCacheTtlSeconds = miraklShopCacheTtlSeconds;
+    }
+
+    public Integer getMiraklShopCacheMaxSize() {
+        return miraklShopCacheMaxSize;
+    }
+
+    public void setMiraklShopCacheMaxSize(final Integer miraklShopCacheMaxSize) {
+        this.miraklShopCacheMaxSize = miraklShopCacheMaxSize;
+    }
+
+    public Integer getMiraklShopBatchWindowMillis() {
+        return miraklShopBatchWindowMillis;
+    }
+
+    public void setMiraklShopBatchWindowMillis(final Integer miraklShopBatchWindowMillis) {
+        this.miraklShopBatchWindowMillis = miraklShopBatchWindowMillis;
+    }
+
+    public Integer getNotificationQueueBatchSize() {
+        return notificationQueueBatchSize;
+    }
+
+    public void setNotificationQueueBatchSize(final Integer notificationQueueBatchSize) {
+        this.notificationQueueBatchSize = notificationQueueBatchSize;
+    }
+
+    public Integer getNotificationQueueWorkers() {
+        return notificationQueueWorkers;
+    }
+
+    public void setNotificationQueueWorkers(final Integer notificationQueueWorkers) {
+        this.notificationQueueWorkers = notificationQueueWorkers;
+    }
+
+    public Integer getNotificationPollDelayMillis() {
+        return notificationPollDelayMillis;
+    }
+
+    public void setNotificationPollDelayMillis(final Integer notificationPollDelayMillis) {
+        this.notificationPollDelayMillis = notificationPollDelayMillis;
+    }
+
+    public Integer getNotificationLeaseSeconds() {
+        return notificationLeaseSeconds;
+    }
+
+    public void setNotificationLeaseSeconds(final Integer notificationLeaseSeconds) {
+        this.notificationLeaseSeconds = notificationLeaseSeconds;
+    }
+
+    public Integer getNotificationMaxAttempts() {
+        return notificationMaxAttempts;
+    }
+
+    public void setNotificationMaxAttempts(final Integer notificationMaxAttempts) {
+        this.notificationMaxAttempts = notificationMaxAttempts;
+    }
+
+    public Integer getNotificationRetryBaseDelaySeconds() {
+        return notificationRetryBaseDelaySeconds;
+    }
+
+    public void setNotificationRetryBaseDelaySeconds(final Integer notificationRetryBaseDelaySeconds) {
+        this.notificationRetryBaseDelaySeconds = notificationRetryBaseDelaySeconds;
+    }
+
+    public Integer getSchedulerLeaseSeconds() {
+        return schedulerLeaseSeconds;
+    }
+
+    public void setSchedulerLeaseSeconds(final Integer schedulerLeaseSeconds) {
+        this.schedulerLeaseSeconds = schedulerLeaseSeconds;
+    }
+
+    public Integer getSchedulerLeaseMinHoldSeconds() {
+        return schedulerLeaseMinHoldSeconds;
+    }
+
+    public void setSchedulerLeaseMinHoldSeconds(final Integer schedulerLeaseMinHoldSeconds) {
+        this.schedulerLeaseMinHoldSeconds = schedulerLeaseMinHoldSeconds;
+    }
+
+    public Boolean getShopSyncPartitioning() {
+        return shopSyncPartitioning;
+    }
+
+    public void setShopSyncPartitioning(final Boolean shopSyncPartitioning) {
+        this.shopSyncPartitioning = shopSyncPartitioning;
+    }
+
+    public Integer getShopSyncPartitions() {
+        return shopSyncPartitions;
+    }
+
+    public void setShopSyncPartitions(final Integer shopSyncPartitions) {
+        this.shopSyncPartitions = shopSyncPartitions;
+    }
+
+    public Integer getClusterHeartbeatMillis() {
+        return clusterHeartbeatMillis;
+    }
+
+    public void setClusterHeartbeatMillis(final Integer clusterHeartbeatMillis) {
+        this.clusterHeartbeatMillis = clusterHeartbeatMillis;
+    }
+
+    public Integer getClusterNodeTimeoutSeconds() {
+        return clusterNodeTimeoutSeconds;
+    }
+
+    public void setClusterNodeTimeoutSeconds(final Integer clusterNodeTimeoutSeconds) {
+        this.clusterNodeTimeoutSeconds = clusterNodeTimeoutSeconds;
+    }
+
+    public Integer getVoucherInsertBatchSize() {
+        return voucherInsertBatchSize;
+    }
+
+    public void setVoucherInsertBatchSize(final Integer voucherInsertBatchSize) {
+        this.voucherInsertBatchSize = voucherInsertBatchSize;
+    }
+
+    public Integer getPayoutParallelism() {
+        return payoutParallelism;
+    }
+
+    public void setPayoutParallelism(final Integer payoutParallelism) {
+        this.payoutParallelism = payoutParallelism;
+    }
+
+    public Integer getPayoutBatchSize() {
+        return payoutBatchSize;
+    }
+
+    public void setPayoutBatchSize(final Integer payoutBatchSize) {
+        this.payoutBatchSize = payoutBatchSize;
+    }
+
+    public Integer getPayoutRetryBaseDelaySeconds() {
+        return payoutRetryBaseDelaySeconds;
+    }
+
+    public void setPayoutRetryBaseDelaySeconds(final Integer payoutRetryBaseDelaySeconds) {
+        this.payoutRetryBaseDelaySeconds = payoutRetryBaseDelaySeconds;
+    }
+
+    public Integer getPayoutRetryMaxDelaySeconds() {
+        return payoutRetryMaxDelaySeconds;
+    }
+
+    public void setPayoutRetryMaxDelaySeconds(final Integer payoutRetryMaxDelaySeconds) {
+        this.payoutRetryMaxDelaySeconds = payoutRetryMaxDelaySeconds;
+    }
+
+    public Integer getPayoutRetryBatchSize() {
+        return payoutRetryBatchSize;
+    }
+
+    public void setPayoutRetryBatchSize(final Integer payoutRetryBatchSize) {
+        this.payoutRetryBatchSize = payoutRetryBatchSize;
+    }
+
+    public Integer getPayoutRetryLeaseSeconds() {
+        return payoutRetryLeaseSeconds;
+    }
+
+    public void setPayoutRetryLeaseSeconds(final Integer payoutRetryLeaseSeconds) {
+        this.payoutRetryLeaseSeconds = payoutRetryLeaseSeconds;
+    }
+
+    public Integer getDocumentDownloadParallelism() {
+        return documentDownloadParallelism;
+    }
+
+    public void setDocumentDownloadParallelism(final Integer documentDownloadParallelism) {
+        this.documentDownloadParallelism = documentDownloadParallelism;
+    }
+
+    public Integer getDocumentEncodeParallelism() {
+        return documentEncodeParallelism;
+    }
+
+    public void setDocumentEncodeParallelism(final Integer documentEncodeParallelism) {
+        this.documentEncodeParallelism = documentEncodeParallelism;
+    }
+
+    public Integer getDocumentUploadParallelism() {
+        return documentUploadParallelism;
+    }
+
+    public void setDocumentUploadParallelism(final Integer documentUploadParallelism) {
+        this.documentUploadParallelism = documentUploadParallelism;
+    }
+
+    public Integer getDocumentPipelineQueueCapacity() {
+        return documentPipelineQueueCapacity;
+    }
+
+    public void setDocumentPipelineQueueCapacity(final Integer documentPipelineQueueCapacity) {
+        this.documentPipelineQueueCapacity = documentPipelineQueueCapacity;
+    }
+
+    public Boolean getDocumentStreamingUpload() {
+        return documentStreamingUpload;
+    }
+
+    public void setDocumentStreamingUpload(final Boolean documentStreamingUpload) {
+        this.documentStreamingUpload = documentStreamingUpload;
+    }
+
+    public Integer getMediaCleanupDelayMillis() {
+        return mediaCleanupDelayMillis;
+    }
+
+    public void setMediaCleanupDelayMillis(final Integer mediaCleanupDelayMillis) {
+        this.mediaCleanupDelayMillis = mediaCleanupDelayMillis;
+    }
+
+    public Integer getMediaCleanupParallelism() {
+        return mediaCleanupParallelism;
+    }
+
+    public void setMediaCleanupParallelism(final Integer mediaCleanupParallelism) {
+        this.mediaCleanupParallelism = mediaCleanupParallelism;
+    }
+
+    public Integer getNotificationExecutorQueueCapacity() {
+        return notificationExecutorQueueCapacity;
+    }
+
+    public void setNotificationExecutorQueueCapacity(final Integer notificationExecutorQueueCapacity) {
+        this.notificationExecutorQueueCapacity = notificationExecutorQueueCapacity;
+    }
+
+    public Integer getMailExecutorPoolSize() {
+        return mailExecutorPoolSize;
+    }
+
+    public void setMailExecutorPoolSize(final Integer mailExecutorPoolSize) {
+        this.mailExecutorPoolSize = mailExecutorPoolSize;
+    }
+
+    public Integer getMailExecutorQueueCapacity() {
+        return mailExecutorQueueCapacity;
+    }
+
+    public void setMailExecutorQueueCapacity(final Integer mailExecutorQueueCapacity) {
+        this.mailExecutorQueueCapacity = mailExecutorQueueCapacity;
+    }
+
+    public Integer getDocumentRetryExecutorPoolSize() {
+        return documentRetryExecutorPoolSize;
+    }
+
+    public void setDocumentRetryExecutorPoolSize(final Integer documentRetryExecutorPoolSize) {
+        this.documentRetryExecutorPoolSize = documentRetryExecutorPoolSize;
+    }
+
+    public Integer getDocumentRetryExecutorQueueCapacity() {
+        return documentRetryExecutorQueueCapacity;
+    }
+
+    public void setDocumentRetryExecutorQueueCapacity(final Integer documentRetryExecutorQueueCapacity) {
+        this.documentRetryExecutorQueueCapacity = documentRetryExecutorQueueCapacity;
+    }
+
+    public Integer getPayoutRunExecutorQueueCapacity() {
+        return payoutRunExecutorQueueCapacity;
+    }
+
+    public void setPayoutRunExecutorQueueCapacity(final Integer payoutRunExecutorQueueCapacity) {
+        this.payoutRunExecutorQueueCapacity = payoutRunExecutorQueueCapacity;
+    }
+
+    public Boolean getVirtualThreads() {
+        return virtualThreads;
+    }
+
+    public void setVirtualThreads(final Boolean virtualThreads) {
+        this.virtualThreads = virtualThreads;
+    }
+
+    public Integer getNotificationCoalesceWindowMillis() {
+        return notificationCoalesceWindowMillis;
+    }
+
+    public void setNotificationCoalesceWindowMillis(final Integer notificationCoalesceWindowMillis) {
+        this.notificationCoalesceWindowMillis = notificationCoalesceWindowMillis;
+    }
+
+    public Integer getNotificationIngestWindowMillis() {
+        return notificationIngestWindowMillis;
+    }
+
+    public void setNotificationIngestWindowMillis(final Integer notificationIngestWindowMillis) {
+        this.notificationIngestWindowMillis = notificationIngestWindowMillis;
+    }
+
+    public Integer getNotificationIngestBatchSize() {
+        return notificationIngestBatchSize;
+    }
+
+    public void setNotificationIngestBatchSize(final Integer notificationIngestBatchSize) {
+        this.notificationIngestBatchSize = notificationIngestBatchSize;
+    }
+
+    public Integer getNotificationDedupRetentionDays() {
+        return notificationDedupRetentionDays;
+    }
+
+    public void setNotificationDedupRetentionDays(final Integer notificationDedupRetentionDays) {
+        this.notificationDedupRetentionDays = notificationDedupRetentionDays;
+    }
+
+    public Integer getNotificationDedupCacheSize() {
+        return notificationDedupCacheSize;
+    }
+
+    public void setNotificationDedupCacheSize(final Integer notificationDedupCacheSize) {
+        this.notificationDedupCacheSize = notificationDedupCacheSize;
+    }
+
+    public String getRemoveNotificationKeysCron() {
+        return removeNotificationKeysCron;
+    }
+
+    public void setRemoveNotificationKeysCron(final String removeNotificationKeysCron) {
+        this.removeNotificationKeysCron = removeNotificationKeysCron;
+    }
+
+    public Integer getPayoutClaimLeaseMinutes() {
+        return payoutClaimLeaseMinutes;
+    }
+
+    public void setPayoutClaimLeaseMinutes(final Integer payoutClaimLeaseMinutes) {
+        this.payoutClaimLeaseMinutes = payoutClaimLeaseMinutes;
+    }
 }
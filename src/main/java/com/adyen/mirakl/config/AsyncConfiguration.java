@@ -20,8 +20,12 @@
  *
  */
 
+
 package com.adyen.mirakl.config;
 
+import com.adyen.mirakl.service.ConnectorMetrics;
+import com.adyen.mirakl.service.util.ConcurrencyLimiter;
+import com.adyen.mirakl.service.util.VirtualThreadExecutor;
 import io.github.jhipster.async.ExceptionHandlingAsyncTaskExecutor;
 import io.github.jhipster.config.JHipsterProperties;
 
@@ -31,10 +35,18 @@ import org.springframework.aop.interceptor.AsyncUncaughtExceptionHandler;
 import org.springframework.aop.interceptor.SimpleAsyncUncaughtExceptionHandler;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.AsyncListenableTaskExecutor;
+import org.springframework.core.task.TaskDecorator;
+import org.springframework.core.task.TaskRejectedException;
 import org.springframework.scheduling.annotation.*;
+import org.springframework.scheduling.concurrent.ConcurrentTaskExecutor;
 import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 
+import java.util.Optional;
 import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 @Configuration
 @EnableAsync
@@ -45,8 +57,16 @@ public class AsyncConfiguration implements AsyncConfigurer {
 
     private final JHipsterProperties jHipsterProperties;
 
-    public AsyncConfiguration(JHipsterProperties jHipsterProperties) {
+    private final ApplicationProperties applicationProperties;
+
+    private final ConnectorMetrics connectorMetrics;
+
+    private Boolean virtualThreads;
+
+    public AsyncConfiguration(JHipsterProperties jHipsterProperties, ApplicationProperties applicationProperties, ConnectorMetrics connectorMetrics) {
         this.jHipsterProperties = jHipsterProperties;
+        this.applicationProperties = applicationProperties;
+        this.connectorMetrics = connectorMetrics;
     }
 
     @Override
@@ -61,8 +81,204 @@ public class AsyncConfiguration implements AsyncConfigurer {
         return new ExceptionHandlingAsyncTaskExecutor(executor);
     }
 
+    /**
+     * Workers used by ShopService to synchronise updated shops with Adyen, every worker handles its own partition of shops
+     */
+    @Bean(name = "shopSyncExecutor")
+    public AsyncListenableTaskExecutor shopSyncExecutor() {
+        log.debug("Creating Shop Sync Task Executor");
+        return meteredExecutor("shop-sync", applicationProperties.getShopSyncParallelism(), null, rejectWhenFull("shop-sync"));
+    }
+
+    /**
+     * Fetches the next page of updated shops from Mirakl while the current page is being synchronised
+     */
+    @Bean(name = "shopPageFetchExecutor")
+    public ThreadPoolTaskExecutor shopPageFetchExecutor() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(1);
+        executor.setMaxPoolSize(1);
+        executor.setThreadNamePrefix("adyen-mirakl-shop-fetch-");
+        return executor;
+    }
+
+    /**
+     * Workers processing the notifications, both the ones claimed from the notification queue and the ones handed over by
+     * AdyenNotificationResource. A notification which doesn't fit in the queue stays stored and is picked up by the queue poller.
+     */
+    @Bean(name = "notificationExecutor")
+    public AsyncListenableTaskExecutor notificationExecutor() {
+        log.debug("Creating Notification Task Executor");
+        return meteredExecutor("notification",
+                               applicationProperties.getNotificationQueueWorkers(),
+                               applicationProperties.getNotificationExecutorQueueCapacity(),
+                               rejectWhenFull("notification"));
+    }
+
+    /**
+     * Renders and sends the emails of MailTemplateService and MailService, once the queue is full the caller sends the email itself
+     */
+    @Bean(name = "mailExecutor")
+    public AsyncListenableTaskExecutor mailExecutor() {
+        log.debug("Creating Mail Task Executor");
+        return meteredExecutor("mail",
+                               applicationProperties.getMailExecutorPoolSize(),
+                               applicationProperties.getMailExecutorQueueCapacity(),
+                               Runnable::run);
+    }
+
+    /**
+     * Retries the failed document uploads of DocService, a retry which doesn't fit in the queue is left to the retry job
+     */
+    @Bean(name = "documentRetryExecutor")
+    public AsyncListenableTaskExecutor documentRetryExecutor() {
+        log.debug("Creating Document Retry Task Executor");
+        return meteredExecutor("document-retry",
+                               applicationProperties.getDocumentRetryExecutorPoolSize(),
+                               applicationProperties.getDocumentRetryExecutorQueueCapacity(),
+                               task -> log.warn("Document retry queue is full, leaving the retry to the retry job"));
+    }
+
+    /**
+     * Runs PayoutService.processMiraklVoucherEntries, every run pays out all stored voucher lines so a run which doesn't fit in the queue is dropped
+     */
+    @Bean(name = "payoutRunExecutor")
+    public AsyncListenableTaskExecutor payoutRunExecutor() {
+        log.debug("Creating Payout Run Task Executor");
+        return meteredExecutor("payout-run",
+                               1,
+                               applicationProperties.getPayoutRunExecutorQueueCapacity(),
+                               task -> log.info("A payout run is already waiting, the stored voucher lines are paid out by that run"));
+    }
+
+    /**
+     * Workers used by PayoutService to pay out voucher lines, every worker handles its own partition of shops
+     */
+    @Bean(name = "payoutExecutor")
+    public AsyncListenableTaskExecutor payoutExecutor() {
+        log.debug("Creating Payout Task Executor");
+        return meteredExecutor("payout", applicationProperties.getPayoutParallelism(), null, rejectWhenFull("payout"));
+    }
+
+    /**
+     * Workers of the download, encode and upload stages of the DocService document pipeline
+     */
+    @Bean(name = "documentTransferExecutor")
+    public AsyncListenableTaskExecutor documentTransferExecutor() {
+        log.debug("Creating Document Transfer Task Executor");
+        return meteredExecutor("document", documentTransferWorkers(), null, rejectWhenFull("document"));
+    }
+
+    /**
+     * One permit per thread of the documentTransferExecutor, a pipeline run reserves all its workers before it starts them
+     */
+    @Bean(name = "documentTransferWorkerPermits")
+    public Semaphore documentTransferWorkerPermits() {
+        return new Semaphore(documentTransferWorkers(), true);
+    }
+
+    private int documentTransferWorkers() {
+        return Math.max(1, Optional.ofNullable(applicationProperties.getDocumentDownloadParallelism()).orElse(1))
+            + Math.max(1, Optional.ofNullable(applicationProperties.getDocumentEncodeParallelism()).orElse(1))
+            + Math.max(1, Optional.ofNullable(applicationProperties.getDocumentUploadParallelism()).orElse(1));
+    }
+
+    /**
+     * Deletes the Mirakl documents requested by MiraklMediaCleanupService, its size caps the number of parallel deletes
+     */
+    @Bean(name = "mediaCleanupExecutor")
+    public AsyncListenableTaskExecutor mediaCleanupExecutor() {
+        log.debug("Creating Media Cleanup Task Executor");
+        return meteredExecutor("media-cleanup", applicationProperties.getMediaCleanupParallelism(), null, rejectWhenFull("media-cleanup"));
+    }
+
+    @Bean(name = "adyenConcurrencyLimiter")
+    public ConcurrencyLimiter adyenConcurrencyLimiter() {
+        return new ConcurrencyLimiter("adyen", applicationProperties.getAdyenMaxConcurrentCalls());
+    }
+
+    /**
+     * Caps the calls towards the Mirakl API made by the shop sync, document and media cleanup workers together
+     */
+    @Bean(name = "miraklConcurrencyLimiter")
+    public ConcurrencyLimiter miraklConcurrencyLimiter() {
+        return new ConcurrencyLimiter("mirakl", applicationProperties.getMiraklMaxConcurrentCalls());
+    }
+
     @Override
     public AsyncUncaughtExceptionHandler getAsyncUncaughtExceptionHandler() {
         return new SimpleAsyncUncaughtExceptionHandler();
     }
+
+    /**
+     * Executor with a fixed number of threads and a bounded queue (unbounded when no capacity is given), publishing
+     * executor.[name].queue-depth, active, tasks, rejected and the time the tasks waited in the queue as metrics
+     * <p>
+     * With application.virtualThreads every task gets its own virtual thread instead, the pool size then caps the number of
+     * tasks running at the same time and the queue capacity the number of tasks waiting for their turn. The connector refuses
+     * to start when virtual threads are turned on without a JDK 21 runtime
+     */
+    AsyncListenableTaskExecutor meteredExecutor(final String name, final Integer poolSize, final Integer queueCapacity, final Consumer<Runnable> whenFull) {
+        final int threads = Math.max(1, Optional.ofNullable(poolSize).orElse(1));
+        final String metricPrefix = "executor." + name + ".";
+        final Consumer<Runnable> rejected = task -> {
+            connectorMetrics.increment(metricPrefix + "rejected");
+            whenFull.accept(task);
+        };
+        final TaskDecorator waitTimeDecorator = task -> {
+            final long submittedAt = System.nanoTime();
+            return () -> {
+                final long waitedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - submittedAt);
+                connectorMetrics.increment(metricPrefix + "tasks");
+                connectorMetrics.increment(metricPrefix + "wait-ms", waitedMillis);
+                connectorMetrics.gauge(metricPrefix + "last-wait-ms", waitedMillis);
+                task.run();
+            };
+        };
+
+        if (useVirtualThreads()) {
+            final VirtualThreadExecutor virtualThreadExecutor = new VirtualThreadExecutor("adyen-mirakl-" + name, threads, queueCapacity, rejected);
+            final ConcurrentTaskExecutor executor = new ConcurrentTaskExecutor(virtualThreadExecutor);
+            executor.setTaskDecorator(waitTimeDecorator);
+            connectorMetrics.registerGauge(metricPrefix + "queue-depth", virtualThreadExecutor::getWaitingTasks);
+            connectorMetrics.registerGauge(metricPrefix + "active", virtualThreadExecutor::getActiveTasks);
+            return executor;
+        }
+
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(threads);
+        executor.setMaxPoolSize(threads);
+        executor.setQueueCapacity(queueCapacity == null ? Integer.MAX_VALUE : Math.max(0, queueCapacity));
+        executor.setThreadNamePrefix("adyen-mirakl-" + name + "-");
+        executor.setTaskDecorator(waitTimeDecorator);
+        executor.setRejectedExecutionHandler((task, pool) -> rejected.accept(task));
+        connectorMetrics.registerGauge(metricPrefix + "queue-depth", () -> queueDepth(executor));
+        connectorMetrics.registerGauge(metricPrefix + "active", executor::getActiveCount);
+        return executor;
+    }
+
+    private boolean useVirtualThreads() {
+        if (virtualThreads == null) {
+            virtualThreads = Boolean.TRUE.equals(applicationProperties.getVirtualThreads());
+            if (virtualThreads && ! VirtualThreadExecutor.isSupported()) {
+                throw new IllegalStateException("application.virtualThreads needs a JDK 21 runtime, running on Java " + System.getProperty("java.version"));
+            }
+        }
+        return virtualThreads;
+    }
+
+    private static Consumer<Runnable> rejectWhenFull(final String name) {
+        return task -> {
+            throw new TaskRejectedException("Executor " + name + " is full");
+        };
+    }
+
+    private static int queueDepth(final ThreadPoolTaskExecutor executor) {
+        try {
+            return executor.getThreadPoolExecutor().getQueue().size();
+        } catch (IllegalStateException e) {
+            // not initialized yet
+            return 0;
+        }
+    }
 }
@@ -58,7 +58,6 @@ public class CacheConfiguration {
     @Bean
     public JCacheManagerCustomizer cacheManagerCustomizer() {
         return cm -> {
-            cm.createCache(com.adyen.mirakl.domain.AdyenNotification.class.getName(), jcacheConfiguration);
             cm.createCache(com.adyen.mirakl.domain.MiraklDelta.class.getName(), jcacheConfiguration);
             cm.createCache(com.adyen.mirakl.domain.MiraklDocumentDelta.class.getName(), jcacheConfiguration);
             cm.createCache(com.adyen.mirakl.domain.ProcessEmail.class.getName(), jcacheConfiguration);
@@ -35,6 +35,7 @@ public final class Constants {
     public final class Messages {
         public static final String EMAIL_ACCOUNT_HOLDER_VALIDATION_TITLE = "email.account.holder.validation.title";
         public static final String EMAIL_ACCOUNT_HOLDER_PAYOUT_FAILED_TITLE = "email.account.holder.payout.failed.title";
+        public static final String EMAIL_PAYOUT_UNKNOWN_STATE_TITLE = "email.payout.unknown.state.title";
         public static final String EMAIL_TRANSFER_FUND_FAILED_TITLE = "email.transfer.fund.failed.title";
         public static final String EMAIL_MANUAL_CREDIT_DOCUMENT_FAILED_TITLE = "email.manual.credit.document.failed.title";
 
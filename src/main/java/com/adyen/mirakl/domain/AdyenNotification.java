@@ -22,20 +22,19 @@
 
 package com.adyen.mirakl.domain;
 
-import org.hibernate.annotations.Cache;
-import org.hibernate.annotations.CacheConcurrencyStrategy;
-
 import javax.persistence.*;
 
 import java.io.Serializable;
+import java.time.ZonedDateTime;
 import java.util.Objects;
 
+import com.adyen.mirakl.domain.enumeration.NotificationStatus;
+
 /**
  * A AdyenNotification.
  */
 @Entity
 @Table(name = "adyen_notification")
-@Cache(usage = CacheConcurrencyStrategy.NONSTRICT_READ_WRITE)
 public class AdyenNotification implements Serializable {
 
     private static final long serialVersionUID = 1L;
@@ -51,6 +50,22 @@ public class AdyenNotification implements Serializable {
     @Column(name = "processed", nullable = false)
     private boolean processed;
 
+    @Enumerated(EnumType.STRING)
+    @Column(name = "status", length = 20, nullable = false)
+    private NotificationStatus status = NotificationStatus.PENDING;
+
+    @Column(name = "attempts", nullable = false)
+    private Integer attempts = 0;
+
+    @Column(name = "next_attempt_at")
+    private ZonedDateTime nextAttemptAt;
+
+    @Column(name = "lease_owner")
+    private String leaseOwner;
+
+    @Column(name = "leased_until")
+    private ZonedDateTime leasedUntil;
+
     // jhipster-needle-entity-add-field - JHipster will add fields here, do not remove
     public Long getId() {
         return id;
@@ -85,6 +100,71 @@ public class AdyenNotification implements Serializable {
     public void setProcessed(boolean processed) {
         this.processed = processed;
     }
+
+    public NotificationStatus getStatus() {
+        return status;
+    }
+
+    public AdyenNotification status(NotificationStatus status) {
+        this.status = status;
+        return this;
+    }
+
+    public void setStatus(NotificationStatus status) {
+        this.status = status;
+    }
+
+    public Integer getAttempts() {
+        return attempts;
+    }
+
+    public AdyenNotification attempts(Integer attempts) {
+        this.attempts = attempts;
+        return this;
+    }
+
+    public void setAttempts(Integer attempts) {
+        this.attempts = attempts;
+    }
+
+    public ZonedDateTime getNextAttemptAt() {
+        return nextAttemptAt;
+    }
+
+    public AdyenNotification nextAttemptAt(ZonedDateTime nextAttemptAt) {
+        this.nextAttemptAt = nextAttemptAt;
+        return this;
+    }
+
+    public void setNextAttemptAt(ZonedDateTime nextAttemptAt) {
+        this.nextAttemptAt = nextAttemptAt;
+    }
+
+    public String getLeaseOwner() {
+        return leaseOwner;
+    }
+
+    public AdyenNotification leaseOwner(String leaseOwner) {
+        this.leaseOwner = leaseOwner;
+        return this;
+    }
+
+    public void setLeaseOwner(String leaseOwner) {
+        this.leaseOwner = leaseOwner;
+    }
+
+    public ZonedDateTime getLeasedUntil() {
+        return leasedUntil;
+    }
+
+    public AdyenNotification leasedUntil(ZonedDateTime leasedUntil) {
+        this.leasedUntil = leasedUntil;
+        return this;
+    }
+
+    public void setLeasedUntil(ZonedDateTime leasedUntil) {
+        this.leasedUntil = leasedUntil;
+    }
     // jhipster-needle-entity-add-getters-setters - JHipster will add getters and setters here, do not remove
 
     @Override
@@ -113,6 +193,11 @@ public class AdyenNotification implements Serializable {
             "id=" + getId() +
             ", rawAdyenNotification='" + getRawAdyenNotification() + "'" +
             ", processed='" + isProcessed() + "'" +
+            ", status='" + getStatus() + "'" +
+            ", attempts='" + getAttempts() + "'" +
+            ", nextAttemptAt='" + getNextAttemptAt() + "'" +
+            ", leaseOwner='" + getLeaseOwner() + "'" +
+            ", leasedUntil='" + getLeasedUntil() + "'" +
             "}";
     }
 }
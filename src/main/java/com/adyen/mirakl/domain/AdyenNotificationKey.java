@@ -0,0 +1,144 @@
+/*
+ *                       ######
+ *                       ######
+ * ############    ####( ######  #####. ######  ############   ############
+ * #############  #####( ######  #####. ######  #############  #############
+ *        ######  #####( ######  #####. ######  #####  ######  #####  ######
+ * ###### ######  #####( ######  #####. ######  #####  #####   #####  ######
+ * ###### ######  #####( ######  #####. ######  #####          #####  ######
+ * #############  #############  #############  #############  #####  ######
+ *  ############   ############  #############   ############  #####  ######
+ *                                      ######
+ *                               #############
+ *                               ############
+ *
+ * Adyen Mirakl Connector
+ *
+ * Copyright (c) 2018 Adyen B.V.
+ * This file is open source and available under the MIT license.
+ * See the LICENSE file for more info.
+ *
+ */
+
+package com.adyen.mirakl.domain;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.io.StringReader;
+import java.util.Objects;
+
+/**
+ * Identifies a notification sent by Adyen, a retry of the same notification has the same pspReference, eventType and content.
+ * The content is part of the key because Adyen sends every step of a status progression with the same pspReference and
+ * eventType, e.g. an ACCOUNT_HOLDER_PAYOUT which is Initiated first and Failed later.
+ */
+public final class AdyenNotificationKey {
+
+    /**
+     * Longest pspReference and eventType stored in adyen_notification_key, the content hash is 64 hex characters
+     */
+    static final int MAX_LENGTH = 100;
+
+    private static final HashFunction CONTENT_HASH = Hashing.sha256();
+
+    private final String pspReference;
+    private final String eventType;
+    private final String contentHash;
+
+    public AdyenNotificationKey(final String pspReference, final String eventType, final String contentHash) {
+        this.pspReference = pspReference;
+        this.eventType = eventType;
+        this.contentHash = contentHash;
+    }
+
+    /**
+     * Read the key from the top level fields of the notification, the content is hashed as it was sent
+     *
+     * @return the key, or null when the notification has no pspReference or eventType
+     */
+    public static AdyenNotificationKey fromRawNotification(final String rawAdyenNotification) {
+        if (rawAdyenNotification == null) {
+            return null;
+        }
+        String pspReference = null;
+        String eventType = null;
+        JsonElement content = null;
+        try (JsonReader reader = new JsonReader(new StringReader(rawAdyenNotification))) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                final String name = reader.nextName();
+                if ("pspReference".equals(name) && reader.peek() == JsonToken.STRING) {
+                    pspReference = reader.nextString();
+                } else if ("eventType".equals(name) && reader.peek() == JsonToken.STRING) {
+                    eventType = reader.nextString();
+                } else if ("content".equals(name)) {
+                    content = new JsonParser().parse(reader);
+                } else {
+                    reader.skipValue();
+                }
+            }
+        } catch (IOException | IllegalStateException | JsonParseException e) {
+            return null;
+        }
+        if (! isValid(pspReference) || ! isValid(eventType)) {
+            return null;
+        }
+        return new AdyenNotificationKey(pspReference, eventType, hashContent(content));
+    }
+
+    private static String hashContent(final JsonElement content) {
+        return CONTENT_HASH.hashString(content == null ? "" : content.toString(), StandardCharsets.UTF_8).toString();
+    }
+
+    private static boolean isValid(final String value) {
+        return value != null && ! value.trim().isEmpty() && value.length() <= MAX_LENGTH;
+    }
+
+    public String getPspReference() {
+        return pspReference;
+    }
+
+    public String getEventType() {
+        return eventType;
+    }
+
+    public String getContentHash() {
+        return contentHash;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        AdyenNotificationKey adyenNotificationKey = (AdyenNotificationKey) o;
+        return Objects.equals(pspReference, adyenNotificationKey.pspReference)
+            && Objects.equals(eventType, adyenNotificationKey.eventType)
+            && Objects.equals(contentHash, adyenNotificationKey.contentHash);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(pspReference, eventType, contentHash);
+    }
+
+    @Override
+    public String toString() {
+        return "AdyenNotificationKey{" +
+            "pspReference='" + pspReference + "'" +
+            ", eventType='" + eventType + "'" +
+            ", contentHash='" + contentHash + "'" +
+            "}";
+    }
+}
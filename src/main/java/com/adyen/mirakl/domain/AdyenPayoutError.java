@@ -68,6 +68,12 @@ public class AdyenPayoutError implements Serializable {
     @Column(name = "processing")
     private Boolean processing;
 
+    @Column(name = "next_attempt_at")
+    private ZonedDateTime nextAttemptAt;
+
+    @Column(name = "claim_token", length = 36)
+    private String claimToken;
+
     @Column(name = "created_at")
     @CreationTimestamp
     private ZonedDateTime createdAt;
@@ -163,6 +169,32 @@ public class AdyenPayoutError implements Serializable {
         this.processing = processing;
     }
 
+    public ZonedDateTime getNextAttemptAt() {
+        return nextAttemptAt;
+    }
+
+    public AdyenPayoutError nextAttemptAt(ZonedDateTime nextAttemptAt) {
+        this.nextAttemptAt = nextAttemptAt;
+        return this;
+    }
+
+    public void setNextAttemptAt(ZonedDateTime nextAttemptAt) {
+        this.nextAttemptAt = nextAttemptAt;
+    }
+
+    public String getClaimToken() {
+        return claimToken;
+    }
+
+    public AdyenPayoutError claimToken(String claimToken) {
+        this.claimToken = claimToken;
+        return this;
+    }
+
+    public void setClaimToken(String claimToken) {
+        this.claimToken = claimToken;
+    }
+
 
     public void setUpdatedAt(ZonedDateTime updatedAt) {
         this.updatedAt = updatedAt;
@@ -199,6 +231,7 @@ public class AdyenPayoutError implements Serializable {
             ", accountHolderCode='" + getAccountHolderCode() + "'" +
             ", retry=" + getRetry() +
             ", processing='" + isProcessing() + "'" +
+            ", nextAttemptAt='" + getNextAttemptAt() + "'" +
             ", createdAt='" + createdAt + "'" +
             ", updatedAt='" + updatedAt + "'" +
             "}";
@@ -0,0 +1,100 @@
+/*
+ *                       ######
+ *                       ######
+ * ############    ####( ######  #####. ######  ############   ############
+ * #############  #####( ######  #####. ######  #############  #############
+ *        ######  #####( ######  #####. ######  #####  ######  #####  ######
+ * ###### ######  #####( ######  #####. ######  #####  #####   #####  ######
+ * ###### ######  #####( ######  #####. ######  #####          #####  ######
+ * #############  #############  #############  #############  #####  ######
+ *  ############   ############  #############   ############  #####  ######
+ *                                      ######
+ *                               #############
+ *                               ############
+ *
+ * Adyen Mirakl Connector
+ *
+ * Copyright (c) 2018 Adyen B.V.
+ * This file is open source and available under the MIT license.
+ * See the LICENSE file for more info.
+ *
+ */
+
+package com.adyen.mirakl.domain;
+
+import javax.persistence.*;
+
+import java.io.Serializable;
+import java.time.ZonedDateTime;
+import java.util.Objects;
+
+/**
+ * A ClusterNode, a running connector which takes part in the partitioned shop synchronisation.
+ */
+@Entity
+@Table(name = "cluster_node")
+public class ClusterNode implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    @Id
+    @Column(name = "node_id")
+    private String nodeId;
+
+    @Column(name = "heartbeat_at", nullable = false)
+    private ZonedDateTime heartbeatAt;
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    public ClusterNode nodeId(String nodeId) {
+        this.nodeId = nodeId;
+        return this;
+    }
+
+    public void setNodeId(String nodeId) {
+        this.nodeId = nodeId;
+    }
+
+    public ZonedDateTime getHeartbeatAt() {
+        return heartbeatAt;
+    }
+
+    public ClusterNode heartbeatAt(ZonedDateTime heartbeatAt) {
+        this.heartbeatAt = heartbeatAt;
+        return this;
+    }
+
+    public void setHeartbeatAt(ZonedDateTime heartbeatAt) {
+        this.heartbeatAt = heartbeatAt;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        ClusterNode clusterNode = (ClusterNode) o;
+        if (clusterNode.getNodeId() == null || getNodeId() == null) {
+            return false;
+        }
+        return Objects.equals(getNodeId(), clusterNode.getNodeId());
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(getNodeId());
+    }
+
+    @Override
+    public String toString() {
+        return "ClusterNode{" +
+            "nodeId='" + getNodeId() + "'" +
+            ", heartbeatAt='" + getHeartbeatAt() + "'" +
+            "}";
+    }
+}
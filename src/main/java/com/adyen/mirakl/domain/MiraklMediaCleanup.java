@@ -0,0 +1,172 @@
+/*
+ *                       ######
+ *                       ######
+ * ############    ####( ######  #####. ######  ############   ############
+ * #############  #####( ######  #####. ######  #############  #############
+ *        ######  #####( ######  #####. ######  #####  ######  #####  ######
+ * ###### ######  #####( ######  #####. ######  #####  #####   #####  ######
+ * ###### ######  #####( ######  #####. ######  #####          #####  ######
+ * #############  #############  #############  #############  #####  ######
+ *  ############   ############  #############   ############  #####  ######
+ *                                      ######
+ *                               #############
+ *                               ############
+ *
+ * Adyen Mirakl Connector
+ *
+ * Copyright (c) 2018 Adyen B.V.
+ * This file is open source and available under the MIT license.
+ * See the LICENSE file for more info.
+ *
+ */
+
+package com.adyen.mirakl.domain;
+
+import javax.persistence.*;
+
+import org.hibernate.annotations.CreationTimestamp;
+
+import java.io.Serializable;
+import java.time.ZonedDateTime;
+import java.util.Objects;
+
+/**
+ * A MiraklMediaCleanup, Mirakl documents of a shop which are removed in the next cleanup window.
+ * The documents are matched on their type code, either exactly or on its start.
+ */
+@Entity
+@Table(name = "mirakl_media_cleanup")
+public class MiraklMediaCleanup implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "created_at")
+    @CreationTimestamp
+    private ZonedDateTime createdAt;
+
+    @Column(name = "shop_id", nullable = false)
+    private String shopId;
+
+    @Column(name = "type_code", nullable = false)
+    private String typeCode;
+
+    @Column(name = "prefix_match", nullable = false)
+    private boolean prefixMatch;
+
+    @Column(name = "attempts", nullable = false)
+    private int attempts;
+
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public ZonedDateTime getCreatedAt() {
+        return createdAt;
+    }
+
+    public void setCreatedAt(ZonedDateTime createdAt) {
+        this.createdAt = createdAt;
+    }
+
+    public String getShopId() {
+        return shopId;
+    }
+
+    public MiraklMediaCleanup shopId(String shopId) {
+        this.shopId = shopId;
+        return this;
+    }
+
+    public void setShopId(String shopId) {
+        this.shopId = shopId;
+    }
+
+    public String getTypeCode() {
+        return typeCode;
+    }
+
+    public MiraklMediaCleanup typeCode(String typeCode) {
+        this.typeCode = typeCode;
+        return this;
+    }
+
+    public void setTypeCode(String typeCode) {
+        this.typeCode = typeCode;
+    }
+
+    public boolean isPrefixMatch() {
+        return prefixMatch;
+    }
+
+    public MiraklMediaCleanup prefixMatch(boolean prefixMatch) {
+        this.prefixMatch = prefixMatch;
+        return this;
+    }
+
+    public void setPrefixMatch(boolean prefixMatch) {
+        this.prefixMatch = prefixMatch;
+    }
+
+    public int getAttempts() {
+        return attempts;
+    }
+
+    public MiraklMediaCleanup attempts(int attempts) {
+        this.attempts = attempts;
+        return this;
+    }
+
+    public void setAttempts(int attempts) {
+        this.attempts = attempts;
+    }
+
+    /**
+     * Whether the document with the given type code has to be removed
+     */
+    public boolean matches(String documentTypeCode) {
+        if (documentTypeCode == null) {
+            return false;
+        }
+        return prefixMatch ? documentTypeCode.startsWith(typeCode) : documentTypeCode.equals(typeCode);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        MiraklMediaCleanup miraklMediaCleanup = (MiraklMediaCleanup) o;
+        if (miraklMediaCleanup.getId() == null || getId() == null) {
+            return false;
+        }
+        return Objects.equals(getId(), miraklMediaCleanup.getId());
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(getId());
+    }
+
+    @Override
+    public String toString() {
+        return "MiraklMediaCleanup{" +
+            "id=" + getId() +
+            ", createdAt='" + getCreatedAt() + "'" +
+            ", shopId='" + getShopId() + "'" +
+            ", typeCode='" + getTypeCode() + "'" +
+            ", prefixMatch='" + isPrefixMatch() + "'" +
+            ", attempts=" + getAttempts() +
+            "}";
+    }
+}
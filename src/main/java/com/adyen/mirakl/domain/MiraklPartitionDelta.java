@@ -0,0 +1,117 @@
+/*
+ *                       ######
+ *                       ######
+ * ############    ####( ######  #####. ######  ############   ############
+ * #############  #####( ######  #####. ######  #############  #############
+ *        ######  #####( ######  #####. ######  #####  ######  #####  ######
+ * ###### ######  #####( ######  #####. ######  #####  #####   #####  ######
+ * ###### ######  #####( ######  #####. ######  #####          #####  ######
+ * #############  #############  #############  #############  #####  ######
+ *  ############   ############  #############   ############  #####  ######
+ *                                      ######
+ *                               #############
+ *                               ############
+ *
+ * Adyen Mirakl Connector
+ *
+ * Copyright (c) 2018 Adyen B.V.
+ * This file is open source and available under the MIT license.
+ * See the LICENSE file for more info.
+ *
+ */
+
+package com.adyen.mirakl.domain;
+
+import javax.persistence.*;
+
+import java.io.Serializable;
+import java.time.ZonedDateTime;
+import java.util.Objects;
+
+/**
+ * A MiraklPartitionDelta, the shop and document delta of one shop partition when the synchronisation is partitioned over the nodes.
+ */
+@Entity
+@Table(name = "mirakl_partition_delta")
+public class MiraklPartitionDelta implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    @Id
+    @Column(name = "partition_index")
+    private Integer partitionIndex;
+
+    @Column(name = "shop_delta", nullable = false)
+    private ZonedDateTime shopDelta;
+
+    @Column(name = "document_delta", nullable = false)
+    private ZonedDateTime documentDelta;
+
+    public Integer getPartitionIndex() {
+        return partitionIndex;
+    }
+
+    public MiraklPartitionDelta partitionIndex(Integer partitionIndex) {
+        this.partitionIndex = partitionIndex;
+        return this;
+    }
+
+    public void setPartitionIndex(Integer partitionIndex) {
+        this.partitionIndex = partitionIndex;
+    }
+
+    public ZonedDateTime getShopDelta() {
+        return shopDelta;
+    }
+
+    public MiraklPartitionDelta shopDelta(ZonedDateTime shopDelta) {
+        this.shopDelta = shopDelta;
+        return this;
+    }
+
+    public void setShopDelta(ZonedDateTime shopDelta) {
+        this.shopDelta = shopDelta;
+    }
+
+    public ZonedDateTime getDocumentDelta() {
+        return documentDelta;
+    }
+
+    public MiraklPartitionDelta documentDelta(ZonedDateTime documentDelta) {
+        this.documentDelta = documentDelta;
+        return this;
+    }
+
+    public void setDocumentDelta(ZonedDateTime documentDelta) {
+        this.documentDelta = documentDelta;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        MiraklPartitionDelta partitionDelta = (MiraklPartitionDelta) o;
+        if (partitionDelta.getPartitionIndex() == null || getPartitionIndex() == null) {
+            return false;
+        }
+        return Objects.equals(getPartitionIndex(), partitionDelta.getPartitionIndex());
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(getPartitionIndex());
+    }
+
+    @Override
+    public String toString() {
+        return "MiraklPartitionDelta{" +
+            "partitionIndex=" + getPartitionIndex() +
+            ", shopDelta='" + getShopDelta() + "'" +
+            ", documentDelta='" + getDocumentDelta() + "'" +
+            "}";
+    }
+}
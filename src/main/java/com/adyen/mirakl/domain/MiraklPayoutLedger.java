@@ -0,0 +1,230 @@
+/*
+ *                       ######
+ *                       ######
+ * ############    ####( ######  #####. ######  ############   ############
+ * #############  #####( ######  #####. ######  #############  #############
+ *        ######  #####( ######  #####. ######  #####  ######  #####  ######
+ * ###### ######  #####( ######  #####. ######  #####  #####   #####  ######
+ * ###### ######  #####( ######  #####. ######  #####          #####  ######
+ * #############  #############  #############  #############  #####  ######
+ *  ############   ############  #############   ############  #####  ######
+ *                                      ######
+ *                               #############
+ *                               ############
+ *
+ * Adyen Mirakl Connector
+ *
+ * Copyright (c) 2018 Adyen B.V.
+ * This file is open source and available under the MIT license.
+ * See the LICENSE file for more info.
+ *
+ */
+
+package com.adyen.mirakl.domain;
+
+import javax.persistence.*;
+
+import com.adyen.mirakl.domain.enumeration.PayoutLedgerState;
+import org.hibernate.annotations.CreationTimestamp;
+import org.hibernate.annotations.UpdateTimestamp;
+
+import java.io.Serializable;
+import java.time.ZonedDateTime;
+import java.util.Objects;
+
+/**
+ * A MiraklPayoutLedger, the payout of one invoice of a shop. The row is claimed before anything is sent to Adyen so
+ * an invoice is never paid out twice. The commission of a voucher is claimed per currency on the liable account.
+ */
+@Entity
+@Table(name = "mirakl_payout_ledger")
+public class MiraklPayoutLedger implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "shop_id", nullable = false)
+    private String shopId;
+
+    @Column(name = "invoice_number", nullable = false)
+    private String invoiceNumber;
+
+    // the voucher the invoice was claimed for
+    @Column(name = "voucher_id", length = 36)
+    private String voucherId;
+
+    @Enumerated(EnumType.STRING)
+    @Column(name = "state", length = 20, nullable = false)
+    private PayoutLedgerState state = PayoutLedgerState.CLAIMED;
+
+    @Column(name = "subscription_psp_reference")
+    private String subscriptionPspReference;
+
+    @Column(name = "payout_psp_reference")
+    private String payoutPspReference;
+
+    @Column(name = "node_id")
+    private String nodeId;
+
+    @Column(name = "created_at")
+    @CreationTimestamp
+    private ZonedDateTime createdAt;
+
+    @Column(name = "updated_at")
+    @UpdateTimestamp
+    private ZonedDateTime updatedAt;
+
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public String getShopId() {
+        return shopId;
+    }
+
+    public MiraklPayoutLedger shopId(String shopId) {
+        this.shopId = shopId;
+        return this;
+    }
+
+    public void setShopId(String shopId) {
+        this.shopId = shopId;
+    }
+
+    public String getInvoiceNumber() {
+        return invoiceNumber;
+    }
+
+    public MiraklPayoutLedger invoiceNumber(String invoiceNumber) {
+        this.invoiceNumber = invoiceNumber;
+        return this;
+    }
+
+    public void setInvoiceNumber(String invoiceNumber) {
+        this.invoiceNumber = invoiceNumber;
+    }
+
+    public String getVoucherId() {
+        return voucherId;
+    }
+
+    public MiraklPayoutLedger voucherId(String voucherId) {
+        this.voucherId = voucherId;
+        return this;
+    }
+
+    public void setVoucherId(String voucherId) {
+        this.voucherId = voucherId;
+    }
+
+    public PayoutLedgerState getState() {
+        return state;
+    }
+
+    public MiraklPayoutLedger state(PayoutLedgerState state) {
+        this.state = state;
+        return this;
+    }
+
+    public void setState(PayoutLedgerState state) {
+        this.state = state;
+    }
+
+    public String getSubscriptionPspReference() {
+        return subscriptionPspReference;
+    }
+
+    public MiraklPayoutLedger subscriptionPspReference(String subscriptionPspReference) {
+        this.subscriptionPspReference = subscriptionPspReference;
+        return this;
+    }
+
+    public void setSubscriptionPspReference(String subscriptionPspReference) {
+        this.subscriptionPspReference = subscriptionPspReference;
+    }
+
+    public String getPayoutPspReference() {
+        return payoutPspReference;
+    }
+
+    public MiraklPayoutLedger payoutPspReference(String payoutPspReference) {
+        this.payoutPspReference = payoutPspReference;
+        return this;
+    }
+
+    public void setPayoutPspReference(String payoutPspReference) {
+        this.payoutPspReference = payoutPspReference;
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    public MiraklPayoutLedger nodeId(String nodeId) {
+        this.nodeId = nodeId;
+        return this;
+    }
+
+    public void setNodeId(String nodeId) {
+        this.nodeId = nodeId;
+    }
+
+    public ZonedDateTime getCreatedAt() {
+        return createdAt;
+    }
+
+    public void setCreatedAt(ZonedDateTime createdAt) {
+        this.createdAt = createdAt;
+    }
+
+    public ZonedDateTime getUpdatedAt() {
+        return updatedAt;
+    }
+
+    public void setUpdatedAt(ZonedDateTime updatedAt) {
+        this.updatedAt = updatedAt;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        MiraklPayoutLedger miraklPayoutLedger = (MiraklPayoutLedger) o;
+        if (miraklPayoutLedger.getId() == null || getId() == null) {
+            return false;
+        }
+        return Objects.equals(getId(), miraklPayoutLedger.getId());
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(getId());
+    }
+
+    @Override
+    public String toString() {
+        return "MiraklPayoutLedger{" +
+            "id=" + getId() +
+            ", shopId='" + getShopId() + "'" +
+            ", invoiceNumber='" + getInvoiceNumber() + "'" +
+            ", voucherId='" + getVoucherId() + "'" +
+            ", state='" + getState() + "'" +
+            ", subscriptionPspReference='" + getSubscriptionPspReference() + "'" +
+            ", payoutPspReference='" + getPayoutPspReference() + "'" +
+            ", nodeId='" + getNodeId() + "'" +
+            ", createdAt='" + getCreatedAt() + "'" +
+            ", updatedAt='" + getUpdatedAt() + "'" +
+            "}";
+    }
+}
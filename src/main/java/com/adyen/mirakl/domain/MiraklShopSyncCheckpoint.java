@@ -0,0 +1,161 @@
+/*
+ *                       ######
+ *                       ######
+ * ############    ####( ######  #####. ######  ############   ############
+ * #############  #####( ######  #####. ######  #############  #############
+ *        ######  #####( ######  #####. ######  #####  ######  #####  ######
+ * ###### ######  #####( ######  #####. ######  #####  #####   #####  ######
+ * ###### ######  #####( ######  #####. ######  #####          #####  ######
+ * #############  #############  #############  #############  #####  ######
+ *  ############   ############  #############   ############  #####  ######
+ *                                      ######
+ *                               #############
+ *                               ############
+ *
+ * Adyen Mirakl Connector
+ *
+ * Copyright (c) 2018 Adyen B.V.
+ * This file is open source and available under the MIT license.
+ * See the LICENSE file for more info.
+ *
+ */
+
+package com.adyen.mirakl.domain;
+
+import org.hibernate.annotations.UpdateTimestamp;
+
+import javax.persistence.*;
+
+import java.io.Serializable;
+import java.time.ZonedDateTime;
+import java.util.Objects;
+
+/**
+ * A MiraklShopSyncCheckpoint, the progress of a shop synchronisation window which has not been completed yet.
+ */
+@Entity
+@Table(name = "mirakl_shop_sync_checkpoint")
+public class MiraklShopSyncCheckpoint implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "window_start", nullable = false)
+    private ZonedDateTime windowStart;
+
+    @Column(name = "window_end", nullable = false)
+    private ZonedDateTime windowEnd;
+
+    @Column(name = "next_offset", nullable = false)
+    private Long nextOffset;
+
+    @Column(name = "last_shop_id")
+    private String lastShopId;
+
+    @Column(name = "updated_at")
+    @UpdateTimestamp
+    private ZonedDateTime updatedAt;
+
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public ZonedDateTime getWindowStart() {
+        return windowStart;
+    }
+
+    public MiraklShopSyncCheckpoint windowStart(ZonedDateTime windowStart) {
+        this.windowStart = windowStart;
+        return this;
+    }
+
+    public void setWindowStart(ZonedDateTime windowStart) {
+        this.windowStart = windowStart;
+    }
+
+    public ZonedDateTime getWindowEnd() {
+        return windowEnd;
+    }
+
+    public MiraklShopSyncCheckpoint windowEnd(ZonedDateTime windowEnd) {
+        this.windowEnd = windowEnd;
+        return this;
+    }
+
+    public void setWindowEnd(ZonedDateTime windowEnd) {
+        this.windowEnd = windowEnd;
+    }
+
+    public Long getNextOffset() {
+        return nextOffset;
+    }
+
+    public MiraklShopSyncCheckpoint nextOffset(Long nextOffset) {
+        this.nextOffset = nextOffset;
+        return this;
+    }
+
+    public void setNextOffset(Long nextOffset) {
+        this.nextOffset = nextOffset;
+    }
+
+    public String getLastShopId() {
+        return lastShopId;
+    }
+
+    public MiraklShopSyncCheckpoint lastShopId(String lastShopId) {
+        this.lastShopId = lastShopId;
+        return this;
+    }
+
+    public void setLastShopId(String lastShopId) {
+        this.lastShopId = lastShopId;
+    }
+
+    public ZonedDateTime getUpdatedAt() {
+        return updatedAt;
+    }
+
+    public void setUpdatedAt(ZonedDateTime updatedAt) {
+        this.updatedAt = updatedAt;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        MiraklShopSyncCheckpoint checkpoint = (MiraklShopSyncCheckpoint) o;
+        if (checkpoint.getId() == null || getId() == null) {
+            return false;
+        }
+        return Objects.equals(getId(), checkpoint.getId());
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(getId());
+    }
+
+    @Override
+    public String toString() {
+        return "MiraklShopSyncCheckpoint{" +
+            "id=" + getId() +
+            ", windowStart='" + getWindowStart() + "'" +
+            ", windowEnd='" + getWindowEnd() + "'" +
+            ", nextOffset='" + getNextOffset() + "'" +
+            ", lastShopId='" + getLastShopId() + "'" +
+            ", updatedAt='" + getUpdatedAt() + "'" +
+            "}";
+    }
+}
@@ -87,6 +87,37 @@ public class MiraklVoucherEntry implements Serializable {
     @Column(name = "total_charged_amount_vat")
     private String totalChargedAmountVat;
 
+    // amounts in minor units of the currency, parsed when the voucher is uploaded
+    @Column(name = "transfer_amount_minor")
+    private Long transferAmountMinor;
+
+    @Column(name = "subscription_amount_minor")
+    private Long subscriptionAmountMinor;
+
+    @Column(name = "total_charged_amount_minor")
+    private Long totalChargedAmountMinor;
+
+    @Column(name = "total_charged_amount_vat_minor")
+    private Long totalChargedAmountVatMinor;
+
+    // the upload the entry belongs to, its commission is paid out once all entries of the voucher are processed
+    @Column(name = "voucher_id", length = 36, nullable = false)
+    private String voucherId;
+
+    @Column(name = "processed", nullable = false)
+    private boolean processed;
+
+    // the commission counted for the entry when it was processed, in minor units of its currency
+    @Column(name = "commission_minor")
+    private Long commissionMinor;
+
+    // the node paying out the entry, the claim is taken over by another node once claimed_until passed
+    @Column(name = "claim_token", length = 36)
+    private String claimToken;
+
+    @Column(name = "claimed_until")
+    private ZonedDateTime claimedUntil;
+
     // jhipster-needle-entity-add-field - JHipster will add fields here, do not remove
     public Long getId() {
         return id;
@@ -230,6 +261,103 @@ public class MiraklVoucherEntry implements Serializable {
         this.totalChargedAmountVat = totalChargedAmountVat;
     }
 
+    public Long getTransferAmountMinor() {
+        return transferAmountMinor;
+    }
+
+    public MiraklVoucherEntry transferAmountMinor(Long transferAmountMinor) {
+        this.transferAmountMinor = transferAmountMinor;
+        return this;
+    }
+
+    public void setTransferAmountMinor(Long transferAmountMinor) {
+        this.transferAmountMinor = transferAmountMinor;
+    }
+
+    public Long getSubscriptionAmountMinor() {
+        return subscriptionAmountMinor;
+    }
+
+    public MiraklVoucherEntry subscriptionAmountMinor(Long subscriptionAmountMinor) {
+        this.subscriptionAmountMinor = subscriptionAmountMinor;
+        return this;
+    }
+
+    public void setSubscriptionAmountMinor(Long subscriptionAmountMinor) {
+        this.subscriptionAmountMinor = subscriptionAmountMinor;
+    }
+
+    public Long getTotalChargedAmountMinor() {
+        return totalChargedAmountMinor;
+    }
+
+    public MiraklVoucherEntry totalChargedAmountMinor(Long totalChargedAmountMinor) {
+        this.totalChargedAmountMinor = totalChargedAmountMinor;
+        return this;
+    }
+
+    public void setTotalChargedAmountMinor(Long totalChargedAmountMinor) {
+        this.totalChargedAmountMinor = totalChargedAmountMinor;
+    }
+
+    public Long getTotalChargedAmountVatMinor() {
+        return totalChargedAmountVatMinor;
+    }
+
+    public MiraklVoucherEntry totalChargedAmountVatMinor(Long totalChargedAmountVatMinor) {
+        this.totalChargedAmountVatMinor = totalChargedAmountVatMinor;
+        return this;
+    }
+
+    public void setTotalChargedAmountVatMinor(Long totalChargedAmountVatMinor) {
+        this.totalChargedAmountVatMinor = totalChargedAmountVatMinor;
+    }
+
+    public String getVoucherId() {
+        return voucherId;
+    }
+
+    public MiraklVoucherEntry voucherId(String voucherId) {
+        this.voucherId = voucherId;
+        return this;
+    }
+
+    public void setVoucherId(String voucherId) {
+        this.voucherId = voucherId;
+    }
+
+    public boolean isProcessed() {
+        return processed;
+    }
+
+    public void setProcessed(boolean processed) {
+        this.processed = processed;
+    }
+
+    public Long getCommissionMinor() {
+        return commissionMinor;
+    }
+
+    public void setCommissionMinor(Long commissionMinor) {
+        this.commissionMinor = commissionMinor;
+    }
+
+    public String getClaimToken() {
+        return claimToken;
+    }
+
+    public void setClaimToken(String claimToken) {
+        this.claimToken = claimToken;
+    }
+
+    public ZonedDateTime getClaimedUntil() {
+        return claimedUntil;
+    }
+
+    public void setClaimedUntil(ZonedDateTime claimedUntil) {
+        this.claimedUntil = claimedUntil;
+    }
+
 
 
     @Override
@@ -290,10 +418,34 @@ public class MiraklVoucherEntry implements Serializable {
             + ", totalChargedAmoutVat='"
             + getTotalChargedAmountVat()
             + "'"
+            + ", transferAmountMinor="
+            + getTransferAmountMinor()
+            + ", subscriptionAmountMinor="
+            + getSubscriptionAmountMinor()
+            + ", totalChargedAmountMinor="
+            + getTotalChargedAmountMinor()
+            + ", totalChargedAmountVatMinor="
+            + getTotalChargedAmountVatMinor()
+            + ", voucherId='"
+            + getVoucherId()
+            + "'"
+            + ", processed="
+            + isProcessed()
+            + ", commissionMinor="
+            + getCommissionMinor()
+            + ", claimToken='"
+            + getClaimToken()
+            + "'"
+            + ", claimedUntil='"
+            + getClaimedUntil()
+            + "'"
             + "}";
     }
 
     public boolean hasSubscription() {
+        if (subscriptionAmountMinor != null) {
+            return subscriptionAmountMinor != 0L;
+        }
         if (StringUtils.isEmpty(subscriptionAmount)) {
             return false;
         }
@@ -0,0 +1,179 @@
+/*
+ *                       ######
+ *                       ######
+ * ############    ####( ######  #####. ######  ############   ############
+ * #############  #####( ######  #####. ######  #############  #############
+ *        ######  #####( ######  #####. ######  #####  ######  #####  ######
+ * ###### ######  #####( ######  #####. ######  #####  #####   #####  ######
+ * ###### ######  #####( ######  #####. ######  #####          #####  ######
+ * #############  #############  #############  #############  #####  ######
+ *  ############   ############  #############   ############  #####  ######
+ *                                      ######
+ *                               #############
+ *                               ############
+ *
+ * Adyen Mirakl Connector
+ *
+ * Copyright (c) 2018 Adyen B.V.
+ * This file is open source and available under the MIT license.
+ * See the LICENSE file for more info.
+ *
+ */
+
+package com.adyen.mirakl.domain;
+
+import javax.persistence.*;
+
+import org.hibernate.annotations.CreationTimestamp;
+
+import java.io.Serializable;
+import java.time.ZonedDateTime;
+import java.util.Objects;
+
+/**
+ * A MiraklVoucherQuarantine, a payout voucher line which was rejected at upload and is kept for inspection.
+ */
+@Entity
+@Table(name = "mirakl_voucher_quarantine")
+public class MiraklVoucherQuarantine implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    public static final int MAX_RAW_LINE_LENGTH = 4000;
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "created_at")
+    @CreationTimestamp
+    private ZonedDateTime createdAt;
+
+    @Column(name = "record_number", nullable = false)
+    private Long recordNumber;
+
+    @Column(name = "shop_id")
+    private String shopId;
+
+    @Column(name = "invoice_number")
+    private String invoiceNumber;
+
+    @Column(name = "reason", nullable = false)
+    private String reason;
+
+    @Column(name = "raw_line", length = MAX_RAW_LINE_LENGTH)
+    private String rawLine;
+
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public ZonedDateTime getCreatedAt() {
+        return createdAt;
+    }
+
+    public void setCreatedAt(ZonedDateTime createdAt) {
+        this.createdAt = createdAt;
+    }
+
+    public Long getRecordNumber() {
+        return recordNumber;
+    }
+
+    public MiraklVoucherQuarantine recordNumber(Long recordNumber) {
+        this.recordNumber = recordNumber;
+        return this;
+    }
+
+    public void setRecordNumber(Long recordNumber) {
+        this.recordNumber = recordNumber;
+    }
+
+    public String getShopId() {
+        return shopId;
+    }
+
+    public MiraklVoucherQuarantine shopId(String shopId) {
+        this.shopId = shopId;
+        return this;
+    }
+
+    public void setShopId(String shopId) {
+        this.shopId = shopId;
+    }
+
+    public String getInvoiceNumber() {
+        return invoiceNumber;
+    }
+
+    public MiraklVoucherQuarantine invoiceNumber(String invoiceNumber) {
+        this.invoiceNumber = invoiceNumber;
+        return this;
+    }
+
+    public void setInvoiceNumber(String invoiceNumber) {
+        this.invoiceNumber = invoiceNumber;
+    }
+
+    public String getReason() {
+        return reason;
+    }
+
+    public MiraklVoucherQuarantine reason(String reason) {
+        this.reason = reason;
+        return this;
+    }
+
+    public void setReason(String reason) {
+        this.reason = reason;
+    }
+
+    public String getRawLine() {
+        return rawLine;
+    }
+
+    public MiraklVoucherQuarantine rawLine(String rawLine) {
+        this.rawLine = rawLine;
+        return this;
+    }
+
+    public void setRawLine(String rawLine) {
+        this.rawLine = rawLine;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        MiraklVoucherQuarantine miraklVoucherQuarantine = (MiraklVoucherQuarantine) o;
+        if (miraklVoucherQuarantine.getId() == null || getId() == null) {
+            return false;
+        }
+        return Objects.equals(getId(), miraklVoucherQuarantine.getId());
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(getId());
+    }
+
+    @Override
+    public String toString() {
+        return "MiraklVoucherQuarantine{" +
+            "id=" + getId() +
+            ", createdAt='" + getCreatedAt() + "'" +
+            ", recordNumber=" + getRecordNumber() +
+            ", shopId='" + getShopId() + "'" +
+            ", invoiceNumber='" + getInvoiceNumber() + "'" +
+            ", reason='" + getReason() + "'" +
+            "}";
+    }
+}
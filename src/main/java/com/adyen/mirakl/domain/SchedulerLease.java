@@ -0,0 +1,134 @@
+/*
+ *                       ######
+ *                       ######
+ * ############    ####( ######  #####. ######  ############   ############
+ * #############  #####( ######  #####. ######  #############  #############
+ *        ######  #####( ######  #####. ######  #####  ######  #####  ######
+ * ###### ######  #####( ######  #####. ######  #####  #####   #####  ######
+ * ###### ######  #####( ######  #####. ######  #####          #####  ######
+ * #############  #############  #############  #############  #####  ######
+ *  ############   ############  #############   ############  #####  ######
+ *                                      ######
+ *                               #############
+ *                               ############
+ *
+ * Adyen Mirakl Connector
+ *
+ * Copyright (c) 2018 Adyen B.V.
+ * This file is open source and available under the MIT license.
+ * See the LICENSE file for more info.
+ *
+ */
+
+package com.adyen.mirakl.domain;
+
+import javax.persistence.*;
+
+import java.io.Serializable;
+import java.time.ZonedDateTime;
+import java.util.Objects;
+
+/**
+ * A SchedulerLease, the node which is allowed to run a scheduled job until the lease expires.
+ */
+@Entity
+@Table(name = "scheduler_lease")
+public class SchedulerLease implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    @Id
+    @Column(name = "name", length = 100)
+    private String name;
+
+    @Column(name = "lease_owner")
+    private String leaseOwner;
+
+    @Column(name = "leased_until")
+    private ZonedDateTime leasedUntil;
+
+    @Column(name = "acquired_at")
+    private ZonedDateTime acquiredAt;
+
+    public String getName() {
+        return name;
+    }
+
+    public SchedulerLease name(String name) {
+        this.name = name;
+        return this;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public String getLeaseOwner() {
+        return leaseOwner;
+    }
+
+    public SchedulerLease leaseOwner(String leaseOwner) {
+        this.leaseOwner = leaseOwner;
+        return this;
+    }
+
+    public void setLeaseOwner(String leaseOwner) {
+        this.leaseOwner = leaseOwner;
+    }
+
+    public ZonedDateTime getLeasedUntil() {
+        return leasedUntil;
+    }
+
+    public SchedulerLease leasedUntil(ZonedDateTime leasedUntil) {
+        this.leasedUntil = leasedUntil;
+        return this;
+    }
+
+    public void setLeasedUntil(ZonedDateTime leasedUntil) {
+        this.leasedUntil = leasedUntil;
+    }
+
+    public ZonedDateTime getAcquiredAt() {
+        return acquiredAt;
+    }
+
+    public SchedulerLease acquiredAt(ZonedDateTime acquiredAt) {
+        this.acquiredAt = acquiredAt;
+        return this;
+    }
+
+    public void setAcquiredAt(ZonedDateTime acquiredAt) {
+        this.acquiredAt = acquiredAt;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        SchedulerLease schedulerLease = (SchedulerLease) o;
+        if (schedulerLease.getName() == null || getName() == null) {
+            return false;
+        }
+        return Objects.equals(getName(), schedulerLease.getName());
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(getName());
+    }
+
+    @Override
+    public String toString() {
+        return "SchedulerLease{" +
+            "name='" + getName() + "'" +
+            ", leaseOwner='" + getLeaseOwner() + "'" +
+            ", leasedUntil='" + getLeasedUntil() + "'" +
+            ", acquiredAt='" + getAcquiredAt() + "'" +
+            "}";
+    }
+}
@@ -0,0 +1,31 @@
+/*
+ *                       ######
+ *                       ######
+ * ############    ####( ######  #####. ######  ############   ############
+ * #############  #####( ######  #####. ######  #############  #############
+ *        ######  #####( ######  #####. ######  #####  ######  #####  ######
+ * ###### ######  #####( ######  #####. ######  #####  #####   #####  ######
+ * ###### ######  #####( ######  #####. ######  #####          #####  ######
+ * #############  #############  #############  #############  #####  ######
+ *  ############   ############  #############   ############  #####  ######
+ *                                      ######
+ *                               #############
+ *                               ############
+ *
+ * Adyen Mirakl Connector
+ *
+ * Copyright (c) 2018 Adyen B.V.
+ * This file is open source and available under the MIT license.
+ * See the LICENSE file for more info.
+ *
+ */
+
+package com.adyen.mirakl.domain.enumeration;
+
+/**
+ * The PayoutLedgerState enumeration.
+ * UNKNOWN: the payout stayed CLAIMED or SUBSCRIPTION_SENT beyond its lease, whether it reached Adyen is unknown
+ */
+public enum PayoutLedgerState {
+    CLAIMED, SUBSCRIPTION_SENT, PAYOUT_SENT, CONFIRMED, FAILED, UNKNOWN
+}
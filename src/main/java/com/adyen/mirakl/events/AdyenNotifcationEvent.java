@@ -28,6 +28,8 @@ public class AdyenNotifcationEvent extends ApplicationEvent {
 
     private Long dbId;
 
+    private String rawAdyenNotification;
+
     /**
      * Create a new ApplicationEvent.
      *
@@ -38,7 +40,29 @@ public class AdyenNotifcationEvent extends ApplicationEvent {
         this.dbId = dbId;
     }
 
+    /**
+     * Create an event for a notification already claimed by this node, the worker processes the body as received
+     *
+     * @param dbId                 the id of the stored notification
+     * @param rawAdyenNotification the notification as received from Adyen
+     */
+    public AdyenNotifcationEvent(final Long dbId, final String rawAdyenNotification) {
+        this(dbId);
+        this.rawAdyenNotification = rawAdyenNotification;
+    }
+
     public Long getDbId() {
         return dbId;
     }
+
+    /**
+     * @return the notification as received, null when the worker needs to claim and load it
+     */
+    public String getRawAdyenNotification() {
+        return rawAdyenNotification;
+    }
+
+    public boolean isClaimed() {
+        return rawAdyenNotification != null;
+    }
 }
@@ -22,30 +22,50 @@
 
 package com.adyen.mirakl.listeners;
 
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.annotation.PreDestroy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.context.event.EventListener;
 import org.springframework.scheduling.annotation.Async;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 import org.springframework.stereotype.Component;
-import org.springframework.util.CollectionUtils;
+import com.adyen.mirakl.config.ApplicationProperties;
 import com.adyen.mirakl.domain.AdyenNotification;
 import com.adyen.mirakl.events.AdyenNotifcationEvent;
 import com.adyen.mirakl.repository.AdyenNotificationRepository;
+import com.adyen.mirakl.service.AccountHolderCache;
+import com.adyen.mirakl.service.ConnectorMetrics;
 import com.adyen.mirakl.service.DocService;
 import com.adyen.mirakl.service.MailTemplateService;
+import com.adyen.mirakl.service.MiraklShopCache;
+import com.adyen.mirakl.service.NotificationQueueService;
+import com.adyen.mirakl.service.PayoutLedgerService;
 import com.adyen.mirakl.service.RetryPayoutService;
 import com.adyen.mirakl.service.ShopService;
 import com.adyen.model.Name;
-import com.adyen.model.marketpay.GetAccountHolderRequest;
 import com.adyen.model.marketpay.GetAccountHolderResponse;
 import com.adyen.model.marketpay.KYCCheckStatusData;
 import com.adyen.model.marketpay.ShareholderContact;
 import com.adyen.model.marketpay.notification.AccountHolderPayoutNotification;
+import com.adyen.model.marketpay.notification.AccountHolderPayoutNotificationContent;
 import com.adyen.model.marketpay.notification.AccountHolderStatusChangeNotification;
+import com.adyen.model.marketpay.notification.AccountHolderUpdateNotification;
 import com.adyen.model.marketpay.notification.AccountHolderVerificationNotification;
 import com.adyen.model.marketpay.notification.CompensateNegativeBalanceNotification;
 import com.adyen.model.marketpay.notification.CompensateNegativeBalanceNotificationRecord;
@@ -53,14 +73,10 @@ import com.adyen.model.marketpay.notification.CompensateNegativeBalanceNotificat
 import com.adyen.model.marketpay.notification.GenericNotification;
 import com.adyen.model.marketpay.notification.TransferFundsNotification;
 import com.adyen.notification.NotificationHandler;
-import com.adyen.service.Account;
 import com.adyen.service.exception.ApiException;
 import com.google.common.collect.ImmutableMap;
-import com.google.common.collect.ImmutableSet;
 import com.mirakl.client.mmp.domain.shop.MiraklShop;
-import com.mirakl.client.mmp.operator.core.MiraklMarketplacePlatformOperatorApiClient;
 import com.mirakl.client.mmp.operator.domain.invoice.MiraklCreatedManualAccountingDocuments;
-import com.mirakl.client.mmp.request.shop.MiraklGetShopsRequest;
 import static com.adyen.mirakl.listeners.AdyenNotificationListener.TemplateAndSubjectKey.getSubject;
 import static com.adyen.mirakl.listeners.AdyenNotificationListener.TemplateAndSubjectKey.getTemplate;
 import static com.adyen.model.marketpay.KYCCheckStatusData.CheckStatusEnum;
@@ -101,57 +117,297 @@ public class AdyenNotificationListener {
         }
     }
 
+    /**
+     * A claimed notification, parsed and waiting to be processed
+     */
+    private static class QueuedNotification {
+
+        private final Long id;
+        private final GenericNotification notification;
+
+        private QueuedNotification(final Long id, final GenericNotification notification) {
+            this.id = id;
+            this.notification = notification;
+        }
+    }
+
+    /**
+     * Account holders and shops looked up while processing a notification or a group of notifications, each one is only
+     * resolved once
+     */
+    private class AccountHolderResolver {
+
+        private final Map<String, GetAccountHolderResponse> accountHolders = new HashMap<>();
+        private final Map<String, MiraklShop> shops = new HashMap<>();
+
+        private GetAccountHolderResponse getAccountHolder(final String accountHolderCode) throws Exception {
+            GetAccountHolderResponse accountHolder = accountHolders.get(accountHolderCode);
+            if (accountHolder == null) {
+                accountHolder = accountHolderCache.getByAccountHolderCode(accountHolderCode);
+                accountHolders.put(accountHolderCode, accountHolder);
+            }
+            return accountHolder;
+        }
+
+        private MiraklShop getShop(final String shopId) {
+            return shops.computeIfAbsent(shopId, AdyenNotificationListener.this::getShop);
+        }
+    }
+
     private final Logger log = LoggerFactory.getLogger(this.getClass());
 
     private NotificationHandler notificationHandler;
     private AdyenNotificationRepository adyenNotificationRepository;
     private MailTemplateService mailTemplateService;
-    private MiraklMarketplacePlatformOperatorApiClient miraklMarketplacePlatformOperatorApiClient;
+    private MiraklShopCache miraklShopCache;
     private RetryPayoutService retryPayoutService;
-    private Account adyenAccountService;
+    private PayoutLedgerService payoutLedgerService;
+    private AccountHolderCache accountHolderCache;
     private DocService docService;
     private ShopService shopService;
+    private NotificationQueueService notificationQueueService;
+    private Executor notificationExecutor;
+    private ApplicationProperties applicationProperties;
+    private ConnectorMetrics connectorMetrics;
+    private final ConcurrentMap<String, List<QueuedNotification>> coalescingNotifications = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService coalesceScheduler;
 
     AdyenNotificationListener(final NotificationHandler notificationHandler,
                               final AdyenNotificationRepository adyenNotificationRepository,
+                              final NotificationQueueService notificationQueueService,
+                              @Qualifier("notificationExecutor") final Executor notificationExecutor,
                               final MailTemplateService mailTemplateService,
-                              final MiraklMarketplacePlatformOperatorApiClient miraklMarketplacePlatformOperatorApiClient,
-                              final Account adyenAccountService,
+                              final MiraklShopCache miraklShopCache,
+                              final AccountHolderCache accountHolderCache,
                               final RetryPayoutService retryPayoutService,
+                              final PayoutLedgerService payoutLedgerService,
                               final DocService docService,
-                              final ShopService shopService) {
+                              final ShopService shopService,
+                              final ApplicationProperties applicationProperties,
+                              final ConnectorMetrics connectorMetrics) {
         this.notificationHandler = notificationHandler;
         this.adyenNotificationRepository = adyenNotificationRepository;
+        this.notificationQueueService = notificationQueueService;
+        this.notificationExecutor = notificationExecutor;
         this.mailTemplateService = mailTemplateService;
-        this.miraklMarketplacePlatformOperatorApiClient = miraklMarketplacePlatformOperatorApiClient;
-        this.adyenAccountService = adyenAccountService;
+        this.miraklShopCache = miraklShopCache;
+        this.accountHolderCache = accountHolderCache;
         this.retryPayoutService = retryPayoutService;
+        this.payoutLedgerService = payoutLedgerService;
         this.docService = docService;
         this.shopService = shopService;
+        this.applicationProperties = applicationProperties;
+        this.connectorMetrics = connectorMetrics;
+        if (getCoalesceWindowMillis() > 0) {
+            final CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("adyen-mirakl-notification-coalesce-");
+            threadFactory.setDaemon(true);
+            this.coalesceScheduler = Executors.newSingleThreadScheduledExecutor(threadFactory);
+        } else {
+            this.coalesceScheduler = null;
+        }
     }
 
-    @Async
+    /**
+     * Groups which are still collecting stay claimed, they are claimed again once their lease expired
+     */
+    @PreDestroy
+    public void shutdown() {
+        if (coalesceScheduler != null) {
+            coalesceScheduler.shutdownNow();
+        }
+    }
+
+    @Async("notificationExecutor")
     @EventListener
     public void handleContextRefresh(AdyenNotifcationEvent event) {
         log.info(String.format("Received notification DB id: [%d]", event.getDbId()));
-        final AdyenNotification notification = adyenNotificationRepository.findOneById(event.getDbId());
-        final GenericNotification genericNotification = notificationHandler.handleMarketpayNotificationJson(notification.getRawAdyenNotification());
+        if (event.isClaimed()) {
+            // stored already claimed by this node, the body doesn't need to be read back
+            processRawNotification(event.getDbId(), event.getRawAdyenNotification());
+            return;
+        }
+        if (! notificationQueueService.claim(event.getDbId())) {
+            log.debug("Notification {} is already claimed", event.getDbId());
+            return;
+        }
+        processQueuedNotification(event.getDbId());
+    }
+
+    /**
+     * Claim the due notifications from the queue and process them on the notification workers, returns once all of them are handled
+     */
+    public int processDueNotifications() {
+        final List<Long> ids = notificationQueueService.claimDueNotifications();
+        if (ids.isEmpty()) {
+            return 0;
+        }
+        log.info("Claimed {} notifications from the queue", ids.size());
+        final CompletableFuture<?>[] processing = ids.stream()
+                                                     .map(this::processOnWorker)
+                                                     .toArray(CompletableFuture[]::new);
+        CompletableFuture.allOf(processing).join();
+        return ids.size();
+    }
+
+    /**
+     * Hand the notification to a notification worker, when all workers are busy and their queue is full it is processed right away
+     */
+    private CompletableFuture<Void> processOnWorker(final Long id) {
+        try {
+            return CompletableFuture.runAsync(() -> processQueuedNotification(id), notificationExecutor);
+        } catch (RejectedExecutionException e) {
+            processQueuedNotification(id);
+            return CompletableFuture.completedFuture(null);
+        }
+    }
+
+    /**
+     * Process a notification claimed by this node, it is removed from the queue when processed and rescheduled when it failed
+     */
+    public void processQueuedNotification(final Long id) {
+        final AdyenNotification notification = adyenNotificationRepository.findOneById(id);
+        if (notification == null) {
+            log.warn("Notification {} no longer exists", id);
+            return;
+        }
+        processRawNotification(id, notification.getRawAdyenNotification());
+    }
+
+    private void processRawNotification(final Long id, final String rawAdyenNotification) {
+        final GenericNotification genericNotification;
         try {
-            processNotification(genericNotification);
-            adyenNotificationRepository.delete(event.getDbId());
+            genericNotification = notificationHandler.handleMarketpayNotificationJson(rawAdyenNotification);
+        } catch (Exception e) {
+            log.error("Exception: {}", e.getMessage(), e);
+            notificationQueueService.fail(id);
+            return;
+        }
+        final QueuedNotification queuedNotification = new QueuedNotification(id, genericNotification);
+        final String accountHolderCode = getCoalescedAccountHolderCode(genericNotification);
+        if (accountHolderCode != null && coalesceScheduler != null) {
+            coalesce(accountHolderCode, queuedNotification);
+        } else {
+            processNotification(queuedNotification, new AccountHolderResolver());
+        }
+    }
+
+    /**
+     * Collect the notification with the other notifications of its account holder. The notification opening a group schedules
+     * its flush application.notificationCoalesceWindowMillis later and the worker moves on. The flush processes the group on a
+     * notification worker in the order the notifications were received, looking up the account holder and its shop once.
+     * Notifications arriving while the group is processed are picked up by the same flush, so the notifications of an account
+     * holder are never processed concurrently or out of order.
+     * <p>
+     * Collected notifications stay claimed, if this node dies they are claimed again once their lease expired
+     */
+    private void coalesce(final String accountHolderCode, final QueuedNotification queuedNotification) {
+        final AtomicBoolean opened = new AtomicBoolean();
+        coalescingNotifications.compute(accountHolderCode, (code, group) -> {
+            final List<QueuedNotification> notifications = group == null ? new ArrayList<>() : group;
+            opened.set(group == null);
+            notifications.add(queuedNotification);
+            return notifications;
+        });
+        if (! opened.get()) {
+            log.debug("Notification {} joined the group of account holder {}", queuedNotification.id, accountHolderCode);
+            return;
+        }
+
+        coalesceScheduler.schedule(() -> flushOnWorker(accountHolderCode), getCoalesceWindowMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Hand the flush to a notification worker, when all workers are busy and their queue is full it runs on the scheduler
+     */
+    private void flushOnWorker(final String accountHolderCode) {
+        try {
+            notificationExecutor.execute(() -> flush(accountHolderCode));
+        } catch (RejectedExecutionException e) {
+            flush(accountHolderCode);
+        }
+    }
+
+    private void flush(final String accountHolderCode) {
+        try {
+            List<QueuedNotification> group;
+            while (! (group = takeGroup(accountHolderCode)).isEmpty()) {
+                group.sort(Comparator.comparing(notification -> notification.id));
+                log.info("Processing {} notifications of account holder {}", group.size(), accountHolderCode);
+                connectorMetrics.increment("notification.coalesced.groups");
+                connectorMetrics.increment("notification.coalesced.notifications", group.size());
+                if (group.stream().anyMatch(notification -> notification.notification instanceof AccountHolderStatusChangeNotification
+                    || notification.notification instanceof AccountHolderUpdateNotification)) {
+                    // look up the account holder as it is after the changes of the group
+                    accountHolderCache.invalidate(accountHolderCode);
+                }
+                final AccountHolderResolver accountHolderResolver = new AccountHolderResolver();
+                group.forEach(notification -> processNotification(notification, accountHolderResolver));
+            }
+        } catch (RuntimeException e) {
+            // close the group, its unprocessed notifications stay claimed and are claimed again once their lease expired
+            coalescingNotifications.remove(accountHolderCode);
+            log.error("Exception: {}, {}. While processing the notifications of account holder {}", e.getMessage(), e, accountHolderCode);
+        }
+    }
+
+    /**
+     * Take the notifications collected for the account holder, the group is closed once there are none left
+     */
+    private List<QueuedNotification> takeGroup(final String accountHolderCode) {
+        final List<QueuedNotification> taken = new ArrayList<>();
+        coalescingNotifications.computeIfPresent(accountHolderCode, (code, group) -> {
+            taken.addAll(group);
+            return group.isEmpty() ? null : new ArrayList<>();
+        });
+        return taken;
+    }
+
+    /**
+     * Account holder of the notifications which are coalesced, null for the ones processed on their own
+     */
+    private static String getCoalescedAccountHolderCode(final GenericNotification genericNotification) {
+        if (genericNotification instanceof AccountHolderVerificationNotification) {
+            return ((AccountHolderVerificationNotification) genericNotification).getContent().getAccountHolderCode();
+        }
+        if (genericNotification instanceof AccountHolderStatusChangeNotification) {
+            return ((AccountHolderStatusChangeNotification) genericNotification).getContent().getAccountHolderCode();
+        }
+        if (genericNotification instanceof AccountHolderUpdateNotification) {
+            return ((AccountHolderUpdateNotification) genericNotification).getContent().getAccountHolderCode();
+        }
+        return null;
+    }
+
+    private int getCoalesceWindowMillis() {
+        final Integer coalesceWindowMillis = applicationProperties.getNotificationCoalesceWindowMillis();
+        return coalesceWindowMillis == null ? 0 : coalesceWindowMillis;
+    }
+
+    /**
+     * Process the notification, it is removed from the queue when processed and rescheduled when it failed
+     */
+    private void processNotification(final QueuedNotification queuedNotification, final AccountHolderResolver accountHolderResolver) {
+        try {
+            processNotification(queuedNotification.notification, accountHolderResolver);
+            adyenNotificationRepository.delete(queuedNotification.id);
         } catch (ApiException e) {
             log.error("Failed processing notification: {}", e.getError(), e);
+            notificationQueueService.fail(queuedNotification.id);
         } catch (Exception e) {
             log.error("Exception: {}", e.getMessage(), e);
+            notificationQueueService.fail(queuedNotification.id);
         }
     }
 
-    private void processNotification(final GenericNotification genericNotification) throws Exception {
+    private void processNotification(final GenericNotification genericNotification, final AccountHolderResolver accountHolderResolver) throws Exception {
+        if (genericNotification instanceof AccountHolderUpdateNotification) {
+            accountHolderCache.invalidate(((AccountHolderUpdateNotification) genericNotification).getContent().getAccountHolderCode());
+        }
         if (genericNotification instanceof AccountHolderVerificationNotification) {
-            processAccountholderVerificationNotification((AccountHolderVerificationNotification) genericNotification);
+            processAccountholderVerificationNotification((AccountHolderVerificationNotification) genericNotification, accountHolderResolver);
         }
         if (genericNotification instanceof AccountHolderStatusChangeNotification) {
-            processAccountHolderStatusChangeNotification((AccountHolderStatusChangeNotification) genericNotification);
+            processAccountHolderStatusChangeNotification((AccountHolderStatusChangeNotification) genericNotification, accountHolderResolver);
         }
         if (genericNotification instanceof AccountHolderPayoutNotification) {
             processAccountHolderPayout((AccountHolderPayoutNotification) genericNotification);
@@ -192,25 +448,26 @@ public class AdyenNotificationListener {
         });
     }
 
-    private void processAccountholderVerificationNotification(final AccountHolderVerificationNotification verificationNotification) throws Exception {
+    private void processAccountholderVerificationNotification(final AccountHolderVerificationNotification verificationNotification,
+                                                              final AccountHolderResolver accountHolderResolver) throws Exception {
         final CheckStatusEnum verificationStatus = verificationNotification.getContent().getVerificationStatus();
         final CheckTypeEnum verificationType = verificationNotification.getContent().getVerificationType();
         final String shopId = verificationNotification.getContent().getAccountHolderCode();
         if (CheckStatusEnum.RETRY_LIMIT_REACHED.equals(verificationStatus) && CheckTypeEnum.BANK_ACCOUNT_VERIFICATION.equals(verificationType)) {
-            final MiraklShop shop = getShop(shopId);
+            final MiraklShop shop = accountHolderResolver.getShop(shopId);
             mailTemplateService.sendMiraklShopEmailFromTemplate(shop, Locale.getDefault(), "bankAccountVerificationEmail", "email.bank.verification.title");
         } else if (awaitingDataForIdentityOrPassport(verificationStatus, verificationType) || invalidDataForIdentityOrPassport(verificationStatus, verificationType)) {
-            final GetAccountHolderResponse accountHolderResponse = getAccountHolder(shopId);
+            final GetAccountHolderResponse accountHolderResponse = accountHolderResolver.getAccountHolder(shopId);
             if (GetAccountHolderResponse.LegalEntityEnum.BUSINESS.equals(accountHolderResponse.getLegalEntity())) {
                 sendBusinessShareholderAwaitingDataEmail(verificationNotification, verificationStatus, verificationType, shopId, accountHolderResponse);
             } else if (GetAccountHolderResponse.LegalEntityEnum.INDIVIDUAL.equals(accountHolderResponse.getLegalEntity())) {
                 sendIndividualAwaitingDataEmail(verificationStatus, verificationType, shopId, accountHolderResponse);
             }
         } else if (invalidOrAwaitingCompanyVerificationData(verificationStatus, verificationType)) {
-            final MiraklShop shop = getShop(shopId);
+            final MiraklShop shop = accountHolderResolver.getShop(shopId);
             mailTemplateService.sendMiraklShopEmailFromTemplate(shop, Locale.getDefault(), getTemplate(verificationType, verificationStatus), getSubject(verificationType, verificationStatus));
         } else if (dataProvidedForPassportOrIdentity(verificationStatus, verificationType, CheckStatusEnum.PASSED, CheckTypeEnum.PASSPORT_VERIFICATION, CheckTypeEnum.IDENTITY_VERIFICATION)) {
-            final GetAccountHolderResponse accountHolderResponse = getAccountHolder(shopId);
+            final GetAccountHolderResponse accountHolderResponse = accountHolderResolver.getAccountHolder(shopId);
             if (GetAccountHolderResponse.LegalEntityEnum.BUSINESS.equals(accountHolderResponse.getLegalEntity())) {
                 docService.removeMiraklMediaForShareHolder(verificationNotification.getContent().getShareholderCode());
             } else if (GetAccountHolderResponse.LegalEntityEnum.INDIVIDUAL.equals(accountHolderResponse.getLegalEntity())) {
@@ -222,12 +479,6 @@ public class AdyenNotificationListener {
 
     }
 
-    private GetAccountHolderResponse getAccountHolder(String shopId) throws Exception {
-        final GetAccountHolderRequest getAccountHolderRequest = new GetAccountHolderRequest();
-        getAccountHolderRequest.setAccountHolderCode(shopId);
-        return adyenAccountService.getAccountHolder(getAccountHolderRequest);
-    }
-
     private void sendBusinessShareholderAwaitingDataEmail(AccountHolderVerificationNotification verificationNotification,
                                                           CheckStatusEnum verificationStatus,
                                                           CheckTypeEnum verificationType,
@@ -284,27 +535,28 @@ public class AdyenNotificationListener {
     }
 
     private MiraklShop getShop(String shopId) {
-        final MiraklGetShopsRequest miraklGetShopsRequest = new MiraklGetShopsRequest();
-        miraklGetShopsRequest.setShopIds(ImmutableSet.of(shopId));
-        final List<MiraklShop> shops = miraklMarketplacePlatformOperatorApiClient.getShops(miraklGetShopsRequest).getShops();
-        if (CollectionUtils.isEmpty(shops)) {
+        final MiraklShop shop = miraklShopCache.getShop(shopId);
+        if (shop == null) {
             throw new IllegalStateException("Cannot find shop: " + shopId);
         }
-        return shops.iterator().next();
+        return shop;
     }
 
 
-    private void processAccountHolderStatusChangeNotification(final AccountHolderStatusChangeNotification accountHolderStatusChangeNotification) {
+    private void processAccountHolderStatusChangeNotification(final AccountHolderStatusChangeNotification accountHolderStatusChangeNotification,
+                                                              final AccountHolderResolver accountHolderResolver) {
+        accountHolderCache.invalidate(accountHolderStatusChangeNotification.getContent().getAccountHolderCode());
+
         final Boolean oldPayoutState = accountHolderStatusChangeNotification.getContent().getOldStatus().getPayoutState().isAllowPayout();
         final Boolean newPayoutState = accountHolderStatusChangeNotification.getContent().getNewStatus().getPayoutState().isAllowPayout();
 
         if (FALSE.equals(oldPayoutState) && TRUE.equals(newPayoutState)) {
-            mailTemplateService.sendMiraklShopEmailFromTemplate(getShop(accountHolderStatusChangeNotification.getContent().getAccountHolderCode()),
+            mailTemplateService.sendMiraklShopEmailFromTemplate(accountHolderResolver.getShop(accountHolderStatusChangeNotification.getContent().getAccountHolderCode()),
                                                                 Locale.getDefault(),
                                                                 "nowPayable",
                                                                 "email.account.status.now.true.title");
         } else if (TRUE.equals(oldPayoutState) && FALSE.equals(newPayoutState)) {
-            mailTemplateService.sendMiraklShopEmailFromTemplate(getShop(accountHolderStatusChangeNotification.getContent().getAccountHolderCode()),
+            mailTemplateService.sendMiraklShopEmailFromTemplate(accountHolderResolver.getShop(accountHolderStatusChangeNotification.getContent().getAccountHolderCode()),
                                                                 Locale.getDefault(),
                                                                 "payoutRevoked",
                                                                 "email.account.status.now.false.title");
@@ -318,6 +570,11 @@ public class AdyenNotificationListener {
     }
 
     private void processAccountHolderPayout(final AccountHolderPayoutNotification accountHolderPayoutNotification) {
+        final AccountHolderPayoutNotificationContent content = accountHolderPayoutNotification.getContent();
+        final String statusCode = content.getStatus().getStatusCode();
+        if ("Succeeded".equals(statusCode) || "Failed".equals(statusCode)) {
+            payoutLedgerService.confirm(content.getAccountHolderCode(), content.getMerchantReference(), content.getOriginalPspReference(), "Succeeded".equals(statusCode));
+        }
         if (accountHolderPayoutNotification.getContent().getStatus().getStatusCode().equals("Failed")) {
             mailTemplateService.sendOperatorEmailPayoutFailure(getShop(accountHolderPayoutNotification.getContent().getAccountHolderCode()),
                                                                accountHolderPayoutNotification.getContent().getStatus().getMessage());
@@ -328,13 +585,8 @@ public class AdyenNotificationListener {
         if (transferFundsNotification.getContent().getStatus().getStatusCode().equals("Failed")) {
 
             // retrieve accountHolderCode from accountCode
-            final GetAccountHolderRequest getAccountHolderSourceRequest = new GetAccountHolderRequest();
-            getAccountHolderSourceRequest.setAccountCode(transferFundsNotification.getContent().getSourceAccountCode());
-            final GetAccountHolderResponse accountHolderSourceResponse = adyenAccountService.getAccountHolder(getAccountHolderSourceRequest);
-
-            final GetAccountHolderRequest getAccountHolderDestinationRequest = new GetAccountHolderRequest();
-            getAccountHolderDestinationRequest.setAccountCode(transferFundsNotification.getContent().getDestinationAccountCode());
-            final GetAccountHolderResponse accountHolderDestinationResponse = adyenAccountService.getAccountHolder(getAccountHolderDestinationRequest);
+            final GetAccountHolderResponse accountHolderSourceResponse = accountHolderCache.getByAccountCode(transferFundsNotification.getContent().getSourceAccountCode());
+            final GetAccountHolderResponse accountHolderDestinationResponse = accountHolderCache.getByAccountCode(transferFundsNotification.getContent().getDestinationAccountCode());
 
 
             mailTemplateService.sendOperatorEmailTransferFundsFailure(accountHolderSourceResponse.getAccountHolderCode(),
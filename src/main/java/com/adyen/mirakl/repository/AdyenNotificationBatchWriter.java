@@ -0,0 +1,105 @@
+/*
+ *                       ######
+ *                       ######
+ * ############    ####( ######  #####. ######  ############   ############
+ * #############  #####( ######  #####. ######  #############  #############
+ *        ######  #####( ######  #####. ######  #####  ######  #####  ######
+ * ###### ######  #####( ######  #####. ######  #####  #####   #####  ######
+ * ###### ######  #####( ######  #####. ######  #####          #####  ######
+ * #############  #############  #############  #############  #####  ######
+ *  ############   ############  #############   ############  #####  ######
+ *                                      ######
+ *                               #############
+ *                               ############
+ *
+ * Adyen Mirakl Connector
+ *
+ * Copyright (c) 2018 Adyen B.V.
+ * This file is open source and available under the MIT license.
+ * See the LICENSE file for more info.
+ *
+ */
+
+package com.adyen.mirakl.repository;
+
+import com.adyen.mirakl.domain.enumeration.NotificationStatus;
+import org.springframework.dao.IncorrectResultSizeDataAccessException;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Inserts received notifications with plain JDBC, already claimed by the node which received them.
+ * Their ids are read from the generated keys, which not every driver returns for a batch.
+ * It runs in the surrounding JPA transaction.
+ */
+@Repository
+public class AdyenNotificationBatchWriter {
+
+    private static final String INSERT_ADYEN_NOTIFICATION = "insert into adyen_notification"
+        + " (raw_adyen_notification, processed, status, attempts, lease_owner, leased_until)"
+        + " values (?, ?, ?, ?, ?, ?)";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public AdyenNotificationBatchWriter(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /**
+     * Insert the notifications as PROCESSING, leased to leaseOwner, in their first attempt
+     *
+     * @param batched one JDBC batch for all notifications, else one insert per notification
+     * @return the ids of the notifications, in the same order
+     * @throws IncorrectResultSizeDataAccessException when the JDBC driver doesn't return the ids of a batch
+     */
+    public List<Long> insertClaimed(final List<String> rawAdyenNotifications, final String leaseOwner, final ZonedDateTime leasedUntil, final boolean batched) {
+        final Timestamp leasedUntilTimestamp = Timestamp.from(leasedUntil.toInstant());
+        return jdbcTemplate.execute((ConnectionCallback<List<Long>>) connection -> {
+            try (PreparedStatement ps = connection.prepareStatement(INSERT_ADYEN_NOTIFICATION, Statement.RETURN_GENERATED_KEYS)) {
+                final List<Long> ids = new ArrayList<>(rawAdyenNotifications.size());
+                for (String rawAdyenNotification : rawAdyenNotifications) {
+                    ps.setString(1, rawAdyenNotification);
+                    ps.setBoolean(2, false);
+                    ps.setString(3, NotificationStatus.PROCESSING.name());
+                    ps.setInt(4, 1);
+                    ps.setString(5, leaseOwner);
+                    ps.setTimestamp(6, leasedUntilTimestamp);
+                    if (batched) {
+                        ps.addBatch();
+                    } else {
+                        ps.executeUpdate();
+                        ids.addAll(generatedIds(ps));
+                    }
+                }
+                if (batched) {
+                    ps.executeBatch();
+                    ids.addAll(generatedIds(ps));
+                }
+                if (ids.size() != rawAdyenNotifications.size()) {
+                    throw new IncorrectResultSizeDataAccessException("Generated ids of inserted notifications", rawAdyenNotifications.size(), ids.size());
+                }
+                return ids;
+            }
+        });
+    }
+
+    private static List<Long> generatedIds(final PreparedStatement ps) throws SQLException {
+        final List<Long> ids = new ArrayList<>();
+        try (ResultSet generatedKeys = ps.getGeneratedKeys()) {
+            while (generatedKeys.next()) {
+                ids.add(generatedKeys.getLong(1));
+            }
+        }
+        return ids;
+    }
+}
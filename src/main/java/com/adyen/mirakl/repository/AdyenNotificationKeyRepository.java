@@ -0,0 +1,103 @@
+/*
+ *                       ######
+ *                       ######
+ * ############    ####( ######  #####. ######  ############   ############
+ * #############  #####( ######  #####. ######  #############  #############
+ *        ######  #####( ######  #####. ######  #####  ######  #####  ######
+ * ###### ######  #####( ######  #####. ######  #####  #####   #####  ######
+ * ###### ######  #####( ######  #####. ######  #####          #####  ######
+ * #############  #############  #############  #############  #####  ######
+ *  ############   ############  #############   ############  #####  ######
+ *                                      ######
+ *                               #############
+ *                               ############
+ *
+ * Adyen Mirakl Connector
+ *
+ * Copyright (c) 2018 Adyen B.V.
+ * This file is open source and available under the MIT license.
+ * See the LICENSE file for more info.
+ *
+ */
+
+package com.adyen.mirakl.repository;
+
+import com.adyen.mirakl.domain.AdyenNotificationKey;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.ZonedDateTime;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Keys of the notifications received from Adyen, kept after the notifications are processed so retries can be recognised.
+ * The unique index on psp_reference, event_type and content_hash rejects a key stored twice, also when two nodes receive it at the same time.
+ * It runs in the surrounding JPA transaction.
+ */
+@Repository
+public class AdyenNotificationKeyRepository {
+
+    private static final String INSERT_ADYEN_NOTIFICATION_KEY = "insert into adyen_notification_key (psp_reference, event_type, content_hash, received_at) values (?, ?, ?, ?)";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public AdyenNotificationKeyRepository(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /**
+     * @return the keys which are already stored
+     */
+    public Set<AdyenNotificationKey> findExisting(final Collection<AdyenNotificationKey> keys) {
+        if (keys.isEmpty()) {
+            return Collections.emptySet();
+        }
+        final List<String> pspReferences = keys.stream().map(AdyenNotificationKey::getPspReference).distinct().collect(Collectors.toList());
+        final String placeholders = String.join(", ", Collections.nCopies(pspReferences.size(), "?"));
+        final List<AdyenNotificationKey> stored = jdbcTemplate.query("select psp_reference, event_type, content_hash from adyen_notification_key where psp_reference in (" + placeholders + ")",
+                                                                     pspReferences.toArray(),
+                                                                     (rs, rowNum) -> new AdyenNotificationKey(rs.getString("psp_reference"),
+                                                                                                              rs.getString("event_type"),
+                                                                                                              rs.getString("content_hash")));
+        final Set<AdyenNotificationKey> existing = new HashSet<>(stored);
+        existing.retainAll(keys);
+        return existing;
+    }
+
+    /**
+     * @throws org.springframework.dao.DuplicateKeyException when one of the keys is already stored
+     */
+    public void insert(final List<AdyenNotificationKey> keys, final ZonedDateTime receivedAt) {
+        if (keys.isEmpty()) {
+            return;
+        }
+        final Timestamp receivedAtTimestamp = Timestamp.from(receivedAt.toInstant());
+        jdbcTemplate.batchUpdate(INSERT_ADYEN_NOTIFICATION_KEY, new BatchPreparedStatementSetter() {
+            @Override
+            public void setValues(final PreparedStatement ps, final int i) throws SQLException {
+                ps.setString(1, keys.get(i).getPspReference());
+                ps.setString(2, keys.get(i).getEventType());
+                ps.setString(3, keys.get(i).getContentHash());
+                ps.setTimestamp(4, receivedAtTimestamp);
+            }
+
+            @Override
+            public int getBatchSize() {
+                return keys.size();
+            }
+        });
+    }
+
+    public int deleteReceivedBefore(final ZonedDateTime receivedBefore) {
+        return jdbcTemplate.update("delete from adyen_notification_key where received_at < ?", Timestamp.from(receivedBefore.toInstant()));
+    }
+}
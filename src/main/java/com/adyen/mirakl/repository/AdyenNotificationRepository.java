@@ -23,10 +23,18 @@
 package com.adyen.mirakl.repository;
 
 import com.adyen.mirakl.domain.AdyenNotification;
+import com.adyen.mirakl.domain.enumeration.NotificationStatus;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import org.springframework.data.jpa.repository.*;
 
+import javax.persistence.LockModeType;
+import javax.persistence.QueryHint;
+import java.time.ZonedDateTime;
+import java.util.List;
+
 
 /**
  * Spring Data JPA repository for the AdyenNotification entity.
@@ -37,4 +45,41 @@ public interface AdyenNotificationRepository extends JpaRepository<AdyenNotifica
 
     AdyenNotification findOneById(Long id);
 
+    /**
+     * Notifications which are due, or whose lease expired, locked until the end of the transaction.
+     * Rows locked by another node are skipped where the database supports it (lock timeout -2 is SKIP LOCKED).
+     */
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @QueryHints(@QueryHint(name = "javax.persistence.lock.timeout", value = "-2"))
+    @Query("select n from AdyenNotification n"
+        + " where (n.status = :pending and (n.nextAttemptAt is null or n.nextAttemptAt <= :now))"
+        + " or (n.status = :processing and n.leasedUntil < :now)"
+        + " order by n.id")
+    List<AdyenNotification> findClaimable(@Param("pending") NotificationStatus pending,
+                                          @Param("processing") NotificationStatus processing,
+                                          @Param("now") ZonedDateTime now,
+                                          Pageable pageable);
+
+    @Modifying(clearAutomatically = true)
+    @Query("update AdyenNotification n set n.status = :processing, n.leaseOwner = :leaseOwner, n.leasedUntil = :leasedUntil, n.attempts = n.attempts + 1"
+        + " where n.id = :id and n.status = :pending")
+    int claim(@Param("id") Long id,
+              @Param("pending") NotificationStatus pending,
+              @Param("processing") NotificationStatus processing,
+              @Param("leaseOwner") String leaseOwner,
+              @Param("leasedUntil") ZonedDateTime leasedUntil);
+
+    /**
+     * Give a notification claimed by leaseOwner back to the queue without counting the attempt
+     */
+    @Modifying(clearAutomatically = true)
+    @Query("update AdyenNotification n set n.status = :pending, n.leaseOwner = null, n.leasedUntil = null, n.attempts = n.attempts - 1"
+        + " where n.id = :id and n.status = :processing and n.leaseOwner = :leaseOwner")
+    int release(@Param("id") Long id,
+                @Param("processing") NotificationStatus processing,
+                @Param("pending") NotificationStatus pending,
+                @Param("leaseOwner") String leaseOwner);
+
+    long countByStatus(NotificationStatus status);
+
 }
@@ -22,9 +22,14 @@
 
 package com.adyen.mirakl.repository;
 
+import java.time.ZonedDateTime;
+import java.util.Collection;
 import java.util.List;
 import com.adyen.mirakl.domain.AdyenPayoutError;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
 import org.springframework.data.jpa.repository.*;
 
@@ -42,4 +47,30 @@ public interface AdyenPayoutErrorRepository extends JpaRepository<AdyenPayoutErr
     @Query("select e from AdyenPayoutError as e where e.processing = 0 and e.accountHolderCode = ?1")
     List<AdyenPayoutError> findByAccountHolderCode(String accountHolderCode);
 
+    /**
+     * Ids of the failed payouts due for a retry, including the ones claimed by a node whose lease expired
+     */
+    @Query("select e.id from AdyenPayoutError e where e.id > :afterId and e.retry < :maxRetry"
+        + " and ((e.processing = false and (e.nextAttemptAt is null or e.nextAttemptAt <= :now))"
+        + " or (e.processing = true and e.nextAttemptAt <= :now))"
+        + " order by e.id")
+    List<Long> findDueIds(@Param("afterId") Long afterId,
+                          @Param("maxRetry") Integer maxRetry,
+                          @Param("now") ZonedDateTime now,
+                          Pageable pageable);
+
+    /**
+     * Claim failed payouts for a retry in a single statement, rows claimed concurrently by another node are left out
+     */
+    @Transactional
+    @Modifying(clearAutomatically = true)
+    @Query("update AdyenPayoutError e set e.processing = true, e.claimToken = :claimToken, e.nextAttemptAt = :leasedUntil"
+        + " where e.id in :ids and (e.processing = false or e.nextAttemptAt <= :now)")
+    int claim(@Param("ids") Collection<Long> ids,
+              @Param("claimToken") String claimToken,
+              @Param("now") ZonedDateTime now,
+              @Param("leasedUntil") ZonedDateTime leasedUntil);
+
+    List<AdyenPayoutError> findByClaimToken(String claimToken);
+
 }
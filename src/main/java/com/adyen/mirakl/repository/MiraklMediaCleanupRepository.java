@@ -0,0 +1,45 @@
+/*
+ *                       ######
+ *                       ######
+ * ############    ####( ######  #####. ######  ############   ############
+ * #############  #####( ######  #####. ######  #############  #############
+ *        ######  #####( ######  #####. ######  #####  ######  #####  ######
+ * ###### ######  #####( ######  #####. ######  #####  #####   #####  ######
+ * ###### ######  #####( ######  #####. ######  #####          #####  ######
+ * #############  #############  #############  #############  #####  ######
+ *  ############   ############  #############   ############  #####  ######
+ *                                      ######
+ *                               #############
+ *                               ############
+ *
+ * Adyen Mirakl Connector
+ *
+ * Copyright (c) 2018 Adyen B.V.
+ * This file is open source and available under the MIT license.
+ * See the LICENSE file for more info.
+ *
+ */
+
+package com.adyen.mirakl.repository;
+
+import com.adyen.mirakl.domain.MiraklMediaCleanup;
+import org.springframework.stereotype.Repository;
+
+import org.springframework.data.jpa.repository.*;
+
+import java.util.List;
+
+
+/**
+ * Spring Data JPA repository for the MiraklMediaCleanup entity.
+ */
+@SuppressWarnings("unused")
+@Repository
+public interface MiraklMediaCleanupRepository extends JpaRepository<MiraklMediaCleanup, Long> {
+
+    List<MiraklMediaCleanup> findAllByOrderByIdAsc();
+
+    @Query("select count(distinct c.shopId) from MiraklMediaCleanup c")
+    long countShops();
+
+}
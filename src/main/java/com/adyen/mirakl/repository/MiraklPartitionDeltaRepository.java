@@ -0,0 +1,43 @@
+/*
+ *                       ######
+ *                       ######
+ * ############    ####( ######  #####. ######  ############   ############
+ * #############  #####( ######  #####. ######  #############  #############
+ *        ######  #####( ######  #####. ######  #####  ######  #####  ######
+ * ###### ######  #####( ######  #####. ######  #####  #####   #####  ######
+ * ###### ######  #####( ######  #####. ######  #####          #####  ######
+ * #############  #############  #############  #############  #####  ######
+ *  ############   ############  #############   ############  #####  ######
+ *                                      ######
+ *                               #############
+ *                               ############
+ *
+ * Adyen Mirakl Connector
+ *
+ * Copyright (c) 2018 Adyen B.V.
+ * This file is open source and available under the MIT license.
+ * See the LICENSE file for more info.
+ *
+ */
+
+package com.adyen.mirakl.repository;
+
+import com.adyen.mirakl.domain.MiraklPartitionDelta;
+import org.springframework.stereotype.Repository;
+
+import org.springframework.data.jpa.repository.*;
+
+import java.util.Collection;
+import java.util.List;
+
+
+/**
+ * Spring Data JPA repository for the MiraklPartitionDelta entity.
+ */
+@SuppressWarnings("unused")
+@Repository
+public interface MiraklPartitionDeltaRepository extends JpaRepository<MiraklPartitionDelta, Integer> {
+
+    List<MiraklPartitionDelta> findByPartitionIndexIn(Collection<Integer> partitionIndexes);
+
+}
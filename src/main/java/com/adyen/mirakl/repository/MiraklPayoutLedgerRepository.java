@@ -0,0 +1,106 @@
+/*
+ *                       ######
+ *                       ######
+ * ############    ####( ######  #####. ######  ############   ############
+ * #############  #####( ######  #####. ######  #############  #############
+ *        ######  #####( ######  #####. ######  #####  ######  #####  ######
+ * ###### ######  #####( ######  #####. ######  #####  #####   #####  ######
+ * ###### ######  #####( ######  #####. ######  #####          #####  ######
+ * #############  #############  #############  #############  #####  ######
+ *  ############   ############  #############   ############  #####  ######
+ *                                      ######
+ *                               #############
+ *                               ############
+ *
+ * Adyen Mirakl Connector
+ *
+ * Copyright (c) 2018 Adyen B.V.
+ * This file is open source and available under the MIT license.
+ * See the LICENSE file for more info.
+ *
+ */
+
+package com.adyen.mirakl.repository;
+
+import com.adyen.mirakl.domain.MiraklPayoutLedger;
+import com.adyen.mirakl.domain.enumeration.PayoutLedgerState;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import org.springframework.data.jpa.repository.*;
+
+import java.time.ZonedDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+
+/**
+ * Spring Data JPA repository for the MiraklPayoutLedger entity.
+ */
+@SuppressWarnings("unused")
+@Repository
+public interface MiraklPayoutLedgerRepository extends JpaRepository<MiraklPayoutLedger, Long> {
+
+    Optional<MiraklPayoutLedger> findOneByShopIdAndInvoiceNumber(String shopId, String invoiceNumber);
+
+    Optional<MiraklPayoutLedger> findOneByPayoutPspReference(String payoutPspReference);
+
+    List<MiraklPayoutLedger> findByShopId(String shopId);
+
+    List<MiraklPayoutLedger> findByStateInAndUpdatedAtBefore(Collection<PayoutLedgerState> states, ZonedDateTime updatedBefore);
+
+    @Modifying(clearAutomatically = true)
+    @Query("update MiraklPayoutLedger l set l.state = :state, l.subscriptionPspReference = :pspReference, l.updatedAt = :now"
+        + " where l.shopId = :shopId and l.invoiceNumber = :invoiceNumber")
+    int updateSubscriptionSent(@Param("shopId") String shopId,
+                               @Param("invoiceNumber") String invoiceNumber,
+                               @Param("state") PayoutLedgerState state,
+                               @Param("pspReference") String pspReference,
+                               @Param("now") ZonedDateTime now);
+
+    @Modifying(clearAutomatically = true)
+    @Query("update MiraklPayoutLedger l set l.state = :state, l.payoutPspReference = :pspReference, l.updatedAt = :now"
+        + " where l.shopId = :shopId and l.invoiceNumber = :invoiceNumber")
+    int updatePayoutSent(@Param("shopId") String shopId,
+                         @Param("invoiceNumber") String invoiceNumber,
+                         @Param("state") PayoutLedgerState state,
+                         @Param("pspReference") String pspReference,
+                         @Param("now") ZonedDateTime now);
+
+    @Modifying(clearAutomatically = true)
+    @Query("update MiraklPayoutLedger l set l.state = :state, l.updatedAt = :now where l.shopId = :shopId and l.invoiceNumber = :invoiceNumber")
+    int updateState(@Param("shopId") String shopId,
+                    @Param("invoiceNumber") String invoiceNumber,
+                    @Param("state") PayoutLedgerState state,
+                    @Param("now") ZonedDateTime now);
+
+    @Modifying(clearAutomatically = true)
+    @Query("delete from MiraklPayoutLedger l where l.shopId = :shopId and l.invoiceNumber = :invoiceNumber and l.state = :state")
+    int deleteByShopIdAndInvoiceNumberAndState(@Param("shopId") String shopId,
+                                               @Param("invoiceNumber") String invoiceNumber,
+                                               @Param("state") PayoutLedgerState state);
+
+    /**
+     * Move the payout of the invoice to its final state, only from one of the expected states
+     */
+    @Modifying(clearAutomatically = true)
+    @Query("update MiraklPayoutLedger l set l.state = :state, l.updatedAt = :now"
+        + " where l.shopId = :shopId and l.invoiceNumber = :invoiceNumber and l.state in :fromStates")
+    int updateStateFrom(@Param("shopId") String shopId,
+                        @Param("invoiceNumber") String invoiceNumber,
+                        @Param("fromStates") Collection<PayoutLedgerState> fromStates,
+                        @Param("state") PayoutLedgerState state,
+                        @Param("now") ZonedDateTime now);
+
+    /**
+     * Move the payout with the given PSP reference to its final state, only from one of the expected states
+     */
+    @Modifying(clearAutomatically = true)
+    @Query("update MiraklPayoutLedger l set l.state = :state, l.updatedAt = :now where l.payoutPspReference = :pspReference and l.state in :fromStates")
+    int updateStateByPayoutPspReference(@Param("pspReference") String pspReference,
+                                        @Param("fromStates") Collection<PayoutLedgerState> fromStates,
+                                        @Param("state") PayoutLedgerState state,
+                                        @Param("now") ZonedDateTime now);
+
+}
@@ -0,0 +1,115 @@
+/*
+ *                       ######
+ *                       ######
+ * ############    ####( ######  #####. ######  ############   ############
+ * #############  #####( ######  #####. ######  #############  #############
+ *        ######  #####( ######  #####. ######  #####  ######  #####  ######
+ * ###### ######  #####( ######  #####. ######  #####  #####   #####  ######
+ * ###### ######  #####( ######  #####. ######  #####          #####  ######
+ * #############  #############  #############  #############  #####  ######
+ *  ############   ############  #############   ############  #####  ######
+ *                                      ######
+ *                               #############
+ *                               ############
+ *
+ * Adyen Mirakl Connector
+ *
+ * Copyright (c) 2018 Adyen B.V.
+ * This file is open source and available under the MIT license.
+ * See the LICENSE file for more info.
+ *
+ */
+
+package com.adyen.mirakl.repository;
+
+import com.adyen.mirakl.domain.MiraklVoucherEntry;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * Inserts and updates MiraklVoucherEntry rows in JDBC batches.
+ * Hibernate cannot batch inserts of entities with IDENTITY ids, so bulk voucher ingestion bypasses the entity manager.
+ * It runs in the surrounding JPA transaction, or in a transaction of its own when there is none.
+ */
+@Repository
+public class MiraklVoucherEntryBatchWriter {
+
+    private static final String INSERT_VOUCHER_ENTRY = "insert into mirakl_voucher_entry"
+        + " (shop_id, transfer_amount, currency_iso_code, iban, invoice_number, shop_name, subscription_amount, total_charged_amount, total_charged_amount_vat,"
+        + " transfer_amount_minor, subscription_amount_minor, total_charged_amount_minor, total_charged_amount_vat_minor, voucher_id, processed, created_at, updated_at)"
+        + " values (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    private static final String UPDATE_PROCESSED = "update mirakl_voucher_entry set processed = ?, commission_minor = ?, claim_token = null, claimed_until = null, updated_at = ?"
+        + " where id = ? and claim_token = ?";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public MiraklVoucherEntryBatchWriter(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    public void insert(final List<MiraklVoucherEntry> miraklVoucherEntries) {
+        final Timestamp now = Timestamp.from(Instant.now());
+        jdbcTemplate.batchUpdate(INSERT_VOUCHER_ENTRY, new BatchPreparedStatementSetter() {
+            @Override
+            public void setValues(final PreparedStatement ps, final int i) throws SQLException {
+                final MiraklVoucherEntry miraklVoucherEntry = miraklVoucherEntries.get(i);
+                ps.setString(1, miraklVoucherEntry.getShopId());
+                ps.setString(2, miraklVoucherEntry.getTransferAmount());
+                ps.setString(3, miraklVoucherEntry.getCurrencyIsoCode());
+                ps.setString(4, miraklVoucherEntry.getIban());
+                ps.setString(5, miraklVoucherEntry.getInvoiceNumber());
+                ps.setString(6, miraklVoucherEntry.getShopName());
+                ps.setString(7, miraklVoucherEntry.getSubscriptionAmount());
+                ps.setString(8, miraklVoucherEntry.getTotalChargedAmount());
+                ps.setString(9, miraklVoucherEntry.getTotalChargedAmountVat());
+                ps.setObject(10, miraklVoucherEntry.getTransferAmountMinor(), Types.BIGINT);
+                ps.setObject(11, miraklVoucherEntry.getSubscriptionAmountMinor(), Types.BIGINT);
+                ps.setObject(12, miraklVoucherEntry.getTotalChargedAmountMinor(), Types.BIGINT);
+                ps.setObject(13, miraklVoucherEntry.getTotalChargedAmountVatMinor(), Types.BIGINT);
+                ps.setString(14, miraklVoucherEntry.getVoucherId());
+                ps.setBoolean(15, false);
+                ps.setTimestamp(16, now);
+                ps.setTimestamp(17, now);
+            }
+
+            @Override
+            public int getBatchSize() {
+                return miraklVoucherEntries.size();
+            }
+        });
+    }
+
+    /**
+     * Store the processed state and commission of voucher entries paid out under the claim, in one JDBC batch
+     */
+    @Transactional
+    public void updateProcessed(final List<MiraklVoucherEntry> miraklVoucherEntries, final String claimToken) {
+        final Timestamp now = Timestamp.from(Instant.now());
+        jdbcTemplate.batchUpdate(UPDATE_PROCESSED, new BatchPreparedStatementSetter() {
+            @Override
+            public void setValues(final PreparedStatement ps, final int i) throws SQLException {
+                final MiraklVoucherEntry miraklVoucherEntry = miraklVoucherEntries.get(i);
+                ps.setBoolean(1, miraklVoucherEntry.isProcessed());
+                ps.setObject(2, miraklVoucherEntry.getCommissionMinor(), Types.BIGINT);
+                ps.setTimestamp(3, now);
+                ps.setLong(4, miraklVoucherEntry.getId());
+                ps.setString(5, claimToken);
+            }
+
+            @Override
+            public int getBatchSize() {
+                return miraklVoucherEntries.size();
+            }
+        });
+    }
+}
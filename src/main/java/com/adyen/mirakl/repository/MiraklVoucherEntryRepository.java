@@ -23,9 +23,16 @@
 package com.adyen.mirakl.repository;
 
 import com.adyen.mirakl.domain.MiraklVoucherEntry;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import org.springframework.data.jpa.repository.*;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.ZonedDateTime;
+import java.util.Collection;
+import java.util.List;
 
 
 /**
@@ -35,4 +42,53 @@ import org.springframework.data.jpa.repository.*;
 @Repository
 public interface MiraklVoucherEntryRepository extends JpaRepository<MiraklVoucherEntry, Long> {
 
+    /**
+     * Ids of the voucher entries to pay out, including the ones claimed by a node whose lease expired
+     */
+    @Query("select e.id from MiraklVoucherEntry e where e.id > :afterId and e.processed = false and (e.claimToken is null or e.claimedUntil <= :now) order by e.id")
+    List<Long> findClaimableIds(@Param("afterId") Long afterId,
+                                @Param("now") ZonedDateTime now,
+                                Pageable pageable);
+
+    /**
+     * Claim voucher entries for a payout in a single statement, entries claimed concurrently by another node are left out
+     */
+    @Transactional
+    @Modifying(clearAutomatically = true)
+    @Query("update MiraklVoucherEntry e set e.claimToken = :claimToken, e.claimedUntil = :leasedUntil"
+        + " where e.id in :ids and (e.claimToken is null or e.claimedUntil <= :now)")
+    int claim(@Param("ids") Collection<Long> ids,
+              @Param("claimToken") String claimToken,
+              @Param("now") ZonedDateTime now,
+              @Param("leasedUntil") ZonedDateTime leasedUntil);
+
+    /**
+     * Give up a claim, the entries are paid out by the next run
+     */
+    @Transactional
+    @Modifying(clearAutomatically = true)
+    @Query("update MiraklVoucherEntry e set e.claimToken = null, e.claimedUntil = null where e.claimToken = :claimToken")
+    int releaseClaim(@Param("claimToken") String claimToken);
+
+    List<MiraklVoucherEntry> findByClaimTokenOrderByIdAsc(String claimToken);
+
+    /**
+     * The vouchers of which every entry is processed
+     */
+    @Query("select distinct e.voucherId from MiraklVoucherEntry e where e.processed = true"
+        + " and not exists (select u.id from MiraklVoucherEntry u where u.voucherId = e.voucherId and u.processed = false)")
+    List<String> findProcessedVoucherIds();
+
+    /**
+     * The commission counted for the entries of a voucher, as rows of currency and total in minor units
+     */
+    @Query("select e.currencyIsoCode, sum(e.commissionMinor) from MiraklVoucherEntry e"
+        + " where e.voucherId = :voucherId and e.commissionMinor is not null group by e.currencyIsoCode order by e.currencyIsoCode")
+    List<Object[]> sumCommissionByCurrency(@Param("voucherId") String voucherId);
+
+    @Transactional
+    @Modifying
+    @Query("delete from MiraklVoucherEntry e where e.voucherId = :voucherId")
+    int deleteByVoucherId(@Param("voucherId") String voucherId);
+
 }
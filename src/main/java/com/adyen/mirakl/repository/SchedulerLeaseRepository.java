@@ -0,0 +1,61 @@
+/*
+ *                       ######
+ *                       ######
+ * ############    ####( ######  #####. ######  ############   ############
+ * #############  #####( ######  #####. ######  #############  #############
+ *        ######  #####( ######  #####. ######  #####  ######  #####  ######
+ * ###### ######  #####( ######  #####. ######  #####  #####   #####  ######
+ * ###### ######  #####( ######  #####. ######  #####          #####  ######
+ * #############  #############  #############  #############  #####  ######
+ *  ############   ############  #############   ############  #####  ######
+ *                                      ######
+ *                               #############
+ *                               ############
+ *
+ * Adyen Mirakl Connector
+ *
+ * Copyright (c) 2018 Adyen B.V.
+ * This file is open source and available under the MIT license.
+ * See the LICENSE file for more info.
+ *
+ */
+
+package com.adyen.mirakl.repository;
+
+import com.adyen.mirakl.domain.SchedulerLease;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import org.springframework.data.jpa.repository.*;
+
+import java.time.ZonedDateTime;
+
+
+/**
+ * Spring Data JPA repository for the SchedulerLease entity.
+ */
+@SuppressWarnings("unused")
+@Repository
+public interface SchedulerLeaseRepository extends JpaRepository<SchedulerLease, String> {
+
+    /**
+     * Take the lease if it is free or expired, a single conditional update so only one node can win it
+     */
+    @Modifying(clearAutomatically = true)
+    @Query("update SchedulerLease l set l.leaseOwner = :leaseOwner, l.leasedUntil = :leasedUntil, l.acquiredAt = :now"
+        + " where l.name = :name and (l.leasedUntil is null or l.leasedUntil <= :now)")
+    int acquire(@Param("name") String name,
+                @Param("leaseOwner") String leaseOwner,
+                @Param("now") ZonedDateTime now,
+                @Param("leasedUntil") ZonedDateTime leasedUntil);
+
+    /**
+     * Extend or shorten a lease, only while it is still held by the given owner
+     */
+    @Modifying(clearAutomatically = true)
+    @Query("update SchedulerLease l set l.leasedUntil = :leasedUntil where l.name = :name and l.leaseOwner = :leaseOwner")
+    int extend(@Param("name") String name,
+               @Param("leaseOwner") String leaseOwner,
+               @Param("leasedUntil") ZonedDateTime leasedUntil);
+
+}
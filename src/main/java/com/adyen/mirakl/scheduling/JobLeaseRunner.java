@@ -0,0 +1,108 @@
+/*
+ *                       ######
+ *                       ######
+ * ############    ####( ######  #####. ######  ############   ############
+ * #############  #####( ######  #####. ######  #############  #############
+ *        ######  #####( ######  #####. ######  #####  ######  #####  ######
+ * ###### ######  #####( ######  #####. ######  #####  #####   #####  ######
+ * ###### ######  #####( ######  #####. ######  #####          #####  ######
+ * #############  #############  #############  #############  #####  ######
+ *  ############   ############  #############   ############  #####  ######
+ *                                      ######
+ *                               #############
+ *                               ############
+ *
+ * Adyen Mirakl Connector
+ *
+ * Copyright (c) 2018 Adyen B.V.
+ * This file is open source and available under the MIT license.
+ * See the LICENSE file for more info.
+ *
+ */
+
+package com.adyen.mirakl.scheduling;
+
+import com.adyen.mirakl.config.ApplicationProperties;
+import com.adyen.mirakl.service.SchedulerLeaseService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.DataAccessException;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.time.ZonedDateTime;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs a scheduled job only on the node holding its lease, renewing the lease while the job runs
+ * <p>
+ * A node which dies while running a job stops renewing, so another node takes the job over once the lease expired.
+ */
+@Component
+public class JobLeaseRunner {
+
+    private static final Logger log = LoggerFactory.getLogger(JobLeaseRunner.class);
+
+    @Resource
+    private SchedulerLeaseService schedulerLeaseService;
+
+    @Resource
+    private ApplicationProperties applicationProperties;
+
+    private final ScheduledExecutorService renewals = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        final Thread thread = new Thread(runnable, "adyen-mirakl-lease-renewal");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Run the job when this node gets its lease, returns false when another node holds it
+     */
+    public boolean runExclusively(final String job, final Runnable task) {
+        final Optional<ZonedDateTime> acquiredAt;
+        try {
+            acquiredAt = schedulerLeaseService.tryAcquire(job);
+        } catch (DataAccessException e) {
+            log.warn("Could not acquire the lease on {}, skipping it: {}", job, e.getMessage());
+            return false;
+        }
+        if (! acquiredAt.isPresent()) {
+            log.debug("{} is running on another node, skipping it", job);
+            return false;
+        }
+
+        final long renewEverySeconds = Math.max(1, applicationProperties.getSchedulerLeaseSeconds() / 3);
+        final ScheduledFuture<?> renewal = renewals.scheduleAtFixedRate(() -> renew(job), renewEverySeconds, renewEverySeconds, TimeUnit.SECONDS);
+        try {
+            task.run();
+        } finally {
+            renewal.cancel(false);
+            try {
+                schedulerLeaseService.release(job, acquiredAt.get());
+            } catch (DataAccessException e) {
+                log.warn("Could not release the lease on {}, it expires on its own: {}", job, e.getMessage());
+            }
+        }
+        return true;
+    }
+
+    private void renew(final String job) {
+        try {
+            if (! schedulerLeaseService.renew(job)) {
+                log.error("Lost the lease on {} while running it, another node may run it concurrently", job);
+            }
+        } catch (Exception e) {
+            log.warn("Could not renew the lease on {}: {}", job, e.getMessage());
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        renewals.shutdownNow();
+    }
+}
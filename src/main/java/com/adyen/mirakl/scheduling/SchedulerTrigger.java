@@ -23,7 +23,13 @@
 package com.adyen.mirakl.scheduling;
 
 
+import com.adyen.mirakl.config.ApplicationProperties;
+import com.adyen.mirakl.listeners.AdyenNotificationListener;
+import com.adyen.mirakl.service.ClusterMembershipService;
 import com.adyen.mirakl.service.DocService;
+import com.adyen.mirakl.service.MiraklMediaCleanupService;
+import com.adyen.mirakl.service.NotificationQueueService;
+import com.adyen.mirakl.service.PayoutLedgerService;
 import com.adyen.mirakl.service.RetryEmailService;
 import com.adyen.mirakl.service.RetryPayoutService;
 import com.adyen.mirakl.service.ShopService;
@@ -50,35 +56,97 @@ public class SchedulerTrigger {
     @Resource
     private RetryEmailService retryEmailService;
 
+    @Resource
+    private MiraklMediaCleanupService miraklMediaCleanupService;
+
     @Resource
     private RetryPayoutService retryPayoutService;
 
+    @Resource
+    private AdyenNotificationListener adyenNotificationListener;
+
+    @Resource
+    private NotificationQueueService notificationQueueService;
+
+    @Resource
+    private PayoutLedgerService payoutLedgerService;
+
+    @Resource
+    private JobLeaseRunner jobLeaseRunner;
+
+    @Resource
+    private ClusterMembershipService clusterMembershipService;
+
+    @Resource
+    private ApplicationProperties applicationProperties;
+
     @Scheduled(cron = "${application.miraklPullCron}")
     public void runShopUpdates() {
-        log.debug("Pulling shops from Mirakl");
-        shopService.processUpdatedShops();
-        log.debug("Pulling documents from Mirakl");
-        docService.processUpdatedDocuments();
+        final Runnable shopUpdates = () -> {
+            log.debug("Pulling shops from Mirakl");
+            shopService.processUpdatedShops();
+            log.debug("Pulling documents from Mirakl");
+            docService.processUpdatedDocuments();
+        };
+        if (Boolean.TRUE.equals(applicationProperties.getShopSyncPartitioning())) {
+            // every node synchronises the shop partitions it leased
+            shopUpdates.run();
+        } else {
+            jobLeaseRunner.runExclusively("shopUpdates", shopUpdates);
+        }
     }
 
     @Scheduled(cron = "${application.emailRetryCron}")
     public void retryEmails() {
-        retryEmailService.retryFailedEmails();
+        jobLeaseRunner.runExclusively("retryEmails", retryEmailService::retryFailedEmails);
     }
 
     @Scheduled(cron = "${application.removeSentEmailsCron}")
     public void removeSentEmails() {
-        retryEmailService.removeSentEmails();
+        jobLeaseRunner.runExclusively("removeSentEmails", retryEmailService::removeSentEmails);
+    }
+
+    @Scheduled(cron = "${application.removeNotificationKeysCron}")
+    public void removeNotificationKeys() {
+        jobLeaseRunner.runExclusively("removeNotificationKeys", notificationQueueService::removeExpiredNotificationKeys);
     }
 
     @Scheduled(cron = "${application.payoutRetryCron}")
     public void retryPayout() {
-        retryPayoutService.retryFailedPayouts();
+        jobLeaseRunner.runExclusively("retryPayout", retryPayoutService::retryFailedPayouts);
+    }
+
+    @Scheduled(cron = "${application.payoutReconciliationCron}")
+    public void reconcilePayouts() {
+        jobLeaseRunner.runExclusively("reconcilePayouts", payoutLedgerService::reportStalePayouts);
     }
 
     @Scheduled(cron = "${application.retryDocsCron}")
     public void retryDocUpload(){
-        docService.retryFailedDocuments();
+        jobLeaseRunner.runExclusively("retryDocUpload", docService::retryFailedDocuments);
+    }
+
+    /**
+     * Runs on every node, the notification queue hands out disjoint batches by itself
+     */
+    @Scheduled(fixedDelayString = "${application.notificationPollDelayMillis}")
+    public void processNotificationQueue() {
+        adyenNotificationListener.processDueNotifications();
+    }
+
+    /**
+     * The cleanups requested on every node are stored, so a single node processes them
+     */
+    @Scheduled(fixedDelayString = "${application.mediaCleanupDelayMillis}")
+    public void processMediaCleanups() {
+        jobLeaseRunner.runExclusively("mediaCleanups", miraklMediaCleanupService::processPendingCleanups);
+    }
+
+    @Scheduled(fixedDelayString = "${application.clusterHeartbeatMillis}")
+    public void clusterHeartbeat() {
+        if (Boolean.TRUE.equals(applicationProperties.getShopSyncPartitioning())) {
+            clusterMembershipService.heartbeat();
+        }
     }
 
 }
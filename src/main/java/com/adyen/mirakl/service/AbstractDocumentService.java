@@ -36,10 +36,7 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.mirakl.client.mmp.domain.common.MiraklAdditionalFieldValue;
 import com.mirakl.client.mmp.domain.shop.MiraklShop;
-import com.mirakl.client.mmp.domain.shop.MiraklShops;
 import com.mirakl.client.mmp.domain.shop.document.MiraklShopDocument;
-import com.mirakl.client.mmp.operator.core.MiraklMarketplacePlatformOperatorApiClient;
-import com.mirakl.client.mmp.request.shop.MiraklGetShopsRequest;
 
 @Service
 public abstract class AbstractDocumentService<T extends DocumentDTO> {
@@ -54,7 +51,7 @@ public abstract class AbstractDocumentService<T extends DocumentDTO> {
     private static final String SUFFIX_BACK = "_BACK";
 
     @Resource
-    private MiraklMarketplacePlatformOperatorApiClient miraklMarketplacePlatformOperatorApiClient;
+    private MiraklShopCache miraklShopCache;
 
     public abstract List<T> extractDocuments(List<MiraklShopDocument> miraklShopDocuments);
 
@@ -123,10 +120,10 @@ public abstract class AbstractDocumentService<T extends DocumentDTO> {
     }
 
     private String getDocTypeFromMirakl(String entityName, String shopId) {
-        MiraklGetShopsRequest request = new MiraklGetShopsRequest();
-        request.setShopIds(ImmutableList.of(shopId));
-        MiraklShops shops = miraklMarketplacePlatformOperatorApiClient.getShops(request);
-        MiraklShop shop = shops.getShops().iterator().next();
+        MiraklShop shop = miraklShopCache.getShop(shopId);
+        if (shop == null) {
+            throw new IllegalStateException("Cannot find shop: " + shopId);
+        }
         String code = ADYEN_PREFIX + entityName + SUFFIX_MIRAKL_PHOTOIDTYPE;
         Optional<MiraklAdditionalFieldValue.MiraklValueListAdditionalFieldValue> photoIdType = shop.getAdditionalFieldValues()
                                                                                                    .stream()
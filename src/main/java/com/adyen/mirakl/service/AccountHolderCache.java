@@ -0,0 +1,153 @@
+/*
+ *                       ######
+ *                       ######
+ * ############    ####( ######  #####. ######  ############   ############
+ * #############  #####( ######  #####. ######  #############  #############
+ *        ######  #####( ######  #####. ######  #####  ######  #####  ######
+ * ###### ######  #####( ######  #####. ######  #####  #####   #####  ######
+ * ###### ######  #####( ######  #####. ######  #####          #####  ######
+ * #############  #############  #############  #############  #####  ######
+ *  ############   ############  #############   ############  #####  ######
+ *                                      ######
+ *                               #############
+ *                               ############
+ *
+ * Adyen Mirakl Connector
+ *
+ * Copyright (c) 2018 Adyen B.V.
+ * This file is open source and available under the MIT license.
+ * See the LICENSE file for more info.
+ *
+ */
+
+package com.adyen.mirakl.service;
+
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Service;
+import org.springframework.util.StringUtils;
+import com.adyen.mirakl.config.ApplicationProperties;
+import com.adyen.mirakl.service.util.ConcurrencyLimiter;
+import com.adyen.model.marketpay.GetAccountHolderRequest;
+import com.adyen.model.marketpay.GetAccountHolderResponse;
+import com.adyen.service.Account;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Read-through cache of Adyen account holders, which can be looked up by accountHolderCode or by accountCode
+ * <p>
+ * Entries expire after application.accountHolderCacheTtlSeconds and the cache never holds more than
+ * application.accountHolderCacheMaxSize account holders. A TTL of 0 disables caching.
+ * The cached responses are shared, callers must not modify them.
+ */
+@Service
+public class AccountHolderCache {
+
+    private final Logger log = LoggerFactory.getLogger(AccountHolderCache.class);
+
+    private final Account adyenAccountService;
+    private final ConcurrencyLimiter adyenConcurrencyLimiter;
+    private final ConnectorMetrics connectorMetrics;
+    private final boolean enabled;
+    private final Cache<String, GetAccountHolderResponse> accountHolders;
+    private final Cache<String, String> accountHolderCodesByAccountCode;
+
+    @Autowired
+    public AccountHolderCache(final Account adyenAccountService,
+                              @Qualifier("adyenConcurrencyLimiter") final ConcurrencyLimiter adyenConcurrencyLimiter,
+                              final ConnectorMetrics connectorMetrics,
+                              final ApplicationProperties applicationProperties) {
+        this(adyenAccountService,
+             adyenConcurrencyLimiter,
+             connectorMetrics,
+             toLong(applicationProperties.getAccountHolderCacheTtlSeconds()),
+             toLong(applicationProperties.getAccountHolderCacheMaxSize()));
+    }
+
+    public AccountHolderCache(final Account adyenAccountService,
+                              final ConcurrencyLimiter adyenConcurrencyLimiter,
+                              final ConnectorMetrics connectorMetrics,
+                              final long ttlSeconds,
+                              final long maxSize) {
+        this.adyenAccountService = adyenAccountService;
+        this.adyenConcurrencyLimiter = adyenConcurrencyLimiter;
+        this.connectorMetrics = connectorMetrics;
+        this.enabled = ttlSeconds > 0 && maxSize > 0;
+        this.accountHolders = CacheBuilder.newBuilder()
+                                          .expireAfterWrite(Math.max(ttlSeconds, 0L), TimeUnit.SECONDS)
+                                          .maximumSize(Math.max(maxSize, 0L))
+                                          .recordStats()
+                                          .build();
+        this.accountHolderCodesByAccountCode = CacheBuilder.newBuilder()
+                                                           .expireAfterWrite(Math.max(ttlSeconds, 0L), TimeUnit.SECONDS)
+                                                           .maximumSize(Math.max(maxSize, 0L))
+                                                           .build();
+        connectorMetrics.registerGauge("account-holder.cache.size", accountHolders::size);
+        connectorMetrics.registerGauge("account-holder.cache.evictions", () -> accountHolders.stats().evictionCount());
+    }
+
+    public GetAccountHolderResponse getByAccountHolderCode(final String accountHolderCode) throws Exception {
+        final GetAccountHolderResponse cached = getCached(accountHolderCode);
+        if (cached != null) {
+            return cached;
+        }
+        final GetAccountHolderRequest getAccountHolderRequest = new GetAccountHolderRequest();
+        getAccountHolderRequest.setAccountHolderCode(accountHolderCode);
+        return fetch(getAccountHolderRequest);
+    }
+
+    public GetAccountHolderResponse getByAccountCode(final String accountCode) throws Exception {
+        final String accountHolderCode = enabled && accountCode != null ? accountHolderCodesByAccountCode.getIfPresent(accountCode) : null;
+        final GetAccountHolderResponse cached = getCached(accountHolderCode);
+        if (cached != null) {
+            return cached;
+        }
+        final GetAccountHolderRequest getAccountHolderRequest = new GetAccountHolderRequest();
+        getAccountHolderRequest.setAccountCode(accountCode);
+        return fetch(getAccountHolderRequest);
+    }
+
+    /**
+     * Drop the account holder after it has been changed, the next lookup goes to Adyen again
+     */
+    public void invalidate(final String accountHolderCode) {
+        if (accountHolderCode != null) {
+            log.debug("Invalidating cached account holder {}", accountHolderCode);
+            accountHolders.invalidate(accountHolderCode);
+        }
+    }
+
+    public void invalidateAll() {
+        accountHolders.invalidateAll();
+        accountHolderCodesByAccountCode.invalidateAll();
+    }
+
+    private GetAccountHolderResponse getCached(final String accountHolderCode) {
+        final GetAccountHolderResponse cached = enabled && accountHolderCode != null ? accountHolders.getIfPresent(accountHolderCode) : null;
+        connectorMetrics.increment(cached != null ? "account-holder.cache.hit" : "account-holder.cache.miss");
+        return cached;
+    }
+
+    private GetAccountHolderResponse fetch(final GetAccountHolderRequest getAccountHolderRequest) throws Exception {
+        final GetAccountHolderResponse response = adyenConcurrencyLimiter.call(() -> adyenAccountService.getAccountHolder(getAccountHolderRequest));
+        // unknown account holders are not cached, they are about to be created
+        if (enabled && response != null && ! StringUtils.isEmpty(response.getAccountHolderCode())) {
+            accountHolders.put(response.getAccountHolderCode(), response);
+            if (response.getAccounts() != null) {
+                response.getAccounts()
+                        .stream()
+                        .filter(account -> account != null && account.getAccountCode() != null)
+                        .forEach(account -> accountHolderCodesByAccountCode.put(account.getAccountCode(), response.getAccountHolderCode()));
+            }
+        }
+        return response;
+    }
+
+    private static long toLong(final Integer value) {
+        return value == null ? 0L : value.longValue();
+    }
+}
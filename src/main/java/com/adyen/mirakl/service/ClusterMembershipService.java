@@ -0,0 +1,172 @@
+/*
+ *                       ######
+ *                       ######
+ * ############    ####( ######  #####. ######  ############   ############
+ * #############  #####( ######  #####. ######  #############  #############
+ *        ######  #####( ######  #####. ######  #####  ######  #####  ######
+ * ###### ######  #####( ######  #####. ######  #####  #####   #####  ######
+ * ###### ######  #####( ######  #####. ######  #####          #####  ######
+ * #############  #############  #############  #############  #####  ######
+ *  ############   ############  #############   ############  #####  ######
+ *                                      ######
+ *                               #############
+ *                               ############
+ *
+ * Adyen Mirakl Connector
+ *
+ * Copyright (c) 2018 Adyen B.V.
+ * This file is open source and available under the MIT license.
+ * See the LICENSE file for more info.
+ *
+ */
+
+package com.adyen.mirakl.service;
+
+import java.nio.charset.StandardCharsets;
+import java.time.ZonedDateTime;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.DataAccessException;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import com.adyen.mirakl.config.ApplicationProperties;
+import com.adyen.mirakl.domain.ClusterNode;
+import com.adyen.mirakl.repository.ClusterNodeRepository;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+/**
+ * Splits the shop synchronisation over the active connector nodes
+ * <p>
+ * Shops are spread over application.shopSyncPartitions partitions by a hash of the shop id, and every partition is
+ * owned by one of the nodes which sent a heartbeat within application.clusterNodeTimeoutSeconds. Ownership uses
+ * rendezvous hashing, so a node joining or leaving only moves the partitions it gains or loses. A node works on a
+ * partition only while it holds the lease of that partition, which keeps the updates of a shop in order while the nodes
+ * do not agree on the membership yet.
+ */
+@Service
+public class ClusterMembershipService {
+
+    private static final HashFunction HASH = Hashing.murmur3_32();
+
+    private final Logger log = LoggerFactory.getLogger(ClusterMembershipService.class);
+
+    @Resource
+    private ClusterNodeRepository clusterNodeRepository;
+
+    @Resource
+    private SchedulerLeaseService schedulerLeaseService;
+
+    @Resource
+    private ApplicationProperties applicationProperties;
+
+    @Resource
+    private NodeIdentity nodeIdentity;
+
+    @Transactional(propagation = Propagation.REQUIRES_NEW)
+    public void heartbeat() {
+        final ClusterNode node = Optional.ofNullable(clusterNodeRepository.findOne(nodeIdentity.getNodeId())).orElseGet(() -> new ClusterNode().nodeId(nodeIdentity.getNodeId()));
+        node.setHeartbeatAt(ZonedDateTime.now());
+        clusterNodeRepository.saveAndFlush(node);
+    }
+
+    @PreDestroy
+    public void leave() {
+        if (! Boolean.TRUE.equals(applicationProperties.getShopSyncPartitioning())) {
+            return;
+        }
+        try {
+            clusterNodeRepository.delete(nodeIdentity.getNodeId());
+        } catch (DataAccessException e) {
+            log.warn("Could not leave the cluster, the node times out instead: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * The nodes with a recent heartbeat, always including this node
+     */
+    public Set<String> getActiveNodes() {
+        final ZonedDateTime aliveSince = ZonedDateTime.now().minusSeconds(applicationProperties.getClusterNodeTimeoutSeconds());
+        final Set<String> nodes = clusterNodeRepository.findByHeartbeatAtAfter(aliveSince).stream().map(ClusterNode::getNodeId).collect(Collectors.toCollection(TreeSet::new));
+        nodes.add(nodeIdentity.getNodeId());
+        return nodes;
+    }
+
+    public Set<Integer> getOwnedPartitions() {
+        final Set<String> nodes = getActiveNodes();
+        return IntStream.range(0, getPartitions())
+                        .filter(partition -> nodeIdentity.getNodeId().equals(ownerOf(partition, nodes)))
+                        .boxed()
+                        .collect(Collectors.toCollection(TreeSet::new));
+    }
+
+    public int partitionOf(final String shopId) {
+        return partitionOf(shopId, getPartitions());
+    }
+
+    /**
+     * Lease the partitions this node owns, returns the time every partition it got was acquired at
+     */
+    public Map<Integer, ZonedDateTime> acquireOwnedPartitions(final String job) {
+        final Map<Integer, ZonedDateTime> leases = new HashMap<>();
+        for (Integer partition : getOwnedPartitions()) {
+            try {
+                schedulerLeaseService.tryAcquire(leaseName(job, partition)).ifPresent(acquiredAt -> leases.put(partition, acquiredAt));
+            } catch (DataAccessException e) {
+                log.debug("Partition {} of {} was taken by another node: {}", partition, job, e.getMessage());
+            }
+        }
+        log.debug("Leased {} partitions of {}: {}", leases.size(), job, leases.keySet());
+        return leases;
+    }
+
+    public void renewPartitions(final String job, final Set<Integer> partitions) {
+        partitions.forEach(partition -> {
+            if (! schedulerLeaseService.renew(leaseName(job, partition))) {
+                log.error("Lost the lease on partition {} of {}", partition, job);
+            }
+        });
+    }
+
+    public void releasePartitions(final String job, final Map<Integer, ZonedDateTime> leases) {
+        leases.forEach((partition, acquiredAt) -> {
+            try {
+                schedulerLeaseService.release(leaseName(job, partition), acquiredAt);
+            } catch (DataAccessException e) {
+                log.warn("Could not release partition {} of {}, it expires on its own: {}", partition, job, e.getMessage());
+            }
+        });
+    }
+
+    protected static int partitionOf(final String shopId, final int partitions) {
+        return Math.floorMod(HASH.hashString(shopId, StandardCharsets.UTF_8).asInt(), partitions);
+    }
+
+    /**
+     * Rendezvous hashing: the node with the highest hash of node and partition owns the partition
+     */
+    protected static String ownerOf(final int partition, final Set<String> nodes) {
+        return nodes.stream()
+                    .max(Comparator.comparingInt((String node) -> HASH.hashString(node + "#" + partition, StandardCharsets.UTF_8).asInt()).thenComparing(Comparator.naturalOrder()))
+                    .orElse(null);
+    }
+
+    private int getPartitions() {
+        return Math.max(1, Optional.ofNullable(applicationProperties.getShopSyncPartitions()).orElse(1));
+    }
+
+    private static String leaseName(final String job, final int partition) {
+        return job + "-" + partition;
+    }
+}
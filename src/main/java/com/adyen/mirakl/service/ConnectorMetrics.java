@@ -0,0 +1,90 @@
+/*
+ *                       ######
+ *                       ######
+ * ############    ####( ######  #####. ######  ############   ############
+ * #############  #####( ######  #####. ######  #############  #############
+ *        ######  #####( ######  #####. ######  #####  ######  #####  ######
+ * ###### ######  #####( ######  #####. ######  #####  #####   #####  ######
+ * ###### ######  #####( ######  #####. ######  #####          #####  ######
+ * #############  #############  #############  #############  #####  ######
+ *  ############   ############  #############   ############  #####  ######
+ *                                      ######
+ *                               #############
+ *                               ############
+ *
+ * Adyen Mirakl Connector
+ *
+ * Copyright (c) 2018 Adyen B.V.
+ * This file is open source and available under the MIT license.
+ * See the LICENSE file for more info.
+ *
+ */
+
+package com.adyen.mirakl.service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.stereotype.Component;
+
+/**
+ * In-memory counters and gauges of the connector, exposed through /management/metrics
+ */
+@Component
+public class ConnectorMetrics implements PublicMetrics {
+
+    private static final String PREFIX = "connector.";
+
+    private final Map<String, LongAdder> counters = new ConcurrentHashMap<>();
+    private final Map<String, Number> gauges = new ConcurrentHashMap<>();
+    private final Map<String, Supplier<? extends Number>> gaugeSuppliers = new ConcurrentHashMap<>();
+
+    public void increment(final String name) {
+        increment(name, 1L);
+    }
+
+    public void increment(final String name, final long delta) {
+        counters.computeIfAbsent(name, key -> new LongAdder()).add(delta);
+    }
+
+    public void gauge(final String name, final Number value) {
+        gauges.put(name, value);
+    }
+
+    /**
+     * Register a gauge which is evaluated every time the metrics are read
+     */
+    public void registerGauge(final String name, final Supplier<? extends Number> supplier) {
+        gaugeSuppliers.put(name, supplier);
+    }
+
+    public long getCount(final String name) {
+        final LongAdder counter = counters.get(name);
+        return counter == null ? 0L : counter.sum();
+    }
+
+    public Number getGauge(final String name) {
+        final Supplier<? extends Number> supplier = gaugeSuppliers.get(name);
+        return supplier != null ? supplier.get() : gauges.get(name);
+    }
+
+    @Override
+    public Collection<Metric<?>> metrics() {
+        final List<Metric<?>> metrics = new ArrayList<>();
+        counters.forEach((name, counter) -> metrics.add(new Metric<>(PREFIX + name, counter.sum())));
+        gauges.forEach((name, value) -> metrics.add(new Metric<>(PREFIX + name, value)));
+        gaugeSuppliers.forEach((name, supplier) -> {
+            final Number value = supplier.get();
+            if (value != null) {
+                metrics.add(new Metric<>(PREFIX + name, value));
+            }
+        });
+        return metrics;
+    }
+}
@@ -25,15 +25,28 @@ package com.adyen.mirakl.service;
 import com.adyen.mirakl.config.ApplicationProperties;
 import com.adyen.mirakl.domain.MiraklDelta;
 import com.adyen.mirakl.domain.MiraklDocumentDelta;
+import com.adyen.mirakl.domain.MiraklPartitionDelta;
+import com.adyen.mirakl.domain.MiraklShopSyncCheckpoint;
 import com.adyen.mirakl.repository.MiraklDeltaRepository;
 import com.adyen.mirakl.repository.MiraklDocumentDeltaRepository;
+import com.adyen.mirakl.repository.MiraklPartitionDeltaRepository;
+import com.adyen.mirakl.repository.MiraklShopSyncCheckpointRepository;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
 
 import javax.annotation.Resource;
+import java.time.ZoneId;
 import java.time.ZonedDateTime;
+import java.util.Comparator;
 import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 import java.util.Optional;
 
 @Service
@@ -49,6 +62,12 @@ public class DeltaService {
     @Resource
     private MiraklDocumentDeltaRepository miraklDocumentDeltaRepository;
 
+    @Resource
+    private MiraklShopSyncCheckpointRepository miraklShopSyncCheckpointRepository;
+
+    @Resource
+    private MiraklPartitionDeltaRepository miraklPartitionDeltaRepository;
+
     /**
      * Get shop delta
      * If doens't exist, create and return a new one using application.initialDeltaDaysBack property
@@ -79,6 +98,42 @@ public class DeltaService {
         miraklDeltaRepository.saveAndFlush(entity);
     }
 
+    /**
+     * Get the checkpoint of a shop synchronisation window which was interrupted before it completed
+     */
+    public Optional<MiraklShopSyncCheckpoint> getShopSyncCheckpoint() {
+        return miraklShopSyncCheckpointRepository.findFirstByOrderByIdDesc();
+    }
+
+    /**
+     * Start checkpointing a new shop synchronisation window, shops updated since windowStart are processed and the shop delta moves to windowEnd once done
+     */
+    @Transactional(propagation = Propagation.REQUIRES_NEW)
+    public MiraklShopSyncCheckpoint createShopSyncCheckpoint(ZonedDateTime windowStart, ZonedDateTime windowEnd) {
+        log.debug("Creating new shop sync checkpoint from {} to {}", windowStart, windowEnd);
+        final MiraklShopSyncCheckpoint checkpoint = new MiraklShopSyncCheckpoint().windowStart(windowStart).windowEnd(windowEnd).nextOffset(0L);
+        return miraklShopSyncCheckpointRepository.saveAndFlush(checkpoint);
+    }
+
+    /**
+     * Record that all shops before nextOffset have been processed, committed straight away so the progress survives a crash of the running synchronisation
+     */
+    @Transactional(propagation = Propagation.REQUIRES_NEW)
+    public MiraklShopSyncCheckpoint updateShopSyncCheckpoint(MiraklShopSyncCheckpoint checkpoint, long nextOffset, String lastShopId) {
+        checkpoint.setNextOffset(nextOffset);
+        checkpoint.setLastShopId(lastShopId);
+        return miraklShopSyncCheckpointRepository.saveAndFlush(checkpoint);
+    }
+
+    /**
+     * Move the shop delta to the end of the checkpointed window, the start of its first run, and drop the checkpoint in one transaction
+     */
+    @Transactional
+    public void completeShopSyncCheckpoint(MiraklShopSyncCheckpoint checkpoint) {
+        updateShopDelta(checkpoint.getWindowEnd());
+        miraklShopSyncCheckpointRepository.deleteAll();
+    }
+
     /**
      * Get document delta
      * If doens't exist, create and return a new one using application.initialDeltaDaysBack property
@@ -108,4 +163,56 @@ public class DeltaService {
         entity.setDocumentDelta(delta);
         miraklDocumentDeltaRepository.saveAndFlush(entity);
     }
+
+    /**
+     * Get the oldest shop delta of the given shop partitions
+     * Partitions without a delta start from the shop delta of the unpartitioned synchronisation
+     */
+    @Transactional(propagation = Propagation.REQUIRES_NEW)
+    public Date getPartitionShopDelta(Set<Integer> partitions) {
+        return oldest(getPartitionDeltas(partitions), MiraklPartitionDelta::getShopDelta);
+    }
+
+    /**
+     * Get the oldest document delta of the given shop partitions
+     * Partitions without a delta start from the document delta of the unpartitioned synchronisation
+     */
+    @Transactional(propagation = Propagation.REQUIRES_NEW)
+    public Date getPartitionDocumentDelta(Set<Integer> partitions) {
+        return oldest(getPartitionDeltas(partitions), MiraklPartitionDelta::getDocumentDelta);
+    }
+
+    @Transactional(propagation = Propagation.REQUIRES_NEW)
+    public void updatePartitionShopDelta(Set<Integer> partitions, ZonedDateTime delta) {
+        final List<MiraklPartitionDelta> partitionDeltas = getPartitionDeltas(partitions);
+        partitionDeltas.forEach(partitionDelta -> partitionDelta.setShopDelta(delta));
+        miraklPartitionDeltaRepository.save(partitionDeltas);
+    }
+
+    @Transactional(propagation = Propagation.REQUIRES_NEW)
+    public void updatePartitionDocumentDelta(Set<Integer> partitions, ZonedDateTime delta) {
+        final List<MiraklPartitionDelta> partitionDeltas = getPartitionDeltas(partitions);
+        partitionDeltas.forEach(partitionDelta -> partitionDelta.setDocumentDelta(delta));
+        miraklPartitionDeltaRepository.save(partitionDeltas);
+    }
+
+    private List<MiraklPartitionDelta> getPartitionDeltas(Set<Integer> partitions) {
+        final Map<Integer, MiraklPartitionDelta> existing = miraklPartitionDeltaRepository.findByPartitionIndexIn(partitions)
+                                                                                          .stream()
+                                                                                          .collect(Collectors.toMap(MiraklPartitionDelta::getPartitionIndex, Function.identity()));
+        return partitions.stream().map(partition -> existing.computeIfAbsent(partition, this::createNewPartitionDelta)).collect(Collectors.toList());
+    }
+
+    private MiraklPartitionDelta createNewPartitionDelta(Integer partition) {
+        log.debug("Creating new delta for shop partition {}", partition);
+        final MiraklPartitionDelta partitionDelta = new MiraklPartitionDelta().partitionIndex(partition)
+                                                                              .shopDelta(ZonedDateTime.ofInstant(getShopDelta().toInstant(), ZoneId.systemDefault()))
+                                                                              .documentDelta(ZonedDateTime.ofInstant(getDocumentDelta().toInstant(), ZoneId.systemDefault()));
+        return miraklPartitionDeltaRepository.saveAndFlush(partitionDelta);
+    }
+
+    private static Date oldest(List<MiraklPartitionDelta> partitionDeltas, Function<MiraklPartitionDelta, ZonedDateTime> delta) {
+        final ZonedDateTime oldest = partitionDeltas.stream().map(delta).min(Comparator.naturalOrder()).orElseThrow(() -> new IllegalStateException("No partitions given"));
+        return Date.from(oldest.toInstant());
+    }
 }
@@ -22,12 +22,23 @@
 
 package com.adyen.mirakl.service;
 
+import java.io.IOException;
 import java.time.ZonedDateTime;
 import java.util.ArrayList;
 import java.util.Base64;
+import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RunnableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 import javax.annotation.Resource;
 import org.slf4j.Logger;
@@ -46,19 +57,18 @@ import com.adyen.mirakl.repository.DocRetryRepository;
 import com.adyen.mirakl.repository.ShareholderMappingRepository;
 import com.adyen.mirakl.service.dto.DocumentDTO;
 import com.adyen.mirakl.service.dto.UboDocumentDTO;
+import com.adyen.mirakl.service.util.ConcurrencyLimiter;
 import com.adyen.mirakl.service.util.GetShopDocumentsRequest;
+import com.adyen.mirakl.service.util.StagedPipeline;
 import com.adyen.model.marketpay.DocumentDetail;
-import com.adyen.model.marketpay.GetAccountHolderRequest;
 import com.adyen.model.marketpay.GetAccountHolderResponse;
 import com.adyen.model.marketpay.UploadDocumentRequest;
 import com.adyen.model.marketpay.UploadDocumentResponse;
 import com.adyen.service.Account;
 import com.adyen.service.exception.ApiException;
-import com.google.common.collect.ImmutableList;
 import com.mirakl.client.mmp.domain.common.FileWrapper;
 import com.mirakl.client.mmp.domain.shop.document.MiraklShopDocument;
 import com.mirakl.client.mmp.operator.core.MiraklMarketplacePlatformOperatorApiClient;
-import com.mirakl.client.mmp.request.shop.document.MiraklDeleteShopDocumentRequest;
 import com.mirakl.client.mmp.request.shop.document.MiraklDownloadShopsDocumentsRequest;
 import com.mirakl.client.mmp.request.shop.document.MiraklGetShopDocumentsRequest;
 import static com.google.common.io.Files.toByteArray;
@@ -70,6 +80,7 @@ public class DocService {
 
     private static final String UBO_ENTITY_TYPE = "ubo";
     private static final String INDIVIDUAL_ENTITY_TYPE = "individual";
+    private static final String DOCUMENT_PARTITION_JOB = "documentPartition";
 
     @Resource
     private MiraklMarketplacePlatformOperatorApiClient miraklMarketplacePlatformOperatorApiClient;
@@ -77,6 +88,9 @@ public class DocService {
     @Resource
     private Account adyenAccountService;
 
+    @Resource
+    private AccountHolderCache accountHolderCache;
+
     @Resource
     private DeltaService deltaService;
 
@@ -98,6 +112,30 @@ public class DocService {
     @Resource
     private ApplicationProperties applicationProperties;
 
+    @Resource
+    private ClusterMembershipService clusterMembershipService;
+
+    @Resource
+    private ConnectorMetrics connectorMetrics;
+
+    @Resource
+    private ConcurrencyLimiter adyenConcurrencyLimiter;
+
+    @Resource
+    private ConcurrencyLimiter miraklConcurrencyLimiter;
+
+    @Resource
+    private Executor documentTransferExecutor;
+
+    @Resource
+    private Semaphore documentTransferWorkerPermits;
+
+    @Resource
+    private DocumentUploadService documentUploadService;
+
+    @Resource
+    private MiraklMediaCleanupService miraklMediaCleanupService;
+
     @Value("${adyenConfig.environment}")
     private String environment;
 
@@ -105,31 +143,86 @@ public class DocService {
      * Calling S30, S31, GetAccountHolder and UploadDocument to upload bankproof documents to Adyen
      */
     public void processUpdatedDocuments() {
+        if (Boolean.TRUE.equals(applicationProperties.getShopSyncPartitioning())) {
+            processUpdatedDocumentsOfOwnedPartitions();
+            return;
+        }
         final ZonedDateTime beforeProcessing = ZonedDateTime.now();
 
-        List<MiraklShopDocument> miraklShopDocumentList = retrieveUpdatedDocs();
+        List<MiraklShopDocument> miraklShopDocumentList = retrieveUpdatedDocs(deltaService.getDocumentDelta());
         processDocs(miraklShopDocumentList);
         deltaService.updateDocumentDelta(beforeProcessing);
     }
 
+    /**
+     * Process only the documents of shops in the partitions leased by this node, with a document delta per partition
+     */
+    private void processUpdatedDocumentsOfOwnedPartitions() {
+        final ZonedDateTime beforeProcessing = ZonedDateTime.now();
+        final Map<Integer, ZonedDateTime> leases = clusterMembershipService.acquireOwnedPartitions(DOCUMENT_PARTITION_JOB);
+        if (leases.isEmpty()) {
+            log.debug("No document partitions leased by this node");
+            return;
+        }
+        try {
+            final List<MiraklShopDocument> miraklShopDocumentList = retrieveUpdatedDocs(deltaService.getPartitionDocumentDelta(leases.keySet()))
+                .stream()
+                .filter(document -> leases.containsKey(clusterMembershipService.partitionOf(document.getShopId())))
+                .collect(Collectors.toList());
+            processDocs(miraklShopDocumentList);
+            deltaService.updatePartitionDocumentDelta(leases.keySet(), beforeProcessing);
+        } finally {
+            clusterMembershipService.releasePartitions(DOCUMENT_PARTITION_JOB, leases);
+        }
+    }
+
+    /**
+     * Transfer the documents from Mirakl to Adyen through the download, encode and upload stages, returns once every document went through all stages
+     */
     private void processDocs(final List<MiraklShopDocument> miraklShopDocumentList) {
+        final List<DocumentTransfer> transfers = new ArrayList<>();
         for (MiraklShopDocument document : miraklShopDocumentList) {
             if (Constants.BANKPROOF.equals(document.getTypeCode())) {
-                updateDocument(document, DocumentDetail.DocumentTypeEnum.BANK_STATEMENT);
+                transfers.add(new DocumentTransfer(document, DocumentDetail.DocumentTypeEnum.BANK_STATEMENT, null));
             }
             else if (Constants.COMPANY_REGISTRATION.equals(document.getTypeCode())) {
-                updateDocument(document, DocumentDetail.DocumentTypeEnum.COMPANY_REGISTRATION_SCREENING);
+                transfers.add(new DocumentTransfer(document, DocumentDetail.DocumentTypeEnum.COMPANY_REGISTRATION_SCREENING, null));
             }
         }
 
         final List<UboDocumentDTO> uboDocumentDTOS = uboDocumentService.extractDocuments(miraklShopDocumentList);
-        uboDocumentDTOS.forEach(documentDTO -> updateDocument(documentDTO.getMiraklShopDocument(), documentDTO.getDocumentTypeEnum(), documentDTO.getShareholderCode()));
+        uboDocumentDTOS.forEach(documentDTO -> transfers.add(new DocumentTransfer(documentDTO.getMiraklShopDocument(), documentDTO.getDocumentTypeEnum(), documentDTO.getShareholderCode())));
 
         final List<DocumentDTO> individualDocumentDTOS = individualDocumentService.extractDocuments(miraklShopDocumentList);
-        individualDocumentDTOS.forEach(documentDTO -> updateDocument(documentDTO.getMiraklShopDocument(), documentDTO.getDocumentTypeEnum(), null));
+        individualDocumentDTOS.forEach(documentDTO -> transfers.add(new DocumentTransfer(documentDTO.getMiraklShopDocument(), documentDTO.getDocumentTypeEnum(), null)));
+
+        if (transfers.isEmpty()) {
+            return;
+        }
+        final long startedAt = System.nanoTime();
+        final int queueCapacity = Optional.ofNullable(applicationProperties.getDocumentPipelineQueueCapacity()).orElse(0);
+        final boolean pipelined = queueCapacity > 0 && transfers.size() > 1;
+        final boolean streaming = Boolean.TRUE.equals(applicationProperties.getDocumentStreamingUpload());
+        final Map<String, RunnableFuture<String>> bankAccountUUIDs = resolveBankAccountUUIDs(transfers, pipelined);
+        transfers.stream()
+                 .filter(transfer -> transfer.documentType == DocumentDetail.DocumentTypeEnum.BANK_STATEMENT)
+                 .forEach(transfer -> transfer.bankAccountUUID = bankAccountUUIDs.get(transfer.document.getShopId()));
+        final StagedPipeline<DocumentTransfer> pipeline = new StagedPipeline<DocumentTransfer>("documentTransfer", documentTransferExecutor, documentTransferWorkerPermits, queueCapacity)
+            .stage("download", applicationProperties.getDocumentDownloadParallelism(), transfer -> transfer.fileWrapper = downloadSelectedDocument(transfer.document))
+            .stage("encode", applicationProperties.getDocumentEncodeParallelism(), transfer -> {
+                transfer.request = createUploadDocumentRequest(transfer.documentType, transfer.fileWrapper, transfer.document.getShopId(), transfer.shareholderCode, ! streaming);
+                if (! streaming) {
+                    transfer.fileWrapper = null;
+                }
+            })
+            .stage("upload", applicationProperties.getDocumentUploadParallelism(), this::uploadDocumentToAdyen)
+            .onSuccess(transfer -> documentUploaded(transfer.document))
+            .onFailure((transfer, e) -> documentFailed(transfer.document, e));
+        final int failed = pipelined ? pipeline.run(transfers) : pipeline.runSequentially(transfers);
+        recordDocumentTransferRun(transfers.size(), failed, System.nanoTime() - startedAt);
     }
 
-    @Async
+    @Async("documentRetryExecutor")
     public void retryDocumentsForShop(String shopId) {
         final List<DocRetry> retryDocsByShopId = docRetryRepository.findByShopId(shopId);
         if (! retryDocsByShopId.isEmpty()) {
@@ -137,7 +230,7 @@ public class DocService {
         }
     }
 
-    @Async
+    @Async("documentRetryExecutor")
     public void retryFailedDocuments() {
         final List<DocRetry> docRetries = docRetryRepository.findByTimesFailedLessThanEqual(applicationProperties.getMaxDocRetries());
         if (! docRetries.isEmpty()) {
@@ -148,26 +241,77 @@ public class DocService {
     private void retryFailedDocuments(final List<DocRetry> docsToRetry) {
         final Set<String> shopIds = docsToRetry.stream().map(DocRetry::getShopId).collect(Collectors.toSet());
         final Set<String> docIds = docsToRetry.stream().map(DocRetry::getDocId).collect(Collectors.toSet());
-        final List<MiraklShopDocument> shopDocuments = miraklMarketplacePlatformOperatorApiClient.getShopDocuments(new MiraklGetShopDocumentsRequest(shopIds));
+        final List<MiraklShopDocument> shopDocuments = miraklConcurrencyLimiter.get(() -> miraklMarketplacePlatformOperatorApiClient.getShopDocuments(new MiraklGetShopDocumentsRequest(shopIds)));
         final List<MiraklShopDocument> filteredShopDocuments = shopDocuments.stream().filter(shopDocument -> docIds.contains(shopDocument.getId())).collect(Collectors.toList());
         processDocs(filteredShopDocuments);
     }
 
-    private void updateDocument(final MiraklShopDocument document, DocumentDetail.DocumentTypeEnum type, String shareholderCode) {
-        FileWrapper fileWrapper = downloadSelectedDocument(document);
+    /**
+     * Look up the bank account of every shop with a bank statement once per run instead of once per document
+     * When pipelined the lookups are handed to the document transfer workers ahead of the pipeline stages. An upload whose lookup
+     * hasn't started yet runs it itself, so the upload stage never waits for a lookup which is stuck behind busy workers.
+     */
+    private Map<String, RunnableFuture<String>> resolveBankAccountUUIDs(final List<DocumentTransfer> transfers, final boolean concurrently) {
+        final List<String> bankStatementShopIds = transfers.stream()
+                                                           .filter(transfer -> transfer.documentType == DocumentDetail.DocumentTypeEnum.BANK_STATEMENT)
+                                                           .map(transfer -> transfer.document.getShopId())
+                                                           .collect(Collectors.toList());
+        final Map<String, RunnableFuture<String>> bankAccountUUIDs = new HashMap<>();
+        for (String shopId : bankStatementShopIds) {
+            if (! bankAccountUUIDs.containsKey(shopId)) {
+                final RunnableFuture<String> lookup = new FutureTask<>(() -> retrieveBankAccountUUID(shopId));
+                if (concurrently) {
+                    documentTransferExecutor.execute(lookup);
+                } else {
+                    lookup.run();
+                }
+                bankAccountUUIDs.put(shopId, lookup);
+            }
+        }
+        if (! bankStatementShopIds.isEmpty()) {
+            connectorMetrics.increment("document.bank-account.lookups", bankAccountUUIDs.size());
+            connectorMetrics.increment("document.bank-account.lookups-saved", bankStatementShopIds.size() - bankAccountUUIDs.size());
+        }
+        return bankAccountUUIDs;
+    }
+
+    private static String awaitBankAccountUUID(final RunnableFuture<String> bankAccountUUID) throws Exception {
+        // does nothing when the lookup already started on another thread
+        bankAccountUUID.run();
         try {
-            uploadDocumentToAdyen(type, fileWrapper, document.getShopId(), shareholderCode);
-            docRetryRepository.findOneByDocId(document.getId()).ifPresent(docRetry -> {
-                docErrorRepository.delete(docRetry.getDocErrors());
-                docRetryRepository.delete(docRetry.getId());
-            });
-        } catch (ApiException e) {
-            log.error("MarketPay Api Exception: {}, {}. For the Shop: {}", e.getError(), e, document.getShopId());
-            storeDocumentForRetry(document.getId(), document.getShopId(), e.toString());
-        } catch (Exception e) {
+            return bankAccountUUID.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    private void documentUploaded(final MiraklShopDocument document) {
+        docRetryRepository.findOneByDocId(document.getId()).ifPresent(docRetry -> {
+            docErrorRepository.delete(docRetry.getDocErrors());
+            docRetryRepository.delete(docRetry.getId());
+        });
+    }
+
+    private void documentFailed(final MiraklShopDocument document, final Exception e) {
+        if (e instanceof ApiException) {
+            log.error("MarketPay Api Exception: {}, {}. For the Shop: {}", ((ApiException) e).getError(), e, document.getShopId());
+        } else {
             log.error("Exception: {}, {}. For the Shop: {}", e.getMessage(), e, document.getShopId());
-            storeDocumentForRetry(document.getId(), document.getShopId(), e.toString());
         }
+        storeDocumentForRetry(document.getId(), document.getShopId(), e.toString());
+    }
+
+    private void recordDocumentTransferRun(final int total, final int failed, final long durationNanos) {
+        final long durationMillis = TimeUnit.NANOSECONDS.toMillis(durationNanos);
+        connectorMetrics.increment("document.transfer.processed", total);
+        connectorMetrics.increment("document.transfer.failed", failed);
+        connectorMetrics.gauge("document.transfer.last-run.processed", total);
+        connectorMetrics.gauge("document.transfer.last-run.failed", failed);
+        connectorMetrics.gauge("document.transfer.last-run.duration-ms", durationMillis);
+        log.info("Transferred {} documents ({} failed) in {} ms", total, failed, durationMillis);
     }
 
     private void storeDocumentForRetry(String documentId, String shopId, String error) {
@@ -190,19 +334,15 @@ public class DocService {
         docErrorRepository.saveAndFlush(docError);
     }
 
-    private void updateDocument(final MiraklShopDocument document, DocumentDetail.DocumentTypeEnum type) {
-        updateDocument(document, type, null);
-    }
-
     /**
      * Retrieve documents from Mirakl(S30)
      */
-    private List<MiraklShopDocument> retrieveUpdatedDocs() {
+    private List<MiraklShopDocument> retrieveUpdatedDocs(final Date updatedSince) {
         //To replace with MiraklGetShopDocumentsRequest when fixed
         GetShopDocumentsRequest request = new GetShopDocumentsRequest();
-        request.setUpdatedSince(deltaService.getDocumentDelta());
+        request.setUpdatedSince(updatedSince);
         log.debug("getShopDocuments request since: {}", request.getUpdatedSince());
-        return miraklMarketplacePlatformOperatorApiClient.getShopDocuments(request);
+        return miraklConcurrencyLimiter.get(() -> miraklMarketplacePlatformOperatorApiClient.getShopDocuments(request));
     }
 
     /**
@@ -213,13 +353,17 @@ public class DocService {
         List<String> documentIds = new ArrayList<>();
         documentIds.add(document.getId());
         request.setDocumentIds(documentIds);
-        return miraklMarketplacePlatformOperatorApiClient.downloadShopsDocuments(request);
+        return miraklConcurrencyLimiter.get(() -> miraklMarketplacePlatformOperatorApiClient.downloadShopsDocuments(request));
     }
 
     /**
-     * Encode document retrieved from Mirakl in Base64 and push it to Adyen, if the document type is BANK_STATEMENT/adyen-bankproof, a bank account is needed
+     * Encode document retrieved from Mirakl in Base64, when streaming the content is left out and encoded while it is uploaded
      */
-    private void uploadDocumentToAdyen(DocumentDetail.DocumentTypeEnum documentType, FileWrapper fileWrapper, String shopId, String shareholderCode) throws Exception {
+    private UploadDocumentRequest createUploadDocumentRequest(DocumentDetail.DocumentTypeEnum documentType,
+                                                              FileWrapper fileWrapper,
+                                                              String shopId,
+                                                              String shareholderCode,
+                                                              boolean withContent) throws IOException {
         UploadDocumentRequest request = new UploadDocumentRequest();
 
         DocumentDetail documentDetail = new DocumentDetail();
@@ -229,14 +373,33 @@ public class DocService {
         documentDetail.setFilename(fileWrapper.getFilename());
 
         //Encode file Base64
-        byte[] bytes = toByteArray(fileWrapper.getFile());
-        Base64.Encoder encoder = Base64.getEncoder();
-        String encoded = encoder.encodeToString(bytes);
-        request.setDocumentContent(encoded);
+        if (withContent) {
+            byte[] bytes = toByteArray(fileWrapper.getFile());
+            Base64.Encoder encoder = Base64.getEncoder();
+            String encoded = encoder.encodeToString(bytes);
+            request.setDocumentContent(encoded);
+        }
+
+        // For test add PASSED to get document in payout mode
+        if(environment.equals(Environment.TEST.name())) {
+            documentDetail.setDescription("PASSED");
+        }
+
+        request.setDocumentDetail(documentDetail);
+        return request;
+    }
+
+    /**
+     * Push the encoded document to Adyen, if the document type is BANK_STATEMENT/adyen-bankproof, a bank account is needed
+     */
+    private void uploadDocumentToAdyen(final DocumentTransfer transfer) throws Exception {
+        final UploadDocumentRequest request = transfer.request;
+        final DocumentDetail documentDetail = request.getDocumentDetail();
+        final String shopId = documentDetail.getAccountHolderCode();
 
         //If document is a bank statement, the bankaccountUUID is required
-        if (documentType.equals(DocumentDetail.DocumentTypeEnum.BANK_STATEMENT)) {
-            String UUID = retrieveBankAccountUUID(shopId);
+        if (transfer.documentType.equals(DocumentDetail.DocumentTypeEnum.BANK_STATEMENT)) {
+            String UUID = awaitBankAccountUUID(transfer.bankAccountUUID);
             if (UUID != null && ! UUID.isEmpty()) {
                 documentDetail.setBankAccountUUID(UUID);
             } else {
@@ -244,16 +407,19 @@ public class DocService {
             }
         }
 
-        // For test add PASSED to get document in payout mode
-        if(environment.equals(Environment.TEST.name())) {
-            documentDetail.setDescription("PASSED");
+        final FileWrapper fileWrapper = transfer.fileWrapper;
+        UploadDocumentResponse response;
+        if (fileWrapper != null) {
+            response = adyenConcurrencyLimiter.call(() -> documentUploadService.uploadDocument(documentDetail, fileWrapper.getFile()));
+        } else {
+            response = adyenConcurrencyLimiter.call(() -> adyenAccountService.uploadDocument(request));
         }
-
-        request.setDocumentDetail(documentDetail);
-        UploadDocumentResponse response = adyenAccountService.uploadDocument(request);
-        log.debug("Account holder code: {}", shareholderCode);
+        // the encoded content is no longer needed, don't keep it until the pipeline has drained
+        transfer.request = null;
+        transfer.fileWrapper = null;
+        log.debug("Account holder code: {}", transfer.shareholderCode);
         log.debug("Shop ID: {}", shopId);
-        log.debug("DocumentType: {}", documentType);
+        log.debug("DocumentType: {}", transfer.documentType);
         log.debug("UploadDocumentResponse: {}", response.toString());
     }
 
@@ -261,54 +427,49 @@ public class DocService {
      * Call to Adyen to retrieve the (first)bankaccountUUID
      */
     private String retrieveBankAccountUUID(String shopID) throws Exception {
-        GetAccountHolderRequest getAccountHolderRequest = new GetAccountHolderRequest();
-        getAccountHolderRequest.setAccountHolderCode(shopID);
-        GetAccountHolderResponse getAccountHolderResponse = adyenAccountService.getAccountHolder(getAccountHolderRequest);
+        GetAccountHolderResponse getAccountHolderResponse = accountHolderCache.getByAccountHolderCode(shopID);
         if (! getAccountHolderResponse.getAccountHolderDetails().getBankAccountDetails().isEmpty()) {
             return getAccountHolderResponse.getAccountHolderDetails().getBankAccountDetails().get(0).getBankAccountUUID();
         }
         return null;
     }
 
+    /**
+     * The documents are removed in the background by MiraklMediaCleanupService, so the notification is not held up by the Mirakl calls
+     */
     public void removeMiraklMediaForShareHolder(final String shareHolderCode) {
         ShareholderMapping shareholderMapping = shareholderMappingRepository.findOneByAdyenShareholderCode(shareHolderCode)
                                                                             .orElseThrow(() -> new IllegalStateException("No shareholder mapping found for shareholder code: " + shareHolderCode));
-        final List<MiraklShopDocument> shopDocuments = miraklMarketplacePlatformOperatorApiClient.getShopDocuments(new MiraklGetShopDocumentsRequest(ImmutableList.of(shareholderMapping.getMiraklShopId())));
-        List<String> documentIdsToDelete = extractDocumentsToDelete(shopDocuments, UBO_ENTITY_TYPE, shareholderMapping.getMiraklUboNumber());
-
-        documentIdsToDelete.forEach(docIdToDel -> {
-            final MiraklDeleteShopDocumentRequest request = new MiraklDeleteShopDocumentRequest(docIdToDel);
-            miraklMarketplacePlatformOperatorApiClient.deleteShopDocument(request);
-        });
+        miraklMediaCleanupService.requestCleanup(shareholderMapping.getMiraklShopId(), entityTypeCode(UBO_ENTITY_TYPE, shareholderMapping.getMiraklUboNumber()), true);
     }
 
     public void removeMiraklMediaForIndividual(final String shopId) {
-        final List<MiraklShopDocument> shopDocuments = miraklMarketplacePlatformOperatorApiClient.getShopDocuments(new MiraklGetShopDocumentsRequest(ImmutableList.of(shopId)));
-        List<String> documentIdsToDelete = extractDocumentsToDelete(shopDocuments, INDIVIDUAL_ENTITY_TYPE, null);
-
-        documentIdsToDelete.forEach(docIdToDel -> {
-            final MiraklDeleteShopDocumentRequest request = new MiraklDeleteShopDocumentRequest(docIdToDel);
-            miraklMarketplacePlatformOperatorApiClient.deleteShopDocument(request);
-        });
+        miraklMediaCleanupService.requestCleanup(shopId, entityTypeCode(INDIVIDUAL_ENTITY_TYPE, null), true);
     }
 
-    private List<String> extractDocumentsToDelete(final List<MiraklShopDocument> shopDocuments, String entityType, Integer uboNumber) {
-        String uboStartingTypeCode = "adyen-" + entityType + Objects.toString(uboNumber, "");
-        return shopDocuments.stream().filter(x -> x.getTypeCode().startsWith(uboStartingTypeCode)).map(MiraklShopDocument::getId).collect(Collectors.toList());
+    private static String entityTypeCode(String entityType, Integer uboNumber) {
+        return "adyen-" + entityType + Objects.toString(uboNumber, "");
     }
 
     public void removeMiraklMediaForBankProof(final String accountHolderCode) {
-        final List<MiraklShopDocument> shopDocuments = miraklMarketplacePlatformOperatorApiClient.getShopDocuments(new MiraklGetShopDocumentsRequest(ImmutableList.of(accountHolderCode)));
-        List<String> documentIdsToDelete = extractBankProofDocumentsToDelete(shopDocuments);
-
-        documentIdsToDelete.forEach(docIdToDel -> {
-            final MiraklDeleteShopDocumentRequest request = new MiraklDeleteShopDocumentRequest(docIdToDel);
-            miraklMarketplacePlatformOperatorApiClient.deleteShopDocument(request);
-        });
-
+        miraklMediaCleanupService.requestCleanup(accountHolderCode, Constants.BANKPROOF, false);
     }
 
-    private List<String> extractBankProofDocumentsToDelete(final List<MiraklShopDocument> shopDocuments) {
-        return shopDocuments.stream().filter(x -> x.getTypeCode().contentEquals(Constants.BANKPROOF)).map(MiraklShopDocument::getId).collect(Collectors.toList());
+    /**
+     * A document on its way through the transfer pipeline, every stage fills in what the next stage needs
+     */
+    private static final class DocumentTransfer {
+        private final MiraklShopDocument document;
+        private final DocumentDetail.DocumentTypeEnum documentType;
+        private final String shareholderCode;
+        private FileWrapper fileWrapper;
+        private UploadDocumentRequest request;
+        private RunnableFuture<String> bankAccountUUID;
+
+        private DocumentTransfer(final MiraklShopDocument document, final DocumentDetail.DocumentTypeEnum documentType, final String shareholderCode) {
+            this.document = document;
+            this.documentType = documentType;
+            this.shareholderCode = shareholderCode;
+        }
     }
 }
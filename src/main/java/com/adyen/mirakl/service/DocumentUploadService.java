@@ -0,0 +1,149 @@
+/*
+ *                       ######
+ *                       ######
+ * ############    ####( ######  #####. ######  ############   ############
+ * #############  #####( ######  #####. ######  #############  #############
+ *        ######  #####( ######  #####. ######  #####  ######  #####  ######
+ * ###### ######  #####( ######  #####. ######  #####  #####   #####  ######
+ * ###### ######  #####( ######  #####. ######  #####          #####  ######
+ * #############  #############  #############  #############  #####  ######
+ *  ############   ############  #############   ############  #####  ######
+ *                                      ######
+ *                               #############
+ *                               ############
+ *
+ * Adyen Mirakl Connector
+ *
+ * Copyright (c) 2018 Adyen B.V.
+ * This file is open source and available under the MIT license.
+ * See the LICENSE file for more info.
+ *
+ */
+
+package com.adyen.mirakl.service;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Base64;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.CloseShieldOutputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import com.adyen.Client;
+import com.adyen.Config;
+import com.adyen.model.ApiError;
+import com.adyen.model.marketpay.DocumentDetail;
+import com.adyen.model.marketpay.UploadDocumentResponse;
+import com.adyen.service.exception.ApiException;
+import com.google.gson.Gson;
+import com.google.gson.JsonSyntaxException;
+
+/**
+ * Uploads KYC documents to Adyen without holding them in memory
+ * <p>
+ * The Adyen library needs the Base64 content of the document as a String, which for a large scan means the bytes, the Base64 characters
+ * and the JSON body are all on the heap at once. This service writes the request body itself and Base64 encodes the file while it is
+ * streamed into the connection, so an upload only needs a small fixed buffer.
+ */
+@Service
+public class DocumentUploadService {
+
+    private final Logger log = LoggerFactory.getLogger(DocumentUploadService.class);
+
+    private static final Gson GSON = new Gson();
+    private static final int BUFFER_SIZE = 8 * 1024;
+    private static final int DEFAULT_CONNECT_TIMEOUT_MILLIS = 60_000;
+    private static final int DEFAULT_READ_TIMEOUT_MILLIS = 300_000;
+
+    private final Config config;
+    private final ConnectorMetrics connectorMetrics;
+
+    @Autowired
+    public DocumentUploadService(final Client adyenClient, final ConnectorMetrics connectorMetrics) {
+        this(adyenClient.getConfig(), connectorMetrics);
+    }
+
+    public DocumentUploadService(final Config config, final ConnectorMetrics connectorMetrics) {
+        this.config = config;
+        this.connectorMetrics = connectorMetrics;
+    }
+
+    /**
+     * Same call as Account.uploadDocument, with the content of the file as documentContent
+     */
+    public UploadDocumentResponse uploadDocument(final DocumentDetail documentDetail, final File file) throws IOException, ApiException {
+        final byte[] prefix = ("{\"documentDetail\":" + GSON.toJson(documentDetail) + ",\"documentContent\":\"").getBytes(StandardCharsets.UTF_8);
+        final byte[] suffix = "\"}".getBytes(StandardCharsets.UTF_8);
+        final long fileSize = file.length();
+        final long encodedSize = 4 * ((fileSize + 2) / 3);
+
+        final HttpURLConnection connection = (HttpURLConnection) new URL(getEndpoint()).openConnection();
+        try {
+            connection.setRequestMethod("POST");
+            connection.setDoOutput(true);
+            // the Adyen Config defaults its timeouts to 0 (wait forever), fall back to bounded ones when they are not set
+            connection.setConnectTimeout(config.getConnectionTimeoutMillis() > 0 ? config.getConnectionTimeoutMillis() : DEFAULT_CONNECT_TIMEOUT_MILLIS);
+            connection.setReadTimeout(config.getReadTimeoutMillis() > 0 ? config.getReadTimeoutMillis() : DEFAULT_READ_TIMEOUT_MILLIS);
+            connection.setFixedLengthStreamingMode(prefix.length + encodedSize + suffix.length);
+            connection.setRequestProperty("Content-Type", "application/json");
+            connection.setRequestProperty("Accept-Charset", StandardCharsets.UTF_8.name());
+            connection.setRequestProperty("User-Agent", config.getApplicationName() + " " + Client.LIB_NAME + "/" + Client.LIB_VERSION);
+            final String credentials = config.getUsername() + ":" + config.getPassword();
+            connection.setRequestProperty("Authorization", "Basic " + Base64.getEncoder().encodeToString(credentials.getBytes(StandardCharsets.UTF_8)));
+
+            try (OutputStream body = connection.getOutputStream(); InputStream content = Files.newInputStream(file.toPath())) {
+                body.write(prefix);
+                // closing the encoder writes the padding, the shield keeps the request body open for the suffix
+                try (OutputStream encoder = Base64.getEncoder().wrap(new CloseShieldOutputStream(body))) {
+                    final byte[] buffer = new byte[BUFFER_SIZE];
+                    int read;
+                    while ((read = content.read(buffer)) != -1) {
+                        encoder.write(buffer, 0, read);
+                    }
+                }
+                body.write(suffix);
+            }
+
+            final int status = connection.getResponseCode();
+            if (status >= HttpURLConnection.HTTP_MULT_CHOICE) {
+                throw apiException(status, readBody(connection.getErrorStream()));
+            }
+            connectorMetrics.increment("document.upload.streamed");
+            connectorMetrics.increment("document.upload.streamed-bytes", fileSize);
+            return GSON.fromJson(readBody(connection.getInputStream()), UploadDocumentResponse.class);
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private String getEndpoint() {
+        return config.getMarketPayEndpoint() + "/Account/" + Client.MARKETPAY_ACCOUNT_API_VERSION + "/uploadDocument";
+    }
+
+    private ApiException apiException(final int status, final String body) {
+        final ApiException apiException = new ApiException("Document upload failed with HTTP status " + status, status);
+        try {
+            apiException.setError(GSON.fromJson(body, ApiError.class));
+        } catch (JsonSyntaxException e) {
+            log.debug("Document upload error response is not an Adyen error: {}", body);
+        }
+        return apiException;
+    }
+
+    private static String readBody(final InputStream inputStream) throws IOException {
+        if (inputStream == null) {
+            return "";
+        }
+        try (InputStream in = inputStream) {
+            return IOUtils.toString(in, StandardCharsets.UTF_8);
+        }
+    }
+}
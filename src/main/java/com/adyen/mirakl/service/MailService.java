@@ -57,7 +57,7 @@ public class MailService {
         this.javaMailSender = javaMailSender;
     }
 
-    @Async
+    @Async("mailExecutor")
     public void sendEmail(String to, String subject, String content, boolean isMultipart, boolean isHtml) {
         log.debug("Send email[multipart '{}' and html '{}'] to '{}' with subject '{}' and content={}",
             isMultipart, isHtml, to, subject, content);
@@ -24,6 +24,7 @@ package com.adyen.mirakl.service;
 
 import com.adyen.mirakl.config.Constants;
 import com.adyen.mirakl.config.MiraklOperatorConfiguration;
+import com.adyen.mirakl.domain.enumeration.PayoutLedgerState;
 import com.adyen.model.Amount;
 import com.adyen.model.Name;
 import com.adyen.model.marketpay.Message;
@@ -42,6 +43,7 @@ import org.springframework.util.CollectionUtils;
 import org.thymeleaf.context.Context;
 import org.thymeleaf.spring4.SpringTemplateEngine;
 
+import java.time.ZonedDateTime;
 import java.util.List;
 import java.util.Locale;
 import java.util.Set;
@@ -63,6 +65,10 @@ public class MailTemplateService {
     private static final String DESTINATION = "destination";
     private static final String MANUAL_CREDIT_AMOUNT = "manualCreditAmount";
     private static final String PSPREFERENCE = "pspreference";
+    private static final String SHOP_ID = "shopId";
+    private static final String INVOICE_NUMBER = "invoiceNumber";
+    private static final String PAYOUT_STATE = "payoutState";
+    private static final String PAYOUT_STATE_SINCE = "payoutStateSince";
 
 
     @Value("${miraklOperator.miraklEnvUrl}")
@@ -95,7 +101,7 @@ public class MailTemplateService {
         this.miraklOperatorConfiguration = miraklOperatorConfiguration;
     }
 
-    @Async
+    @Async("mailExecutor")
     public void sendMiraklShopEmailFromTemplate(MiraklShop miraklShop, Locale locale, String templateName, String titleKey) {
         Context context = new Context(locale);
         context.setVariable(MIRAKL_SHOP, miraklShop);
@@ -106,7 +112,7 @@ public class MailTemplateService {
         mailService.sendEmail(miraklShop.getContactInformation().getEmail(), subject, content, false, true);
     }
 
-    @Async
+    @Async("mailExecutor")
     public void sendShareholderEmailFromTemplate(final Name name, String shopId, Locale locale, String templateName, String titleKey, String toEmail) {
         Context context = new Context(locale);
         context.setVariable(NAME, name);
@@ -117,7 +123,7 @@ public class MailTemplateService {
         mailService.sendEmail(toEmail, subject, content, false, true);
     }
 
-    @Async
+    @Async("mailExecutor")
     public void sendSellerEmailWithErrors(MiraklShop miraklShop, List<String> errors) {
         Context context = new Context(Locale.getDefault());
         context.setVariable(MIRAKL_SHOP, miraklShop);
@@ -129,7 +135,7 @@ public class MailTemplateService {
         mailService.sendEmail(miraklShop.getContactInformation().getEmail(), subject, content, false, true);
     }
 
-    @Async
+    @Async("mailExecutor")
     public void sendOperatorEmailWithErrors(MiraklShop miraklShop, List<String> errors) {
         Context context = new Context(Locale.getDefault());
         context.setVariable(MIRAKL_SHOP, miraklShop);
@@ -141,7 +147,7 @@ public class MailTemplateService {
         mailService.sendEmail(miraklOperatorConfiguration.getMiraklOperatorEmail(), subject, content, false, true);
     }
 
-    @Async
+    @Async("mailExecutor")
     public void sendOperatorEmailPayoutFailure(MiraklShop miraklShop, com.adyen.model.marketpay.notification.Message message) {
         Context context = new Context(Locale.getDefault());
         context.setVariable(MIRAKL_SHOP, miraklShop);
@@ -153,7 +159,21 @@ public class MailTemplateService {
         mailService.sendEmail(miraklOperatorConfiguration.getMiraklOperatorEmail(), subject, content, false, true);
     }
 
-    @Async
+    @Async("mailExecutor")
+    public void sendOperatorEmailPayoutUnknownState(String shopId, String invoiceNumber, PayoutLedgerState state, ZonedDateTime since) {
+        Context context = new Context(Locale.getDefault());
+        context.setVariable(SHOP_ID, shopId);
+        context.setVariable(INVOICE_NUMBER, invoiceNumber);
+        context.setVariable(PAYOUT_STATE, state);
+        context.setVariable(PAYOUT_STATE_SINCE, since);
+        context.setVariable(MIRAKL_CALL_BACK_SHOP_URL, getMiraklShopUrl(shopId));
+        context.setVariable(BASE_URL, jHipsterProperties.getMail().getBaseUrl());
+        String content = templateEngine.process("shopNotifications/operatorEmailPayoutUnknownState", context);
+        String subject = messageSource.getMessage(Constants.Messages.EMAIL_PAYOUT_UNKNOWN_STATE_TITLE, null, Locale.getDefault());
+        mailService.sendEmail(miraklOperatorConfiguration.getMiraklOperatorEmail(), subject, content, false, true);
+    }
+
+    @Async("mailExecutor")
     public void sendOperatorEmailTransferFundsFailure(String sourceAccountHolderCode, String destinationAccountHolderCode, Amount amount, String transferCode, Message message) {
         Context context = new Context(Locale.getDefault());
 
@@ -171,7 +191,7 @@ public class MailTemplateService {
     }
 
 
-    @Async
+    @Async("mailExecutor")
     public void sendOperatorEmailManualCreditDocumentFailure(String destinationAccountHolderCode, Amount amount, String pspReference, Set<ErrorBean> errors){
         Context context = new Context(Locale.getDefault());
 
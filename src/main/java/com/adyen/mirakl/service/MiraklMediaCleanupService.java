@@ -0,0 +1,184 @@
+/*
+ *                       ######
+ *                       ######
+ * ############    ####( ######  #####. ######  ############   ############
+ * #############  #####( ######  #####. ######  #############  #############
+ *        ######  #####( ######  #####. ######  #####  ######  #####  ######
+ * ###### ######  #####( ######  #####. ######  #####  #####   #####  ######
+ * ###### ######  #####( ######  #####. ######  #####          #####  ######
+ * #############  #############  #############  #############  #####  ######
+ *  ############   ############  #############   ############  #####  ######
+ *                                      ######
+ *                               #############
+ *                               ############
+ *
+ * Adyen Mirakl Connector
+ *
+ * Copyright (c) 2018 Adyen B.V.
+ * This file is open source and available under the MIT license.
+ * See the LICENSE file for more info.
+ *
+ */
+
+package com.adyen.mirakl.service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.stream.Collectors;
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+import com.adyen.mirakl.domain.MiraklMediaCleanup;
+import com.adyen.mirakl.repository.MiraklMediaCleanupRepository;
+import com.adyen.mirakl.service.util.ConcurrencyLimiter;
+import com.google.common.collect.Lists;
+import com.mirakl.client.mmp.domain.shop.document.MiraklShopDocument;
+import com.mirakl.client.mmp.operator.core.MiraklMarketplacePlatformOperatorApiClient;
+import com.mirakl.client.mmp.request.shop.document.MiraklDeleteShopDocumentRequest;
+import com.mirakl.client.mmp.request.shop.document.MiraklGetShopDocumentsRequest;
+
+/**
+ * Removes Mirakl documents which are no longer needed once Adyen verified them
+ * <p>
+ * Verification notifications only store a cleanup request in mirakl_media_cleanup, so a restart does not lose it.
+ * The requests are processed in the background per shop: one S30 lookup per batch of shops, after which the matching documents
+ * are deleted in parallel on the mediaCleanupExecutor. A request is removed once its documents are deleted,
+ * a shop whose lookup or deletions failed is tried again in the next window.
+ */
+@Service
+public class MiraklMediaCleanupService {
+
+    private final Logger log = LoggerFactory.getLogger(MiraklMediaCleanupService.class);
+
+    private static final int SHOPS_PER_LOOKUP = 100;
+    private static final int MAX_ATTEMPTS = 5;
+
+    @Resource
+    private MiraklMarketplacePlatformOperatorApiClient miraklMarketplacePlatformOperatorApiClient;
+
+    @Resource
+    private MiraklMediaCleanupRepository miraklMediaCleanupRepository;
+
+    @Resource
+    private ConcurrencyLimiter miraklConcurrencyLimiter;
+
+    @Resource
+    private Executor mediaCleanupExecutor;
+
+    @Resource
+    private ConnectorMetrics connectorMetrics;
+
+    @PostConstruct
+    public void registerMetrics() {
+        connectorMetrics.registerGauge("media.cleanup.pending-shops", this::getPendingShops);
+    }
+
+    /**
+     * Remove the documents of the shop with the given type code, or whose type code starts with it, in the next cleanup window
+     */
+    public void requestCleanup(final String shopId, final String typeCode, final boolean prefixMatch) {
+        miraklMediaCleanupRepository.save(new MiraklMediaCleanup().shopId(shopId).typeCode(typeCode).prefixMatch(prefixMatch));
+        connectorMetrics.increment("media.cleanup.requested");
+    }
+
+    /**
+     * Process all cleanups requested since the previous window
+     */
+    public void processPendingCleanups() {
+        final Map<String, List<MiraklMediaCleanup>> batch = miraklMediaCleanupRepository.findAllByOrderByIdAsc()
+                                                                                        .stream()
+                                                                                        .collect(Collectors.groupingBy(MiraklMediaCleanup::getShopId, LinkedHashMap::new, Collectors.toList()));
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        final Map<String, List<CompletableFuture<Boolean>>> deletionsByShop = new HashMap<>();
+        for (List<String> shopIds : Lists.partition(new ArrayList<>(batch.keySet()), SHOPS_PER_LOOKUP)) {
+            final List<MiraklShopDocument> shopDocuments;
+            try {
+                shopDocuments = miraklConcurrencyLimiter.get(() -> miraklMarketplacePlatformOperatorApiClient.getShopDocuments(new MiraklGetShopDocumentsRequest(shopIds)));
+            } catch (RuntimeException e) {
+                log.error("Exception: {}, {}. While looking up the documents to remove for shops {}", e.getMessage(), e, shopIds);
+                shopIds.forEach(shopId -> retry(shopId, batch.get(shopId)));
+                continue;
+            }
+            final Map<String, List<MiraklShopDocument>> documentsByShop = shopDocuments.stream()
+                                                                                           .filter(document -> document.getShopId() != null)
+                                                                                           .collect(Collectors.groupingBy(MiraklShopDocument::getShopId));
+            for (String shopId : shopIds) {
+                final List<MiraklMediaCleanup> cleanups = batch.get(shopId);
+                deletionsByShop.put(shopId, documentsByShop.getOrDefault(shopId, new ArrayList<>())
+                                                           .stream()
+                                                           .filter(document -> cleanups.stream().anyMatch(cleanup -> cleanup.matches(document.getTypeCode())))
+                                                           .map(MiraklShopDocument::getId)
+                                                           .distinct()
+                                                           .map(documentId -> CompletableFuture.supplyAsync(() -> deleteDocument(shopId, documentId), mediaCleanupExecutor))
+                                                           .collect(Collectors.toList()));
+            }
+        }
+
+        int deleted = 0;
+        for (Map.Entry<String, List<CompletableFuture<Boolean>>> deletions : deletionsByShop.entrySet()) {
+            boolean failed = false;
+            for (CompletableFuture<Boolean> deletion : deletions.getValue()) {
+                if (deletion.join()) {
+                    deleted++;
+                } else {
+                    failed = true;
+                }
+            }
+            if (failed) {
+                retry(deletions.getKey(), batch.get(deletions.getKey()));
+            } else {
+                miraklMediaCleanupRepository.deleteInBatch(batch.get(deletions.getKey()));
+            }
+        }
+        connectorMetrics.increment("media.cleanup.shops", batch.size());
+        connectorMetrics.increment("media.cleanup.deleted", deleted);
+        log.debug("Removed {} Mirakl documents of {} shops", deleted, batch.size());
+    }
+
+    /**
+     * Number of shops with a cleanup waiting for the next window
+     */
+    public long getPendingShops() {
+        return miraklMediaCleanupRepository.countShops();
+    }
+
+    private boolean deleteDocument(final String shopId, final String documentId) {
+        try {
+            miraklConcurrencyLimiter.run(() -> miraklMarketplacePlatformOperatorApiClient.deleteShopDocument(new MiraklDeleteShopDocumentRequest(documentId)));
+            return true;
+        } catch (RuntimeException e) {
+            log.error("Exception: {}, {}. While removing document {} of shop {}", e.getMessage(), e, documentId, shopId);
+            connectorMetrics.increment("media.cleanup.failed");
+            return false;
+        }
+    }
+
+    private void retry(final String shopId, final List<MiraklMediaCleanup> cleanups) {
+        final List<MiraklMediaCleanup> retries = new ArrayList<>();
+        final List<MiraklMediaCleanup> givenUp = new ArrayList<>();
+        for (MiraklMediaCleanup cleanup : cleanups) {
+            if (cleanup.getAttempts() + 1 < MAX_ATTEMPTS) {
+                retries.add(cleanup.attempts(cleanup.getAttempts() + 1));
+            } else {
+                givenUp.add(cleanup);
+            }
+        }
+        if (! givenUp.isEmpty()) {
+            log.error("Giving up removing Mirakl documents of shop {} after {} attempts", shopId, MAX_ATTEMPTS);
+            miraklMediaCleanupRepository.deleteInBatch(givenUp);
+        }
+        if (! retries.isEmpty()) {
+            miraklMediaCleanupRepository.save(retries);
+        }
+    }
+}
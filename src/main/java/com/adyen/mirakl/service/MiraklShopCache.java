@@ -0,0 +1,247 @@
+/*
+ *                       ######
+ *                       ######
+ * ############    ####( ######  #####. ######  ############   ############
+ * #############  #####( ######  #####. ######  #############  #############
+ *        ######  #####( ######  #####. ######  #####  ######  #####  ######
+ * ###### ######  #####( ######  #####. ######  #####  #####   #####  ######
+ * ###### ######  #####( ######  #####. ######  #####          #####  ######
+ * #############  #############  #############  #############  #####  ######
+ *  ############   ############  #############   ############  #####  ######
+ *                                      ######
+ *                               #############
+ *                               ############
+ *
+ * Adyen Mirakl Connector
+ *
+ * Copyright (c) 2018 Adyen B.V.
+ * This file is open source and available under the MIT license.
+ * See the LICENSE file for more info.
+ *
+ */
+
+package com.adyen.mirakl.service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.util.CollectionUtils;
+import com.adyen.mirakl.config.ApplicationProperties;
+import com.adyen.mirakl.service.util.ConcurrencyLimiter;
+import com.google.common.collect.ImmutableList;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.mirakl.client.mmp.domain.shop.MiraklShop;
+import com.mirakl.client.mmp.domain.shop.MiraklShops;
+import com.mirakl.client.mmp.operator.core.MiraklMarketplacePlatformOperatorApiClient;
+import com.mirakl.client.mmp.request.shop.MiraklGetShopsRequest;
+
+/**
+ * Cache of single shop lookups (S20) done while handling notifications and documents
+ * <p>
+ * Lookups of shops which are not cached are collected for application.miraklShopBatchWindowMillis and then
+ * fetched with a single S20 call for all of them. A window of 0 fetches every shop on its own.
+ * Shops are invalidated by the shop synchronisation as soon as Mirakl reports them as updated.
+ */
+@Service
+public class MiraklShopCache {
+
+    /**
+     * Largest page S20 returns
+     */
+    static final int MAX_BATCH_SIZE = 100;
+
+    private final Logger log = LoggerFactory.getLogger(MiraklShopCache.class);
+
+    private final MiraklMarketplacePlatformOperatorApiClient miraklMarketplacePlatformOperatorApiClient;
+    private final ConcurrencyLimiter miraklConcurrencyLimiter;
+    private final ConnectorMetrics connectorMetrics;
+    private final boolean enabled;
+    private final long batchWindowMillis;
+    private final Cache<String, MiraklShop> shops;
+    private final ScheduledExecutorService batchScheduler;
+
+    private final Object pendingLock = new Object();
+    private Map<String, CompletableFuture<MiraklShop>> pending = new HashMap<>();
+
+    @Autowired
+    public MiraklShopCache(final MiraklMarketplacePlatformOperatorApiClient miraklMarketplacePlatformOperatorApiClient,
+                           @Qualifier("miraklConcurrencyLimiter") final ConcurrencyLimiter miraklConcurrencyLimiter,
+                           final ConnectorMetrics connectorMetrics,
+                           final ApplicationProperties applicationProperties) {
+        this(miraklMarketplacePlatformOperatorApiClient,
+             miraklConcurrencyLimiter,
+             connectorMetrics,
+             toLong(applicationProperties.getMiraklShopCacheTtlSeconds()),
+             toLong(applicationProperties.getMiraklShopCacheMaxSize()),
+             toLong(applicationProperties.getMiraklShopBatchWindowMillis()));
+    }
+
+    public MiraklShopCache(final MiraklMarketplacePlatformOperatorApiClient miraklMarketplacePlatformOperatorApiClient,
+                           final ConcurrencyLimiter miraklConcurrencyLimiter,
+                           final ConnectorMetrics connectorMetrics,
+                           final long ttlSeconds,
+                           final long maxSize,
+                           final long batchWindowMillis) {
+        this.miraklMarketplacePlatformOperatorApiClient = miraklMarketplacePlatformOperatorApiClient;
+        this.miraklConcurrencyLimiter = miraklConcurrencyLimiter;
+        this.connectorMetrics = connectorMetrics;
+        this.enabled = ttlSeconds > 0 && maxSize > 0;
+        this.batchWindowMillis = batchWindowMillis;
+        this.shops = CacheBuilder.newBuilder()
+                                 .expireAfterWrite(Math.max(ttlSeconds, 0L), TimeUnit.SECONDS)
+                                 .maximumSize(Math.max(maxSize, 0L))
+                                 .build();
+        if (batchWindowMillis > 0) {
+            final CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("adyen-mirakl-shop-batch-");
+            threadFactory.setDaemon(true);
+            this.batchScheduler = Executors.newSingleThreadScheduledExecutor(threadFactory);
+        } else {
+            this.batchScheduler = null;
+        }
+        connectorMetrics.registerGauge("mirakl.shop.cache.size", shops::size);
+    }
+
+    /**
+     * @return the shop, or null when Mirakl doesn't know it
+     */
+    public MiraklShop getShop(final String shopId) {
+        final MiraklShop cached = enabled ? shops.getIfPresent(shopId) : null;
+        if (cached != null) {
+            connectorMetrics.increment("mirakl.shop.cache.hit");
+            return cached;
+        }
+        connectorMetrics.increment("mirakl.shop.cache.miss");
+
+        if (batchScheduler == null) {
+            final MiraklShop shop = fetchShop(shopId);
+            cache(shopId, shop);
+            return shop;
+        }
+        return await(enqueue(shopId));
+    }
+
+    public void invalidate(final String shopId) {
+        if (shopId != null) {
+            shops.invalidate(shopId);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (batchScheduler != null) {
+            batchScheduler.shutdownNow();
+        }
+    }
+
+    private CompletableFuture<MiraklShop> enqueue(final String shopId) {
+        final CompletableFuture<MiraklShop> future;
+        final boolean firstOfBatch;
+        final boolean batchFull;
+        synchronized (pendingLock) {
+            final CompletableFuture<MiraklShop> alreadyPending = pending.get(shopId);
+            if (alreadyPending != null) {
+                return alreadyPending;
+            }
+            future = new CompletableFuture<>();
+            pending.put(shopId, future);
+            firstOfBatch = pending.size() == 1;
+            batchFull = pending.size() >= MAX_BATCH_SIZE;
+        }
+        if (batchFull) {
+            flush();
+        } else if (firstOfBatch) {
+            batchScheduler.schedule(this::flush, batchWindowMillis, TimeUnit.MILLISECONDS);
+        }
+        return future;
+    }
+
+    private void flush() {
+        final Map<String, CompletableFuture<MiraklShop>> batch;
+        synchronized (pendingLock) {
+            if (pending.isEmpty()) {
+                return;
+            }
+            batch = pending;
+            pending = new HashMap<>();
+        }
+        connectorMetrics.increment("mirakl.shop.cache.batches");
+        connectorMetrics.increment("mirakl.shop.cache.batched-lookups", batch.size());
+        try {
+            final Map<String, MiraklShop> fetched = fetchShops(new ArrayList<>(batch.keySet()));
+            batch.forEach((shopId, future) -> {
+                final MiraklShop shop = fetched.get(shopId);
+                cache(shopId, shop);
+                future.complete(shop);
+            });
+        } catch (RuntimeException e) {
+            log.error("Failed to retrieve shops {}: {}", batch.keySet(), e.getMessage(), e);
+            batch.values().forEach(future -> future.completeExceptionally(e));
+        }
+    }
+
+    private Map<String, MiraklShop> fetchShops(final List<String> shopIds) {
+        if (shopIds.size() == 1) {
+            final Map<String, MiraklShop> single = new HashMap<>();
+            single.put(shopIds.get(0), fetchShop(shopIds.get(0)));
+            return single;
+        }
+        final MiraklGetShopsRequest request = new MiraklGetShopsRequest();
+        request.setShopIds(shopIds);
+        request.setMax(shopIds.size());
+        final MiraklShops miraklShops = miraklConcurrencyLimiter.get(() -> miraklMarketplacePlatformOperatorApiClient.getShops(request));
+        final Map<String, MiraklShop> fetched = new HashMap<>();
+        if (miraklShops != null && miraklShops.getShops() != null) {
+            miraklShops.getShops().forEach(shop -> fetched.put(shop.getId(), shop));
+        }
+        log.debug("Retrieved {} of {} shops in one S20 call", fetched.size(), shopIds.size());
+        return fetched;
+    }
+
+    private MiraklShop fetchShop(final String shopId) {
+        final MiraklGetShopsRequest request = new MiraklGetShopsRequest();
+        request.setShopIds(ImmutableList.of(shopId));
+        final MiraklShops miraklShops = miraklConcurrencyLimiter.get(() -> miraklMarketplacePlatformOperatorApiClient.getShops(request));
+        if (miraklShops == null || CollectionUtils.isEmpty(miraklShops.getShops())) {
+            return null;
+        }
+        return miraklShops.getShops().iterator().next();
+    }
+
+    private void cache(final String shopId, final MiraklShop shop) {
+        if (enabled && shop != null) {
+            shops.put(shopId, shop);
+        }
+    }
+
+    private static MiraklShop await(final CompletableFuture<MiraklShop> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for Mirakl shop", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    private static long toLong(final Integer value) {
+        return value == null ? 0L : value.longValue();
+    }
+}
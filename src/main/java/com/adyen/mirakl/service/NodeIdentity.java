@@ -0,0 +1,50 @@
+/*
+ *                       ######
+ *                       ######
+ * ############    ####( ######  #####. ######  ############   ############
+ * #############  #####( ######  #####. ######  #############  #############
+ *        ######  #####( ######  #####. ######  #####  ######  #####  ######
+ * ###### ######  #####( ######  #####. ######  #####  #####   #####  ######
+ * ###### ######  #####( ######  #####. ######  #####          #####  ######
+ * #############  #############  #############  #############  #####  ######
+ *  ############   ############  #############   ############  #####  ######
+ *                                      ######
+ *                               #############
+ *                               ############
+ *
+ * Adyen Mirakl Connector
+ *
+ * Copyright (c) 2018 Adyen B.V.
+ * This file is open source and available under the MIT license.
+ * See the LICENSE file for more info.
+ *
+ */
+
+package com.adyen.mirakl.service;
+
+import java.lang.management.ManagementFactory;
+import java.util.UUID;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+/**
+ * Identifies this instance of the connector when several nodes share the database, e.g. as owner of a lease
+ */
+@Component
+public class NodeIdentity {
+
+    private final Logger log = LoggerFactory.getLogger(NodeIdentity.class);
+
+    private final String nodeId;
+
+    public NodeIdentity() {
+        // pid@hostname, made unique in case a node restarts with the same pid
+        this.nodeId = ManagementFactory.getRuntimeMXBean().getName() + "-" + UUID.randomUUID().toString().substring(0, 8);
+        log.info("Node id: {}", nodeId);
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+}
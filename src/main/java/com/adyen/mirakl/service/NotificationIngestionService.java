@@ -0,0 +1,257 @@
+/*
+ *                       ######
+ *                       ######
+ * ############    ####( ######  #####. ######  ############   ############
+ * #############  #####( ######  #####. ######  #############  #############
+ *        ######  #####( ######  #####. ######  #####  ######  #####  ######
+ * ###### ######  #####( ######  #####. ######  #####  #####   #####  ######
+ * ###### ######  #####( ######  #####. ######  #####          #####  ######
+ * #############  #############  #############  #############  #####  ######
+ *  ############   ############  #############   ############  #####  ######
+ *                                      ######
+ *                               #############
+ *                               ############
+ *
+ * Adyen Mirakl Connector
+ *
+ * Copyright (c) 2018 Adyen B.V.
+ * This file is open source and available under the MIT license.
+ * See the LICENSE file for more info.
+ *
+ */
+
+package com.adyen.mirakl.service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import javax.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.dao.IncorrectResultSizeDataAccessException;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+import com.adyen.mirakl.config.ApplicationProperties;
+import com.adyen.mirakl.domain.AdyenNotification;
+import com.adyen.mirakl.domain.AdyenNotificationKey;
+import com.adyen.mirakl.events.AdyenNotifcationEvent;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Stores the notifications received from Adyen before they are acknowledged
+ * <p>
+ * Notifications received within application.notificationIngestWindowMillis are stored together, with one batched insert
+ * and one commit for at most application.notificationIngestBatchSize notifications. Each request waits for the commit of
+ * its batch only, so a notification is never acknowledged before it is stored. The rows are inserted already claimed by
+ * this node and the event carries the body as received, so the worker neither claims nor reads the notification back.
+ * A window of 0 stores every notification on its own, to be claimed and loaded by the worker.
+ * <p>
+ * Notifications Adyen sends again are dropped before they are stored or processed. The keys of the
+ * last application.notificationDedupCacheSize notifications are checked in memory, older ones against adyen_notification_key.
+ */
+@Service
+public class NotificationIngestionService {
+
+    private static class ReceivedNotification {
+
+        private final String rawAdyenNotification;
+        private final CompletableFuture<Long> id = new CompletableFuture<>();
+
+        private ReceivedNotification(final String rawAdyenNotification) {
+            this.rawAdyenNotification = rawAdyenNotification;
+        }
+    }
+
+    private final Logger log = LoggerFactory.getLogger(NotificationIngestionService.class);
+
+    private final NotificationQueueService notificationQueueService;
+    private final ConnectorMetrics connectorMetrics;
+    private final long windowMillis;
+    private final int batchSize;
+    private final ScheduledExecutorService commitScheduler;
+    private final Cache<AdyenNotificationKey, Boolean> receivedKeys;
+
+    private final Object pendingLock = new Object();
+    private List<ReceivedNotification> pending = new ArrayList<>();
+    private volatile boolean batchedInsert = true;
+
+    @Autowired
+    public NotificationIngestionService(final NotificationQueueService notificationQueueService,
+                                        final ConnectorMetrics connectorMetrics,
+                                        final ApplicationProperties applicationProperties) {
+        this(notificationQueueService,
+             connectorMetrics,
+             toLong(applicationProperties.getNotificationIngestWindowMillis()),
+             (int) toLong(applicationProperties.getNotificationIngestBatchSize()),
+             toLong(applicationProperties.getNotificationDedupCacheSize()));
+    }
+
+    public NotificationIngestionService(final NotificationQueueService notificationQueueService,
+                                        final ConnectorMetrics connectorMetrics,
+                                        final long windowMillis,
+                                        final int batchSize,
+                                        final long dedupCacheSize) {
+        this.notificationQueueService = notificationQueueService;
+        this.connectorMetrics = connectorMetrics;
+        this.windowMillis = windowMillis;
+        this.batchSize = Math.max(1, batchSize);
+        if (windowMillis > 0) {
+            final CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("adyen-mirakl-notification-ingest-");
+            threadFactory.setDaemon(true);
+            this.commitScheduler = Executors.newSingleThreadScheduledExecutor(threadFactory);
+        } else {
+            this.commitScheduler = null;
+        }
+        this.receivedKeys = CacheBuilder.newBuilder().maximumSize(Math.max(dedupCacheSize, 0L)).build();
+    }
+
+    /**
+     * Store the notification, returns once it is committed
+     *
+     * @return the event handing the notification to a worker, null when the notification was received before
+     */
+    public AdyenNotifcationEvent ingest(final String rawAdyenNotification) {
+        final AdyenNotificationKey key = AdyenNotificationKey.fromRawNotification(rawAdyenNotification);
+        if (key != null && receivedKeys.getIfPresent(key) != null) {
+            return duplicate(key);
+        }
+
+        final AdyenNotifcationEvent event;
+        if (commitScheduler == null) {
+            final AdyenNotification notification = storeOnItsOwn(rawAdyenNotification);
+            event = notification == null ? null : new AdyenNotifcationEvent(notification.getId());
+        } else {
+            final Long id = await(enqueue(rawAdyenNotification));
+            event = id == null ? null : new AdyenNotifcationEvent(id, rawAdyenNotification);
+        }
+        if (key == null) {
+            return event;
+        }
+        receivedKeys.put(key, Boolean.TRUE);
+        return event == null ? duplicate(key) : event;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (commitScheduler != null) {
+            commitScheduler.shutdownNow();
+            // store the notifications still waiting for their batch, their requests are not acknowledged before
+            flush();
+        }
+    }
+
+    private AdyenNotifcationEvent duplicate(final AdyenNotificationKey key) {
+        log.info("Dropping notification {}, it was received before", key);
+        connectorMetrics.increment("notification.ingest.duplicates");
+        return null;
+    }
+
+    private AdyenNotification storeOnItsOwn(final String rawAdyenNotification) {
+        try {
+            return notificationQueueService.enqueue(rawAdyenNotification);
+        } catch (DuplicateKeyException e) {
+            // another node stored the same notification at the same time
+            return null;
+        }
+    }
+
+    private CompletableFuture<Long> enqueue(final String rawAdyenNotification) {
+        final ReceivedNotification receivedNotification = new ReceivedNotification(rawAdyenNotification);
+        final boolean firstOfBatch;
+        final boolean batchFull;
+        synchronized (pendingLock) {
+            pending.add(receivedNotification);
+            firstOfBatch = pending.size() == 1;
+            batchFull = pending.size() >= batchSize;
+        }
+        if (batchFull) {
+            flush();
+        } else if (firstOfBatch) {
+            commitScheduler.schedule(this::flush, windowMillis, TimeUnit.MILLISECONDS);
+        }
+        return receivedNotification.id;
+    }
+
+    private void flush() {
+        final List<ReceivedNotification> batch;
+        synchronized (pendingLock) {
+            if (pending.isEmpty()) {
+                return;
+            }
+            batch = pending;
+            pending = new ArrayList<>();
+        }
+        final long startedAt = System.nanoTime();
+        try {
+            final List<Long> ids = storeBatch(batch.stream().map(notification -> notification.rawAdyenNotification).collect(Collectors.toList()));
+            for (int i = 0; i < batch.size(); i++) {
+                batch.get(i).id.complete(ids.get(i));
+            }
+            connectorMetrics.increment("notification.ingest.batches");
+            connectorMetrics.increment("notification.ingest.notifications", batch.size());
+            connectorMetrics.gauge("notification.ingest.last-batch-size", batch.size());
+            connectorMetrics.gauge("notification.ingest.last-commit-ms", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedAt));
+        } catch (RuntimeException e) {
+            log.error("Failed to store {} notifications: {}", batch.size(), e.getMessage(), e);
+            connectorMetrics.increment("notification.ingest.failed", batch.size());
+            batch.forEach(notification -> notification.id.completeExceptionally(e));
+        }
+    }
+
+    private List<Long> storeBatch(final List<String> rawAdyenNotifications) {
+        try {
+            return store(rawAdyenNotifications);
+        } catch (DuplicateKeyException e) {
+            // another node stored one of the notifications at the same time, store them one by one to drop that one only
+            return rawAdyenNotifications.stream().map(this::storeOne).collect(Collectors.toList());
+        }
+    }
+
+    private Long storeOne(final String rawAdyenNotification) {
+        try {
+            return store(Collections.singletonList(rawAdyenNotification)).get(0);
+        } catch (DuplicateKeyException e) {
+            return null;
+        }
+    }
+
+    private List<Long> store(final List<String> rawAdyenNotifications) {
+        if (batchedInsert) {
+            try {
+                return notificationQueueService.enqueueClaimed(rawAdyenNotifications, true);
+            } catch (IncorrectResultSizeDataAccessException e) {
+                // the transaction is rolled back, nothing of the batch is stored
+                log.warn("The JDBC driver doesn't return the ids of batched inserts, storing notifications with one insert each");
+                batchedInsert = false;
+            }
+        }
+        return notificationQueueService.enqueueClaimed(rawAdyenNotifications, false);
+    }
+
+    private static Long await(final CompletableFuture<Long> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while storing notification", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    private static long toLong(final Integer value) {
+        return value == null ? 0L : value.longValue();
+    }
+}
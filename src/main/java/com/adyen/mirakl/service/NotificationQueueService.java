@@ -0,0 +1,226 @@
+/*
+ *                       ######
+ *                       ######
+ * ############    ####( ######  #####. ######  ############   ############
+ * #############  #####( ######  #####. ######  #############  #############
+ *        ######  #####( ######  #####. ######  #####  ######  #####  ######
+ * ###### ######  #####( ######  #####. ######  #####  #####   #####  ######
+ * ###### ######  #####( ######  #####. ######  #####          #####  ######
+ * #############  #############  #############  #############  #####  ######
+ *  ############   ############  #############   ############  #####  ######
+ *                                      ######
+ *                               #############
+ *                               ############
+ *
+ * Adyen Mirakl Connector
+ *
+ * Copyright (c) 2018 Adyen B.V.
+ * This file is open source and available under the MIT license.
+ * See the LICENSE file for more info.
+ *
+ */
+
+package com.adyen.mirakl.service;
+
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.stream.Collectors;
+import javax.annotation.Resource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import com.adyen.mirakl.config.ApplicationProperties;
+import com.adyen.mirakl.domain.AdyenNotification;
+import com.adyen.mirakl.domain.AdyenNotificationKey;
+import com.adyen.mirakl.domain.enumeration.NotificationStatus;
+import com.adyen.mirakl.repository.AdyenNotificationBatchWriter;
+import com.adyen.mirakl.repository.AdyenNotificationKeyRepository;
+import com.adyen.mirakl.repository.AdyenNotificationRepository;
+
+/**
+ * Persistent work queue of Adyen notifications, on top of the adyen_notification table
+ * <p>
+ * A notification is PENDING until a node claims it, which sets it to PROCESSING with this node as lease owner
+ * until application.notificationLeaseSeconds from now. Processed notifications are deleted. Failed ones go back to
+ * PENDING with an exponential backoff, until application.notificationMaxAttempts is reached and they are marked FAILED.
+ * Notifications of a node which died while holding the lease are claimed again once the lease expired.
+ * <p>
+ * The pspReference, eventType and content hash of every stored notification are kept in adyen_notification_key for
+ * application.notificationDedupRetentionDays, a notification Adyen sends again within that time is not stored twice.
+ */
+@Service
+public class NotificationQueueService {
+
+    private static final long MAX_RETRY_DELAY_SECONDS = 3600L;
+
+    private final Logger log = LoggerFactory.getLogger(NotificationQueueService.class);
+
+    @Resource
+    private AdyenNotificationRepository adyenNotificationRepository;
+
+    @Resource
+    private AdyenNotificationBatchWriter adyenNotificationBatchWriter;
+
+    @Resource
+    private AdyenNotificationKeyRepository adyenNotificationKeyRepository;
+
+    @Resource
+    private ApplicationProperties applicationProperties;
+
+    @Resource
+    private NodeIdentity nodeIdentity;
+
+    /**
+     * @return the stored notification, or null when it was received before
+     * @throws org.springframework.dao.DuplicateKeyException when another node stores the same notification at the same time
+     */
+    @Transactional
+    public AdyenNotification enqueue(final String rawAdyenNotification) {
+        final AdyenNotificationKey key = AdyenNotificationKey.fromRawNotification(rawAdyenNotification);
+        if (key != null) {
+            if (! adyenNotificationKeyRepository.findExisting(Collections.singletonList(key)).isEmpty()) {
+                log.info("Notification {} was received before", key);
+                return null;
+            }
+            adyenNotificationKeyRepository.insert(Collections.singletonList(key), ZonedDateTime.now());
+        }
+        final AdyenNotification notification = new AdyenNotification();
+        notification.setRawAdyenNotification(rawAdyenNotification);
+        notification.setStatus(NotificationStatus.PENDING);
+        notification.setAttempts(0);
+        return adyenNotificationRepository.save(notification);
+    }
+
+    /**
+     * Store notifications which are handed to a worker of this node right away, they are inserted already claimed by this node
+     * in a single transaction
+     *
+     * @param batched one JDBC batch for all notifications, else one insert per notification
+     * @return the ids of the notifications, in the same order, null for the ones which were received before
+     * @throws org.springframework.dao.DuplicateKeyException when another node stores one of the notifications at the same time
+     */
+    @Transactional
+    public List<Long> enqueueClaimed(final List<String> rawAdyenNotifications, final boolean batched) {
+        final List<AdyenNotificationKey> keys = rawAdyenNotifications.stream().map(AdyenNotificationKey::fromRawNotification).collect(Collectors.toList());
+        final Set<AdyenNotificationKey> receivedKeys = adyenNotificationKeyRepository.findExisting(keys.stream().filter(Objects::nonNull).collect(Collectors.toSet()));
+        final List<Integer> newNotifications = new ArrayList<>();
+        final List<AdyenNotificationKey> newKeys = new ArrayList<>();
+        for (int i = 0; i < keys.size(); i++) {
+            final AdyenNotificationKey key = keys.get(i);
+            if (key == null) {
+                newNotifications.add(i);
+            } else if (receivedKeys.add(key)) {
+                newNotifications.add(i);
+                newKeys.add(key);
+            } else {
+                log.info("Notification {} was received before", key);
+            }
+        }
+
+        final List<Long> ids = new ArrayList<>(Collections.nCopies(rawAdyenNotifications.size(), (Long) null));
+        if (newNotifications.isEmpty()) {
+            return ids;
+        }
+        adyenNotificationKeyRepository.insert(newKeys, ZonedDateTime.now());
+        final List<Long> insertedIds = adyenNotificationBatchWriter.insertClaimed(newNotifications.stream().map(rawAdyenNotifications::get).collect(Collectors.toList()),
+                                                                                  nodeIdentity.getNodeId(),
+                                                                                  leaseEnd(),
+                                                                                  batched);
+        for (int i = 0; i < newNotifications.size(); i++) {
+            ids.set(newNotifications.get(i), insertedIds.get(i));
+        }
+        return ids;
+    }
+
+    /**
+     * Forget the keys of notifications received more than application.notificationDedupRetentionDays ago
+     */
+    @Transactional
+    public void removeExpiredNotificationKeys() {
+        final int removed = adyenNotificationKeyRepository.deleteReceivedBefore(ZonedDateTime.now().minusDays(applicationProperties.getNotificationDedupRetentionDays()));
+        log.info("Removed {} expired notification keys", removed);
+    }
+
+    /**
+     * Give a notification claimed by this node back to the queue, for when no worker could take it
+     */
+    @Transactional
+    public void release(final Long id) {
+        adyenNotificationRepository.release(id, NotificationStatus.PROCESSING, NotificationStatus.PENDING, nodeIdentity.getNodeId());
+    }
+
+    /**
+     * Claim a single notification which was just received, false if another node or the poller got it first
+     */
+    @Transactional
+    public boolean claim(final Long id) {
+        return adyenNotificationRepository.claim(id, NotificationStatus.PENDING, NotificationStatus.PROCESSING, nodeIdentity.getNodeId(), leaseEnd()) == 1;
+    }
+
+    /**
+     * Claim the next batch of due notifications, the rows are locked while claiming so concurrent pollers get disjoint batches
+     */
+    @Transactional
+    public List<Long> claimDueNotifications() {
+        final ZonedDateTime now = ZonedDateTime.now();
+        final List<AdyenNotification> claimable = adyenNotificationRepository.findClaimable(NotificationStatus.PENDING,
+                                                                                             NotificationStatus.PROCESSING,
+                                                                                             now,
+                                                                                             new PageRequest(0, applicationProperties.getNotificationQueueBatchSize()));
+        final ZonedDateTime leasedUntil = leaseEnd();
+        claimable.forEach(notification -> {
+            if (NotificationStatus.PROCESSING.equals(notification.getStatus())) {
+                log.warn("Lease of {} on notification {} expired, claiming it again", notification.getLeaseOwner(), notification.getId());
+            }
+            notification.setStatus(NotificationStatus.PROCESSING);
+            notification.setLeaseOwner(nodeIdentity.getNodeId());
+            notification.setLeasedUntil(leasedUntil);
+            notification.setAttempts(notification.getAttempts() + 1);
+        });
+        return claimable.stream().map(AdyenNotification::getId).collect(Collectors.toList());
+    }
+
+    /**
+     * Give the notification back to the queue with a backoff, or mark it FAILED when it used up its attempts
+     */
+    @Transactional
+    public void fail(final Long id) {
+        final AdyenNotification notification = adyenNotificationRepository.findOneById(id);
+        if (notification == null) {
+            return;
+        }
+        final int attempts = notification.getAttempts() == null ? 0 : notification.getAttempts();
+        notification.setLeaseOwner(null);
+        notification.setLeasedUntil(null);
+        if (attempts >= applicationProperties.getNotificationMaxAttempts()) {
+            log.error("Notification {} failed {} times, giving up", id, attempts);
+            notification.setStatus(NotificationStatus.FAILED);
+            notification.setNextAttemptAt(null);
+        } else {
+            final ZonedDateTime nextAttemptAt = ZonedDateTime.now().plusSeconds(retryDelaySeconds(attempts));
+            log.info("Notification {} failed (attempt {}), retrying at {}", id, attempts, nextAttemptAt);
+            notification.setStatus(NotificationStatus.PENDING);
+            notification.setNextAttemptAt(nextAttemptAt);
+        }
+        adyenNotificationRepository.save(notification);
+    }
+
+    /**
+     * Base delay doubled for every attempt, capped at an hour
+     */
+    protected long retryDelaySeconds(final int attempts) {
+        final long baseDelay = applicationProperties.getNotificationRetryBaseDelaySeconds();
+        final int doublings = Math.min(Math.max(attempts - 1, 0), 20);
+        return Math.min(baseDelay << doublings, MAX_RETRY_DELAY_SECONDS);
+    }
+
+    private ZonedDateTime leaseEnd() {
+        return ZonedDateTime.now().plusSeconds(applicationProperties.getNotificationLeaseSeconds());
+    }
+}
@@ -0,0 +1,195 @@
+/*
+ *                       ######
+ *                       ######
+ * ############    ####( ######  #####. ######  ############   ############
+ * #############  #####( ######  #####. ######  #############  #############
+ *        ######  #####( ######  #####. ######  #####  ######  #####  ######
+ * ###### ######  #####( ######  #####. ######  #####  #####   #####  ######
+ * ###### ######  #####( ######  #####. ######  #####          #####  ######
+ * #############  #############  #############  #############  #####  ######
+ *  ############   ############  #############   ############  #####  ######
+ *                                      ######
+ *                               #############
+ *                               ############
+ *
+ * Adyen Mirakl Connector
+ *
+ * Copyright (c) 2018 Adyen B.V.
+ * This file is open source and available under the MIT license.
+ * See the LICENSE file for more info.
+ *
+ */
+
+package com.adyen.mirakl.service;
+
+import java.time.ZonedDateTime;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Optional;
+import javax.annotation.Resource;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import com.adyen.mirakl.config.ApplicationProperties;
+import com.adyen.mirakl.domain.MiraklPayoutLedger;
+import com.adyen.mirakl.domain.enumeration.PayoutLedgerState;
+import com.adyen.mirakl.repository.MiraklPayoutLedgerRepository;
+
+/**
+ * Ledger of the invoices paid out per shop in the mirakl_payout_ledger table
+ * <p>
+ * An invoice is claimed before anything is sent to Adyen, the unique (shop_id, invoice_number) index makes sure only
+ * one node and one upload can claim it. A claimed invoice is never paid out again by a new voucher, failed payouts are
+ * only retried from their AdyenPayoutError. Every method commits in its own transaction so the ledger is updated even
+ * when the caller rolls back.
+ * <p>
+ * The commission of a voucher is tracked the same way, as invoice commission-[voucher id]-[currency] of the liable account.
+ * <p>
+ * A payout which stays CLAIMED or SUBSCRIPTION_SENT for longer than application.payoutClaimLeaseMinutes was interrupted,
+ * e.g. by a crash, and may or may not have reached Adyen. It is moved to UNKNOWN and reported to the operator instead
+ * of being paid out again, its ACCOUNT_HOLDER_PAYOUT notification still confirms it.
+ */
+@Service
+public class PayoutLedgerService {
+
+    private static final EnumSet<PayoutLedgerState> IN_PROGRESS = EnumSet.of(PayoutLedgerState.CLAIMED, PayoutLedgerState.SUBSCRIPTION_SENT);
+
+    private final Logger log = LoggerFactory.getLogger(PayoutLedgerService.class);
+
+    @Resource
+    private MiraklPayoutLedgerRepository miraklPayoutLedgerRepository;
+
+    @Resource
+    private NodeIdentity nodeIdentity;
+
+    @Resource
+    private MailTemplateService mailTemplateService;
+
+    @Resource
+    private ApplicationProperties applicationProperties;
+
+    /**
+     * Claim the payout of an invoice for a voucher, false when it was already claimed. A concurrent claim of the same
+     * invoice fails on the unique index with a DataIntegrityViolationException.
+     */
+    @Transactional(propagation = Propagation.REQUIRES_NEW)
+    public boolean claim(final String shopId, final String invoiceNumber, final String voucherId) {
+        if (miraklPayoutLedgerRepository.findOneByShopIdAndInvoiceNumber(shopId, invoiceNumber).isPresent()) {
+            return false;
+        }
+        miraklPayoutLedgerRepository.saveAndFlush(new MiraklPayoutLedger().shopId(shopId)
+                                                                          .invoiceNumber(invoiceNumber)
+                                                                          .voucherId(voucherId)
+                                                                          .state(PayoutLedgerState.CLAIMED)
+                                                                          .nodeId(nodeIdentity.getNodeId()));
+        return true;
+    }
+
+    /**
+     * Whether the invoice was claimed for the voucher, by an earlier run of the voucher which was interrupted
+     */
+    @Transactional(readOnly = true)
+    public boolean isClaimedForVoucher(final String shopId, final String invoiceNumber, final String voucherId) {
+        if (voucherId == null) {
+            return false;
+        }
+        return miraklPayoutLedgerRepository.findOneByShopIdAndInvoiceNumber(shopId, invoiceNumber)
+                                           .map(MiraklPayoutLedger::getVoucherId)
+                                           .filter(voucherId::equals)
+                                           .isPresent();
+    }
+
+    /**
+     * State of the payout of an invoice, UNKNOWN for a payout in progress beyond its lease, null when it isn't claimed
+     */
+    @Transactional(readOnly = true)
+    public PayoutLedgerState stateOf(final String shopId, final String invoiceNumber) {
+        final Optional<MiraklPayoutLedger> ledger = miraklPayoutLedgerRepository.findOneByShopIdAndInvoiceNumber(shopId, invoiceNumber);
+        if (! ledger.isPresent()) {
+            return null;
+        }
+        if (IN_PROGRESS.contains(ledger.get().getState()) && ledger.get().getUpdatedAt() != null && ledger.get().getUpdatedAt().isBefore(leaseExpiry())) {
+            return PayoutLedgerState.UNKNOWN;
+        }
+        return ledger.get().getState();
+    }
+
+    /**
+     * Move the payouts in progress beyond their lease to UNKNOWN and report every one of them to the operator once
+     *
+     * @return the number of payouts reported
+     */
+    @Transactional
+    public int reportStalePayouts() {
+        final List<MiraklPayoutLedger> stalePayouts = miraklPayoutLedgerRepository.findByStateInAndUpdatedAtBefore(IN_PROGRESS, leaseExpiry());
+        int reported = 0;
+        for (MiraklPayoutLedger stalePayout : stalePayouts) {
+            // a payout which moved on since it was read is left alone
+            if (miraklPayoutLedgerRepository.updateStateFrom(stalePayout.getShopId(), stalePayout.getInvoiceNumber(), EnumSet.of(stalePayout.getState()), PayoutLedgerState.UNKNOWN, ZonedDateTime.now()) == 0) {
+                continue;
+            }
+            log.error("Payout of invoice [{}] of shop [{}] is in an unknown state, it is {} since {} on node {}",
+                      stalePayout.getInvoiceNumber(), stalePayout.getShopId(), stalePayout.getState(), stalePayout.getUpdatedAt(), stalePayout.getNodeId());
+            mailTemplateService.sendOperatorEmailPayoutUnknownState(stalePayout.getShopId(), stalePayout.getInvoiceNumber(), stalePayout.getState(), stalePayout.getUpdatedAt());
+            reported++;
+        }
+        return reported;
+    }
+
+    private ZonedDateTime leaseExpiry() {
+        return ZonedDateTime.now().minusMinutes(Optional.ofNullable(applicationProperties.getPayoutClaimLeaseMinutes()).orElse(60));
+    }
+
+    @Transactional(propagation = Propagation.REQUIRES_NEW)
+    public void subscriptionSent(final String shopId, final String invoiceNumber, final String pspReference) {
+        miraklPayoutLedgerRepository.updateSubscriptionSent(shopId, invoiceNumber, PayoutLedgerState.SUBSCRIPTION_SENT, pspReference, ZonedDateTime.now());
+    }
+
+    @Transactional(propagation = Propagation.REQUIRES_NEW)
+    public void payoutSent(final String shopId, final String invoiceNumber, final String pspReference) {
+        miraklPayoutLedgerRepository.updatePayoutSent(shopId, invoiceNumber, PayoutLedgerState.PAYOUT_SENT, pspReference, ZonedDateTime.now());
+    }
+
+    /**
+     * The payout was not accepted by Adyen, it is either retried from its AdyenPayoutError or needs manual action
+     */
+    @Transactional(propagation = Propagation.REQUIRES_NEW)
+    public void failed(final String shopId, final String invoiceNumber) {
+        miraklPayoutLedgerRepository.updateState(shopId, invoiceNumber, PayoutLedgerState.FAILED, ZonedDateTime.now());
+    }
+
+    /**
+     * Give up a claim before anything was sent to Adyen
+     */
+    @Transactional(propagation = Propagation.REQUIRES_NEW)
+    public void release(final String shopId, final String invoiceNumber) {
+        miraklPayoutLedgerRepository.deleteByShopIdAndInvoiceNumberAndState(shopId, invoiceNumber, PayoutLedgerState.CLAIMED);
+    }
+
+    /**
+     * Record the outcome of a payout from its ACCOUNT_HOLDER_PAYOUT notification. The notification carries the invoice
+     * number as merchant reference and the shop as account holder, the psp reference of the payout request is only used
+     * when the merchant reference is missing. A payout is confirmed also when the ledger missed its PAYOUT_SENT update.
+     *
+     * @param shopId               accountHolderCode of the notification content
+     * @param invoiceNumber        merchantReference of the notification content
+     * @param payoutPspReference   originalPspReference of the notification content
+     */
+    @Transactional(propagation = Propagation.REQUIRES_NEW)
+    public void confirm(final String shopId, final String invoiceNumber, final String payoutPspReference, final boolean succeeded) {
+        final PayoutLedgerState state = succeeded ? PayoutLedgerState.CONFIRMED : PayoutLedgerState.FAILED;
+        final EnumSet<PayoutLedgerState> fromStates = EnumSet.complementOf(EnumSet.of(PayoutLedgerState.CONFIRMED));
+        int updated = 0;
+        if (StringUtils.isNotEmpty(shopId) && StringUtils.isNotEmpty(invoiceNumber)) {
+            updated = miraklPayoutLedgerRepository.updateStateFrom(shopId, invoiceNumber, fromStates, state, ZonedDateTime.now());
+        } else if (StringUtils.isNotEmpty(payoutPspReference)) {
+            updated = miraklPayoutLedgerRepository.updateStateByPayoutPspReference(payoutPspReference, fromStates, state, ZonedDateTime.now());
+        }
+        if (updated == 0) {
+            log.debug("No open payout of invoice [{}] of shop [{}], psp reference [{}] in the payout ledger", invoiceNumber, shopId, payoutPspReference);
+        }
+    }
+}
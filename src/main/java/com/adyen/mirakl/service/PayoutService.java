@@ -23,34 +23,57 @@
 package com.adyen.mirakl.service;
 
 import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
 import javax.annotation.Resource;
 import org.apache.commons.csv.CSVFormat;
 import org.apache.commons.csv.CSVParser;
 import org.apache.commons.csv.CSVRecord;
+import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
 import com.adyen.util.Util;
+import com.adyen.mirakl.config.ApplicationProperties;
 import com.adyen.mirakl.domain.AdyenPayoutError;
 import com.adyen.mirakl.domain.MiraklVoucherEntry;
+import com.adyen.mirakl.domain.MiraklVoucherQuarantine;
+import com.adyen.mirakl.domain.enumeration.PayoutLedgerState;
 import com.adyen.mirakl.repository.AdyenPayoutErrorRepository;
+import com.adyen.mirakl.repository.MiraklVoucherEntryBatchWriter;
 import com.adyen.mirakl.repository.MiraklVoucherEntryRepository;
+import com.adyen.mirakl.repository.MiraklVoucherQuarantineRepository;
+import com.adyen.mirakl.service.util.ConcurrencyLimiter;
+import com.adyen.mirakl.service.util.MinorUnitAccumulator;
+import com.adyen.mirakl.service.util.PayoutRequestCodec;
 import com.adyen.model.Amount;
 import com.adyen.model.marketpay.BankAccountDetail;
-import com.adyen.model.marketpay.GetAccountHolderRequest;
 import com.adyen.model.marketpay.GetAccountHolderResponse;
 import com.adyen.model.marketpay.PayoutAccountHolderRequest;
 import com.adyen.model.marketpay.PayoutAccountHolderResponse;
 import com.adyen.model.marketpay.TransferFundsRequest;
 import com.adyen.model.marketpay.TransferFundsResponse;
-import com.adyen.service.Account;
 import com.adyen.service.Fund;
 import com.adyen.service.exception.ApiException;
-import com.google.gson.Gson;
 
 @Service
 @Transactional
@@ -59,7 +82,7 @@ public class PayoutService {
     private final Logger log = LoggerFactory.getLogger(PayoutService.class);
 
     @Resource
-    private Account adyenAccountService;
+    private AccountHolderCache accountHolderCache;
 
     @Resource
     private Fund adyenFundService;
@@ -70,6 +93,27 @@ public class PayoutService {
     @Resource
     private MiraklVoucherEntryRepository miraklVoucherEntryRepository;
 
+    @Resource
+    private MiraklVoucherQuarantineRepository miraklVoucherQuarantineRepository;
+
+    @Resource
+    private PayoutLedgerService payoutLedgerService;
+
+    @Resource
+    private MiraklVoucherEntryBatchWriter miraklVoucherEntryBatchWriter;
+
+    @Resource
+    private ApplicationProperties applicationProperties;
+
+    @Resource
+    private ConnectorMetrics connectorMetrics;
+
+    @Resource
+    private AsyncTaskExecutor payoutExecutor;
+
+    @Resource
+    private ConcurrencyLimiter adyenConcurrencyLimiter;
+
     @Value("${payoutService.subscriptionTransferCode}")
     private String subscriptionTransferCode;
 
@@ -79,14 +123,34 @@ public class PayoutService {
     @Value("${payoutService.payoutToLiableAccountByVoucher}")
     private Boolean payoutToLiableAccountByVoucher;
 
-    protected final static Gson GSON = new Gson();
+    private static final Pattern CURRENCY_PATTERN = Pattern.compile("[A-Z]{3}");
 
 
+    @Transactional(rollbackFor = IOException.class)
     public void parseMiraklCsv(String csvData) throws IOException {
-        Iterable<CSVRecord> records = CSVParser.parse(csvData, CSVFormat.DEFAULT.withFirstRecordAsHeader().withDelimiter(';'));
+        parseMiraklCsv(new StringReader(csvData));
+    }
+
+    /**
+     * Store the lines of a payout voucher while reading it, inserted in JDBC batches of application.voucherInsertBatchSize lines
+     * so only one batch is held in memory. Nothing is stored when the voucher cannot be read completely.
+     * The lines of one upload share a voucher id, its commission is paid out once all of them are paid out.
+     * The amounts are parsed into minor units here, lines with an invalid amount are quarantined instead of stored for payout.
+     */
+    @Transactional(rollbackFor = IOException.class)
+    public void parseMiraklCsv(Reader csvData) throws IOException {
+        final long startedAt = System.nanoTime();
+        final int batchSize = Math.max(1, Optional.ofNullable(applicationProperties.getVoucherInsertBatchSize()).orElse(1));
+        final List<MiraklVoucherEntry> batch = new ArrayList<>(batchSize);
+        final String voucherId = UUID.randomUUID().toString();
+        int total = 0;
+        int quarantined = 0;
+
+        final CSVParser records = new CSVParser(csvData, CSVFormat.DEFAULT.withFirstRecordAsHeader().withDelimiter(';'));
         for (CSVRecord record : records) {
             MiraklVoucherEntry miraklVoucherEntry = new MiraklVoucherEntry();
 
+            miraklVoucherEntry.setVoucherId(voucherId);
             miraklVoucherEntry.setShopId(record.get("shop-id"));
             miraklVoucherEntry.setTransferAmount(record.get("transfer-amount"));
             miraklVoucherEntry.setCurrencyIsoCode(record.get("currency-iso-code"));
@@ -96,71 +160,316 @@ public class PayoutService {
             miraklVoucherEntry.setSubscriptionAmount(record.get("subscription-amount"));
             miraklVoucherEntry.setTotalChargedAmount(record.get("total-charged-amount"));
             miraklVoucherEntry.setTotalChargedAmountVat(record.get("total-charged-amount-vat"));
-            miraklVoucherEntryRepository.save(miraklVoucherEntry);
+
+            final String rejection = parseAmounts(miraklVoucherEntry);
+            if (rejection != null) {
+                quarantineVoucherLine(record, miraklVoucherEntry, rejection);
+                quarantined++;
+                continue;
+            }
+            batch.add(miraklVoucherEntry);
+            if (batch.size() == batchSize) {
+                total += insertVoucherEntries(batch);
+            }
+        }
+        total += insertVoucherEntries(batch);
+
+        recordVoucherIngestion(total, quarantined, System.nanoTime() - startedAt);
+    }
+
+    /**
+     * Parse the amounts of a voucher line into minor units of its currency
+     *
+     * @return why the line is rejected, null when the line is valid
+     */
+    protected static String parseAmounts(final MiraklVoucherEntry miraklVoucherEntry) {
+        if (StringUtils.isBlank(miraklVoucherEntry.getShopId())) {
+            return "Missing shop-id";
+        }
+        final String currency = miraklVoucherEntry.getCurrencyIsoCode();
+        if (currency == null || ! CURRENCY_PATTERN.matcher(currency).matches()) {
+            return "Invalid currency-iso-code [" + currency + "]";
+        }
+        try {
+            miraklVoucherEntry.setTransferAmountMinor(MinorUnitAccumulator.parseMinorUnits(miraklVoucherEntry.getTransferAmount(), currency));
+        } catch (NumberFormatException e) {
+            return "Invalid transfer-amount [" + miraklVoucherEntry.getTransferAmount() + "]";
+        }
+        try {
+            miraklVoucherEntry.setSubscriptionAmountMinor(parseOptionalMinorUnits(miraklVoucherEntry.getSubscriptionAmount(), currency));
+        } catch (NumberFormatException e) {
+            return "Invalid subscription-amount [" + miraklVoucherEntry.getSubscriptionAmount() + "]";
         }
+        try {
+            miraklVoucherEntry.setTotalChargedAmountMinor(parseOptionalMinorUnits(miraklVoucherEntry.getTotalChargedAmount(), currency));
+        } catch (NumberFormatException e) {
+            return "Invalid total-charged-amount [" + miraklVoucherEntry.getTotalChargedAmount() + "]";
+        }
+        try {
+            miraklVoucherEntry.setTotalChargedAmountVatMinor(parseOptionalMinorUnits(miraklVoucherEntry.getTotalChargedAmountVat(), currency));
+        } catch (NumberFormatException e) {
+            return "Invalid total-charged-amount-vat [" + miraklVoucherEntry.getTotalChargedAmountVat() + "]";
+        }
+        return null;
+    }
+
+    private static Long parseOptionalMinorUnits(final String amount, final String currency) {
+        return StringUtils.isBlank(amount) ? null : MinorUnitAccumulator.parseMinorUnits(amount, currency);
+    }
+
+    private void quarantineVoucherLine(final CSVRecord record, final MiraklVoucherEntry miraklVoucherEntry, final String reason) {
+        log.warn("Quarantined payout voucher record {} of shop [{}], invoice [{}]: {}",
+                 record.getRecordNumber(), miraklVoucherEntry.getShopId(), miraklVoucherEntry.getInvoiceNumber(), reason);
+        final MiraklVoucherQuarantine miraklVoucherQuarantine = new MiraklVoucherQuarantine().recordNumber(record.getRecordNumber())
+                                                                                             .shopId(miraklVoucherEntry.getShopId())
+                                                                                             .invoiceNumber(miraklVoucherEntry.getInvoiceNumber())
+                                                                                             .reason(StringUtils.abbreviate(reason, 255))
+                                                                                             .rawLine(StringUtils.abbreviate(String.join(";", record), MiraklVoucherQuarantine.MAX_RAW_LINE_LENGTH));
+        miraklVoucherQuarantineRepository.save(miraklVoucherQuarantine);
+    }
+
+    private int insertVoucherEntries(final List<MiraklVoucherEntry> batch) {
+        if (batch.isEmpty()) {
+            return 0;
+        }
+        miraklVoucherEntryBatchWriter.insert(batch);
+        final int inserted = batch.size();
+        batch.clear();
+        return inserted;
+    }
 
-        miraklVoucherEntryRepository.flush();
+    private void recordVoucherIngestion(final int total, final int quarantined, final long durationNanos) {
+        final long durationMillis = TimeUnit.NANOSECONDS.toMillis(durationNanos);
+        final double linesPerSecond = durationNanos > 0 ? total * 1_000_000_000d / durationNanos : 0d;
+        connectorMetrics.increment("payout.voucher.lines", total);
+        connectorMetrics.increment("payout.voucher.quarantined", quarantined);
+        connectorMetrics.gauge("payout.voucher.last-run.lines", total);
+        connectorMetrics.gauge("payout.voucher.last-run.quarantined", quarantined);
+        connectorMetrics.gauge("payout.voucher.last-run.duration-ms", durationMillis);
+        connectorMetrics.gauge("payout.voucher.last-run.lines-per-second", linesPerSecond);
+        log.info("Stored {} payout voucher lines in {} ms, {} lines/s, quarantined {} lines", total, durationMillis, String.format("%.2f", linesPerSecond), quarantined);
     }
 
-    @Async
+    /**
+     * Pay out the stored voucher lines in batches of application.payoutBatchSize, the lines of a batch are paid out by
+     * application.payoutParallelism workers and marked processed together afterwards. Every batch commits on its own, so an
+     * interrupted run only repeats the batch it was working on.
+     * Every batch is claimed with a single update under a new claim token, so nodes receiving an upload at the same time
+     * never pay out the same lines. The claim of a node which dies is taken over once application.payoutClaimLeaseMinutes passed.
+     * The commission of a voucher is paid out once per currency when all its lines are processed, the lines are deleted afterwards.
+     */
+    @Async("payoutRunExecutor")
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
     public synchronized void processMiraklVoucherEntries() {
-        List<MiraklVoucherEntry> miraklVoucherEntries = miraklVoucherEntryRepository.findAll();
-        if (! payoutToLiableAccountByVoucher) {
-            for (MiraklVoucherEntry miraklVoucherEntry : miraklVoucherEntries) {
-                processMiraklVoucherEntry(miraklVoucherEntry);
-                miraklVoucherEntryRepository.delete(miraklVoucherEntry);
-                miraklVoucherEntryRepository.flush();
+        final long startedAt = System.nanoTime();
+        final int batchSize = Math.max(1, Optional.ofNullable(applicationProperties.getPayoutBatchSize()).orElse(1));
+        int total = 0;
+
+        Long lastId = 0L;
+        List<Long> claimableIds;
+        while (! (claimableIds = miraklVoucherEntryRepository.findClaimableIds(lastId, ZonedDateTime.now(), new PageRequest(0, batchSize))).isEmpty()) {
+            lastId = claimableIds.get(claimableIds.size() - 1);
+            final String claimToken = UUID.randomUUID().toString();
+            final List<MiraklVoucherEntry> miraklVoucherEntries = claimVoucherEntries(claimableIds, claimToken);
+            if (miraklVoucherEntries.isEmpty()) {
+                // claimed by another node
+                continue;
             }
-        } else {
-            Double totalCommissionAmount = null;
-            String commissionPayoutCurrency = null;
-            //get the commission currency from first voucher entry
-            if (miraklVoucherEntries != null && miraklVoucherEntries.size() > 0) {
-                commissionPayoutCurrency = miraklVoucherEntries.get(0).getCurrencyIsoCode();
-                totalCommissionAmount = new Double(0);
-
-                for (MiraklVoucherEntry miraklVoucherEntry : miraklVoucherEntries) {
-                    processMiraklVoucherEntry(miraklVoucherEntry);
-                    try {
-                        totalCommissionAmount = totalCommissionAmount
-                                + Double.parseDouble(miraklVoucherEntry.getTotalChargedAmount())
-                                + Double.parseDouble(miraklVoucherEntry.getTotalChargedAmountVat());
-                    } catch (NumberFormatException e) {
-                        log.error("total_charged_amount ["
-                                          + miraklVoucherEntry.getTotalChargedAmount()
-                                          + "] or total_charged_amount_vat ["
-                                          + miraklVoucherEntry.getTotalChargedAmountVat()
-                                          + "]  is not a valid number hence skipping addition of this voucher entry in commission payout"
-                                          + e.getMessage());
-                    }
-                    miraklVoucherEntryRepository.delete(miraklVoucherEntry);
-                    miraklVoucherEntryRepository.flush();
-                }
-                processCommissions(Util.createAmount(totalCommissionAmount.toString(), commissionPayoutCurrency));
+            try {
+                dispatchPayouts(miraklVoucherEntries);
+            } catch (RuntimeException e) {
+                // keep the batch for the next run, the payout ledger skips the lines which were already paid out
+                miraklVoucherEntryRepository.releaseClaim(claimToken);
+                throw e;
+            }
+
+            miraklVoucherEntryBatchWriter.updateProcessed(miraklVoucherEntries, claimToken);
+            total += miraklVoucherEntries.size();
+        }
+        miraklVoucherEntryRepository.findProcessedVoucherIds().forEach(this::completeVoucher);
+
+        recordPayoutRun(total, System.nanoTime() - startedAt);
+    }
+
+    private List<MiraklVoucherEntry> claimVoucherEntries(final List<Long> ids, final String claimToken) {
+        final ZonedDateTime now = ZonedDateTime.now();
+        final int leaseMinutes = Optional.ofNullable(applicationProperties.getPayoutClaimLeaseMinutes()).orElse(60);
+        miraklVoucherEntryRepository.claim(ids, claimToken, now, now.plusMinutes(leaseMinutes));
+        return miraklVoucherEntryRepository.findByClaimTokenOrderByIdAsc(claimToken);
+    }
+
+    /**
+     * Pay out the line, its commission only counts when its invoice was claimed in the payout ledger for its voucher.
+     * A line skipped because an earlier upload already paid out its invoice adds nothing to the commission.
+     */
+    private void payOut(final MiraklVoucherEntry miraklVoucherEntry) {
+        final boolean claimed = processMiraklVoucherEntry(miraklVoucherEntry);
+        miraklVoucherEntry.setProcessed(true);
+        if (claimed && payoutToLiableAccountByVoucher) {
+            miraklVoucherEntry.setCommissionMinor(commissionOf(miraklVoucherEntry));
+        }
+    }
+
+    /**
+     * One commission payout per currency found in the processed lines of the voucher, the lines are deleted afterwards
+     */
+    private void completeVoucher(final String voucherId) {
+        if (payoutToLiableAccountByVoucher) {
+            for (Object[] commission : miraklVoucherEntryRepository.sumCommissionByCurrency(voucherId)) {
+                payoutCommission(voucherId, (String) commission[0], ((Number) commission[1]).longValue());
             }
         }
+        miraklVoucherEntryRepository.deleteByVoucherId(voucherId);
+    }
+
+    /**
+     * The commission of a voucher is claimed in the payout ledger per currency, so it is paid out once also when the run is
+     * interrupted before the voucher is deleted or two nodes complete the voucher at the same time
+     */
+    private void payoutCommission(final String voucherId, final String currency, final long minorUnits) {
+        final String commissionReference = "commission-" + voucherId + "-" + currency;
+        if (! claimPayout(liableAccountCode, commissionReference, voucherId)) {
+            log.warn("Commission in {} of voucher [{}] was already paid out or is being paid out ({}), skipping it",
+                     currency, voucherId, payoutLedgerService.stateOf(liableAccountCode, commissionReference));
+            connectorMetrics.increment("payout.commission.duplicate");
+            return;
+        }
+        processCommissions(MinorUnitAccumulator.toAmount(minorUnits, currency), commissionReference);
+    }
+
+    /**
+     * The commission of a voucher line in minor units of its currency, null when it cannot be counted
+     */
+    private Long commissionOf(final MiraklVoucherEntry miraklVoucherEntry) {
+        final String currency = miraklVoucherEntry.getCurrencyIsoCode();
+        if (currency == null) {
+            log.error("Voucher entry of shop [{}] has no currency hence skipping addition of this voucher entry in commission payout", miraklVoucherEntry.getShopId());
+            return null;
+        }
+        try {
+            // parse both amounts before adding them up, a line is either fully counted or skipped
+            final long chargedAmount = minorUnits(miraklVoucherEntry.getTotalChargedAmountMinor(), miraklVoucherEntry.getTotalChargedAmount(), currency);
+            final long chargedAmountVat = minorUnits(miraklVoucherEntry.getTotalChargedAmountVatMinor(), miraklVoucherEntry.getTotalChargedAmountVat(), currency);
+            return Math.addExact(chargedAmount, chargedAmountVat);
+        } catch (NumberFormatException | ArithmeticException e) {
+            log.error("total_charged_amount ["
+                          + miraklVoucherEntry.getTotalChargedAmount()
+                          + "] or total_charged_amount_vat ["
+                          + miraklVoucherEntry.getTotalChargedAmountVat()
+                          + "]  is not a valid number hence skipping addition of this voucher entry in commission payout"
+                          + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * The minor units parsed at upload, lines stored before the amounts were parsed at upload only have the decimal string
+     */
+    private static long minorUnits(final Long minorUnits, final String amount, final String currency) {
+        return minorUnits != null ? minorUnits : MinorUnitAccumulator.parseMinorUnits(amount, currency);
+    }
+
+    private static Amount voucherAmount(final Long minorUnits, final String amount, final String currency) {
+        return minorUnits != null ? MinorUnitAccumulator.toAmount(minorUnits, currency) : Util.createAmount(amount, currency);
+    }
+
+    /**
+     * Fan the voucher lines out over the payout workers, lines are partitioned by shop id so the subscription transfer
+     * and payout of one shop are always sent in order by the same worker
+     */
+    private void dispatchPayouts(final List<MiraklVoucherEntry> miraklVoucherEntries) {
+        final int parallelism = Math.max(1, Optional.ofNullable(applicationProperties.getPayoutParallelism()).orElse(1));
+        if (parallelism == 1 || miraklVoucherEntries.size() <= 1) {
+            miraklVoucherEntries.forEach(this::payOut);
+            return;
+        }
+
+        final List<Future<?>> partitions = partitionByShopId(miraklVoucherEntries, parallelism).stream()
+                                                                                              .filter(partition -> ! partition.isEmpty())
+                                                                                              .map(partition -> payoutExecutor.submit(() -> partition.forEach(this::payOut)))
+                                                                                              .collect(Collectors.toList());
+        Throwable failure = null;
+        for (Future<?> partition : partitions) {
+            try {
+                partition.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while paying out voucher entries", e);
+            } catch (ExecutionException e) {
+                log.error("Exception: {}, {}. While paying out voucher entries", e.getMessage(), e);
+                failure = e.getCause();
+            }
+        }
+        if (failure != null) {
+            // keep the batch, the payout ledger skips the lines which were already paid out when it is processed again
+            throw new IllegalStateException("Could not pay out all voucher entries of the batch", failure);
+        }
+    }
+
+    protected static List<List<MiraklVoucherEntry>> partitionByShopId(final List<MiraklVoucherEntry> miraklVoucherEntries, final int partitions) {
+        final List<List<MiraklVoucherEntry>> result = new ArrayList<>(partitions);
+        for (int i = 0; i < partitions; i++) {
+            result.add(new ArrayList<>());
+        }
+        miraklVoucherEntries.forEach(entry -> result.get(Math.floorMod(Objects.hashCode(entry.getShopId()), partitions)).add(entry));
+        return result;
+    }
+
+    private void recordPayoutRun(final int total, final long durationNanos) {
+        final long durationMillis = TimeUnit.NANOSECONDS.toMillis(durationNanos);
+        final double linesPerSecond = durationNanos > 0 ? total * 1_000_000_000d / durationNanos : 0d;
+        connectorMetrics.increment("payout.processed", total);
+        connectorMetrics.gauge("payout.last-run.processed", total);
+        connectorMetrics.gauge("payout.last-run.duration-ms", durationMillis);
+        connectorMetrics.gauge("payout.last-run.lines-per-second", linesPerSecond);
+        log.info("Paid out {} voucher lines in {} ms, {} lines/s", total, durationMillis, String.format("%.2f", linesPerSecond));
     }
 
     public void processCommissions(Amount amount) {
+        processCommissions(amount, null);
+    }
+
+    /**
+     * @param commissionReference the invoice number of the commission payout in the payout ledger, null when it isn't tracked
+     */
+    private void processCommissions(final Amount amount, final String commissionReference) {
         PayoutAccountHolderRequest payoutAccountHolderRequest = null;
         PayoutAccountHolderResponse payoutAccountHolderResponse = null;
         try {
             payoutAccountHolderRequest = createPayoutAccountHolderRequestForLiableAccount(amount);
-            payoutAccountHolderResponse = adyenFundService.payoutAccountHolder(payoutAccountHolderRequest);
+            final PayoutAccountHolderRequest commissionRequest = payoutAccountHolderRequest;
+            payoutAccountHolderResponse = adyenConcurrencyLimiter.call(() -> adyenFundService.payoutAccountHolder(commissionRequest));
             log.info("Payout submitted for commission for accountHolder: [{}] + Psp ref: [{}]", payoutAccountHolderResponse.toString(), payoutAccountHolderResponse.getPspReference());
+            final String pspReference = payoutAccountHolderResponse.getPspReference();
+            if (commissionReference != null) {
+                updateLedger(() -> payoutLedgerService.payoutSent(liableAccountCode, commissionReference, pspReference));
+            }
         } catch (ApiException e) {
             log.error("MarketPay Api Exception for commission payout: {}, {}. For the LiableAccount: {} ", e.getError(),e, liableAccountCode);
+            payoutFailed(liableAccountCode, commissionReference, payoutAccountHolderRequest);
             if (isAllowedToRetryAfterApiException(e)) {
                 storeAdyenPayoutError(payoutAccountHolderRequest, payoutAccountHolderResponse, null);
             }
         } catch (Exception e) {
             log.error("Exception: {}, {}. For the LiableAccount: {} ", e.getMessage(), e, liableAccountCode);
+            payoutFailed(liableAccountCode, commissionReference, payoutAccountHolderRequest);
             storeAdyenPayoutError(payoutAccountHolderRequest, payoutAccountHolderResponse, null);
         }
     }
 
-    public void processMiraklVoucherEntry(MiraklVoucherEntry miraklVoucherEntry) {
+    /**
+     * Pay out a voucher line unless its invoice was already claimed in the payout ledger
+     *
+     * @return true when the invoice is claimed for the voucher of the line, by this call or by an interrupted earlier run of the voucher
+     */
+    public boolean processMiraklVoucherEntry(MiraklVoucherEntry miraklVoucherEntry) {
         String accountHolderCode = miraklVoucherEntry.getShopId();
+        final String invoiceNumber = miraklVoucherEntry.getInvoiceNumber();
+
+        if (! claimPayout(accountHolderCode, invoiceNumber, miraklVoucherEntry.getVoucherId())) {
+            skipClaimedPayout(accountHolderCode, invoiceNumber);
+            return payoutLedgerService.isClaimedForVoucher(accountHolderCode, invoiceNumber, miraklVoucherEntry.getVoucherId());
+        }
 
         PayoutAccountHolderRequest payoutAccountHolderRequest = null;
         PayoutAccountHolderResponse payoutAccountHolderResponse = null;
@@ -174,22 +483,87 @@ public class PayoutService {
 
             if (miraklVoucherEntry.hasSubscription()) {
                 transferFundsRequest = createTransferFundsSubscription(accountHolderResponse, miraklVoucherEntry);
-                TransferFundsResponse transferFundsResponse = adyenFundService.transferFunds(transferFundsRequest);
+                final TransferFundsRequest subscriptionRequest = transferFundsRequest;
+                TransferFundsResponse transferFundsResponse = adyenConcurrencyLimiter.call(() -> adyenFundService.transferFunds(subscriptionRequest));
                 log.info("Subscription submitted for accountHolder: [{}] + Response: [{}]", accountHolderCode, transferFundsResponse);
                 transferFundsRequest = null;
+                final String subscriptionPspReference = transferFundsResponse != null ? transferFundsResponse.getPspReference() : null;
+                updateLedger(() -> payoutLedgerService.subscriptionSent(accountHolderCode, invoiceNumber, subscriptionPspReference));
             }
-            payoutAccountHolderResponse = adyenFundService.payoutAccountHolder(payoutAccountHolderRequest);
+            final PayoutAccountHolderRequest payoutRequest = payoutAccountHolderRequest;
+            payoutAccountHolderResponse = adyenConcurrencyLimiter.call(() -> adyenFundService.payoutAccountHolder(payoutRequest));
             log.info("Payout submitted for accountHolder: [{}] + Psp ref: [{}]", accountHolderCode, payoutAccountHolderResponse.getPspReference());
+            final String pspReference = payoutAccountHolderResponse.getPspReference();
+            updateLedger(() -> payoutLedgerService.payoutSent(accountHolderCode, invoiceNumber, pspReference));
         } catch (ApiException e) {
             log.error("MarketPay Api Exception: {}, {}. For the Shop: {}", e.getError(), e, accountHolderCode);
+            payoutFailed(accountHolderCode, invoiceNumber, payoutAccountHolderRequest);
             if (isAllowedToRetryAfterApiException(e)) {
                 storeAdyenPayoutError(payoutAccountHolderRequest, payoutAccountHolderResponse, transferFundsRequest);
             }
         } catch (Exception e) {
             log.error("Exception: {}, {}. For the Shop: {}", e.getMessage(), e, accountHolderCode);
+            payoutFailed(accountHolderCode, invoiceNumber, payoutAccountHolderRequest);
             storeAdyenPayoutError(payoutAccountHolderRequest, payoutAccountHolderResponse, transferFundsRequest);
         }
+        return true;
+    }
+
+    /**
+     * Claim the invoice of the shop in the payout ledger, false when it was already claimed by an earlier upload or
+     * by another worker. Voucher entries without invoice number cannot be tracked and are always paid out.
+     */
+    private boolean claimPayout(final String shopId, final String invoiceNumber, final String voucherId) {
+        if (StringUtils.isEmpty(shopId) || StringUtils.isEmpty(invoiceNumber)) {
+            log.warn("Voucher entry of shop [{}] without invoice number is paid out without payout ledger entry", shopId);
+            return true;
+        }
+        try {
+            return payoutLedgerService.claim(shopId, invoiceNumber, voucherId);
+        } catch (DataIntegrityViolationException e) {
+            // claimed concurrently by another worker or node
+            return false;
+        }
+    }
 
+    private void skipClaimedPayout(final String shopId, final String invoiceNumber) {
+        final PayoutLedgerState state = payoutLedgerService.stateOf(shopId, invoiceNumber);
+        if (state == PayoutLedgerState.UNKNOWN) {
+            log.error("Payout of invoice [{}] of shop [{}] is in an unknown state, skipping voucher entry until it is resolved manually", invoiceNumber, shopId);
+            connectorMetrics.increment("payout.unknown-state");
+        } else if (state == PayoutLedgerState.PAYOUT_SENT || state == PayoutLedgerState.CONFIRMED) {
+            log.warn("Invoice [{}] of shop [{}] was already paid out, skipping voucher entry", invoiceNumber, shopId);
+            connectorMetrics.increment("payout.duplicate");
+        } else {
+            log.warn("Invoice [{}] of shop [{}] is already being paid out or retried ({}), skipping voucher entry", invoiceNumber, shopId, state);
+            connectorMetrics.increment("payout.duplicate");
+        }
+    }
+
+    /**
+     * A payout which failed before its request was created was never sent, nor stored for retry, so its claim is
+     * released and a later voucher can pay out the invoice
+     */
+    private void payoutFailed(final String shopId, final String invoiceNumber, final PayoutAccountHolderRequest payoutAccountHolderRequest) {
+        if (StringUtils.isEmpty(shopId) || StringUtils.isEmpty(invoiceNumber)) {
+            return;
+        }
+        if (payoutAccountHolderRequest == null) {
+            updateLedger(() -> payoutLedgerService.release(shopId, invoiceNumber));
+        } else {
+            updateLedger(() -> payoutLedgerService.failed(shopId, invoiceNumber));
+        }
+    }
+
+    /**
+     * Update the payout ledger after the request was sent to Adyen, a failing update must not turn a sent payout into a retried one
+     */
+    private void updateLedger(final Runnable update) {
+        try {
+            update.run();
+        } catch (DataAccessException e) {
+            log.error("Could not update the payout ledger: {}", e.getMessage(), e);
+        }
     }
 
     /**
@@ -197,7 +571,7 @@ public class PayoutService {
      */
     protected void storeAdyenPayoutError(PayoutAccountHolderRequest payoutAccountHolderRequest, PayoutAccountHolderResponse payoutAccountHolderResponse, TransferFundsRequest transferFundsRequest) {
         if (payoutAccountHolderRequest != null) {
-            String rawRequest = GSON.toJson(payoutAccountHolderRequest);
+            String rawRequest = PayoutRequestCodec.encode(payoutAccountHolderRequest);
             AdyenPayoutError adyenPayoutError = new AdyenPayoutError();
 
             adyenPayoutError.setAccountHolderCode(payoutAccountHolderRequest.getAccountHolderCode());
@@ -205,12 +579,12 @@ public class PayoutService {
 
 
             if (payoutAccountHolderResponse != null) {
-                String rawResponse = GSON.toJson(payoutAccountHolderResponse);
+                String rawResponse = PayoutRequestCodec.encode(payoutAccountHolderResponse);
                 adyenPayoutError.setRawResponse(rawResponse);
             }
 
             if (transferFundsRequest != null) {
-                String subscriptionRawRequest = GSON.toJson(transferFundsRequest);
+                String subscriptionRawRequest = PayoutRequestCodec.encode(transferFundsRequest);
                 adyenPayoutError.setRawSubscriptionRequest(subscriptionRawRequest);
             }
 
@@ -224,9 +598,7 @@ public class PayoutService {
     protected PayoutAccountHolderRequest createPayoutAccountHolderRequestForLiableAccount(Amount amount) throws Exception {
 
         //Call Adyen to retrieve the accountCode from the accountHolderCode
-        GetAccountHolderRequest getAccountHolderRequest = new GetAccountHolderRequest();
-        getAccountHolderRequest.setAccountCode(liableAccountCode);
-        GetAccountHolderResponse accountHolderResponse = adyenAccountService.getAccountHolder(getAccountHolderRequest);
+        GetAccountHolderResponse accountHolderResponse = accountHolderCache.getByAccountCode(liableAccountCode);
         PayoutAccountHolderRequest payoutAccountHolderRequest = new PayoutAccountHolderRequest();
 
         if (accountHolderResponse != null) {
@@ -256,16 +628,14 @@ public class PayoutService {
             + ")";
         payoutAccountHolderRequest.setDescription(description);
         payoutAccountHolderRequest.setMerchantReference(miraklVoucherEntry.getInvoiceNumber());
-        Amount adyenAmount = Util.createAmount(miraklVoucherEntry.getTransferAmount(), miraklVoucherEntry.getCurrencyIsoCode());
+        Amount adyenAmount = voucherAmount(miraklVoucherEntry.getTransferAmountMinor(), miraklVoucherEntry.getTransferAmount(), miraklVoucherEntry.getCurrencyIsoCode());
         payoutAccountHolderRequest.setAmount(adyenAmount);
 
         return payoutAccountHolderRequest;
     }
 
     protected GetAccountHolderResponse getAccountHolderResponse(String accountHolderCode) throws Exception {
-        GetAccountHolderRequest getAccountHolderRequest = new GetAccountHolderRequest();
-        getAccountHolderRequest.setAccountHolderCode(accountHolderCode);
-        return adyenAccountService.getAccountHolder(getAccountHolderRequest);
+        return accountHolderCache.getByAccountHolderCode(accountHolderCode);
     }
 
     private String getAccountCode(GetAccountHolderResponse accountHolderResponse) {
@@ -288,7 +658,7 @@ public class PayoutService {
     protected TransferFundsRequest createTransferFundsSubscription(GetAccountHolderResponse accountHolderResponse, MiraklVoucherEntry miraklVoucherEntry) throws Exception {
 
         TransferFundsRequest transferFundsRequest = new TransferFundsRequest();
-        Amount adyenAmount = Util.createAmount(miraklVoucherEntry.getSubscriptionAmount(), miraklVoucherEntry.getCurrencyIsoCode());
+        Amount adyenAmount = voucherAmount(miraklVoucherEntry.getSubscriptionAmountMinor(), miraklVoucherEntry.getSubscriptionAmount(), miraklVoucherEntry.getCurrencyIsoCode());
 
         transferFundsRequest.setAmount(adyenAmount);
 
@@ -22,25 +22,34 @@
 
 package com.adyen.mirakl.service;
 
+import java.time.ZonedDateTime;
 import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.Collectors;
 import javax.annotation.Resource;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.util.CollectionUtils;
 import com.adyen.mirakl.config.ApplicationProperties;
 import com.adyen.mirakl.domain.AdyenPayoutError;
+import com.adyen.mirakl.domain.enumeration.PayoutLedgerState;
 import com.adyen.mirakl.repository.AdyenPayoutErrorRepository;
+import com.adyen.mirakl.service.util.ConcurrencyLimiter;
+import com.adyen.mirakl.service.util.PayoutRequestCodec;
 import com.adyen.model.marketpay.PayoutAccountHolderRequest;
 import com.adyen.model.marketpay.PayoutAccountHolderResponse;
 import com.adyen.model.marketpay.TransferFundsRequest;
 import com.adyen.model.marketpay.TransferFundsResponse;
 import com.adyen.service.Fund;
 import com.adyen.service.exception.ApiException;
-import com.google.common.reflect.TypeToken;
 import liquibase.util.StringUtils;
-import static com.adyen.mirakl.service.PayoutService.GSON;
 
 @Service
 @Transactional
@@ -57,6 +66,12 @@ public class RetryPayoutService {
     @Resource
     private Fund adyenFundService;
 
+    @Resource
+    private PayoutLedgerService payoutLedgerService;
+
+    @Resource
+    private ConcurrencyLimiter adyenConcurrencyLimiter;
+
 
     public void retryFailedPayoutsForAccountHolder(String accountHolderCode) {
         final List<AdyenPayoutError> failedPayouts = adyenPayoutErrorRepository.findByAccountHolderCode(accountHolderCode);
@@ -64,38 +79,52 @@ public class RetryPayoutService {
             log.info("No failed payouts found for this accountHolder with accountHolderCode: " + accountHolderCode);
             return;
         }
-        processFailedPayout(failedPayouts);
+        processFailedPayout(claimFailedPayouts(failedPayouts.stream().map(AdyenPayoutError::getId).collect(Collectors.toList())));
     }
 
+    /**
+     * Retry the failed payouts which are due, in batches of application.payoutRetryBatchSize. Every batch is claimed
+     * with a single update and every retried payout is stored on its own, so no transaction spans the whole backlog.
+     * A payout is retried at most once per run.
+     */
+    @Transactional(propagation = Propagation.SUPPORTS)
     public void retryFailedPayouts() {
-        final List<AdyenPayoutError> failedPayouts = adyenPayoutErrorRepository.findByRetry(applicationProperties.getMaxPayoutFailed());
-        if (CollectionUtils.isEmpty(failedPayouts)) {
+        final int batchSize = Math.max(1, Optional.ofNullable(applicationProperties.getPayoutRetryBatchSize()).orElse(1));
+        int total = 0;
+        Long lastId = 0L;
+        List<Long> dueIds;
+        while (! (dueIds = adyenPayoutErrorRepository.findDueIds(lastId, applicationProperties.getMaxPayoutFailed(), ZonedDateTime.now(), new PageRequest(0, batchSize))).isEmpty()) {
+            final List<AdyenPayoutError> claimed = claimFailedPayouts(dueIds);
+            processFailedPayout(claimed);
+            total += claimed.size();
+            lastId = dueIds.get(dueIds.size() - 1);
+        }
+        if (total == 0) {
             log.info("No failed payouts found");
             return;
         }
-        processFailedPayout(failedPayouts);
+        log.info("Retried {} failed payouts", total);
     }
 
     public void processFailedPayout(List<AdyenPayoutError> failedPayouts) {
-        putFailedPayoutInProcessing(failedPayouts);
-
         failedPayouts.forEach(adyenPayoutError -> {
             PayoutAccountHolderResponse payoutAccountHolderResponse = null;
             TransferFundsResponse transferFundsResponse = null;
             try {
+                PayoutAccountHolderRequest payoutAccountHolderRequest = PayoutRequestCodec.decodePayoutAccountHolderRequest(adyenPayoutError.getRawRequest());
+                if (! isRetryAllowedByLedger(adyenPayoutError, payoutAccountHolderRequest)) {
+                    return;
+                }
 
                 if (! StringUtils.isEmpty(adyenPayoutError.getRawSubscriptionRequest())) {
-                    TransferFundsRequest transferFundsRequest = GSON.fromJson(adyenPayoutError.getRawSubscriptionRequest(), new TypeToken<TransferFundsRequest>() {
-                    }.getType());
-                    transferFundsResponse = adyenFundService.transferFunds(transferFundsRequest);
+                    TransferFundsRequest transferFundsRequest = PayoutRequestCodec.decodeTransferFundsRequest(adyenPayoutError.getRawSubscriptionRequest());
+                    transferFundsResponse = adyenConcurrencyLimiter.call(() -> adyenFundService.transferFunds(transferFundsRequest));
                     log.info("Subscription submitted for accountHolder: [{}] + Response: [{}]", adyenPayoutError.getAccountHolderCode(), transferFundsResponse);
                 }
 
-                PayoutAccountHolderRequest payoutAccountHolderRequest = GSON.fromJson(adyenPayoutError.getRawRequest(), new TypeToken<PayoutAccountHolderRequest>() {
-                }.getType());
-
-                payoutAccountHolderResponse = adyenFundService.payoutAccountHolder(payoutAccountHolderRequest);
+                payoutAccountHolderResponse = adyenConcurrencyLimiter.call(() -> adyenFundService.payoutAccountHolder(payoutAccountHolderRequest));
                 log.info("Payout submitted for accountHolder: [{}] + Psp ref: [{}]", payoutAccountHolderRequest.getAccountHolderCode(), payoutAccountHolderResponse.getPspReference());
+                updatePayoutLedger(payoutAccountHolderRequest, payoutAccountHolderResponse);
 
                 // remove from database
                 adyenPayoutErrorRepository.delete(adyenPayoutError);
@@ -110,21 +139,78 @@ public class RetryPayoutService {
     }
 
     /**
-     * to solve possible race-condition between cronjob update and notification update
+     * The payout ledger can record a payout as sent while an error was stored for it, e.g. after a timeout on a payout
+     * Adyen accepted. Such a payout is resolved without sending it again. A payout in an unknown state or still in
+     * progress is not retried either, it is postponed until the ledger says whether it reached Adyen.
      */
-    protected void putFailedPayoutInProcessing(List<AdyenPayoutError> failedPayouts) {
-        failedPayouts.forEach(adyenPayoutError -> {
-            adyenPayoutError.setProcessing(true);
-            adyenPayoutErrorRepository.save(adyenPayoutError);
-        });
+    private boolean isRetryAllowedByLedger(AdyenPayoutError adyenPayoutError, PayoutAccountHolderRequest payoutAccountHolderRequest) {
+        final String shopId = payoutAccountHolderRequest.getAccountHolderCode();
+        final String invoiceNumber = payoutAccountHolderRequest.getMerchantReference();
+        if (StringUtils.isEmpty(shopId) || StringUtils.isEmpty(invoiceNumber)) {
+            return true;
+        }
+        final PayoutLedgerState state = payoutLedgerService.stateOf(shopId, invoiceNumber);
+        if (state == PayoutLedgerState.PAYOUT_SENT || state == PayoutLedgerState.CONFIRMED) {
+            log.warn("Invoice [{}] of shop [{}] was already paid out ({}), removing its failed payout without retrying it", invoiceNumber, shopId, state);
+            adyenPayoutErrorRepository.delete(adyenPayoutError);
+            return false;
+        }
+        if (state == PayoutLedgerState.UNKNOWN) {
+            log.error("Payout of invoice [{}] of shop [{}] is in an unknown state, not retrying it until it is resolved manually", invoiceNumber, shopId);
+            postponeFailedPayout(adyenPayoutError);
+            return false;
+        }
+        if (state == PayoutLedgerState.CLAIMED || state == PayoutLedgerState.SUBSCRIPTION_SENT) {
+            log.warn("Payout of invoice [{}] of shop [{}] is still in progress ({}), postponing its retry", invoiceNumber, shopId, state);
+            postponeFailedPayout(adyenPayoutError);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Give up the claim without counting a retry, the payout is looked at again after the delay of its current retry
+     */
+    protected void postponeFailedPayout(AdyenPayoutError adyenPayoutError) {
+        adyenPayoutError.setProcessing(false);
+        adyenPayoutError.setClaimToken(null);
+        adyenPayoutError.setNextAttemptAt(ZonedDateTime.now().plusSeconds(retryDelaySeconds(adyenPayoutError.getRetry())));
+        adyenPayoutErrorRepository.save(adyenPayoutError);
+    }
+
+    /**
+     * The merchant reference of a shop payout is its invoice number, commission payouts have none and are not in the ledger
+     */
+    private void updatePayoutLedger(PayoutAccountHolderRequest payoutAccountHolderRequest, PayoutAccountHolderResponse payoutAccountHolderResponse) {
+        if (StringUtils.isEmpty(payoutAccountHolderRequest.getMerchantReference())) {
+            return;
+        }
+        try {
+            payoutLedgerService.payoutSent(payoutAccountHolderRequest.getAccountHolderCode(), payoutAccountHolderRequest.getMerchantReference(), payoutAccountHolderResponse.getPspReference());
+        } catch (DataAccessException e) {
+            log.error("Could not update the payout ledger: {}", e.getMessage(), e);
+        }
+    }
+
+    /**
+     * to solve possible race-condition between cronjob update and notification update, the payouts are claimed with a
+     * single update under a new claim token and only the rows which got that token are retried
+     */
+    protected List<AdyenPayoutError> claimFailedPayouts(List<Long> ids) {
+        final String claimToken = UUID.randomUUID().toString();
+        final ZonedDateTime now = ZonedDateTime.now();
+        adyenPayoutErrorRepository.claim(ids, claimToken, now, now.plusSeconds(applicationProperties.getPayoutRetryLeaseSeconds()));
+        return adyenPayoutErrorRepository.findByClaimToken(claimToken);
     }
 
     protected void updateFailedPayout(AdyenPayoutError adyenPayoutError, PayoutAccountHolderResponse payoutAccountHolderResponse, TransferFundsResponse transferFundsResponse) {
         adyenPayoutError.setRetry(adyenPayoutError.getRetry() + 1);
         adyenPayoutError.setProcessing(false);
+        adyenPayoutError.setClaimToken(null);
+        adyenPayoutError.setNextAttemptAt(ZonedDateTime.now().plusSeconds(retryDelaySeconds(adyenPayoutError.getRetry())));
 
         if (payoutAccountHolderResponse != null) {
-            String rawResponse = GSON.toJson(payoutAccountHolderResponse);
+            String rawResponse = PayoutRequestCodec.encode(payoutAccountHolderResponse);
             adyenPayoutError.setRawResponse(rawResponse);
         }
 
@@ -134,4 +220,16 @@ public class RetryPayoutService {
         }
         adyenPayoutErrorRepository.save(adyenPayoutError);
     }
+
+    /**
+     * Base delay doubled for every failed attempt and capped at application.payoutRetryMaxDelaySeconds, the second half
+     * of the delay is random so payouts which failed together are not all retried at the same moment
+     */
+    protected long retryDelaySeconds(final int retry) {
+        final long baseDelay = applicationProperties.getPayoutRetryBaseDelaySeconds();
+        final int doublings = Math.min(Math.max(retry - 1, 0), 20);
+        final long delay = Math.min(baseDelay << doublings, applicationProperties.getPayoutRetryMaxDelaySeconds());
+        final long halfDelay = delay / 2;
+        return delay - halfDelay + ThreadLocalRandom.current().nextLong(halfDelay + 1);
+    }
 }
@@ -0,0 +1,89 @@
+/*
+ *                       ######
+ *                       ######
+ * ############    ####( ######  #####. ######  ############   ############
+ * #############  #####( ######  #####. ######  #############  #############
+ *        ######  #####( ######  #####. ######  #####  ######  #####  ######
+ * ###### ######  #####( ######  #####. ######  #####  #####   #####  ######
+ * ###### ######  #####( ######  #####. ######  #####          #####  ######
+ * #############  #############  #############  #############  #####  ######
+ *  ############   ############  #############   ############  #####  ######
+ *                                      ######
+ *                               #############
+ *                               ############
+ *
+ * Adyen Mirakl Connector
+ *
+ * Copyright (c) 2018 Adyen B.V.
+ * This file is open source and available under the MIT license.
+ * See the LICENSE file for more info.
+ *
+ */
+
+package com.adyen.mirakl.service;
+
+import java.time.ZonedDateTime;
+import java.util.Optional;
+import javax.annotation.Resource;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import com.adyen.mirakl.config.ApplicationProperties;
+import com.adyen.mirakl.domain.SchedulerLease;
+import com.adyen.mirakl.repository.SchedulerLeaseRepository;
+
+/**
+ * Leases on scheduled jobs in the scheduler_lease table, so every job runs on a single node per tick
+ * <p>
+ * Every method commits in its own transaction, a lease has to be visible to the other nodes straight away and must not
+ * depend on the transaction of the job it protects.
+ */
+@Service
+public class SchedulerLeaseService {
+
+    @Resource
+    private SchedulerLeaseRepository schedulerLeaseRepository;
+
+    @Resource
+    private ApplicationProperties applicationProperties;
+
+    @Resource
+    private NodeIdentity nodeIdentity;
+
+    /**
+     * Take the lease on the job when it is free or expired, returns the time it was acquired or empty when another node holds it
+     */
+    @Transactional(propagation = Propagation.REQUIRES_NEW)
+    public Optional<ZonedDateTime> tryAcquire(final String job) {
+        final ZonedDateTime now = ZonedDateTime.now();
+        final ZonedDateTime leasedUntil = now.plusSeconds(applicationProperties.getSchedulerLeaseSeconds());
+        if (schedulerLeaseRepository.acquire(job, nodeIdentity.getNodeId(), now, leasedUntil) == 1) {
+            return Optional.of(now);
+        }
+        if (schedulerLeaseRepository.exists(job)) {
+            return Optional.empty();
+        }
+        // first run of this job, a node inserting the same lease concurrently fails on the primary key
+        schedulerLeaseRepository.saveAndFlush(new SchedulerLease().name(job).leaseOwner(nodeIdentity.getNodeId()).acquiredAt(now).leasedUntil(leasedUntil));
+        return Optional.of(now);
+    }
+
+    /**
+     * Extend the lease of a job which is still running, false when this node no longer holds it
+     */
+    @Transactional(propagation = Propagation.REQUIRES_NEW)
+    public boolean renew(final String job) {
+        final ZonedDateTime leasedUntil = ZonedDateTime.now().plusSeconds(applicationProperties.getSchedulerLeaseSeconds());
+        return schedulerLeaseRepository.extend(job, nodeIdentity.getNodeId(), leasedUntil) == 1;
+    }
+
+    /**
+     * Give up the lease once the job finished, it is kept at least application.schedulerLeaseMinHoldSeconds after it was acquired
+     */
+    @Transactional(propagation = Propagation.REQUIRES_NEW)
+    public void release(final String job, final ZonedDateTime acquiredAt) {
+        final ZonedDateTime now = ZonedDateTime.now();
+        final ZonedDateTime minimumHold = acquiredAt.plusSeconds(applicationProperties.getSchedulerLeaseMinHoldSeconds());
+        schedulerLeaseRepository.extend(job, nodeIdentity.getNodeId(), minimumHold.isAfter(now) ? minimumHold : now);
+    }
+}
@@ -22,14 +22,22 @@
 
 package com.adyen.mirakl.service;
 
+import java.time.ZoneId;
 import java.time.ZonedDateTime;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
+import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
 import org.apache.commons.lang3.StringUtils;
 import org.joda.time.DateTime;
@@ -37,13 +45,17 @@ import org.joda.time.format.DateTimeFormat;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.AsyncTaskExecutor;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.util.CollectionUtils;
 import com.adyen.mirakl.config.ApplicationProperties;
+import com.adyen.mirakl.domain.MiraklShopSyncCheckpoint;
 import com.adyen.mirakl.domain.StreetDetails;
+import com.adyen.mirakl.service.util.ConcurrencyLimiter;
 import com.adyen.mirakl.service.util.IsoUtil;
 import com.adyen.mirakl.service.util.MiraklDataExtractionUtil;
+import com.adyen.mirakl.service.util.MiraklShopPages;
 import com.adyen.mirakl.startup.MiraklStartupValidator;
 import com.adyen.model.Address;
 import com.adyen.model.Amount;
@@ -57,7 +69,6 @@ import com.adyen.model.marketpay.CreateAccountHolderResponse;
 import com.adyen.model.marketpay.DeleteBankAccountRequest;
 import com.adyen.model.marketpay.DeleteBankAccountResponse;
 import com.adyen.model.marketpay.ErrorFieldType;
-import com.adyen.model.marketpay.GetAccountHolderRequest;
 import com.adyen.model.marketpay.GetAccountHolderResponse;
 import com.adyen.model.marketpay.IndividualDetails;
 import com.adyen.model.marketpay.PersonalData;
@@ -70,7 +81,6 @@ import com.adyen.service.exception.ApiException;
 import com.mirakl.client.mmp.domain.common.MiraklAdditionalFieldValue;
 import com.mirakl.client.mmp.domain.shop.MiraklContactInformation;
 import com.mirakl.client.mmp.domain.shop.MiraklShop;
-import com.mirakl.client.mmp.domain.shop.MiraklShops;
 import com.mirakl.client.mmp.domain.shop.bank.MiraklAbaBankAccountInformation;
 import com.mirakl.client.mmp.domain.shop.bank.MiraklIbanBankAccountInformation;
 import com.mirakl.client.mmp.domain.shop.bank.MiraklPaymentInformation;
@@ -81,12 +91,13 @@ import com.mirakl.client.mmp.operator.domain.invoice.MiraklCreatedManualAccounti
 import com.mirakl.client.mmp.operator.domain.invoice.MiraklManualAccountingDocumentLine;
 import com.mirakl.client.mmp.operator.domain.invoice.MiraklManualAccountingDocumentType;
 import com.mirakl.client.mmp.operator.request.payment.invoice.MiraklCreateManualAccountingDocumentRequest;
-import com.mirakl.client.mmp.request.shop.MiraklGetShopsRequest;
 
 @Service
 @Transactional
 public class ShopService {
 
+    private static final String SHOP_PARTITION_JOB = "shopPartition";
+
     private final Logger log = LoggerFactory.getLogger(ShopService.class);
 
     @Resource
@@ -116,38 +127,258 @@ public class ShopService {
     @Resource
     private DocService docService;
 
+    @Resource
+    private AsyncTaskExecutor shopSyncExecutor;
+
+    @Resource
+    private Executor shopPageFetchExecutor;
+
+    @Resource
+    private ConcurrencyLimiter adyenConcurrencyLimiter;
+
+    @Resource
+    private ConcurrencyLimiter miraklConcurrencyLimiter;
+
+    @Resource
+    private ConnectorMetrics connectorMetrics;
+
+    @Resource
+    private AccountHolderCache accountHolderCache;
+
+    @Resource
+    private MiraklShopCache miraklShopCache;
+
+    @Resource
+    private ClusterMembershipService clusterMembershipService;
+
     @Value("${payoutService.liableAccountCode}")
     private String liableAccountCode;
 
     @Value("${miraklOperator.miraklTimeZone}")
     private String miraklTimeZone;
 
+    @PostConstruct
+    public void warnIgnoredShopSyncSettings() {
+        if (Boolean.TRUE.equals(applicationProperties.getShopSyncPartitioning()) && Boolean.TRUE.equals(applicationProperties.getShopSyncCheckpointing())) {
+            log.warn("shopSyncCheckpointing is ignored because shopSyncPartitioning is enabled, an interrupted run synchronises the shops of its partitions again");
+        }
+    }
+
     public void processUpdatedShops() {
+        if (Boolean.TRUE.equals(applicationProperties.getShopSyncPartitioning())) {
+            processUpdatedShopsOfOwnedPartitions();
+            return;
+        }
+        final long startedAt = System.nanoTime();
+        int total = 0;
+        int failed = 0;
+
+        MiraklShopSyncCheckpoint checkpoint = Boolean.TRUE.equals(applicationProperties.getShopSyncCheckpointing()) ? resumeOrStartShopSyncCheckpoint() : null;
+        final ZonedDateTime beforeProcessing = checkpoint != null ? checkpoint.getWindowEnd() : ZonedDateTime.now();
+        final MiraklShopPages pages = checkpoint != null ? resumeShopPages(checkpoint) : getUpdatedShopPages();
+
+        while (pages.hasNext()) {
+            final List<MiraklShop> page = pages.next();
+            final List<MiraklShop> shops = page.stream().filter(shop -> updatedBefore(shop, beforeProcessing)).collect(Collectors.toList());
+            log.debug("Retrieved shops: {}, updated after {}: {}", page.size(), beforeProcessing, page.size() - shops.size());
+            failed += processShopPage(shops);
+            total += shops.size();
+            if (checkpoint != null && ! page.isEmpty()) {
+                checkpoint = deltaService.updateShopSyncCheckpoint(checkpoint, pages.getOffset(), page.get(page.size() - 1).getId());
+            }
+        }
+
+        if (checkpoint != null) {
+            deltaService.completeShopSyncCheckpoint(checkpoint);
+        } else {
+            deltaService.updateShopDelta(beforeProcessing);
+        }
+        recordShopSyncRun(total, failed, System.nanoTime() - startedAt);
+    }
+
+    /**
+     * Synchronise only the shops of the partitions leased by this node, every partition keeps its own shop delta so
+     * partitions moving to another node continue where they were. Checkpointing is not used when partitioned, a run which
+     * did not complete leaves the partition deltas as they were, so the next run repeats it.
+     */
+    private void processUpdatedShopsOfOwnedPartitions() {
+        final long startedAt = System.nanoTime();
         final ZonedDateTime beforeProcessing = ZonedDateTime.now();
+        final Map<Integer, ZonedDateTime> leases = clusterMembershipService.acquireOwnedPartitions(SHOP_PARTITION_JOB);
+        if (leases.isEmpty()) {
+            log.debug("No shop partitions leased by this node");
+            return;
+        }
+        int total = 0;
+        int failed = 0;
+        try {
+            final MiraklShopPages pages = new MiraklShopPages(miraklMarketplacePlatformOperatorApiClient, miraklConcurrencyLimiter, deltaService.getPartitionShopDelta(leases.keySet()), shopPageFetchExecutor);
+            while (pages.hasNext()) {
+                final List<MiraklShop> shops = pages.next().stream().filter(shop -> leases.containsKey(clusterMembershipService.partitionOf(shop.getId())) && updatedBefore(shop, beforeProcessing)).collect(Collectors.toList());
+                log.debug("Retrieved shops of partitions {}: {}", leases.keySet(), shops.size());
+                failed += processShopPage(shops);
+                total += shops.size();
+                clusterMembershipService.renewPartitions(SHOP_PARTITION_JOB, leases.keySet());
+            }
+            deltaService.updatePartitionShopDelta(leases.keySet(), beforeProcessing);
+        } finally {
+            clusterMembershipService.releasePartitions(SHOP_PARTITION_JOB, leases);
+        }
+        recordShopSyncRun(total, failed, System.nanoTime() - startedAt);
+    }
 
-        List<MiraklShop> shops = getUpdatedShops();
-        log.debug("Retrieved shops: {}", shops.size());
-        for (MiraklShop shop : shops) {
-            try {
-                GetAccountHolderResponse getAccountHolderResponse = getAccountHolderFromShop(shop);
-                if (getAccountHolderResponse != null) {
-                    processUpdateAccountHolder(shop, getAccountHolderResponse);
-                } else {
-                    processCreateAccountHolder(shop);
+    /**
+     * S20 has no upper bound on the update date, shops updated after the run started are left to the next run whose window starts there
+     */
+    private static boolean updatedBefore(final MiraklShop shop, final ZonedDateTime windowEnd) {
+        return shop.getLastUpdatedDate() == null || ! shop.getLastUpdatedDate().toInstant().isAfter(windowEnd.toInstant());
+    }
+
+    /**
+     * @return the number of shops which failed to synchronise
+     */
+    private int processShopPage(final List<MiraklShop> shops) {
+        shops.forEach(shop -> miraklShopCache.invalidate(shop.getId()));
+        final int failed = synchroniseShops(shops);
+        shops.forEach(shop -> docService.retryDocumentsForShop(shop.getId()));
+        return failed;
+    }
+
+    /**
+     * Continue the window of a synchronisation which did not complete, or start checkpointing a new window from the shop delta up to now
+     */
+    private MiraklShopSyncCheckpoint resumeOrStartShopSyncCheckpoint() {
+        final Optional<MiraklShopSyncCheckpoint> existingCheckpoint = deltaService.getShopSyncCheckpoint();
+        if (existingCheckpoint.isPresent()) {
+            final MiraklShopSyncCheckpoint checkpoint = existingCheckpoint.get();
+            log.info("Resuming shop synchronisation of window {} - {} at offset {}, last processed shop: {}",
+                     checkpoint.getWindowStart(),
+                     checkpoint.getWindowEnd(),
+                     checkpoint.getNextOffset(),
+                     checkpoint.getLastShopId());
+            return checkpoint;
+        }
+        final ZonedDateTime windowStart = ZonedDateTime.ofInstant(deltaService.getShopDelta().toInstant(), ZoneId.systemDefault());
+        return deltaService.createShopSyncCheckpoint(windowStart, ZonedDateTime.now());
+    }
+
+    /**
+     * Shops of the checkpointed window which weren't processed yet. When the last processed shop moved within the window since
+     * the checkpoint the whole window is processed again, repeating shops rather than skipping the ones which moved.
+     */
+    private MiraklShopPages resumeShopPages(final MiraklShopSyncCheckpoint checkpoint) {
+        final Date windowStart = Date.from(checkpoint.getWindowStart().toInstant());
+        final long nextOffset = Optional.ofNullable(checkpoint.getNextOffset()).orElse(0L);
+        if (nextOffset == 0) {
+            return new MiraklShopPages(miraklMarketplacePlatformOperatorApiClient, miraklConcurrencyLimiter, windowStart, shopPageFetchExecutor);
+        }
+        if (checkpoint.getLastShopId() != null) {
+            final Optional<MiraklShopPages> resumed = MiraklShopPages.resumeAfter(miraklMarketplacePlatformOperatorApiClient,
+                                                                                   miraklConcurrencyLimiter,
+                                                                                   windowStart,
+                                                                                   nextOffset,
+                                                                                   checkpoint.getLastShopId(),
+                                                                                   shopPageFetchExecutor);
+            if (resumed.isPresent()) {
+                return resumed.get();
+            }
+        }
+        log.warn("Shop {} is no longer at offset {} of window {} - {}, synchronising the whole window again",
+                 checkpoint.getLastShopId(),
+                 nextOffset - 1,
+                 checkpoint.getWindowStart(),
+                 checkpoint.getWindowEnd());
+        connectorMetrics.increment("shop.sync.checkpoint.restarted");
+        return new MiraklShopPages(miraklMarketplacePlatformOperatorApiClient, miraklConcurrencyLimiter, windowStart, shopPageFetchExecutor);
+    }
+
+    /**
+     * Fan the shops out over the shop sync workers, shops are partitioned by shop id so the updates of one shop are always applied in order by the same worker
+     *
+     * @return the number of shops which failed to synchronise
+     */
+    private int synchroniseShops(final List<MiraklShop> shops) {
+        final int parallelism = Math.max(1, Optional.ofNullable(applicationProperties.getShopSyncParallelism()).orElse(1));
+        final AtomicInteger failed = new AtomicInteger();
+        if (parallelism == 1 || shops.size() <= 1) {
+            shops.forEach(shop -> {
+                if (! processShop(shop)) {
+                    failed.incrementAndGet();
                 }
-            } catch (ApiException e) {
-                log.error("MarketPay Api Exception: {}, {}. For the Shop: {}", e.getError(), e, shop.getId());
-            } catch (Exception e) {
-                log.error("Exception: {}, {}. For the Shop: {}", e.getMessage(), e, shop.getId());
+            });
+            return failed.get();
+        }
+
+        final List<Future<?>> partitions = partitionByShopId(shops, parallelism).stream().filter(partition -> ! partition.isEmpty()).map(partition -> shopSyncExecutor.submit(() -> partition.forEach(shop -> {
+            if (! processShop(shop)) {
+                failed.incrementAndGet();
+            }
+        }))).collect(Collectors.toList());
+
+        for (Future<?> partition : partitions) {
+            try {
+                partition.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while synchronising shops", e);
+            } catch (ExecutionException e) {
+                log.error("Exception: {}, {}. While synchronising shops", e.getMessage(), e);
             }
         }
-        shops.forEach(shop -> docService.retryDocumentsForShop(shop.getId()));
-        deltaService.updateShopDelta(beforeProcessing);
+        return failed.get();
+    }
+
+    protected static List<List<MiraklShop>> partitionByShopId(final List<MiraklShop> shops, final int partitions) {
+        final List<List<MiraklShop>> result = new ArrayList<>(partitions);
+        for (int i = 0; i < partitions; i++) {
+            result.add(new ArrayList<>());
+        }
+        shops.forEach(shop -> result.get(Math.floorMod(Objects.hashCode(shop.getId()), partitions)).add(shop));
+        return result;
+    }
+
+    /**
+     * Create or update the account holder of a single shop
+     *
+     * @return true if the shop was synchronised with Adyen
+     */
+    private boolean processShop(final MiraklShop shop) {
+        try {
+            GetAccountHolderResponse getAccountHolderResponse = getAccountHolderFromShop(shop);
+            if (getAccountHolderResponse != null) {
+                processUpdateAccountHolder(shop, getAccountHolderResponse);
+            } else {
+                processCreateAccountHolder(shop);
+            }
+            return true;
+        } catch (ApiException e) {
+            log.error("MarketPay Api Exception: {}, {}. For the Shop: {}", e.getError(), e, shop.getId());
+        } catch (Exception e) {
+            log.error("Exception: {}, {}. For the Shop: {}", e.getMessage(), e, shop.getId());
+        }
+        return false;
+    }
+
+    private void recordShopSyncRun(final int total, final int failed, final long durationNanos) {
+        final long durationMillis = TimeUnit.NANOSECONDS.toMillis(durationNanos);
+        final double shopsPerSecond = durationNanos > 0 ? total * 1_000_000_000d / durationNanos : 0d;
+        connectorMetrics.increment("shop.sync.processed", total);
+        connectorMetrics.increment("shop.sync.failed", failed);
+        connectorMetrics.gauge("shop.sync.last-run.processed", total);
+        connectorMetrics.gauge("shop.sync.last-run.failed", failed);
+        connectorMetrics.gauge("shop.sync.last-run.duration-ms", durationMillis);
+        connectorMetrics.gauge("shop.sync.last-run.shops-per-second", shopsPerSecond);
+        log.info("Synchronised {} shops ({} failed) in {} ms, {} shops/s", total, failed, durationMillis, String.format("%.2f", shopsPerSecond));
     }
 
     private void processCreateAccountHolder(final MiraklShop shop) throws Exception {
         CreateAccountHolderRequest createAccountHolderRequest = createAccountHolderRequestFromShop(shop);
-        CreateAccountHolderResponse response = adyenAccountService.createAccountHolder(createAccountHolderRequest);
+        final CreateAccountHolderResponse response;
+        try {
+            response = adyenConcurrencyLimiter.call(() -> adyenAccountService.createAccountHolder(createAccountHolderRequest));
+        } finally {
+            accountHolderCache.invalidate(shop.getId());
+        }
         shareholderMappingService.updateShareholderMapping(response, shop);
         log.debug("CreateAccountHolderResponse: {}", response);
         if (! CollectionUtils.isEmpty(response.getInvalidFields())) {
@@ -160,7 +391,12 @@ public class ShopService {
     private void processUpdateAccountHolder(final MiraklShop shop, final GetAccountHolderResponse getAccountHolderResponse) throws Exception {
         UpdateAccountHolderRequest updateAccountHolderRequest = updateAccountHolderRequestFromShop(shop, getAccountHolderResponse);
 
-        UpdateAccountHolderResponse response = adyenAccountService.updateAccountHolder(updateAccountHolderRequest);
+        final UpdateAccountHolderResponse response;
+        try {
+            response = adyenConcurrencyLimiter.call(() -> adyenAccountService.updateAccountHolder(updateAccountHolderRequest));
+        } finally {
+            accountHolderCache.invalidate(shop.getId());
+        }
         shareholderMappingService.updateShareholderMapping(response, shop);
         log.debug("UpdateAccountHolderResponse: {}", response);
 
@@ -189,7 +425,12 @@ public class ShopService {
                                                      .collect(Collectors.toList());
 
         if (! uuids.isEmpty()) {
-            DeleteBankAccountResponse deleteBankAccountResponse = adyenAccountService.deleteBankAccount(deleteBankAccountRequest(getAccountHolderResponse.getAccountHolderCode(), uuids));
+            final DeleteBankAccountResponse deleteBankAccountResponse;
+            try {
+                deleteBankAccountResponse = adyenConcurrencyLimiter.call(() -> adyenAccountService.deleteBankAccount(deleteBankAccountRequest(getAccountHolderResponse.getAccountHolderCode(), uuids)));
+            } finally {
+                accountHolderCache.invalidate(getAccountHolderResponse.getAccountHolderCode());
+            }
             log.debug("DeleteBankAccountResponse: {}", deleteBankAccountResponse);
         }
 
@@ -208,24 +449,14 @@ public class ShopService {
     }
 
     public List<MiraklShop> getUpdatedShops() {
-        int offset = 0;
-        Long totalCount = 1L;
-        List<MiraklShop> shops = new ArrayList<>();
-
-        while (offset < totalCount) {
-            MiraklGetShopsRequest miraklGetShopsRequest = new MiraklGetShopsRequest();
-            miraklGetShopsRequest.setOffset(offset);
-
-            miraklGetShopsRequest.setUpdatedSince(deltaService.getShopDelta());
-            log.debug("getShops request since: " + miraklGetShopsRequest.getUpdatedSince());
-            MiraklShops miraklShops = miraklMarketplacePlatformOperatorApiClient.getShops(miraklGetShopsRequest);
-            shops.addAll(miraklShops.getShops());
-
-            totalCount = miraklShops.getTotalCount();
-            offset += miraklShops.getShops().size();
-        }
+        return getUpdatedShopPages().stream().collect(Collectors.toList());
+    }
 
-        return shops;
+    /**
+     * Shops updated since the shop delta, page by page; the delta is read once for all pages
+     */
+    public MiraklShopPages getUpdatedShopPages() {
+        return new MiraklShopPages(miraklMarketplacePlatformOperatorApiClient, miraklConcurrencyLimiter, deltaService.getShopDelta(), shopPageFetchExecutor);
     }
 
     private CreateAccountHolderRequest createAccountHolderRequestFromShop(MiraklShop shop) {
@@ -353,11 +584,8 @@ public class ShopService {
      */
     private GetAccountHolderResponse getAccountHolderFromShop(MiraklShop shop) throws Exception {
         // lookup accountHolder in Adyen
-        GetAccountHolderRequest getAccountHolderRequest = new GetAccountHolderRequest();
-        getAccountHolderRequest.setAccountHolderCode(shop.getId());
-
         try {
-            GetAccountHolderResponse getAccountHolderResponse = adyenAccountService.getAccountHolder(getAccountHolderRequest);
+            GetAccountHolderResponse getAccountHolderResponse = accountHolderCache.getByAccountHolderCode(shop.getId());
             if (! getAccountHolderResponse.getAccountHolderCode().isEmpty()) {
                 return getAccountHolderResponse;
             }
@@ -592,14 +820,12 @@ public class ShopService {
 
         MiraklCreateManualAccountingDocumentRequest request = new MiraklCreateManualAccountingDocumentRequest(miraklCreateManualAccountingDocumentList);
 
-        return miraklMarketplacePlatformOperatorApiClient.createManualAccountingDocument(request);
+        return miraklConcurrencyLimiter.get(() -> miraklMarketplacePlatformOperatorApiClient.createManualAccountingDocument(request));
     }
 
     protected String retrieveShopIdFromAccountCode(String accountCode) {
-        GetAccountHolderRequest getAccountHolderRequest = new GetAccountHolderRequest();
-        getAccountHolderRequest.setAccountCode(accountCode);
         try {
-            GetAccountHolderResponse getAccountHolderResponse = adyenAccountService.getAccountHolder(getAccountHolderRequest);
+            GetAccountHolderResponse getAccountHolderResponse = accountHolderCache.getByAccountCode(accountCode);
             if (! getAccountHolderResponse.getAccountHolderCode().isEmpty()) {
                 return getAccountHolderResponse.getAccountHolderCode();
             }
@@ -0,0 +1,100 @@
+/*
+ *                       ######
+ *                       ######
+ * ############    ####( ######  #####. ######  ############   ############
+ * #############  #####( ######  #####. ######  #############  #############
+ *        ######  #####( ######  #####. ######  #####  ######  #####  ######
+ * ###### ######  #####( ######  #####. ######  #####  #####   #####  ######
+ * ###### ######  #####( ######  #####. ######  #####          #####  ######
+ * #############  #############  #############  #############  #####  ######
+ *  ############   ############  #############   ############  #####  ######
+ *                                      ######
+ *                               #############
+ *                               ############
+ *
+ * Adyen Mirakl Connector
+ *
+ * Copyright (c) 2018 Adyen B.V.
+ * This file is open source and available under the MIT license.
+ * See the LICENSE file for more info.
+ *
+ */
+
+package com.adyen.mirakl.service.util;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Semaphore;
+import java.util.function.Supplier;
+
+/**
+ * Caps the number of concurrent calls towards a remote dependency (Adyen, Mirakl, ...)
+ * A limit of 0 or lower means the calls are not limited
+ */
+public class ConcurrencyLimiter {
+
+    private final String name;
+    private final int maxConcurrentCalls;
+    private final Semaphore semaphore;
+
+    public ConcurrencyLimiter(final String name, final Integer maxConcurrentCalls) {
+        this.name = name;
+        this.maxConcurrentCalls = maxConcurrentCalls == null ? 0 : maxConcurrentCalls;
+        this.semaphore = this.maxConcurrentCalls > 0 ? new Semaphore(this.maxConcurrentCalls, true) : null;
+    }
+
+    public <T> T call(final Callable<T> callable) throws Exception {
+        if (semaphore == null) {
+            return callable.call();
+        }
+        semaphore.acquire();
+        try {
+            return callable.call();
+        } finally {
+            semaphore.release();
+        }
+    }
+
+    /**
+     * Same as call for clients which only throw unchecked exceptions, such as the Mirakl SDK
+     */
+    public <T> T get(final Supplier<T> supplier) {
+        if (semaphore == null) {
+            return supplier.get();
+        }
+        semaphore.acquireUninterruptibly();
+        try {
+            return supplier.get();
+        } finally {
+            semaphore.release();
+        }
+    }
+
+    public void run(final Runnable runnable) {
+        get(() -> {
+            runnable.run();
+            return null;
+        });
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getMaxConcurrentCalls() {
+        return maxConcurrentCalls;
+    }
+
+    /**
+     * Number of calls currently in flight, always 0 for an unbounded limiter
+     */
+    public int getCallsInFlight() {
+        return semaphore == null ? 0 : maxConcurrentCalls - semaphore.availablePermits();
+    }
+
+    /**
+     * Number of callers currently waiting for a permit
+     */
+    public int getWaitingCallers() {
+        return semaphore == null ? 0 : semaphore.getQueueLength();
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ *                       ######
+ *                       ######
+ * ############    ####( ######  #####. ######  ############   ############
+ * #############  #####( ######  #####. ######  #############  #############
+ *        ######  #####( ######  #####. ######  #####  ######  #####  ######
+ * ###### ######  #####( ######  #####. ######  #####  #####   #####  ######
+ * ###### ######  #####( ######  #####. ######  #####          #####  ######
+ * #############  #############  #############  #############  #####  ######
+ *  ############   ############  #############   ############  #####  ######
+ *                                      ######
+ *                               #############
+ *                               ############
+ *
+ * Adyen Mirakl Connector
+ *
+ * Copyright (c) 2018 Adyen B.V.
+ * This file is open source and available under the MIT license.
+ * See the LICENSE file for more info.
+ *
+ */
+
+package com.adyen.mirakl.service.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.BiConsumer;
+import com.adyen.model.Amount;
+import com.adyen.util.Util;
+
+/**
+ * Sums money amounts per currency as a long number of minor units (cents for EUR, yen for JPY, fils for BHD, ...)
+ * Decimal strings are parsed straight into minor units, without going through Double or BigDecimal, so totals are exact.
+ */
+public class MinorUnitAccumulator {
+
+    // one mutable slot per currency, adding does not box
+    private final Map<String, long[]> totals = new LinkedHashMap<>();
+
+    /**
+     * Add amounts given in minor units of the currency
+     */
+    public void add(final String currency, final long minorUnits) {
+        final long[] total = totals.computeIfAbsent(currency, key -> new long[1]);
+        total[0] = Math.addExact(total[0], minorUnits);
+    }
+
+    public long getTotal(final String currency) {
+        final long[] total = totals.get(currency);
+        return total == null ? 0L : total[0];
+    }
+
+    public boolean isEmpty() {
+        return totals.isEmpty();
+    }
+
+    /**
+     * Visit the total of every currency, in the order the currencies were first added
+     */
+    public void forEach(final BiConsumer<String, Long> consumer) {
+        totals.forEach((currency, total) -> consumer.accept(currency, total[0]));
+    }
+
+    /**
+     * Parse a decimal amount such as "-12.5" or "1250.00" into minor units of the currency
+     *
+     * @throws NumberFormatException when the value is not a plain decimal number or has more significant decimals than the currency
+     */
+    public static long parseMinorUnits(final String value, final String currency) {
+        return parseMinorUnits(value, Util.getDecimalPlaces(currency));
+    }
+
+    public static long parseMinorUnits(final String value, final int decimalPlaces) {
+        try {
+            return parse(value, decimalPlaces);
+        } catch (ArithmeticException e) {
+            throw new NumberFormatException("Amount out of range: \"" + value + "\"");
+        }
+    }
+
+    private static long parse(final String value, final int decimalPlaces) {
+        if (value == null) {
+            throw new NumberFormatException("null");
+        }
+        int start = 0;
+        int end = value.length();
+        while (start < end && Character.isWhitespace(value.charAt(start))) {
+            start++;
+        }
+        while (end > start && Character.isWhitespace(value.charAt(end - 1))) {
+            end--;
+        }
+        boolean negative = false;
+        if (start < end && (value.charAt(start) == '-' || value.charAt(start) == '+')) {
+            negative = value.charAt(start) == '-';
+            start++;
+        }
+
+        long units = 0;
+        int decimals = -1;
+        int digits = 0;
+        for (int i = start; i < end; i++) {
+            final char c = value.charAt(i);
+            if (c == '.' && decimals < 0) {
+                decimals = 0;
+                continue;
+            }
+            if (c < '0' || c > '9') {
+                throw new NumberFormatException("Not a decimal amount: \"" + value + "\"");
+            }
+            digits++;
+            if (decimals >= decimalPlaces) {
+                // decimals beyond the currency precision are only allowed when they are zero
+                if (c != '0') {
+                    throw new NumberFormatException("Too many decimals for the currency: \"" + value + "\"");
+                }
+                continue;
+            }
+            units = Math.addExact(Math.multiplyExact(units, 10), c - '0');
+            if (decimals >= 0) {
+                decimals++;
+            }
+        }
+        if (digits == 0) {
+            throw new NumberFormatException("Not a decimal amount: \"" + value + "\"");
+        }
+        for (int i = Math.max(decimals, 0); i < decimalPlaces; i++) {
+            units = Math.multiplyExact(units, 10);
+        }
+        return negative ? -units : units;
+    }
+
+    public static Amount toAmount(final long minorUnits, final String currency) {
+        final Amount amount = new Amount();
+        amount.setCurrency(currency);
+        amount.setValue(minorUnits);
+        return amount;
+    }
+}
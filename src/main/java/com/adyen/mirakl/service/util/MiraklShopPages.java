@@ -0,0 +1,162 @@
+/*
+ *                       ######
+ *                       ######
+ * ############    ####( ######  #####. ######  ############   ############
+ * #############  #####( ######  #####. ######  #############  #############
+ *        ######  #####( ######  #####. ######  #####  ######  #####  ######
+ * ###### ######  #####( ######  #####. ######  #####  #####   #####  ######
+ * ###### ######  #####( ######  #####. ######  #####          #####  ######
+ * #############  #############  #############  #############  #####  ######
+ *  ############   ############  #############   ############  #####  ######
+ *                                      ######
+ *                               #############
+ *                               ############
+ *
+ * Adyen Mirakl Connector
+ *
+ * Copyright (c) 2018 Adyen B.V.
+ * This file is open source and available under the MIT license.
+ * See the LICENSE file for more info.
+ *
+ */
+
+package com.adyen.mirakl.service.util;
+
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import com.mirakl.client.mmp.domain.shop.MiraklShop;
+import com.mirakl.client.mmp.domain.shop.MiraklShops;
+import com.mirakl.client.mmp.operator.core.MiraklMarketplacePlatformOperatorApiClient;
+import com.mirakl.client.mmp.request.shop.MiraklGetShopsRequest;
+
+/**
+ * Iterates over the S20 pages of shops updated since a given date
+ * While a page is being processed the next page is already fetched, so at most two pages are held in memory
+ */
+public class MiraklShopPages implements Iterator<List<MiraklShop>> {
+
+    private final Logger log = LoggerFactory.getLogger(MiraklShopPages.class);
+
+    private final MiraklMarketplacePlatformOperatorApiClient miraklMarketplacePlatformOperatorApiClient;
+    private final ConcurrencyLimiter miraklConcurrencyLimiter;
+    private final Date updatedSince;
+    private final Executor prefetchExecutor;
+
+    private long offset;
+    private CompletableFuture<MiraklShops> nextPage;
+    private boolean skipFirstShop;
+
+    public MiraklShopPages(final MiraklMarketplacePlatformOperatorApiClient miraklMarketplacePlatformOperatorApiClient,
+                           final ConcurrencyLimiter miraklConcurrencyLimiter,
+                           final Date updatedSince,
+                           final Executor prefetchExecutor) {
+        this(miraklMarketplacePlatformOperatorApiClient, miraklConcurrencyLimiter, updatedSince, 0L, prefetchExecutor);
+    }
+
+    public MiraklShopPages(final MiraklMarketplacePlatformOperatorApiClient miraklMarketplacePlatformOperatorApiClient,
+                           final ConcurrencyLimiter miraklConcurrencyLimiter,
+                           final Date updatedSince,
+                           final long offset,
+                           final Executor prefetchExecutor) {
+        this.miraklMarketplacePlatformOperatorApiClient = miraklMarketplacePlatformOperatorApiClient;
+        this.miraklConcurrencyLimiter = miraklConcurrencyLimiter;
+        this.updatedSince = updatedSince;
+        this.prefetchExecutor = prefetchExecutor;
+        this.offset = offset;
+        this.nextPage = CompletableFuture.completedFuture(fetchPage(offset));
+    }
+
+    /**
+     * Pages following lastShopId, the shop which was at offset - 1 when the pages were checkpointed
+     * <p>
+     * S20 is queried live, shops updated again since the checkpoint move within the result so the shops at offset are then no
+     * longer the ones which weren't processed yet. The page is therefore fetched from lastShopId onwards and empty is returned
+     * when it's no longer in place.
+     */
+    public static Optional<MiraklShopPages> resumeAfter(final MiraklMarketplacePlatformOperatorApiClient miraklMarketplacePlatformOperatorApiClient,
+                                                        final ConcurrencyLimiter miraklConcurrencyLimiter,
+                                                        final Date updatedSince,
+                                                        final long offset,
+                                                        final String lastShopId,
+                                                        final Executor prefetchExecutor) {
+        final MiraklShopPages pages = new MiraklShopPages(miraklMarketplacePlatformOperatorApiClient, miraklConcurrencyLimiter, updatedSince, offset - 1, prefetchExecutor);
+        final List<MiraklShop> firstPage = awaitPage(pages.nextPage).getShops();
+        if (firstPage.isEmpty() || ! lastShopId.equals(firstPage.get(0).getId())) {
+            return Optional.empty();
+        }
+        pages.skipFirstShop = true;
+        return Optional.of(pages);
+    }
+
+    @Override
+    public boolean hasNext() {
+        return nextPage != null;
+    }
+
+    @Override
+    public List<MiraklShop> next() {
+        if (nextPage == null) {
+            throw new NoSuchElementException();
+        }
+        final MiraklShops page = awaitPage(nextPage);
+        final List<MiraklShop> shops = page.getShops();
+        offset += shops.size();
+
+        if (shops.isEmpty() || offset >= page.getTotalCount()) {
+            nextPage = null;
+        } else {
+            final long nextOffset = offset;
+            nextPage = CompletableFuture.supplyAsync(() -> fetchPage(nextOffset), prefetchExecutor);
+        }
+        if (skipFirstShop) {
+            skipFirstShop = false;
+            return shops.subList(1, shops.size());
+        }
+        return shops;
+    }
+
+    /**
+     * Offset of the first shop which has not been handed out yet
+     */
+    public long getOffset() {
+        return offset;
+    }
+
+    /**
+     * All shops of all pages, pages are only fetched when the stream reaches them
+     */
+    public Stream<MiraklShop> stream() {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(this, Spliterator.ORDERED | Spliterator.NONNULL), false).flatMap(List::stream);
+    }
+
+    private MiraklShops fetchPage(final long pageOffset) {
+        MiraklGetShopsRequest miraklGetShopsRequest = new MiraklGetShopsRequest();
+        miraklGetShopsRequest.setOffset(pageOffset);
+        miraklGetShopsRequest.setUpdatedSince(updatedSince);
+        log.debug("getShops request since: {}, offset: {}", updatedSince, pageOffset);
+        return miraklConcurrencyLimiter.get(() -> miraklMarketplacePlatformOperatorApiClient.getShops(miraklGetShopsRequest));
+    }
+
+    private static MiraklShops awaitPage(final CompletableFuture<MiraklShops> page) {
+        try {
+            return page.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+}
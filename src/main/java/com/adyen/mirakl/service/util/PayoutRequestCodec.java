@@ -0,0 +1,137 @@
+/*
+ *                       ######
+ *                       ######
+ * ############    ####( ######  #####. ######  ############   ############
+ * #############  #####( ######  #####. ######  #############  #############
+ *        ######  #####( ######  #####. ######  #####  ######  #####  ######
+ * ###### ######  #####( ######  #####. ######  #####  #####   #####  ######
+ * ###### ######  #####( ######  #####. ######  #####          #####  ######
+ * #############  #############  #############  #############  #####  ######
+ *  ############   ############  #############   ############  #####  ######
+ *                                      ######
+ *                               #############
+ *                               ############
+ *
+ * Adyen Mirakl Connector
+ *
+ * Copyright (c) 2018 Adyen B.V.
+ * This file is open source and available under the MIT license.
+ * See the LICENSE file for more info.
+ *
+ */
+
+package com.adyen.mirakl.service.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+import com.adyen.model.marketpay.PayoutAccountHolderRequest;
+import com.adyen.model.marketpay.PayoutAccountHolderResponse;
+import com.adyen.model.marketpay.TransferFundsRequest;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.module.afterburner.AfterburnerModule;
+import com.google.gson.Gson;
+
+/**
+ * Encodes the Adyen requests and responses stored with a failed payout (AdyenPayoutError)
+ * <p>
+ * A stored value starts with a schema version and an encoding character, followed by the Jackson JSON of the object:
+ * as is ("1j{...}") or, when it is longer than {@link #COMPRESSION_THRESHOLD} bytes, deflated and Base64 encoded
+ * ("1z..."). Values without this header were stored as Gson JSON by earlier versions and are still read with Gson.
+ */
+public final class PayoutRequestCodec {
+
+    public static final int COMPRESSION_THRESHOLD = 512;
+
+    private static final char SCHEMA_VERSION = '1';
+    private static final char PLAIN = 'j';
+    private static final char DEFLATED = 'z';
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+    private static final ObjectWriter WRITER;
+    private static final ObjectReader PAYOUT_REQUEST_READER;
+    private static final ObjectReader PAYOUT_RESPONSE_READER;
+    private static final ObjectReader TRANSFER_FUNDS_REQUEST_READER;
+    private static final Gson LEGACY_GSON = new Gson();
+
+    static {
+        OBJECT_MAPPER.registerModule(new AfterburnerModule());
+        OBJECT_MAPPER.setSerializationInclusion(JsonInclude.Include.NON_NULL);
+        OBJECT_MAPPER.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+        OBJECT_MAPPER.configure(SerializationFeature.FAIL_ON_EMPTY_BEANS, false);
+        WRITER = OBJECT_MAPPER.writer();
+        PAYOUT_REQUEST_READER = OBJECT_MAPPER.readerFor(PayoutAccountHolderRequest.class);
+        PAYOUT_RESPONSE_READER = OBJECT_MAPPER.readerFor(PayoutAccountHolderResponse.class);
+        TRANSFER_FUNDS_REQUEST_READER = OBJECT_MAPPER.readerFor(TransferFundsRequest.class);
+    }
+
+    private PayoutRequestCodec() {
+        //static methods only
+    }
+
+    public static String encode(final Object value) {
+        if (value == null) {
+            return null;
+        }
+        try {
+            final byte[] json = WRITER.writeValueAsBytes(value);
+            if (json.length <= COMPRESSION_THRESHOLD) {
+                return new StringBuilder(json.length + 2).append(SCHEMA_VERSION).append(PLAIN).append(new String(json, StandardCharsets.UTF_8)).toString();
+            }
+            final ByteArrayOutputStream deflated = new ByteArrayOutputStream(json.length / 4);
+            final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+            try (DeflaterOutputStream out = new DeflaterOutputStream(deflated, deflater)) {
+                out.write(json);
+            } finally {
+                deflater.end();
+            }
+            return String.valueOf(SCHEMA_VERSION) + DEFLATED + Base64.getEncoder().encodeToString(deflated.toByteArray());
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not encode " + value.getClass().getSimpleName(), e);
+        }
+    }
+
+    public static PayoutAccountHolderRequest decodePayoutAccountHolderRequest(final String encoded) throws IOException {
+        return decode(encoded, PAYOUT_REQUEST_READER, PayoutAccountHolderRequest.class);
+    }
+
+    public static PayoutAccountHolderResponse decodePayoutAccountHolderResponse(final String encoded) throws IOException {
+        return decode(encoded, PAYOUT_RESPONSE_READER, PayoutAccountHolderResponse.class);
+    }
+
+    public static TransferFundsRequest decodeTransferFundsRequest(final String encoded) throws IOException {
+        return decode(encoded, TRANSFER_FUNDS_REQUEST_READER, TransferFundsRequest.class);
+    }
+
+    private static <T> T decode(final String encoded, final ObjectReader reader, final Class<T> type) throws IOException {
+        if (encoded == null || encoded.isEmpty()) {
+            return null;
+        }
+        if (encoded.length() < 2 || encoded.charAt(0) != SCHEMA_VERSION) {
+            return LEGACY_GSON.fromJson(encoded, type);
+        }
+        switch (encoded.charAt(1)) {
+            case PLAIN:
+                return reader.readValue(encoded.substring(2));
+            case DEFLATED:
+                final byte[] deflated = Base64.getDecoder().decode(encoded.substring(2));
+                try (InputStream in = new InflaterInputStream(new ByteArrayInputStream(deflated))) {
+                    return reader.readValue(in);
+                }
+            default:
+                throw new IOException("Unknown encoding '" + encoded.charAt(1) + "' of a stored " + type.getSimpleName());
+        }
+    }
+}
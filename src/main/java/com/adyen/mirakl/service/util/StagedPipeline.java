@@ -0,0 +1,327 @@
+/*
+ *                       ######
+ *                       ######
+ * ############    ####( ######  #####. ######  ############   ############
+ * #############  #####( ######  #####. ######  #############  #############
+ *        ######  #####( ######  #####. ######  #####  ######  #####  ######
+ * ###### ######  #####( ######  #####. ######  #####  #####   #####  ######
+ * ###### ######  #####( ######  #####. ######  #####          #####  ######
+ * #############  #############  #############  #############  #####  ######
+ *  ############   ############  #############   ############  #####  ######
+ *                                      ######
+ *                               #############
+ *                               ############
+ *
+ * Adyen Mirakl Connector
+ *
+ * Copyright (c) 2018 Adyen B.V.
+ * This file is open source and available under the MIT license.
+ * See the LICENSE file for more info.
+ *
+ */
+
+package com.adyen.mirakl.service.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs items through a fixed sequence of stages, every stage has its own workers and hands the items to the next stage through a bounded queue
+ * A full queue holds back the stage feeding it, so a slow stage throttles the stages before it instead of piling up items in memory
+ * An item failing in a stage skips the remaining stages and is handed to the failure handler
+ * <p>
+ * A run reserves a permit for every one of its workers before it submits them, so runs sharing an executor never interleave
+ * their workers: a run waits until all of its workers can get a thread. A stage which cannot hand an item to the next stage
+ * within the offer timeout aborts the run instead of waiting forever.
+ */
+public class StagedPipeline<T> {
+
+    private static final Object END = new Object();
+    private static final long POLL_MILLIS = 100;
+    private static final long DEFAULT_OFFER_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(10);
+
+    private final Logger log = LoggerFactory.getLogger(StagedPipeline.class);
+
+    private final String name;
+    private final Executor executor;
+    private final Semaphore workerPermits;
+    private final int queueCapacity;
+    private long offerTimeoutMillis = DEFAULT_OFFER_TIMEOUT_MILLIS;
+    private final List<StageDefinition<T>> stages = new ArrayList<>();
+    private Consumer<T> successHandler = item -> {
+    };
+    private BiConsumer<T, Exception> failureHandler = (item, e) -> {
+    };
+
+    /**
+     * @param executor      runs the stage workers, it needs a thread for every worker of every stage
+     * @param workerPermits one permit per thread of the executor, shared by every pipeline using the executor. A run takes a permit
+     *                      for each of its workers and gives them back once it finished, null when the executor is used by this run only
+     * @param queueCapacity number of items waiting in front of every stage
+     */
+    public StagedPipeline(final String name, final Executor executor, final Semaphore workerPermits, final int queueCapacity) {
+        this.name = name;
+        this.executor = executor;
+        this.workerPermits = workerPermits;
+        this.queueCapacity = Math.max(1, queueCapacity);
+    }
+
+    /**
+     * How long a stage waits for room in the queue of the next stage before the run is aborted, 10 minutes by default
+     */
+    public StagedPipeline<T> offerTimeout(final long timeout, final TimeUnit unit) {
+        this.offerTimeoutMillis = unit.toMillis(timeout);
+        return this;
+    }
+
+    public StagedPipeline<T> stage(final String stageName, final Integer parallelism, final Stage<T> stage) {
+        stages.add(new StageDefinition<>(stageName, parallelism == null ? 1 : Math.max(1, parallelism), stage));
+        return this;
+    }
+
+    /**
+     * Called by the worker of the last stage for every item which passed all stages
+     */
+    public StagedPipeline<T> onSuccess(final Consumer<T> successHandler) {
+        this.successHandler = successHandler;
+        return this;
+    }
+
+    /**
+     * Called by the worker of the failing stage for every item which failed
+     */
+    public StagedPipeline<T> onFailure(final BiConsumer<T, Exception> failureHandler) {
+        this.failureHandler = failureHandler;
+        return this;
+    }
+
+    /**
+     * Push all items through the stages, returns once every stage has drained
+     *
+     * @return the number of items which failed
+     */
+    public int run(final Iterable<T> items) {
+        final Run run = new Run();
+        reserveWorkers(run.workers);
+        try {
+            try {
+                for (int i = 0; i < stages.size(); i++) {
+                    for (int worker = 0; worker < stages.get(i).parallelism; worker++) {
+                        final int stageIndex = i;
+                        executor.execute(() -> work(run, stageIndex));
+                    }
+                }
+            } catch (RuntimeException e) {
+                run.aborted = true;
+                throw e;
+            }
+
+            for (T item : items) {
+                if (! offer(run, run.queues.get(0), item)) {
+                    break;
+                }
+            }
+            endStage(run, 0);
+            try {
+                run.finished.await();
+            } catch (InterruptedException e) {
+                run.aborted = true;
+                Thread.currentThread().interrupt();
+            }
+        } finally {
+            if (workerPermits != null) {
+                workerPermits.release(run.workers);
+            }
+        }
+        if (run.aborted) {
+            throw new IllegalStateException("Pipeline " + name + " was aborted before all items were processed");
+        }
+        return run.failed.get();
+    }
+
+    private void reserveWorkers(final int workers) {
+        if (workerPermits == null) {
+            return;
+        }
+        try {
+            workerPermits.acquire(workers);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Pipeline " + name + " was interrupted while waiting for its workers", e);
+        }
+    }
+
+    /**
+     * Push all items through the stages one by one on the calling thread
+     *
+     * @return the number of items which failed
+     */
+    public int runSequentially(final Iterable<T> items) {
+        int failed = 0;
+        for (T item : items) {
+            boolean succeeded = true;
+            for (StageDefinition<T> stage : stages) {
+                if (! process(stage, item)) {
+                    succeeded = false;
+                    break;
+                }
+            }
+            if (succeeded) {
+                succeeded(item);
+            } else {
+                failed++;
+            }
+        }
+        return failed;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    private void work(final Run run, final int stageIndex) {
+        final StageDefinition<T> stage = stages.get(stageIndex);
+        final BlockingQueue<Object> input = run.queues.get(stageIndex);
+        final boolean last = stageIndex == stages.size() - 1;
+        try {
+            while (! run.aborted) {
+                final Object next = input.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (next == END) {
+                    break;
+                }
+                if (next == null) {
+                    continue;
+                }
+                @SuppressWarnings("unchecked")
+                final T item = (T) next;
+                if (! process(stage, item)) {
+                    run.failed.incrementAndGet();
+                } else if (last) {
+                    succeeded(item);
+                } else if (! offer(run, run.queues.get(stageIndex + 1), item)) {
+                    break;
+                }
+            }
+        } catch (InterruptedException e) {
+            run.aborted = true;
+            Thread.currentThread().interrupt();
+        } finally {
+            if (run.runningWorkers[stageIndex].decrementAndGet() == 0 && ! last) {
+                endStage(run, stageIndex + 1);
+            }
+            run.finished.countDown();
+        }
+    }
+
+    private boolean process(final StageDefinition<T> stage, final T item) {
+        try {
+            stage.stage.process(item);
+            return true;
+        } catch (Exception e) {
+            log.debug("Stage {} of pipeline {} failed: {}", stage.name, name, e.getMessage());
+            try {
+                failureHandler.accept(item, e);
+            } catch (RuntimeException handlerException) {
+                log.error("Exception: {}, {}. While handling a failure in pipeline {}", handlerException.getMessage(), handlerException, name);
+            }
+            return false;
+        }
+    }
+
+    private void succeeded(final T item) {
+        try {
+            successHandler.accept(item);
+        } catch (RuntimeException e) {
+            log.error("Exception: {}, {}. While handling a success in pipeline {}", e.getMessage(), e, name);
+        }
+    }
+
+    /**
+     * Tell every worker of the stage that no more items will come
+     */
+    private void endStage(final Run run, final int stageIndex) {
+        for (int i = 0; i < stages.get(stageIndex).parallelism; i++) {
+            if (! offer(run, run.queues.get(stageIndex), END)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Blocks while the queue is full, for at most the offer timeout
+     *
+     * @return false if the run was aborted before the element could be queued, or is aborted because the queue stayed full
+     */
+    private boolean offer(final Run run, final BlockingQueue<Object> queue, final Object element) {
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(offerTimeoutMillis);
+        try {
+            while (! run.aborted) {
+                if (queue.offer(element, POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+                    return true;
+                }
+                if (System.nanoTime() - deadline > 0) {
+                    log.error("Pipeline {} made no progress for {} ms, aborting the run", name, offerTimeoutMillis);
+                    run.aborted = true;
+                }
+            }
+        } catch (InterruptedException e) {
+            run.aborted = true;
+            Thread.currentThread().interrupt();
+        }
+        return false;
+    }
+
+    @FunctionalInterface
+    public interface Stage<T> {
+        void process(T item) throws Exception;
+    }
+
+    private static final class StageDefinition<T> {
+        private final String name;
+        private final int parallelism;
+        private final Stage<T> stage;
+
+        private StageDefinition(final String name, final int parallelism, final Stage<T> stage) {
+            this.name = name;
+            this.parallelism = parallelism;
+            this.stage = stage;
+        }
+    }
+
+    /**
+     * State of a single run, the pipeline itself can be run again
+     */
+    private final class Run {
+        private final List<BlockingQueue<Object>> queues = new ArrayList<>();
+        private final AtomicInteger[] runningWorkers = new AtomicInteger[stages.size()];
+        private final AtomicInteger failed = new AtomicInteger();
+        private final CountDownLatch finished;
+        private final int workers;
+        private volatile boolean aborted;
+
+        private Run() {
+            if (stages.isEmpty()) {
+                throw new IllegalStateException("Pipeline " + name + " has no stages");
+            }
+            int stageWorkers = 0;
+            for (int i = 0; i < stages.size(); i++) {
+                queues.add(new ArrayBlockingQueue<>(queueCapacity));
+                runningWorkers[i] = new AtomicInteger(stages.get(i).parallelism);
+                stageWorkers += stages.get(i).parallelism;
+            }
+            workers = stageWorkers;
+            finished = new CountDownLatch(workers);
+        }
+    }
+}
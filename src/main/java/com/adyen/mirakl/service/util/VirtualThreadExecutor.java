@@ -0,0 +1,143 @@
+/*
+ *                       ######
+ *                       ######
+ * ############    ####( ######  #####. ######  ############   ############
+ * #############  #####( ######  #####. ######  #############  #############
+ *        ######  #####( ######  #####. ######  #####  ######  #####  ######
+ * ###### ######  #####( ######  #####. ######  #####  #####   #####  ######
+ * ###### ######  #####( ######  #####. ######  #####          #####  ######
+ * #############  #############  #############  #############  #####  ######
+ *  ############   ############  #############   ############  #####  ######
+ *                                      ######
+ *                               #############
+ *                               ############
+ *
+ * Adyen Mirakl Connector
+ *
+ * Copyright (c) 2018 Adyen B.V.
+ * This file is open source and available under the MIT license.
+ * See the LICENSE file for more info.
+ *
+ */
+
+package com.adyen.mirakl.service.util;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Runs every task on its own virtual thread, at most maxConcurrentTasks tasks run at the same time and the others wait on a semaphore
+ * A waiting task is a parked virtual thread instead of a blocked OS thread, so thousands of blocking Adyen/Mirakl calls can be in flight
+ * <p>
+ * Virtual threads need a JDK 21 runtime, they are looked up reflectively so the connector still builds and runs on Java 8
+ */
+public class VirtualThreadExecutor implements Executor {
+
+    private final String name;
+    private final ExecutorService virtualThreads;
+    private final Semaphore permits;
+    private final int maxPendingTasks;
+    private final Consumer<Runnable> whenFull;
+    private final AtomicInteger pendingTasks = new AtomicInteger();
+    private final AtomicInteger activeTasks = new AtomicInteger();
+
+    /**
+     * @param maxConcurrentTasks tasks running at the same time
+     * @param maxWaitingTasks    tasks waiting for a permit, null for unbounded
+     * @param whenFull           called with the task when maxWaitingTasks tasks are already waiting
+     */
+    public VirtualThreadExecutor(final String name, final int maxConcurrentTasks, final Integer maxWaitingTasks, final Consumer<Runnable> whenFull) {
+        this(name, newThreadPerTaskExecutor(name + "-"), maxConcurrentTasks, maxWaitingTasks, whenFull);
+    }
+
+    /**
+     * @param taskThreads starts a thread per task, the tests pass a platform thread executor so they also run on Java 8
+     */
+    VirtualThreadExecutor(final String name, final ExecutorService taskThreads, final int maxConcurrentTasks, final Integer maxWaitingTasks, final Consumer<Runnable> whenFull) {
+        this.name = name;
+        this.virtualThreads = taskThreads;
+        this.permits = new Semaphore(Math.max(1, maxConcurrentTasks), true);
+        this.maxPendingTasks = maxWaitingTasks == null ? Integer.MAX_VALUE : Math.max(1, maxConcurrentTasks) + Math.max(0, maxWaitingTasks);
+        this.whenFull = whenFull;
+    }
+
+    /**
+     * True if the running JDK supports virtual threads
+     */
+    public static boolean isSupported() {
+        try {
+            Thread.class.getMethod("ofVirtual");
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public void execute(final Runnable task) {
+        if (pendingTasks.incrementAndGet() > maxPendingTasks) {
+            pendingTasks.decrementAndGet();
+            whenFull.accept(task);
+            return;
+        }
+        try {
+            virtualThreads.execute(() -> {
+                try {
+                    permits.acquire();
+                    activeTasks.incrementAndGet();
+                    try {
+                        task.run();
+                    } finally {
+                        activeTasks.decrementAndGet();
+                        permits.release();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    pendingTasks.decrementAndGet();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            pendingTasks.decrementAndGet();
+            throw e;
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Tasks holding a permit
+     */
+    public int getActiveTasks() {
+        return activeTasks.get();
+    }
+
+    /**
+     * Tasks waiting for a permit
+     */
+    public int getWaitingTasks() {
+        return Math.max(0, pendingTasks.get() - activeTasks.get());
+    }
+
+    private static ExecutorService newThreadPerTaskExecutor(final String threadNamePrefix) {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            builder = Class.forName("java.lang.Thread$Builder$OfVirtual").getMethod("name", String.class, long.class).invoke(builder, threadNamePrefix, 0L);
+            final ThreadFactory threadFactory = (ThreadFactory) Class.forName("java.lang.Thread$Builder").getMethod("factory").invoke(builder);
+            return (ExecutorService) Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class).invoke(null, threadFactory);
+        } catch (NoSuchMethodException | ClassNotFoundException e) {
+            throw new IllegalStateException("Virtual threads need a JDK 21 runtime", e);
+        } catch (IllegalAccessException | InvocationTargetException e) {
+            throw new IllegalStateException("Unable to create virtual threads", e);
+        }
+    }
+}
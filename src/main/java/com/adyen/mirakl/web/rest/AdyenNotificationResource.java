@@ -27,14 +27,15 @@ import java.net.URISyntaxException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.core.task.TaskRejectedException;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
-import com.adyen.mirakl.domain.AdyenNotification;
 import com.adyen.mirakl.events.AdyenNotifcationEvent;
-import com.adyen.mirakl.repository.AdyenNotificationRepository;
+import com.adyen.mirakl.service.NotificationIngestionService;
+import com.adyen.mirakl.service.NotificationQueueService;
 import com.adyen.mirakl.web.rest.util.HeaderUtil;
 
 /**
@@ -48,12 +49,17 @@ public class AdyenNotificationResource {
 
     private static final String ENTITY_NAME = "adyenNotification";
 
-    private final AdyenNotificationRepository adyenNotificationRepository;
+    private final NotificationIngestionService notificationIngestionService;
+
+    private final NotificationQueueService notificationQueueService;
 
     private final ApplicationEventPublisher publisher;
 
-    public AdyenNotificationResource(AdyenNotificationRepository adyenNotificationRepository, ApplicationEventPublisher publisher) {
-        this.adyenNotificationRepository = adyenNotificationRepository;
+    public AdyenNotificationResource(NotificationIngestionService notificationIngestionService,
+                                     NotificationQueueService notificationQueueService,
+                                     ApplicationEventPublisher publisher) {
+        this.notificationIngestionService = notificationIngestionService;
+        this.notificationQueueService = notificationQueueService;
         this.publisher = publisher;
     }
 
@@ -61,18 +67,28 @@ public class AdyenNotificationResource {
      * POST  /adyen-notifications : Create a new adyenNotification.
      *
      * @param adyenNotification the adyenNotification to create
-     * @return the ResponseEntity with status 201 (Created) and with body the new adyenNotification, or with status 400 (Bad Request) if the adyenNotification has already an ID
+     * @return the ResponseEntity with status 201 (Created) and with body the new adyenNotification, or with status 200 (OK) if the adyenNotification was received before
      * @throws URISyntaxException if the Location URI syntax is incorrect
      */
     @PostMapping("/adyen-notifications")
     public ResponseEntity<AdyenNotificationResponse> createAdyenNotification(@RequestBody String adyenNotification) throws URISyntaxException {
-        final AdyenNotification entity = new AdyenNotification();
-        entity.setRawAdyenNotification(adyenNotification);
-        AdyenNotification result = adyenNotificationRepository.save(entity);
-        publisher.publishEvent(new AdyenNotifcationEvent(result.getId()));
+        final AdyenNotifcationEvent event = notificationIngestionService.ingest(adyenNotification);
+        if (event == null) {
+            // Adyen sent the notification again, it was already accepted
+            return ResponseEntity.ok(new AdyenNotificationResponse());
+        }
+        try {
+            publisher.publishEvent(event);
+        } catch (TaskRejectedException e) {
+            // the notification is stored, the queue poller will pick it up
+            log.warn("No worker available for notification {}, leaving it to the queue poller", event.getDbId());
+            if (event.isClaimed()) {
+                notificationQueueService.release(event.getDbId());
+            }
+        }
 
-        return ResponseEntity.created(new URI("/api/adyen-notifications/" + result.getId()))
-                             .headers(HeaderUtil.createEntityCreationAlert(ENTITY_NAME, result.getId().toString()))
+        return ResponseEntity.created(new URI("/api/adyen-notifications/" + event.getDbId()))
+                             .headers(HeaderUtil.createEntityCreationAlert(ENTITY_NAME, event.getDbId().toString()))
                              .body(new AdyenNotificationResponse());
     }
 
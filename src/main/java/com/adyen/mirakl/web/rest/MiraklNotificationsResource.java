@@ -23,6 +23,10 @@
 package com.adyen.mirakl.web.rest;
 
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestPart;
@@ -48,9 +52,14 @@ public class MiraklNotificationsResource {
      */
     @PostMapping("/payout")
     public void receiveNotifications(@RequestPart("file") MultipartFile csvdata) throws IOException {
-        String content = new String(csvdata.getBytes());
-        if (! content.isEmpty()) {
-            payoutService.parseMiraklCsv(content);
+        if (! csvdata.isEmpty()) {
+            // stream the upload into the parser, a voucher which is not valid UTF-8 is rejected instead of being stored garbled
+            try (Reader content = new InputStreamReader(csvdata.getInputStream(),
+                                                        StandardCharsets.UTF_8.newDecoder()
+                                                                              .onMalformedInput(CodingErrorAction.REPORT)
+                                                                              .onUnmappableCharacter(CodingErrorAction.REPORT))) {
+                payoutService.parseMiraklCsv(content);
+            }
             payoutService.processMiraklVoucherEntries();
         }
     }
@@ -0,0 +1,105 @@
+/*
+ *                       ######
+ *                       ######
+ * ############    ####( ######  #####. ######  ############   ############
+ * #############  #####( ######  #####. ######  #############  #############
+ *        ######  #####( ######  #####. ######  #####  ######  #####  ######
+ * ###### ######  #####( ######  #####. ######  #####  #####   #####  ######
+ * ###### ######  #####( ######  #####. ######  #####          #####  ######
+ * #############  #############  #############  #############  #####  ######
+ *  ############   ############  #############   ############  #####  ######
+ *                                      ######
+ *                               #############
+ *                               ############
+ *
+ * Adyen Mirakl Connector
+ *
+ * Copyright (c) 2018 Adyen B.V.
+ * This file is open source and available under the MIT license.
+ * See the LICENSE file for more info.
+ *
+ */
+
+package com.adyen.mirakl.config;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import com.adyen.mirakl.service.ConnectorMetrics;
+import com.adyen.mirakl.service.util.VirtualThreadExecutor;
+import io.github.jhipster.config.JHipsterProperties;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+import static org.junit.Assume.assumeFalse;
+
+public class AsyncConfigurationTest {
+
+    private ConnectorMetrics connectorMetrics;
+    private ThreadPoolTaskExecutor executor;
+
+    @Before
+    public void setUp() {
+        connectorMetrics = new ConnectorMetrics();
+        final AsyncConfiguration asyncConfiguration = new AsyncConfiguration(new JHipsterProperties(), new ApplicationProperties(), connectorMetrics);
+        executor = (ThreadPoolTaskExecutor) asyncConfiguration.meteredExecutor("test", 1, 1, task -> {
+            throw new TaskRejectedException("full");
+        });
+        executor.initialize();
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdown();
+    }
+
+    @Test
+    public void testBoundedQueueRejectsAndPublishesMetrics() throws InterruptedException {
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(2);
+        executor.execute(() -> {
+            awaitQuietly(release);
+            done.countDown();
+        });
+        executor.execute(done::countDown);
+
+        assertThat(connectorMetrics.getGauge("executor.test.queue-depth").intValue()).isEqualTo(1);
+        try {
+            executor.execute(done::countDown);
+            fail("Expected the full queue to reject the task");
+        } catch (TaskRejectedException e) {
+            assertThat(connectorMetrics.getCount("executor.test.rejected")).isEqualTo(1);
+        }
+
+        release.countDown();
+        assertThat(done.await(10, TimeUnit.SECONDS)).isTrue();
+        assertThat(connectorMetrics.getCount("executor.test.tasks")).isEqualTo(2);
+        assertThat(connectorMetrics.getGauge("executor.test.queue-depth").intValue()).isZero();
+    }
+
+    @Test
+    public void testVirtualThreadsWithoutJdk21RuntimeFailStartup() {
+        assumeFalse(VirtualThreadExecutor.isSupported());
+        final ApplicationProperties applicationProperties = new ApplicationProperties();
+        applicationProperties.setVirtualThreads(true);
+        final AsyncConfiguration asyncConfiguration = new AsyncConfiguration(new JHipsterProperties(), applicationProperties, connectorMetrics);
+        try {
+            asyncConfiguration.meteredExecutor("virtual", 1, null, task -> {
+            });
+            fail("Expected virtual threads to be refused without a JDK 21 runtime");
+        } catch (IllegalStateException e) {
+            assertThat(e.getMessage()).startsWith("application.virtualThreads needs a JDK 21 runtime");
+        }
+    }
+
+    private static void awaitQuietly(final CountDownLatch latch) {
+        try {
+            latch.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
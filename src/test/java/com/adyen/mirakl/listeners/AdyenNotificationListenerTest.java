@@ -22,13 +22,20 @@
 
 package com.adyen.mirakl.listeners;
 
+import com.adyen.mirakl.config.ApplicationProperties;
+import com.adyen.mirakl.service.AccountHolderCache;
+import com.adyen.mirakl.service.ConnectorMetrics;
 import com.adyen.mirakl.service.DocService;
 import com.adyen.mirakl.service.MailTemplateService;
+import com.adyen.mirakl.service.MiraklShopCache;
+import com.adyen.mirakl.service.NotificationQueueService;
 import com.adyen.mirakl.domain.AdyenNotification;
 import com.adyen.mirakl.events.AdyenNotifcationEvent;
 import com.adyen.mirakl.repository.AdyenNotificationRepository;
+import com.adyen.mirakl.service.PayoutLedgerService;
 import com.adyen.mirakl.service.RetryPayoutService;
 import com.adyen.mirakl.service.ShopService;
+import com.adyen.mirakl.service.util.ConcurrencyLimiter;
 import com.adyen.model.Name;
 import com.adyen.model.marketpay.GetAccountHolderRequest;
 import com.adyen.model.marketpay.GetAccountHolderResponse;
@@ -49,13 +56,21 @@ import org.junit.runner.RunWith;
 import org.mockito.Answers;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Captor;
+import org.mockito.InOrder;
 import org.mockito.Mock;
 import org.mockito.runners.MockitoJUnitRunner;
 
 import java.io.IOException;
 import java.net.URL;
 import java.util.Locale;
-
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -89,9 +104,13 @@ public class AdyenNotificationListenerTest {
     @Mock
     private RetryPayoutService retryPayoutService;
     @Mock
+    private PayoutLedgerService payoutLedgerServiceMock;
+    @Mock
     private DocService docServiceMock;
     @Mock
     private ShopService shopServiceMock;
+    @Mock
+    private NotificationQueueService notificationQueueServiceMock;
     @Captor
     private ArgumentCaptor<MiraklGetShopsRequest> miraklShopsRequestCaptor;
     @Captor
@@ -99,8 +118,9 @@ public class AdyenNotificationListenerTest {
 
     @Before
     public void setup(){
-        adyenNotificationListener = new AdyenNotificationListener(new NotificationHandler(), adyenNotificationRepositoryMock, mailTemplateServiceMock, miraklMarketplacePlatformOperatorApiClient, adyenAccountServiceMock, retryPayoutService, docServiceMock, shopServiceMock);
+        adyenNotificationListener = new AdyenNotificationListener(new NotificationHandler(), adyenNotificationRepositoryMock, notificationQueueServiceMock, Runnable::run, mailTemplateServiceMock, new MiraklShopCache(miraklMarketplacePlatformOperatorApiClient, new ConcurrencyLimiter("mirakl", 0), new ConnectorMetrics(), 300, 100, 0), new AccountHolderCache(adyenAccountServiceMock, new ConcurrencyLimiter("adyen", 0), new ConnectorMetrics(), 300, 100), retryPayoutService, payoutLedgerServiceMock, docServiceMock, shopServiceMock, new ApplicationProperties(), new ConnectorMetrics());
         when(eventMock.getDbId()).thenReturn(1L);
+        when(notificationQueueServiceMock.claim(1L)).thenReturn(true);
         when(adyenNotificationRepositoryMock.findOneById(1L)).thenReturn(adyenNotificationMock);
     }
 
@@ -377,4 +397,95 @@ public class AdyenNotificationListenerTest {
         Assertions.assertThat(requestCaptorValue.getAccountHolderCode()).isEqualTo("22057");
         verify(docServiceMock).removeMiraklMediaForIndividual("22057");
     }
+
+    @Test
+    public void processesClaimedNotificationWithoutReadingItBack() throws IOException {
+        URL url = Resources.getResource("adyenRequests/BANK_ACCOUNT_VERIFICATION-RETRY_LIMIT_REACHED.json");
+        final String adyenRequestJson = Resources.toString(url, Charsets.UTF_8);
+        when(miraklMarketplacePlatformOperatorApiClient.getShops(miraklShopsRequestCaptor.capture())).thenReturn(miraklShopsMock);
+        when(miraklShopsMock.getShops()).thenReturn(ImmutableList.of(miraklShopMock));
+
+        adyenNotificationListener.handleContextRefresh(new AdyenNotifcationEvent(1L, adyenRequestJson));
+
+        verify(notificationQueueServiceMock, never()).claim(1L);
+        verify(adyenNotificationRepositoryMock, never()).findOneById(1L);
+        verify(mailTemplateServiceMock).sendMiraklShopEmailFromTemplate(miraklShopMock, Locale.getDefault(), "bankAccountVerificationEmail", "email.bank.verification.title");
+        verify(adyenNotificationRepositoryMock).delete(1L);
+    }
+
+    @Test
+    public void failedNotificationIsGivenBackToTheQueue() {
+        when(adyenNotificationMock.getRawAdyenNotification()).thenReturn("{");
+
+        adyenNotificationListener.handleContextRefresh(eventMock);
+
+        verify(notificationQueueServiceMock).fail(1L);
+        verify(adyenNotificationRepositoryMock, never()).delete(1L);
+    }
+
+    @Test
+    public void alreadyClaimedNotificationIsSkipped() {
+        when(notificationQueueServiceMock.claim(1L)).thenReturn(false);
+
+        adyenNotificationListener.handleContextRefresh(eventMock);
+
+        verify(adyenNotificationRepositoryMock, never()).findOneById(1L);
+        verify(adyenNotificationRepositoryMock, never()).delete(1L);
+    }
+
+    @Test
+    public void processesClaimedNotificationsFromTheQueue() throws IOException {
+        URL url = Resources.getResource("adyenRequests/BANK_ACCOUNT_VERIFICATION-RETRY_LIMIT_REACHED.json");
+        final String adyenRequestJson = Resources.toString(url, Charsets.UTF_8);
+        when(adyenNotificationMock.getRawAdyenNotification()).thenReturn(adyenRequestJson);
+        when(miraklMarketplacePlatformOperatorApiClient.getShops(miraklShopsRequestCaptor.capture())).thenReturn(miraklShopsMock);
+        when(miraklShopsMock.getShops()).thenReturn(ImmutableList.of(miraklShopMock));
+        when(notificationQueueServiceMock.claimDueNotifications()).thenReturn(ImmutableList.of(1L));
+
+        final int processed = adyenNotificationListener.processDueNotifications();
+
+        Assertions.assertThat(processed).isEqualTo(1);
+        verify(mailTemplateServiceMock).sendMiraklShopEmailFromTemplate(miraklShopMock, Locale.getDefault(), "bankAccountVerificationEmail", "email.bank.verification.title");
+        verify(adyenNotificationRepositoryMock).delete(1L);
+    }
+
+    @Test
+    public void coalescesNotificationsOfTheSameAccountHolder() throws Exception {
+        URL url = Resources.getResource("adyenRequests/ACCOUNT_HOLDER_VERIFICATION_AWAITING_DATA.json");
+        final String adyenRequestJson = Resources.toString(url, Charsets.UTF_8);
+        when(adyenNotificationMock.getRawAdyenNotification()).thenReturn(adyenRequestJson);
+        when(adyenNotificationRepositoryMock.findOneById(2L)).thenReturn(adyenNotificationMock);
+        when(notificationQueueServiceMock.claimDueNotifications()).thenReturn(ImmutableList.of(1L, 2L));
+        when(adyenAccountServiceMock.getAccountHolder(any(GetAccountHolderRequest.class))).thenReturn(getAccountHolderResponseMock);
+        when(getAccountHolderResponseMock.getAccountHolderDetails().getBusinessDetails().getShareholders()).thenReturn(ImmutableList.of(shareholderMock2));
+        when(getAccountHolderResponseMock.getLegalEntity()).thenReturn(GetAccountHolderResponse.LegalEntityEnum.BUSINESS);
+        when(shareholderMock2.getShareholderCode()).thenReturn("24610d08-9d80-4a93-85f3-78d475274e08");
+        when(shareholderMock2.getName()).thenReturn(shareholderNameMock);
+        when(shareholderMock2.getEmail()).thenReturn("mockEmail");
+
+        final ApplicationProperties applicationProperties = new ApplicationProperties();
+        applicationProperties.setNotificationCoalesceWindowMillis(500);
+        final ConnectorMetrics connectorMetrics = new ConnectorMetrics();
+        final ExecutorService notificationExecutor = Executors.newFixedThreadPool(2);
+        try {
+            final AdyenNotificationListener coalescingListener = new AdyenNotificationListener(new NotificationHandler(), adyenNotificationRepositoryMock, notificationQueueServiceMock, notificationExecutor, mailTemplateServiceMock, new MiraklShopCache(miraklMarketplacePlatformOperatorApiClient, new ConcurrencyLimiter("mirakl", 0), connectorMetrics, 300, 100, 0), new AccountHolderCache(adyenAccountServiceMock, new ConcurrencyLimiter("adyen", 0), connectorMetrics, 0, 100), retryPayoutService, payoutLedgerServiceMock, docServiceMock, shopServiceMock, applicationProperties, connectorMetrics);
+
+            final int processed = coalescingListener.processDueNotifications();
+
+            // the workers don't wait for the window, the group is flushed once it passed
+            Assertions.assertThat(processed).isEqualTo(2);
+            verify(adyenNotificationRepositoryMock, never()).delete(1L);
+            verify(adyenNotificationRepositoryMock, timeout(5000)).delete(2L);
+            coalescingListener.shutdown();
+        } finally {
+            notificationExecutor.shutdown();
+        }
+        verify(adyenAccountServiceMock).getAccountHolder(any(GetAccountHolderRequest.class));
+        verify(mailTemplateServiceMock, times(2)).sendShareholderEmailFromTemplate(shareholderNameMock, "8255", Locale.getDefault(), "accountHolderAwaitingIdentityEmail", "email.account.verification.awaiting.id.title", "mockEmail");
+        final InOrder inOrder = inOrder(adyenNotificationRepositoryMock);
+        inOrder.verify(adyenNotificationRepositoryMock).delete(1L);
+        inOrder.verify(adyenNotificationRepositoryMock).delete(2L);
+        Assertions.assertThat(connectorMetrics.getCount("notification.coalesced.groups")).isEqualTo(1);
+        Assertions.assertThat(connectorMetrics.getCount("notification.coalesced.notifications")).isEqualTo(2);
+    }
 }
@@ -0,0 +1,113 @@
+/*
+ *                       ######
+ *                       ######
+ * ############    ####( ######  #####. ######  ############   ############
+ * #############  #####( ######  #####. ######  #############  #############
+ *        ######  #####( ######  #####. ######  #####  ######  #####  ######
+ * ###### ######  #####( ######  #####. ######  #####  #####   #####  ######
+ * ###### ######  #####( ######  #####. ######  #####          #####  ######
+ * #############  #############  #############  #############  #####  ######
+ *  ############   ############  #############   ############  #####  ######
+ *                                      ######
+ *                               #############
+ *                               ############
+ *
+ * Adyen Mirakl Connector
+ *
+ * Copyright (c) 2018 Adyen B.V.
+ * This file is open source and available under the MIT license.
+ * See the LICENSE file for more info.
+ *
+ */
+
+package com.adyen.mirakl.scheduling;
+
+import com.adyen.mirakl.config.ApplicationProperties;
+import com.adyen.mirakl.service.SchedulerLeaseService;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.ZonedDateTime;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class JobLeaseRunnerTest {
+
+    private JobLeaseRunner jobLeaseRunner;
+
+    @Mock
+    private SchedulerLeaseService schedulerLeaseServiceMock;
+
+    private final AtomicInteger runs = new AtomicInteger();
+
+    @Before
+    public void setup() {
+        jobLeaseRunner = new JobLeaseRunner();
+        final ApplicationProperties applicationProperties = new ApplicationProperties();
+        applicationProperties.setSchedulerLeaseSeconds(300);
+        ReflectionTestUtils.setField(jobLeaseRunner, "schedulerLeaseService", schedulerLeaseServiceMock);
+        ReflectionTestUtils.setField(jobLeaseRunner, "applicationProperties", applicationProperties);
+    }
+
+    @After
+    public void tearDown() {
+        jobLeaseRunner.shutdown();
+    }
+
+    @Test
+    public void runsAndReleasesWhenLeaseAcquired() {
+        final ZonedDateTime acquiredAt = ZonedDateTime.now();
+        when(schedulerLeaseServiceMock.tryAcquire("job")).thenReturn(Optional.of(acquiredAt));
+
+        assertThat(jobLeaseRunner.runExclusively("job", runs::incrementAndGet)).isTrue();
+
+        assertThat(runs.get()).isEqualTo(1);
+        verify(schedulerLeaseServiceMock).release("job", acquiredAt);
+    }
+
+    @Test
+    public void skipsWhenAnotherNodeHoldsTheLease() {
+        when(schedulerLeaseServiceMock.tryAcquire("job")).thenReturn(Optional.empty());
+
+        assertThat(jobLeaseRunner.runExclusively("job", runs::incrementAndGet)).isFalse();
+
+        assertThat(runs.get()).isZero();
+        verify(schedulerLeaseServiceMock, never()).release(anyString(), any(ZonedDateTime.class));
+    }
+
+    @Test
+    public void skipsWhenAnotherNodeCreatedTheLeaseConcurrently() {
+        when(schedulerLeaseServiceMock.tryAcquire("job")).thenThrow(new DataIntegrityViolationException("duplicate key"));
+
+        assertThat(jobLeaseRunner.runExclusively("job", runs::incrementAndGet)).isFalse();
+
+        assertThat(runs.get()).isZero();
+    }
+
+    @Test
+    public void releasesWhenJobFails() {
+        final ZonedDateTime acquiredAt = ZonedDateTime.now();
+        when(schedulerLeaseServiceMock.tryAcquire("job")).thenReturn(Optional.of(acquiredAt));
+
+        assertThatThrownBy(() -> jobLeaseRunner.runExclusively("job", () -> {
+            throw new IllegalStateException("job failed");
+        })).isInstanceOf(IllegalStateException.class);
+
+        verify(schedulerLeaseServiceMock).release("job", acquiredAt);
+    }
+}
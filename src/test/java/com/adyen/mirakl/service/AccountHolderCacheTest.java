@@ -0,0 +1,124 @@
+/*
+ *                       ######
+ *                       ######
+ * ############    ####( ######  #####. ######  ############   ############
+ * #############  #####( ######  #####. ######  #############  #############
+ *        ######  #####( ######  #####. ######  #####  ######  #####  ######
+ * ###### ######  #####( ######  #####. ######  #####  #####   #####  ######
+ * ###### ######  #####( ######  #####. ######  #####          #####  ######
+ * #############  #############  #############  #############  #####  ######
+ *  ############   ############  #############   ############  #####  ######
+ *                                      ######
+ *                               #############
+ *                               ############
+ *
+ * Adyen Mirakl Connector
+ *
+ * Copyright (c) 2018 Adyen B.V.
+ * This file is open source and available under the MIT license.
+ * See the LICENSE file for more info.
+ *
+ */
+
+package com.adyen.mirakl.service;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import com.adyen.mirakl.service.util.ConcurrencyLimiter;
+import com.adyen.model.marketpay.GetAccountHolderRequest;
+import com.adyen.model.marketpay.GetAccountHolderResponse;
+import com.adyen.service.Account;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class AccountHolderCacheTest {
+
+    @Mock
+    private Account adyenAccountServiceMock;
+
+    @Captor
+    private ArgumentCaptor<GetAccountHolderRequest> requestCaptor;
+
+    private ConnectorMetrics connectorMetrics;
+
+    private AccountHolderCache accountHolderCache;
+
+    private GetAccountHolderResponse accountHolder;
+
+    @Before
+    public void setUp() throws Exception {
+        connectorMetrics = new ConnectorMetrics();
+        accountHolderCache = new AccountHolderCache(adyenAccountServiceMock, new ConcurrencyLimiter("adyen", 0), connectorMetrics, 300, 100);
+
+        accountHolder = new GetAccountHolderResponse();
+        accountHolder.setAccountHolderCode("2000");
+        com.adyen.model.marketpay.Account account = new com.adyen.model.marketpay.Account();
+        account.setAccountCode("123456");
+        accountHolder.addAccountsItem(account);
+        when(adyenAccountServiceMock.getAccountHolder(any(GetAccountHolderRequest.class))).thenReturn(accountHolder);
+    }
+
+    @Test
+    public void testSecondLookupIsServedFromCache() throws Exception {
+        assertSame(accountHolder, accountHolderCache.getByAccountHolderCode("2000"));
+        assertSame(accountHolder, accountHolderCache.getByAccountHolderCode("2000"));
+
+        verify(adyenAccountServiceMock, times(1)).getAccountHolder(any(GetAccountHolderRequest.class));
+        assertEquals(1L, connectorMetrics.getCount("account-holder.cache.hit"));
+        assertEquals(1L, connectorMetrics.getCount("account-holder.cache.miss"));
+        assertEquals(1L, connectorMetrics.getGauge("account-holder.cache.size"));
+    }
+
+    @Test
+    public void testLookupByAccountCodeSharesEntries() throws Exception {
+        accountHolderCache.getByAccountHolderCode("2000");
+
+        assertSame(accountHolder, accountHolderCache.getByAccountCode("123456"));
+        verify(adyenAccountServiceMock, times(1)).getAccountHolder(any(GetAccountHolderRequest.class));
+
+        accountHolderCache.invalidateAll();
+        accountHolderCache.getByAccountCode("123456");
+        accountHolderCache.getByAccountHolderCode("2000");
+        verify(adyenAccountServiceMock, times(2)).getAccountHolder(requestCaptor.capture());
+        assertEquals("123456", requestCaptor.getValue().getAccountCode());
+    }
+
+    @Test
+    public void testInvalidateForcesNewLookup() throws Exception {
+        accountHolderCache.getByAccountHolderCode("2000");
+        accountHolderCache.invalidate("2000");
+        accountHolderCache.getByAccountHolderCode("2000");
+
+        verify(adyenAccountServiceMock, times(2)).getAccountHolder(any(GetAccountHolderRequest.class));
+    }
+
+    @Test
+    public void testUnknownAccountHolderIsNotCached() throws Exception {
+        when(adyenAccountServiceMock.getAccountHolder(any(GetAccountHolderRequest.class))).thenReturn(new GetAccountHolderResponse());
+
+        accountHolderCache.getByAccountHolderCode("3000");
+        accountHolderCache.getByAccountHolderCode("3000");
+
+        verify(adyenAccountServiceMock, times(2)).getAccountHolder(any(GetAccountHolderRequest.class));
+    }
+
+    @Test
+    public void testZeroTtlDisablesCaching() throws Exception {
+        accountHolderCache = new AccountHolderCache(adyenAccountServiceMock, new ConcurrencyLimiter("adyen", 0), connectorMetrics, 0, 100);
+
+        accountHolderCache.getByAccountHolderCode("2000");
+        accountHolderCache.getByAccountHolderCode("2000");
+
+        verify(adyenAccountServiceMock, times(2)).getAccountHolder(any(GetAccountHolderRequest.class));
+    }
+}
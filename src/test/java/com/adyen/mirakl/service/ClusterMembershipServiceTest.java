@@ -0,0 +1,65 @@
+/*
+ *                       ######
+ *                       ######
+ * ############    ####( ######  #####. ######  ############   ############
+ * #############  #####( ######  #####. ######  #############  #############
+ *        ######  #####( ######  #####. ######  #####  ######  #####  ######
+ * ###### ######  #####( ######  #####. ######  #####  #####   #####  ######
+ * ###### ######  #####( ######  #####. ######  #####          #####  ######
+ * #############  #############  #############  #############  #####  ######
+ *  ############   ############  #############   ############  #####  ######
+ *                                      ######
+ *                               #############
+ *                               ############
+ *
+ * Adyen Mirakl Connector
+ *
+ * Copyright (c) 2018 Adyen B.V.
+ * This file is open source and available under the MIT license.
+ * See the LICENSE file for more info.
+ *
+ */
+
+package com.adyen.mirakl.service;
+
+import com.google.common.collect.ImmutableSet;
+import org.junit.Test;
+
+import java.util.Set;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ClusterMembershipServiceTest {
+
+    private static final int PARTITIONS = 64;
+
+    @Test
+    public void shopAlwaysMapsToTheSamePartition() {
+        final int partition = ClusterMembershipService.partitionOf("2146", PARTITIONS);
+
+        assertThat(partition).isGreaterThanOrEqualTo(0).isLessThan(PARTITIONS);
+        assertThat(ClusterMembershipService.partitionOf("2146", PARTITIONS)).isEqualTo(partition);
+    }
+
+    @Test
+    public void everyPartitionHasAnActiveOwner() {
+        final Set<String> nodes = ImmutableSet.of("node-a", "node-b", "node-c");
+
+        IntStream.range(0, PARTITIONS).forEach(partition -> assertThat(nodes).contains(ClusterMembershipService.ownerOf(partition, nodes)));
+        nodes.forEach(node -> assertThat(IntStream.range(0, PARTITIONS).filter(partition -> node.equals(ClusterMembershipService.ownerOf(partition, nodes))).count()).isPositive());
+    }
+
+    @Test
+    public void joiningNodeOnlyTakesPartitionsOver() {
+        final Set<String> nodes = ImmutableSet.of("node-a", "node-b");
+        final Set<String> nodesAfterJoin = ImmutableSet.of("node-a", "node-b", "node-c");
+
+        IntStream.range(0, PARTITIONS).forEach(partition -> {
+            final String ownerAfterJoin = ClusterMembershipService.ownerOf(partition, nodesAfterJoin);
+            if (! "node-c".equals(ownerAfterJoin)) {
+                assertThat(ownerAfterJoin).isEqualTo(ClusterMembershipService.ownerOf(partition, nodes));
+            }
+        });
+    }
+}
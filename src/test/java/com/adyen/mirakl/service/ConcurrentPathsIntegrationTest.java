@@ -0,0 +1,165 @@
+/*
+ *                       ######
+ *                       ######
+ * ############    ####( ######  #####. ######  ############   ############
+ * #############  #####( ######  #####. ######  #############  #############
+ *        ######  #####( ######  #####. ######  #####  ######  #####  ######
+ * ###### ######  #####( ######  #####. ######  #####  #####   #####  ######
+ * ###### ######  #####( ######  #####. ######  #####          #####  ######
+ * #############  #############  #############  #############  #####  ######
+ *  ############   ############  #############   ############  #####  ######
+ *                                      ######
+ *                               #############
+ *                               ############
+ *
+ * Adyen Mirakl Connector
+ *
+ * Copyright (c) 2018 Adyen B.V.
+ * This file is open source and available under the MIT license.
+ * See the LICENSE file for more info.
+ *
+ */
+
+package com.adyen.mirakl.service;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.test.context.junit4.SpringRunner;
+import com.adyen.mirakl.AdyenMiraklConnectorApp;
+import com.adyen.mirakl.config.Constants;
+import com.adyen.mirakl.events.AdyenNotifcationEvent;
+import com.adyen.mirakl.scheduling.SchedulerTrigger;
+import com.adyen.mirakl.startup.MiraklStartupValidator;
+import com.adyen.model.marketpay.DocumentDetail;
+import com.adyen.model.marketpay.UploadDocumentResponse;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.Resources;
+import com.mirakl.client.mmp.domain.common.FileWrapper;
+import com.mirakl.client.mmp.domain.shop.MiraklShop;
+import com.mirakl.client.mmp.domain.shop.MiraklShops;
+import com.mirakl.client.mmp.domain.shop.document.MiraklShopDocument;
+import com.mirakl.client.mmp.operator.core.MiraklMarketplacePlatformOperatorApiClient;
+import static com.google.common.base.Charsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.isA;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * The test profile processes documents and notifications one by one, this scenario runs them through the document pipeline
+ * with streaming uploads and through the batched notification ingestion, deduplication and coalescing as configured in production
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(classes = AdyenMiraklConnectorApp.class,
+                properties = {"application.documentPipelineQueueCapacity=4",
+                              "application.documentDownloadParallelism=2",
+                              "application.documentEncodeParallelism=2",
+                              "application.documentUploadParallelism=2",
+                              "application.documentStreamingUpload=true",
+                              "application.notificationIngestWindowMillis=50",
+                              "application.notificationCoalesceWindowMillis=500"})
+public class ConcurrentPathsIntegrationTest {
+
+    @MockBean
+    private SchedulerTrigger schedulerTrigger;
+
+    @MockBean
+    private MiraklStartupValidator miraklStartupValidator;
+
+    @MockBean
+    private MiraklMarketplacePlatformOperatorApiClient miraklMarketplacePlatformOperatorApiClient;
+
+    @MockBean
+    private DocumentUploadService documentUploadService;
+
+    @MockBean
+    private MailTemplateService mailTemplateService;
+
+    @Autowired
+    private DocService docService;
+
+    @Autowired
+    private NotificationIngestionService notificationIngestionService;
+
+    @Autowired
+    private ApplicationEventPublisher applicationEventPublisher;
+
+    @Autowired
+    private ConnectorMetrics connectorMetrics;
+
+    @Test
+    public void documentsAreStreamedToAdyenThroughThePipeline() throws Exception {
+        final List<MiraklShopDocument> documents = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            final MiraklShopDocument document = new MiraklShopDocument();
+            document.setTypeCode(Constants.COMPANY_REGISTRATION);
+            document.setShopId("pipelineShop" + i);
+            document.setId("pipelineDoc" + i);
+            documents.add(document);
+        }
+        final FileWrapper fileWrapper = mock(FileWrapper.class);
+        when(fileWrapper.getFile()).thenReturn(new File(Resources.getResource("fileuploads/BankStatement.png").getPath()));
+        when(fileWrapper.getFilename()).thenReturn("BankStatement.png");
+        when(miraklMarketplacePlatformOperatorApiClient.getShopDocuments(any())).thenReturn(documents);
+        when(miraklMarketplacePlatformOperatorApiClient.downloadShopsDocuments(any())).thenReturn(fileWrapper);
+        when(documentUploadService.uploadDocument(any(), any())).thenReturn(new UploadDocumentResponse());
+        final long pipelineTasks = connectorMetrics.getCount("executor.document.tasks");
+        final long transferred = connectorMetrics.getCount("document.transfer.processed");
+        final long failed = connectorMetrics.getCount("document.transfer.failed");
+
+        docService.processUpdatedDocuments();
+
+        verify(documentUploadService, times(3)).uploadDocument(isA(DocumentDetail.class), isA(File.class));
+        assertThat(connectorMetrics.getCount("executor.document.tasks")).isGreaterThan(pipelineTasks);
+        assertThat(connectorMetrics.getCount("document.transfer.processed")).isEqualTo(transferred + 3);
+        assertThat(connectorMetrics.getCount("document.transfer.failed")).isEqualTo(failed);
+    }
+
+    @Test
+    public void notificationsAreBatchedDeduplicatedAndCoalesced() throws Exception {
+        final String awaitingData = Resources.toString(Resources.getResource("adyenRequests/COMPANY_VERIFICATION_AWAITING_DATA.json"), UTF_8);
+        final String invalidData = Resources.toString(Resources.getResource("adyenRequests/COMPANY_VERIFICATION_INVALID_DATA.json"), UTF_8);
+        final MiraklShop shop = new MiraklShop();
+        shop.setId("8837");
+        final MiraklShops miraklShops = new MiraklShops();
+        miraklShops.setShops(ImmutableList.of(shop));
+        miraklShops.setTotalCount(1L);
+        when(miraklMarketplacePlatformOperatorApiClient.getShops(any())).thenReturn(miraklShops);
+        final long ingested = connectorMetrics.getCount("notification.ingest.notifications");
+        final long duplicates = connectorMetrics.getCount("notification.ingest.duplicates");
+        final long coalescedGroups = connectorMetrics.getCount("notification.coalesced.groups");
+        final long coalescedNotifications = connectorMetrics.getCount("notification.coalesced.notifications");
+
+        // both notifications have the same psp reference and event type, only their content differs
+        final CompletableFuture<AdyenNotifcationEvent> first = CompletableFuture.supplyAsync(() -> notificationIngestionService.ingest(awaitingData));
+        final CompletableFuture<AdyenNotifcationEvent> second = CompletableFuture.supplyAsync(() -> notificationIngestionService.ingest(invalidData));
+        final List<AdyenNotifcationEvent> events = ImmutableList.of(first.get(), second.get());
+
+        assertThat(events).extracting(AdyenNotifcationEvent::isClaimed).containsOnly(true);
+        assertThat(connectorMetrics.getCount("notification.ingest.notifications")).isEqualTo(ingested + 2);
+        assertThat(notificationIngestionService.ingest(awaitingData)).isNull();
+        assertThat(connectorMetrics.getCount("notification.ingest.duplicates")).isEqualTo(duplicates + 1);
+
+        events.forEach(applicationEventPublisher::publishEvent);
+
+        verify(mailTemplateService, timeout(5000).times(2)).sendMiraklShopEmailFromTemplate(eq(shop), eq(Locale.getDefault()), any(), any());
+        // the shop is looked up once for the whole group
+        verify(miraklMarketplacePlatformOperatorApiClient).getShops(any());
+        assertThat(connectorMetrics.getCount("notification.coalesced.groups")).isEqualTo(coalescedGroups + 1);
+        assertThat(connectorMetrics.getCount("notification.coalesced.notifications")).isEqualTo(coalescedNotifications + 2);
+    }
+}
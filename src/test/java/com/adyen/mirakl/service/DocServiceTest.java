@@ -29,6 +29,7 @@ import java.util.Base64;
 import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.Semaphore;
 import org.assertj.core.api.Assertions;
 import org.junit.Before;
 import org.junit.Test;
@@ -38,6 +39,7 @@ import org.mockito.Captor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.runners.MockitoJUnitRunner;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import com.adyen.mirakl.config.ApplicationProperties;
 import com.adyen.mirakl.config.Constants;
 import com.adyen.mirakl.domain.DocError;
@@ -47,6 +49,7 @@ import com.adyen.mirakl.repository.DocErrorRepository;
 import com.adyen.mirakl.repository.DocRetryRepository;
 import com.adyen.mirakl.repository.ShareholderMappingRepository;
 import com.adyen.mirakl.service.dto.UboDocumentDTO;
+import com.adyen.mirakl.service.util.ConcurrencyLimiter;
 import com.adyen.model.marketpay.AccountHolderDetails;
 import com.adyen.model.marketpay.BankAccountDetail;
 import com.adyen.model.marketpay.DocumentDetail;
@@ -59,13 +62,13 @@ import com.google.common.io.Resources;
 import com.mirakl.client.mmp.domain.common.FileWrapper;
 import com.mirakl.client.mmp.domain.shop.document.MiraklShopDocument;
 import com.mirakl.client.mmp.operator.core.MiraklMarketplacePlatformOperatorApiClient;
-import com.mirakl.client.mmp.request.shop.document.MiraklDeleteShopDocumentRequest;
 import com.mirakl.client.mmp.request.shop.document.MiraklGetShopDocumentsRequest;
 import static com.google.common.io.Files.toByteArray;
 import static org.junit.Assert.assertEquals;
 import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.isA;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -99,7 +102,7 @@ public class DocServiceTest {
     @Mock
     private ShareholderMapping shareholderMappingMock;
     @Mock
-    private MiraklShopDocument miraklShopDocumentMock1, miraklShopDocumentMock2, miraklShopDocumentMock3;
+    private MiraklShopDocument miraklShopDocumentMock1, miraklShopDocumentMock2;
     @Mock
     private DocRetryRepository docRetryRepositoryMock;
     @Mock
@@ -108,21 +111,29 @@ public class DocServiceTest {
     private DocRetry docRetryMock1;
     @Mock
     private ApplicationProperties applicationProperties;
+    @Mock
+    private DocumentUploadService documentUploadServiceMock;
+    @Mock
+    private MiraklMediaCleanupService miraklMediaCleanupServiceMock;
 
     @Captor
     private ArgumentCaptor<UploadDocumentRequest> uploadDocumentRequestCaptor;
     @Captor
     private ArgumentCaptor<MiraklGetShopDocumentsRequest> miraklGetShopDocumentsRequestCaptor;
     @Captor
-    private ArgumentCaptor<MiraklDeleteShopDocumentRequest> miraklDeleteShopDocumentRequestCaptor;
-    @Captor
     private ArgumentCaptor<DocRetry> docRetryCaptor;
     @Captor
+    private ArgumentCaptor<DocumentDetail> documentDetailCaptor;
+    @Captor
     private ArgumentCaptor<DocError> docErrorCaptor;
 
     @Before
     public void setUp() {
         setField(docService, "environment", "TEST");
+        setField(docService, "accountHolderCache", new AccountHolderCache(adyenAccountServiceMock, new ConcurrencyLimiter("adyen", 0), new ConnectorMetrics(), 300, 100));
+        setField(docService, "adyenConcurrencyLimiter", new ConcurrencyLimiter("adyen", 0));
+        setField(docService, "miraklConcurrencyLimiter", new ConcurrencyLimiter("mirakl", 0));
+        setField(docService, "connectorMetrics", new ConnectorMetrics());
     }
 
     @Test
@@ -202,34 +213,143 @@ public class DocServiceTest {
 
     }
 
+    @Test
+    public void shouldTransferDocumentsThroughPipeline() throws Exception {
+        URL url = Resources.getResource("fileuploads/BankStatement.png");
+        File file = new File(url.getPath());
+
+        final List<MiraklShopDocument> documents = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            MiraklShopDocument document = new MiraklShopDocument();
+            document.setTypeCode(Constants.COMPANY_REGISTRATION);
+            document.setShopId("shop" + i);
+            document.setId("docId" + i);
+            documents.add(document);
+        }
+
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(6);
+        executor.initialize();
+        setField(docService, "documentTransferExecutor", executor);
+        setField(docService, "documentTransferWorkerPermits", new Semaphore(6));
+        when(applicationProperties.getDocumentPipelineQueueCapacity()).thenReturn(1);
+        when(applicationProperties.getDocumentDownloadParallelism()).thenReturn(2);
+        when(applicationProperties.getDocumentEncodeParallelism()).thenReturn(2);
+        when(applicationProperties.getDocumentUploadParallelism()).thenReturn(2);
+
+        when(miraklMarketplacePlatformOperatorApiClientMock.getShopDocuments(any())).thenReturn(documents);
+        when(miraklMarketplacePlatformOperatorApiClientMock.downloadShopsDocuments(any())).thenReturn(fileWrapperMock);
+        when(fileWrapperMock.getFile()).thenReturn(file);
+        when(fileWrapperMock.getFilename()).thenReturn("fileName");
+        when(adyenAccountServiceMock.uploadDocument(any())).thenAnswer(invocation -> {
+            final UploadDocumentRequest request = (UploadDocumentRequest) invocation.getArguments()[0];
+            if ("shop3".equals(request.getDocumentDetail().getAccountHolderCode())) {
+                throw new IllegalStateException("upload failed");
+            }
+            return responseMock;
+        });
+        when(docRetryRepositoryMock.findOneByDocId(any())).thenReturn(Optional.empty());
+
+        try {
+            docService.processUpdatedDocuments();
+        } finally {
+            executor.shutdown();
+        }
+
+        verify(adyenAccountServiceMock, times(5)).uploadDocument(uploadDocumentRequestCaptor.capture());
+        Assertions.assertThat(uploadDocumentRequestCaptor.getAllValues()).extracting(request -> request.getDocumentDetail().getAccountHolderCode())
+                  .containsOnly("shop0", "shop1", "shop2", "shop3", "shop4");
+        verify(docRetryRepositoryMock).saveAndFlush(docRetryCaptor.capture());
+        Assertions.assertThat(docRetryCaptor.getValue().getDocId()).isEqualTo("docId3");
+        verify(deltaServiceMock).updateDocumentDelta(any());
+    }
+
+    @Test
+    public void shouldStreamDocumentUpload() throws Exception {
+        URL url = Resources.getResource("fileuploads/BankStatement.png");
+        File file = new File(url.getPath());
+
+        MiraklShopDocument document = new MiraklShopDocument();
+        document.setTypeCode(Constants.COMPANY_REGISTRATION);
+        document.setShopId("shopId");
+        document.setId("docId");
+
+        when(applicationProperties.getDocumentStreamingUpload()).thenReturn(true);
+        when(miraklMarketplacePlatformOperatorApiClientMock.getShopDocuments(any())).thenReturn(ImmutableList.of(document));
+        when(miraklMarketplacePlatformOperatorApiClientMock.downloadShopsDocuments(any())).thenReturn(fileWrapperMock);
+        when(fileWrapperMock.getFile()).thenReturn(file);
+        when(fileWrapperMock.getFilename()).thenReturn("fileName");
+        when(documentUploadServiceMock.uploadDocument(any(), any())).thenReturn(responseMock);
+        when(docRetryRepositoryMock.findOneByDocId("docId")).thenReturn(Optional.empty());
+
+        docService.processUpdatedDocuments();
+
+        verify(documentUploadServiceMock).uploadDocument(documentDetailCaptor.capture(), isA(File.class));
+        Assertions.assertThat(documentDetailCaptor.getValue().getAccountHolderCode()).isEqualTo("shopId");
+        Assertions.assertThat(documentDetailCaptor.getValue().getDocumentType()).isEqualTo(DocumentDetail.DocumentTypeEnum.COMPANY_REGISTRATION_SCREENING);
+        verify(adyenAccountServiceMock, never()).uploadDocument(any());
+    }
+
+    @Test
+    public void shouldLookUpBankAccountOncePerShop() throws Exception {
+        URL url = Resources.getResource("fileuploads/BankStatement.png");
+        File file = new File(url.getPath());
+
+        final ConnectorMetrics connectorMetrics = new ConnectorMetrics();
+        setField(docService, "connectorMetrics", connectorMetrics);
+        setField(docService, "accountHolderCache", new AccountHolderCache(adyenAccountServiceMock, new ConcurrencyLimiter("adyen", 0), connectorMetrics, 0, 0));
+
+        final List<MiraklShopDocument> documents = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            MiraklShopDocument document = new MiraklShopDocument();
+            document.setTypeCode(Constants.BANKPROOF);
+            document.setShopId("1234");
+            document.setId("docId" + i);
+            documents.add(document);
+        }
+
+        GetAccountHolderResponse getAccountHolderResponse = new GetAccountHolderResponse();
+        BankAccountDetail bankAccountDetail = new BankAccountDetail();
+        bankAccountDetail.setBankAccountUUID("uuid");
+        AccountHolderDetails accountHolderDetails = new AccountHolderDetails();
+        accountHolderDetails.addBankAccountDetailsItem(bankAccountDetail);
+        getAccountHolderResponse.setAccountHolderDetails(accountHolderDetails);
+
+        when(miraklMarketplacePlatformOperatorApiClientMock.getShopDocuments(any())).thenReturn(documents);
+        when(miraklMarketplacePlatformOperatorApiClientMock.downloadShopsDocuments(any())).thenReturn(fileWrapperMock);
+        when(fileWrapperMock.getFile()).thenReturn(file);
+        when(fileWrapperMock.getFilename()).thenReturn("fileName");
+        when(adyenAccountServiceMock.getAccountHolder(any())).thenReturn(getAccountHolderResponse);
+        when(adyenAccountServiceMock.uploadDocument(any())).thenReturn(responseMock);
+        when(docRetryRepositoryMock.findOneByDocId(any())).thenReturn(Optional.empty());
+
+        docService.processUpdatedDocuments();
+
+        verify(adyenAccountServiceMock).getAccountHolder(any());
+        verify(adyenAccountServiceMock, times(3)).uploadDocument(uploadDocumentRequestCaptor.capture());
+        Assertions.assertThat(uploadDocumentRequestCaptor.getAllValues()).extracting(request -> request.getDocumentDetail().getBankAccountUUID()).containsOnly("uuid");
+        Assertions.assertThat(connectorMetrics.getCount("document.bank-account.lookups")).isEqualTo(1);
+        Assertions.assertThat(connectorMetrics.getCount("document.bank-account.lookups-saved")).isEqualTo(2);
+    }
+
     @Test
     public void shouldRemoveShareHolderMedia() {
         when(shareholderMappingRepositoryMock.findOneByAdyenShareholderCode("shareHolderCode")).thenReturn(Optional.of(shareholderMappingMock));
         when(shareholderMappingMock.getMiraklShopId()).thenReturn("miraklShopID");
         when(shareholderMappingMock.getMiraklUboNumber()).thenReturn(2);
 
-        when(miraklMarketplacePlatformOperatorApiClientMock.getShopDocuments(miraklGetShopDocumentsRequestCaptor.capture())).thenReturn(ImmutableList.of(miraklShopDocumentMock1,
-                                                                                                                                                         miraklShopDocumentMock2,
-                                                                                                                                                         miraklShopDocumentMock3));
-        //ignored as we're looking to delete only ubo 2 documents
-        when(miraklShopDocumentMock1.getTypeCode()).thenReturn("adyen-ubo1-photoid");
-
-        //will delete both these documents
-        when(miraklShopDocumentMock2.getTypeCode()).thenReturn("adyen-ubo2-photoid");
-        when(miraklShopDocumentMock2.getId()).thenReturn("ubo2DocId1");
-        when(miraklShopDocumentMock3.getTypeCode()).thenReturn("adyen-ubo2-photoid-rear");
-        when(miraklShopDocumentMock3.getId()).thenReturn("ubo2DocId2");
-
         docService.removeMiraklMediaForShareHolder("shareHolderCode");
 
-        verify(miraklMarketplacePlatformOperatorApiClientMock, times(2)).deleteShopDocument(miraklDeleteShopDocumentRequestCaptor.capture());
+        //only ubo 2 documents are removed
+        verify(miraklMediaCleanupServiceMock).requestCleanup("miraklShopID", "adyen-ubo2", true);
+        verify(miraklMarketplacePlatformOperatorApiClientMock, never()).deleteShopDocument(any());
+    }
 
-        final MiraklGetShopDocumentsRequest getShopsRequest = miraklGetShopDocumentsRequestCaptor.getValue();
-        Assertions.assertThat(getShopsRequest.getShopIds()).containsOnly("miraklShopID");
+    @Test
+    public void shouldRemoveBankProofMedia() {
+        docService.removeMiraklMediaForBankProof("shopId");
 
-        final List<MiraklDeleteShopDocumentRequest> deleteRequests = miraklDeleteShopDocumentRequestCaptor.getAllValues();
-        Assertions.assertThat(deleteRequests.get(0).getDocumentId()).isEqualTo("ubo2DocId1");
-        Assertions.assertThat(deleteRequests.get(1).getDocumentId()).isEqualTo("ubo2DocId2");
+        verify(miraklMediaCleanupServiceMock).requestCleanup("shopId", Constants.BANKPROOF, false);
     }
 
     @Test
@@ -0,0 +1,165 @@
+/*
+ *                       ######
+ *                       ######
+ * ############    ####( ######  #####. ######  ############   ############
+ * #############  #####( ######  #####. ######  #############  #############
+ *        ######  #####( ######  #####. ######  #####  ######  #####  ######
+ * ###### ######  #####( ######  #####. ######  #####  #####   #####  ######
+ * ###### ######  #####( ######  #####. ######  #####          #####  ######
+ * #############  #############  #############  #############  #####  ######
+ *  ############   ############  #############   ############  #####  ######
+ *                                      ######
+ *                               #############
+ *                               ############
+ *
+ * Adyen Mirakl Connector
+ *
+ * Copyright (c) 2018 Adyen B.V.
+ * This file is open source and available under the MIT license.
+ * See the LICENSE file for more info.
+ *
+ */
+
+package com.adyen.mirakl.service;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import com.adyen.Client;
+import com.adyen.Config;
+import com.adyen.model.marketpay.DocumentDetail;
+import com.adyen.model.marketpay.UploadDocumentResponse;
+import com.adyen.service.exception.ApiException;
+import com.google.common.io.Resources;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.sun.net.httpserver.HttpServer;
+import static com.google.common.io.Files.toByteArray;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+
+public class DocumentUploadServiceTest {
+
+    private HttpServer server;
+    private DocumentUploadService documentUploadService;
+    private final AtomicReference<String> requestBody = new AtomicReference<>();
+    private final AtomicReference<String> requestPath = new AtomicReference<>();
+    private volatile int responseStatus = 200;
+    private volatile String responseBody = "{\"pspReference\":\"8815\",\"accountHolderCode\":\"shopId\"}";
+    private volatile CountDownLatch respond = new CountDownLatch(0);
+    private Config config;
+    private ConnectorMetrics connectorMetrics;
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", exchange -> {
+            try (InputStream in = exchange.getRequestBody()) {
+                requestBody.set(IOUtils.toString(in, StandardCharsets.UTF_8));
+            }
+            requestPath.set(exchange.getRequestURI().getPath());
+            try {
+                respond.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            final byte[] response = responseBody.getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(responseStatus, response.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(response);
+            }
+        });
+        server.start();
+
+        config = new Config();
+        config.setUsername("user");
+        config.setPassword("password");
+        config.setApplicationName("test");
+        config.setMarketPayEndpoint("http://localhost:" + server.getAddress().getPort() + "/cal/services");
+        connectorMetrics = new ConnectorMetrics();
+        documentUploadService = new DocumentUploadService(config, connectorMetrics);
+    }
+
+    @After
+    public void tearDown() {
+        respond.countDown();
+        server.stop(0);
+    }
+
+    @Test
+    public void testStreamsBase64EncodedFile() throws Exception {
+        final URL url = Resources.getResource("fileuploads/BankStatement.png");
+        final File file = new File(url.getPath());
+        final DocumentDetail documentDetail = new DocumentDetail();
+        documentDetail.setAccountHolderCode("shopId");
+        documentDetail.setDocumentType(DocumentDetail.DocumentTypeEnum.BANK_STATEMENT);
+        documentDetail.setFilename("BankStatement.png");
+
+        final UploadDocumentResponse response = documentUploadService.uploadDocument(documentDetail, file);
+
+        assertThat(response.getPspReference()).isEqualTo("8815");
+        assertThat(requestPath.get()).isEqualTo("/cal/services/Account/" + Client.MARKETPAY_ACCOUNT_API_VERSION + "/uploadDocument");
+        final JsonObject body = new JsonParser().parse(requestBody.get()).getAsJsonObject();
+        assertThat(body.get("documentContent").getAsString()).isEqualTo(Base64.getEncoder().encodeToString(toByteArray(file)));
+        assertThat(body.getAsJsonObject("documentDetail").get("accountHolderCode").getAsString()).isEqualTo("shopId");
+        assertThat(body.getAsJsonObject("documentDetail").get("filename").getAsString()).isEqualTo("BankStatement.png");
+    }
+
+    @Test
+    public void testErrorResponseIsRaisedAsApiException() throws Exception {
+        final URL url = Resources.getResource("fileuploads/BankStatement.png");
+        responseStatus = 422;
+        responseBody = "{\"status\":422,\"errorCode\":\"000\",\"message\":\"invalid document\",\"errorType\":\"validation\"}";
+
+        try {
+            documentUploadService.uploadDocument(new DocumentDetail(), new File(url.getPath()));
+            fail("Expected an ApiException");
+        } catch (ApiException e) {
+            assertThat(e.getStatusCode()).isEqualTo(422);
+            assertThat(e.getError().getMessage()).isEqualTo("invalid document");
+            assertThat(connectorMetrics.getCount("document.upload.streamed")).isZero();
+        }
+    }
+
+    @Test
+    public void testErrorResponseWithoutAdyenErrorIsRaisedAsApiException() throws Exception {
+        final URL url = Resources.getResource("fileuploads/BankStatement.png");
+        responseStatus = 502;
+        responseBody = "<html><body>Bad Gateway</body></html>";
+
+        try {
+            documentUploadService.uploadDocument(new DocumentDetail(), new File(url.getPath()));
+            fail("Expected an ApiException");
+        } catch (ApiException e) {
+            assertThat(e.getStatusCode()).isEqualTo(502);
+            assertThat(e.getError()).isNull();
+        }
+    }
+
+    @Test
+    public void testUploadGivesUpWhenAdyenDoesNotRespond() throws Exception {
+        final URL url = Resources.getResource("fileuploads/BankStatement.png");
+        respond = new CountDownLatch(1);
+        config.setReadTimeoutMillis(200);
+
+        try {
+            documentUploadService.uploadDocument(new DocumentDetail(), new File(url.getPath()));
+            fail("Expected the upload to time out");
+        } catch (SocketTimeoutException e) {
+            assertThat(connectorMetrics.getCount("document.upload.streamed")).isZero();
+        }
+    }
+}
@@ -23,6 +23,7 @@ package com.adyen.mirakl.service;
 
 import java.util.List;
 import org.assertj.core.api.Assertions;
+import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.ArgumentCaptor;
@@ -33,6 +34,7 @@ import org.mockito.runners.MockitoJUnitRunner;
 import com.adyen.mirakl.domain.ShareholderMapping;
 import com.adyen.mirakl.repository.ShareholderMappingRepository;
 import com.adyen.mirakl.service.dto.DocumentDTO;
+import com.adyen.mirakl.service.util.ConcurrencyLimiter;
 import com.adyen.model.marketpay.DocumentDetail;
 import com.google.common.collect.ImmutableList;
 import com.mirakl.client.mmp.domain.common.MiraklAdditionalFieldValue;
@@ -42,6 +44,7 @@ import com.mirakl.client.mmp.domain.shop.document.MiraklShopDocument;
 import com.mirakl.client.mmp.operator.core.MiraklMarketplacePlatformOperatorApiClient;
 import com.mirakl.client.mmp.request.shop.MiraklGetShopsRequest;
 import static org.mockito.Mockito.when;
+import static org.springframework.test.util.ReflectionTestUtils.setField;
 
 @RunWith(MockitoJUnitRunner.class)
 public class IndividualDocumentServiceTest {
@@ -67,6 +70,11 @@ public class IndividualDocumentServiceTest {
     @Captor
     private ArgumentCaptor<MiraklGetShopsRequest> miraklGetShopsRequestCaptor;
 
+    @Before
+    public void setUp() {
+        setField(individualDocumentService, "miraklShopCache", new MiraklShopCache(miraklMarketplacePlatformOperatorApiClientMock, new ConcurrencyLimiter("mirakl", 0), new ConnectorMetrics(), 300, 100, 0));
+    }
+
     @Test
     public void shouldExtractMiraklDocumentsRelatedToUbos() {
         //shop 1
@@ -0,0 +1,181 @@
+/*
+ *                       ######
+ *                       ######
+ * ############    ####( ######  #####. ######  ############   ############
+ * #############  #####( ######  #####. ######  #############  #############
+ *        ######  #####( ######  #####. ######  #####  ######  #####  ######
+ * ###### ######  #####( ######  #####. ######  #####  #####   #####  ######
+ * ###### ######  #####( ######  #####. ######  #####          #####  ######
+ * #############  #############  #############  #############  #####  ######
+ *  ############   ############  #############   ############  #####  ######
+ *                                      ######
+ *                               #############
+ *                               ############
+ *
+ * Adyen Mirakl Connector
+ *
+ * Copyright (c) 2018 Adyen B.V.
+ * This file is open source and available under the MIT license.
+ * See the LICENSE file for more info.
+ *
+ */
+
+package com.adyen.mirakl.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import org.assertj.core.api.Assertions;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import com.adyen.mirakl.config.Constants;
+import com.adyen.mirakl.domain.MiraklMediaCleanup;
+import com.adyen.mirakl.repository.MiraklMediaCleanupRepository;
+import com.adyen.mirakl.service.util.ConcurrencyLimiter;
+import com.google.common.collect.ImmutableList;
+import com.mirakl.client.mmp.domain.shop.document.MiraklShopDocument;
+import com.mirakl.client.mmp.operator.core.MiraklMarketplacePlatformOperatorApiClient;
+import com.mirakl.client.mmp.request.shop.document.MiraklDeleteShopDocumentRequest;
+import com.mirakl.client.mmp.request.shop.document.MiraklGetShopDocumentsRequest;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.util.ReflectionTestUtils.setField;
+
+@RunWith(MockitoJUnitRunner.class)
+public class MiraklMediaCleanupServiceTest {
+
+    private static final Executor DIRECT_EXECUTOR = Runnable::run;
+
+    @InjectMocks
+    private MiraklMediaCleanupService miraklMediaCleanupService;
+
+    @Mock
+    private MiraklMarketplacePlatformOperatorApiClient miraklMarketplacePlatformOperatorApiClientMock;
+    @Mock
+    private MiraklMediaCleanupRepository miraklMediaCleanupRepositoryMock;
+
+    @Captor
+    private ArgumentCaptor<MiraklGetShopDocumentsRequest> miraklGetShopDocumentsRequestCaptor;
+    @Captor
+    private ArgumentCaptor<MiraklDeleteShopDocumentRequest> miraklDeleteShopDocumentRequestCaptor;
+    @Captor
+    private ArgumentCaptor<MiraklMediaCleanup> miraklMediaCleanupCaptor;
+    @Captor
+    private ArgumentCaptor<Iterable<MiraklMediaCleanup>> miraklMediaCleanupsCaptor;
+
+    private ConnectorMetrics connectorMetrics;
+
+    @Before
+    public void setUp() {
+        connectorMetrics = new ConnectorMetrics();
+        setField(miraklMediaCleanupService, "connectorMetrics", connectorMetrics);
+        setField(miraklMediaCleanupService, "mediaCleanupExecutor", DIRECT_EXECUTOR);
+        setField(miraklMediaCleanupService, "miraklConcurrencyLimiter", new ConcurrencyLimiter("mirakl", 0));
+    }
+
+    @Test
+    public void shouldStoreRequestedCleanup() {
+        miraklMediaCleanupService.requestCleanup("shop1", "adyen-ubo2", true);
+
+        verify(miraklMediaCleanupRepositoryMock).save(miraklMediaCleanupCaptor.capture());
+        final MiraklMediaCleanup cleanup = miraklMediaCleanupCaptor.getValue();
+        Assertions.assertThat(cleanup.getShopId()).isEqualTo("shop1");
+        Assertions.assertThat(cleanup.matches("adyen-ubo1-photoid")).isFalse();
+        Assertions.assertThat(cleanup.matches("adyen-ubo2-photoid")).isTrue();
+        Assertions.assertThat(cleanup.matches("adyen-ubo2-photoid-rear")).isTrue();
+        Assertions.assertThat(cleanup.getAttempts()).isZero();
+        Assertions.assertThat(connectorMetrics.getCount("media.cleanup.requested")).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldLookUpDocumentsOnceForAllRequests() {
+        final List<MiraklMediaCleanup> cleanups = ImmutableList.of(
+            cleanup(1L, "shop1", "adyen-ubo2", true, 0),
+            cleanup(2L, "shop1", Constants.BANKPROOF, false, 0),
+            cleanup(3L, "shop2", "adyen-individual", true, 0));
+        when(miraklMediaCleanupRepositoryMock.findAllByOrderByIdAsc()).thenReturn(cleanups);
+
+        when(miraklMarketplacePlatformOperatorApiClientMock.getShopDocuments(miraklGetShopDocumentsRequestCaptor.capture())).thenReturn(ImmutableList.of(
+            document("shop1", "doc1", "adyen-ubo1-photoid"),
+            document("shop1", "doc2", "adyen-ubo2-photoid"),
+            document("shop1", "doc3", Constants.BANKPROOF),
+            document("shop2", "doc4", "adyen-individual-photoid"),
+            document("shop2", "doc5", Constants.BANKPROOF)));
+
+        miraklMediaCleanupService.processPendingCleanups();
+
+        verify(miraklMarketplacePlatformOperatorApiClientMock).getShopDocuments(any(MiraklGetShopDocumentsRequest.class));
+        Assertions.assertThat(miraklGetShopDocumentsRequestCaptor.getValue().getShopIds()).containsOnly("shop1", "shop2");
+        verify(miraklMarketplacePlatformOperatorApiClientMock, times(3)).deleteShopDocument(miraklDeleteShopDocumentRequestCaptor.capture());
+        final List<MiraklDeleteShopDocumentRequest> deleteRequests = miraklDeleteShopDocumentRequestCaptor.getAllValues();
+        Assertions.assertThat(deleteRequests).extracting(MiraklDeleteShopDocumentRequest::getDocumentId).containsOnly("doc2", "doc3", "doc4");
+        Assertions.assertThat(connectorMetrics.getCount("media.cleanup.deleted")).isEqualTo(3);
+
+        //the requests are removed only once their documents are deleted
+        verify(miraklMediaCleanupRepositoryMock, times(2)).deleteInBatch(miraklMediaCleanupsCaptor.capture());
+        final List<MiraklMediaCleanup> removed = new ArrayList<>();
+        miraklMediaCleanupsCaptor.getAllValues().forEach(done -> done.forEach(removed::add));
+        Assertions.assertThat(removed).containsOnlyElementsOf(cleanups).hasSize(3);
+    }
+
+    @Test
+    public void shouldRetryShopWhenDeleteFailed() {
+        final MiraklMediaCleanup cleanup = cleanup(1L, "shop1", Constants.BANKPROOF, false, 0);
+        when(miraklMediaCleanupRepositoryMock.findAllByOrderByIdAsc()).thenReturn(ImmutableList.of(cleanup));
+        when(miraklMarketplacePlatformOperatorApiClientMock.getShopDocuments(any())).thenReturn(ImmutableList.of(document("shop1", "doc1", Constants.BANKPROOF)));
+        doThrow(new IllegalStateException("unavailable")).when(miraklMarketplacePlatformOperatorApiClientMock).deleteShopDocument(any());
+
+        miraklMediaCleanupService.processPendingCleanups();
+
+        verify(miraklMediaCleanupRepositoryMock).save(anyListOf(MiraklMediaCleanup.class));
+        verify(miraklMediaCleanupRepositoryMock, never()).deleteInBatch(anyListOf(MiraklMediaCleanup.class));
+        Assertions.assertThat(cleanup.getAttempts()).isEqualTo(1);
+        Assertions.assertThat(connectorMetrics.getCount("media.cleanup.failed")).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldGiveUpAfterLastAttempt() {
+        final MiraklMediaCleanup cleanup = cleanup(1L, "shop1", Constants.BANKPROOF, false, 4);
+        when(miraklMediaCleanupRepositoryMock.findAllByOrderByIdAsc()).thenReturn(ImmutableList.of(cleanup));
+        doThrow(new IllegalStateException("unavailable")).when(miraklMarketplacePlatformOperatorApiClientMock).getShopDocuments(any());
+
+        miraklMediaCleanupService.processPendingCleanups();
+
+        verify(miraklMediaCleanupRepositoryMock).deleteInBatch(ImmutableList.of(cleanup));
+        verify(miraklMediaCleanupRepositoryMock, never()).save(anyListOf(MiraklMediaCleanup.class));
+    }
+
+    @Test
+    public void shouldDoNothingWithoutRequests() {
+        when(miraklMediaCleanupRepositoryMock.findAllByOrderByIdAsc()).thenReturn(ImmutableList.of());
+
+        miraklMediaCleanupService.processPendingCleanups();
+
+        verify(miraklMarketplacePlatformOperatorApiClientMock, never()).getShopDocuments(any());
+    }
+
+    private static MiraklMediaCleanup cleanup(final Long id, final String shopId, final String typeCode, final boolean prefixMatch, final int attempts) {
+        final MiraklMediaCleanup cleanup = new MiraklMediaCleanup().shopId(shopId).typeCode(typeCode).prefixMatch(prefixMatch).attempts(attempts);
+        cleanup.setId(id);
+        return cleanup;
+    }
+
+    private static MiraklShopDocument document(final String shopId, final String id, final String typeCode) {
+        final MiraklShopDocument document = new MiraklShopDocument();
+        document.setShopId(shopId);
+        document.setId(id);
+        document.setTypeCode(typeCode);
+        return document;
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ *                       ######
+ *                       ######
+ * ############    ####( ######  #####. ######  ############   ############
+ * #############  #####( ######  #####. ######  #############  #############
+ *        ######  #####( ######  #####. ######  #####  ######  #####  ######
+ * ###### ######  #####( ######  #####. ######  #####  #####   #####  ######
+ * ###### ######  #####( ######  #####. ######  #####          #####  ######
+ * #############  #############  #############  #############  #####  ######
+ *  ############   ############  #############   ############  #####  ######
+ *                                      ######
+ *                               #############
+ *                               ############
+ *
+ * Adyen Mirakl Connector
+ *
+ * Copyright (c) 2018 Adyen B.V.
+ * This file is open source and available under the MIT license.
+ * See the LICENSE file for more info.
+ *
+ */
+
+package com.adyen.mirakl.service;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import com.adyen.mirakl.service.util.ConcurrencyLimiter;
+import com.google.common.collect.ImmutableList;
+import com.mirakl.client.mmp.domain.shop.MiraklShop;
+import com.mirakl.client.mmp.domain.shop.MiraklShops;
+import com.mirakl.client.mmp.operator.core.MiraklMarketplacePlatformOperatorApiClient;
+import com.mirakl.client.mmp.request.shop.MiraklGetShopsRequest;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class MiraklShopCacheTest {
+
+    @Mock
+    private MiraklMarketplacePlatformOperatorApiClient miraklMarketplacePlatformOperatorApiClientMock;
+
+    @Captor
+    private ArgumentCaptor<MiraklGetShopsRequest> miraklGetShopsRequestCaptor;
+
+    private MiraklShopCache miraklShopCache;
+
+    @After
+    public void tearDown() {
+        if (miraklShopCache != null) {
+            miraklShopCache.shutdown();
+        }
+    }
+
+    @Test
+    public void testConcurrentLookupsAreFetchedInOneCall() throws Exception {
+        miraklShopCache = new MiraklShopCache(miraklMarketplacePlatformOperatorApiClientMock, new ConcurrencyLimiter("mirakl", 0), new ConnectorMetrics(), 300, 100, 200);
+        when(miraklMarketplacePlatformOperatorApiClientMock.getShops(miraklGetShopsRequestCaptor.capture())).thenReturn(shops("1", "2", "3"));
+
+        final ExecutorService callers = Executors.newFixedThreadPool(3);
+        try {
+            final Future<MiraklShop> shop1 = callers.submit(() -> miraklShopCache.getShop("1"));
+            final Future<MiraklShop> shop2 = callers.submit(() -> miraklShopCache.getShop("2"));
+            final Future<MiraklShop> shop3 = callers.submit(() -> miraklShopCache.getShop("3"));
+
+            assertThat(shop1.get().getId()).isEqualTo("1");
+            assertThat(shop2.get().getId()).isEqualTo("2");
+            assertThat(shop3.get().getId()).isEqualTo("3");
+        } finally {
+            callers.shutdownNow();
+        }
+
+        verify(miraklMarketplacePlatformOperatorApiClientMock, times(1)).getShops(any());
+        assertThat(miraklGetShopsRequestCaptor.getValue().getShopIds()).containsOnly("1", "2", "3");
+
+        assertThat(miraklShopCache.getShop("2").getId()).isEqualTo("2");
+        verify(miraklMarketplacePlatformOperatorApiClientMock, times(1)).getShops(any());
+    }
+
+    @Test
+    public void testInvalidatedShopIsFetchedAgain() {
+        miraklShopCache = new MiraklShopCache(miraklMarketplacePlatformOperatorApiClientMock, new ConcurrencyLimiter("mirakl", 0), new ConnectorMetrics(), 300, 100, 0);
+        when(miraklMarketplacePlatformOperatorApiClientMock.getShops(any())).thenReturn(shops("1"));
+
+        miraklShopCache.getShop("1");
+        miraklShopCache.getShop("1");
+        verify(miraklMarketplacePlatformOperatorApiClientMock, times(1)).getShops(any());
+
+        miraklShopCache.invalidate("1");
+        miraklShopCache.getShop("1");
+        verify(miraklMarketplacePlatformOperatorApiClientMock, times(2)).getShops(any());
+    }
+
+    @Test
+    public void testUnknownShopIsNotCached() {
+        miraklShopCache = new MiraklShopCache(miraklMarketplacePlatformOperatorApiClientMock, new ConcurrencyLimiter("mirakl", 0), new ConnectorMetrics(), 300, 100, 0);
+        when(miraklMarketplacePlatformOperatorApiClientMock.getShops(any())).thenReturn(shops());
+
+        assertThat(miraklShopCache.getShop("unknown")).isNull();
+        assertThat(miraklShopCache.getShop("unknown")).isNull();
+        verify(miraklMarketplacePlatformOperatorApiClientMock, times(2)).getShops(any());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBatchFailureIsRethrownToCaller() {
+        miraklShopCache = new MiraklShopCache(miraklMarketplacePlatformOperatorApiClientMock, new ConcurrencyLimiter("mirakl", 0), new ConnectorMetrics(), 300, 100, 10);
+        when(miraklMarketplacePlatformOperatorApiClientMock.getShops(any())).thenThrow(new IllegalArgumentException("S20 failed"));
+
+        miraklShopCache.getShop("1");
+    }
+
+    private static MiraklShops shops(final String... shopIds) {
+        final ImmutableList.Builder<MiraklShop> shops = ImmutableList.builder();
+        for (String shopId : shopIds) {
+            final MiraklShop shop = new MiraklShop();
+            shop.setId(shopId);
+            shops.add(shop);
+        }
+        final MiraklShops miraklShops = new MiraklShops();
+        final List<MiraklShop> shopList = shops.build();
+        miraklShops.setShops(shopList);
+        miraklShops.setTotalCount((long) shopList.size());
+        return miraklShops;
+    }
+}
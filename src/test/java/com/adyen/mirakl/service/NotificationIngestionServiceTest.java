@@ -0,0 +1,166 @@
+/*
+ *                       ######
+ *                       ######
+ * ############    ####( ######  #####. ######  ############   ############
+ * #############  #####( ######  #####. ######  #############  #############
+ *        ######  #####( ######  #####. ######  #####  ######  #####  ######
+ * ###### ######  #####( ######  #####. ######  #####  #####   #####  ######
+ * ###### ######  #####( ######  #####. ######  #####          #####  ######
+ * #############  #############  #############  #############  #####  ######
+ *  ############   ############  #############   ############  #####  ######
+ *                                      ######
+ *                               #############
+ *                               ############
+ *
+ * Adyen Mirakl Connector
+ *
+ * Copyright (c) 2018 Adyen B.V.
+ * This file is open source and available under the MIT license.
+ * See the LICENSE file for more info.
+ *
+ */
+
+package com.adyen.mirakl.service;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.springframework.dao.IncorrectResultSizeDataAccessException;
+import com.adyen.mirakl.domain.AdyenNotification;
+import com.adyen.mirakl.events.AdyenNotifcationEvent;
+import com.google.common.collect.ImmutableList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class NotificationIngestionServiceTest {
+
+    @Mock
+    private NotificationQueueService notificationQueueServiceMock;
+    @Captor
+    private ArgumentCaptor<List<String>> rawNotificationsCaptor;
+
+    private ConnectorMetrics connectorMetrics;
+    private ExecutorService requests;
+
+    @Before
+    public void setUp() {
+        connectorMetrics = new ConnectorMetrics();
+        requests = Executors.newFixedThreadPool(3);
+    }
+
+    @After
+    public void tearDown() {
+        requests.shutdownNow();
+    }
+
+    @Test
+    public void storesNotificationsReceivedTogetherInOneBatch() {
+        when(notificationQueueServiceMock.enqueueClaimed(anyListOf(String.class), eq(true))).thenReturn(ImmutableList.of(1L, 2L, 3L));
+        final NotificationIngestionService notificationIngestionService = new NotificationIngestionService(notificationQueueServiceMock, connectorMetrics, 200, 3, 100);
+
+        final List<AdyenNotifcationEvent> events = ingestConcurrently(notificationIngestionService, "a", "b", "c");
+
+        verify(notificationQueueServiceMock).enqueueClaimed(rawNotificationsCaptor.capture(), eq(true));
+        final List<String> stored = rawNotificationsCaptor.getValue();
+        assertThat(stored).containsOnly("a", "b", "c");
+        events.forEach(event -> {
+            assertThat(event.isClaimed()).isTrue();
+            assertThat(event.getDbId()).isEqualTo(stored.indexOf(event.getRawAdyenNotification()) + 1L);
+        });
+        assertThat(connectorMetrics.getCount("notification.ingest.batches")).isEqualTo(1);
+        assertThat(connectorMetrics.getCount("notification.ingest.notifications")).isEqualTo(3);
+    }
+
+    @Test
+    public void storesNotificationsOneByOneWhenTheDriverDoesNotReturnBatchIds() {
+        when(notificationQueueServiceMock.enqueueClaimed(ImmutableList.of("a"), true)).thenThrow(new IncorrectResultSizeDataAccessException(1, 0));
+        when(notificationQueueServiceMock.enqueueClaimed(ImmutableList.of("a"), false)).thenReturn(ImmutableList.of(7L));
+        final NotificationIngestionService notificationIngestionService = new NotificationIngestionService(notificationQueueServiceMock, connectorMetrics, 1, 1, 100);
+
+        final AdyenNotifcationEvent event = notificationIngestionService.ingest("a");
+
+        assertThat(event.getDbId()).isEqualTo(7L);
+        assertThat(event.getRawAdyenNotification()).isEqualTo("a");
+    }
+
+    @Test
+    public void storesEveryNotificationOnItsOwnWithoutWindow() {
+        final AdyenNotification notification = new AdyenNotification();
+        notification.setId(5L);
+        when(notificationQueueServiceMock.enqueue("a")).thenReturn(notification);
+        final NotificationIngestionService notificationIngestionService = new NotificationIngestionService(notificationQueueServiceMock, connectorMetrics, 0, 200, 100);
+
+        final AdyenNotifcationEvent event = notificationIngestionService.ingest("a");
+
+        assertThat(event.getDbId()).isEqualTo(5L);
+        assertThat(event.isClaimed()).isFalse();
+        verify(notificationQueueServiceMock, never()).enqueueClaimed(anyListOf(String.class), eq(true));
+    }
+
+    @Test
+    public void dropsNotificationReceivedBeforeWithoutDatabaseLookup() {
+        final String rawNotification = "{\"eventType\":\"ACCOUNT_HOLDER_VERIFICATION\",\"pspReference\":\"1215189566695806\",\"content\":{}}";
+        final AdyenNotification notification = new AdyenNotification();
+        notification.setId(5L);
+        when(notificationQueueServiceMock.enqueue(rawNotification)).thenReturn(notification);
+        final NotificationIngestionService notificationIngestionService = new NotificationIngestionService(notificationQueueServiceMock, connectorMetrics, 0, 200, 100);
+
+        assertThat(notificationIngestionService.ingest(rawNotification).getDbId()).isEqualTo(5L);
+        assertThat(notificationIngestionService.ingest(rawNotification)).isNull();
+
+        verify(notificationQueueServiceMock).enqueue(rawNotification);
+        assertThat(connectorMetrics.getCount("notification.ingest.duplicates")).isEqualTo(1);
+    }
+
+    @Test
+    public void processesEveryStatusOfTheSamePayout() {
+        final String initiated = "{\"eventType\":\"ACCOUNT_HOLDER_PAYOUT\",\"pspReference\":\"8515189566695806\",\"content\":{\"status\":{\"statusCode\":\"Initiated\"}}}";
+        final String failed = "{\"eventType\":\"ACCOUNT_HOLDER_PAYOUT\",\"pspReference\":\"8515189566695806\",\"content\":{\"status\":{\"statusCode\":\"Failed\"}}}";
+        final AdyenNotification initiatedNotification = new AdyenNotification();
+        initiatedNotification.setId(5L);
+        final AdyenNotification failedNotification = new AdyenNotification();
+        failedNotification.setId(6L);
+        when(notificationQueueServiceMock.enqueue(initiated)).thenReturn(initiatedNotification);
+        when(notificationQueueServiceMock.enqueue(failed)).thenReturn(failedNotification);
+        final NotificationIngestionService notificationIngestionService = new NotificationIngestionService(notificationQueueServiceMock, connectorMetrics, 0, 200, 100);
+
+        assertThat(notificationIngestionService.ingest(initiated).getDbId()).isEqualTo(5L);
+        assertThat(notificationIngestionService.ingest(failed).getDbId()).isEqualTo(6L);
+        assertThat(notificationIngestionService.ingest(failed)).isNull();
+        assertThat(connectorMetrics.getCount("notification.ingest.duplicates")).isEqualTo(1);
+    }
+
+    @Test
+    public void dropsNotificationStoredBefore() {
+        final String rawNotification = "{\"eventType\":\"ACCOUNT_HOLDER_VERIFICATION\",\"pspReference\":\"1215189566695806\"}";
+        when(notificationQueueServiceMock.enqueueClaimed(ImmutableList.of(rawNotification), true)).thenReturn(Collections.singletonList(null));
+        final NotificationIngestionService notificationIngestionService = new NotificationIngestionService(notificationQueueServiceMock, connectorMetrics, 1, 1, 100);
+
+        assertThat(notificationIngestionService.ingest(rawNotification)).isNull();
+        assertThat(connectorMetrics.getCount("notification.ingest.duplicates")).isEqualTo(1);
+    }
+
+    private List<AdyenNotifcationEvent> ingestConcurrently(final NotificationIngestionService notificationIngestionService, final String... rawNotifications) {
+        final List<CompletableFuture<AdyenNotifcationEvent>> events = IntStream.range(0, rawNotifications.length)
+                                                                                .mapToObj(i -> CompletableFuture.supplyAsync(() -> notificationIngestionService.ingest(rawNotifications[i]), requests))
+                                                                                .collect(Collectors.toList());
+        return events.stream().map(CompletableFuture::join).collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,210 @@
+/*
+ *                       ######
+ *                       ######
+ * ############    ####( ######  #####. ######  ############   ############
+ * #############  #####( ######  #####. ######  #############  #############
+ *        ######  #####( ######  #####. ######  #####  ######  #####  ######
+ * ###### ######  #####( ######  #####. ######  #####  #####   #####  ######
+ * ###### ######  #####( ######  #####. ######  #####          #####  ######
+ * #############  #############  #############  #############  #####  ######
+ *  ############   ############  #############   ############  #####  ######
+ *                                      ######
+ *                               #############
+ *                               ############
+ *
+ * Adyen Mirakl Connector
+ *
+ * Copyright (c) 2018 Adyen B.V.
+ * This file is open source and available under the MIT license.
+ * See the LICENSE file for more info.
+ *
+ */
+
+package com.adyen.mirakl.service;
+
+import com.adyen.mirakl.AdyenMiraklConnectorApp;
+import com.adyen.mirakl.domain.AdyenNotification;
+import com.adyen.mirakl.domain.enumeration.NotificationStatus;
+import com.adyen.mirakl.repository.AdyenNotificationRepository;
+import com.google.common.collect.ImmutableList;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest(classes = AdyenMiraklConnectorApp.class)
+@Transactional
+public class NotificationQueueServiceTest {
+
+    @Autowired
+    private NotificationQueueService notificationQueueService;
+
+    @Autowired
+    private AdyenNotificationRepository adyenNotificationRepository;
+
+    @Autowired
+    private NodeIdentity nodeIdentity;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Before
+    public void removeExistingNotifications() {
+        adyenNotificationRepository.deleteAll();
+        adyenNotificationRepository.flush();
+        jdbcTemplate.update("delete from adyen_notification_key");
+    }
+
+    @Test
+    public void claimsDueNotificationsOnlyOnce() {
+        final AdyenNotification notification = notificationQueueService.enqueue("{}");
+
+        final List<Long> claimed = notificationQueueService.claimDueNotifications();
+
+        assertThat(claimed).containsExactly(notification.getId());
+        final AdyenNotification claimedNotification = adyenNotificationRepository.findOneById(notification.getId());
+        assertThat(claimedNotification.getStatus()).isEqualTo(NotificationStatus.PROCESSING);
+        assertThat(claimedNotification.getAttempts()).isEqualTo(1);
+        assertThat(claimedNotification.getLeaseOwner()).isEqualTo(nodeIdentity.getNodeId());
+        assertThat(claimedNotification.getLeasedUntil().isAfter(ZonedDateTime.now())).isTrue();
+
+        assertThat(notificationQueueService.claimDueNotifications()).isEmpty();
+        assertThat(notificationQueueService.claim(notification.getId())).isFalse();
+    }
+
+    @Test
+    public void claimsSingleNotification() {
+        final AdyenNotification notification = notificationQueueService.enqueue("{}");
+
+        assertThat(notificationQueueService.claim(notification.getId())).isTrue();
+        assertThat(notificationQueueService.claim(notification.getId())).isFalse();
+        assertThat(adyenNotificationRepository.findOneById(notification.getId()).getStatus()).isEqualTo(NotificationStatus.PROCESSING);
+    }
+
+    @Test
+    public void storesReceivedNotificationsAlreadyClaimed() {
+        final List<Long> ids = notificationQueueService.enqueueClaimed(ImmutableList.of("{\"first\":1}", "{\"second\":2}"), false);
+
+        assertThat(ids).hasSize(2);
+        final AdyenNotification first = adyenNotificationRepository.findOneById(ids.get(0));
+        assertThat(first.getRawAdyenNotification()).isEqualTo("{\"first\":1}");
+        assertThat(first.getStatus()).isEqualTo(NotificationStatus.PROCESSING);
+        assertThat(first.getAttempts()).isEqualTo(1);
+        assertThat(first.getLeaseOwner()).isEqualTo(nodeIdentity.getNodeId());
+        assertThat(adyenNotificationRepository.findOneById(ids.get(1)).getRawAdyenNotification()).isEqualTo("{\"second\":2}");
+        assertThat(notificationQueueService.claimDueNotifications()).isEmpty();
+    }
+
+    @Test
+    public void releasedNotificationIsLeftToThePoller() {
+        final Long id = notificationQueueService.enqueueClaimed(ImmutableList.of("{}"), false).get(0);
+
+        notificationQueueService.release(id);
+
+        final AdyenNotification released = adyenNotificationRepository.findOneById(id);
+        assertThat(released.getStatus()).isEqualTo(NotificationStatus.PENDING);
+        assertThat(released.getAttempts()).isEqualTo(0);
+        assertThat(released.getLeaseOwner()).isNull();
+        assertThat(notificationQueueService.claimDueNotifications()).containsExactly(id);
+    }
+
+    @Test
+    public void notificationReceivedBeforeIsNotStoredAgain() {
+        final String rawNotification = "{\"eventType\":\"ACCOUNT_HOLDER_VERIFICATION\",\"pspReference\":\"1215189566695806\"}";
+        final String otherEventType = "{\"eventType\":\"ACCOUNT_HOLDER_STATUS_CHANGE\",\"pspReference\":\"1215189566695806\"}";
+
+        final List<Long> ids = notificationQueueService.enqueueClaimed(ImmutableList.of(rawNotification, rawNotification, otherEventType), false);
+
+        assertThat(ids.get(0)).isNotNull();
+        assertThat(ids.get(1)).isNull();
+        assertThat(ids.get(2)).isNotNull();
+        assertThat(notificationQueueService.enqueue(rawNotification)).isNull();
+        assertThat(notificationQueueService.enqueueClaimed(ImmutableList.of(otherEventType), false)).containsExactly((Long) null);
+        assertThat(adyenNotificationRepository.findAll()).hasSize(2);
+    }
+
+    @Test
+    public void statusProgressionOfTheSameNotificationIsStored() {
+        final String initiated = "{\"eventType\":\"ACCOUNT_HOLDER_PAYOUT\",\"pspReference\":\"8515189566695806\",\"content\":{\"status\":{\"statusCode\":\"Initiated\"}}}";
+        final String failed = "{\"eventType\":\"ACCOUNT_HOLDER_PAYOUT\",\"pspReference\":\"8515189566695806\",\"content\":{\"status\":{\"statusCode\":\"Failed\"}}}";
+
+        assertThat(notificationQueueService.enqueue(initiated)).isNotNull();
+        assertThat(notificationQueueService.enqueueClaimed(ImmutableList.of(failed, initiated), false).get(0)).isNotNull();
+        assertThat(notificationQueueService.enqueue(failed)).isNull();
+        assertThat(adyenNotificationRepository.findAll()).hasSize(2);
+    }
+
+    @Test
+    public void expiredNotificationKeysAreRemoved() {
+        final String rawNotification = "{\"eventType\":\"ACCOUNT_HOLDER_VERIFICATION\",\"pspReference\":\"1215189566695806\"}";
+        assertThat(notificationQueueService.enqueue(rawNotification)).isNotNull();
+        jdbcTemplate.update("update adyen_notification_key set received_at = ?", Timestamp.from(Instant.now().minus(8, ChronoUnit.DAYS)));
+
+        notificationQueueService.removeExpiredNotificationKeys();
+
+        assertThat(notificationQueueService.enqueue(rawNotification)).isNotNull();
+    }
+
+    @Test
+    public void failedNotificationIsRetriedAfterBackoff() {
+        final AdyenNotification notification = notificationQueueService.enqueue("{}");
+        notificationQueueService.claimDueNotifications();
+
+        notificationQueueService.fail(notification.getId());
+
+        final AdyenNotification failedNotification = adyenNotificationRepository.findOneById(notification.getId());
+        assertThat(failedNotification.getStatus()).isEqualTo(NotificationStatus.PENDING);
+        assertThat(failedNotification.getLeaseOwner()).isNull();
+        assertThat(failedNotification.getNextAttemptAt().isAfter(ZonedDateTime.now())).isTrue();
+        assertThat(notificationQueueService.claimDueNotifications()).isEmpty();
+
+        failedNotification.setNextAttemptAt(ZonedDateTime.now().minusSeconds(1));
+        adyenNotificationRepository.saveAndFlush(failedNotification);
+        assertThat(notificationQueueService.claimDueNotifications()).containsExactly(notification.getId());
+    }
+
+    @Test
+    public void notificationIsMarkedFailedAfterMaxAttempts() {
+        final AdyenNotification notification = notificationQueueService.enqueue("{}");
+        notification.setAttempts(10);
+        adyenNotificationRepository.saveAndFlush(notification);
+
+        notificationQueueService.fail(notification.getId());
+
+        assertThat(adyenNotificationRepository.findOneById(notification.getId()).getStatus()).isEqualTo(NotificationStatus.FAILED);
+        assertThat(notificationQueueService.claimDueNotifications()).isEmpty();
+    }
+
+    @Test
+    public void expiredLeaseIsClaimedAgain() {
+        final AdyenNotification notification = notificationQueueService.enqueue("{}");
+        notification.setStatus(NotificationStatus.PROCESSING);
+        notification.setLeaseOwner("crashed-node");
+        notification.setLeasedUntil(ZonedDateTime.now().minusMinutes(1));
+        adyenNotificationRepository.saveAndFlush(notification);
+
+        assertThat(notificationQueueService.claimDueNotifications()).containsExactly(notification.getId());
+        assertThat(adyenNotificationRepository.findOneById(notification.getId()).getLeaseOwner()).isEqualTo(nodeIdentity.getNodeId());
+    }
+
+    @Test
+    public void retryDelayDoublesUpToAnHour() {
+        assertThat(notificationQueueService.retryDelaySeconds(1)).isEqualTo(30L);
+        assertThat(notificationQueueService.retryDelaySeconds(2)).isEqualTo(60L);
+        assertThat(notificationQueueService.retryDelaySeconds(3)).isEqualTo(120L);
+        assertThat(notificationQueueService.retryDelaySeconds(30)).isEqualTo(3600L);
+    }
+}
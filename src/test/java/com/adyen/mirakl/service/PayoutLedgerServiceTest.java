@@ -0,0 +1,176 @@
+/*
+ *                       ######
+ *                       ######
+ * ############    ####( ######  #####. ######  ############   ############
+ * #############  #####( ######  #####. ######  #############  #############
+ *        ######  #####( ######  #####. ######  #####  ######  #####  ######
+ * ###### ######  #####( ######  #####. ######  #####  #####   #####  ######
+ * ###### ######  #####( ######  #####. ######  #####          #####  ######
+ * #############  #############  #############  #############  #####  ######
+ *  ############   ############  #############   ############  #####  ######
+ *                                      ######
+ *                               #############
+ *                               ############
+ *
+ * Adyen Mirakl Connector
+ *
+ * Copyright (c) 2018 Adyen B.V.
+ * This file is open source and available under the MIT license.
+ * See the LICENSE file for more info.
+ *
+ */
+
+package com.adyen.mirakl.service;
+
+import com.adyen.mirakl.AdyenMiraklConnectorApp;
+import com.adyen.mirakl.domain.AdyenNotification;
+import com.adyen.mirakl.domain.MiraklPayoutLedger;
+import com.adyen.mirakl.domain.enumeration.PayoutLedgerState;
+import com.adyen.mirakl.listeners.AdyenNotificationListener;
+import com.adyen.mirakl.repository.MiraklPayoutLedgerRepository;
+import com.google.common.base.Charsets;
+import com.google.common.io.Resources;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.time.temporal.ChronoUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.verify;
+
+/**
+ * Not transactional, the ledger is committed in its own transactions like it is between payout workers
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(classes = AdyenMiraklConnectorApp.class)
+public class PayoutLedgerServiceTest {
+
+    @Autowired
+    private PayoutLedgerService payoutLedgerService;
+
+    @Autowired
+    private MiraklPayoutLedgerRepository miraklPayoutLedgerRepository;
+
+    @Autowired
+    private NotificationQueueService notificationQueueService;
+
+    @Autowired
+    private AdyenNotificationListener adyenNotificationListener;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @MockBean
+    private MailTemplateService mailTemplateService;
+
+    @Before
+    @After
+    public void removeLedger() {
+        miraklPayoutLedgerRepository.deleteAll();
+    }
+
+    @Test
+    public void claimsInvoiceOnce() {
+        assertThat(payoutLedgerService.claim("shop-1", "invoice-1", "voucher-1")).isTrue();
+        assertThat(payoutLedgerService.claim("shop-1", "invoice-1", "voucher-1")).isFalse();
+        assertThat(payoutLedgerService.claim("shop-2", "invoice-1", "voucher-1")).isTrue();
+    }
+
+    @Test
+    public void recognisesInvoiceClaimedForTheSameVoucher() {
+        payoutLedgerService.claim("shop-1", "invoice-1", "voucher-1");
+
+        assertThat(payoutLedgerService.isClaimedForVoucher("shop-1", "invoice-1", "voucher-1")).isTrue();
+        assertThat(payoutLedgerService.isClaimedForVoucher("shop-1", "invoice-1", "voucher-2")).isFalse();
+        assertThat(payoutLedgerService.isClaimedForVoucher("shop-2", "invoice-1", "voucher-1")).isFalse();
+    }
+
+    @Test
+    public void concurrentClaimFailsOnUniqueIndex() {
+        miraklPayoutLedgerRepository.save(new MiraklPayoutLedger().shopId("shop-1").invoiceNumber("invoice-1").state(PayoutLedgerState.CLAIMED));
+
+        assertThatThrownBy(() -> miraklPayoutLedgerRepository.saveAndFlush(new MiraklPayoutLedger().shopId("shop-1").invoiceNumber("invoice-1")))
+            .isInstanceOf(DataIntegrityViolationException.class);
+    }
+
+    @Test
+    public void tracksPayoutUntilConfirmed() {
+        payoutLedgerService.claim("shop-1", "invoice-1", "voucher-1");
+        payoutLedgerService.subscriptionSent("shop-1", "invoice-1", "subscription-psp");
+        payoutLedgerService.payoutSent("shop-1", "invoice-1", "payout-psp");
+        payoutLedgerService.confirm("shop-1", "invoice-1", "payout-psp", true);
+
+        final MiraklPayoutLedger ledger = miraklPayoutLedgerRepository.findOneByPayoutPspReference("payout-psp").get();
+        assertThat(ledger.getState()).isEqualTo(PayoutLedgerState.CONFIRMED);
+        assertThat(ledger.getSubscriptionPspReference()).isEqualTo("subscription-psp");
+        assertThat(ledger.getShopId()).isEqualTo("shop-1");
+        assertThat(ledger.getInvoiceNumber()).isEqualTo("invoice-1");
+    }
+
+    @Test
+    public void confirmsPayoutFromItsNotification() throws Exception {
+        payoutLedgerService.claim("2146", "10042", "voucher-1");
+        payoutLedgerService.payoutSent("2146", "10042", "8515217099765389");
+        final String rawNotification = Resources.toString(Resources.getResource("adyenRequests/ACCOUNT_HOLDER_PAYOUT_SUCCEEDED.json"), Charsets.UTF_8);
+        final AdyenNotification notification = notificationQueueService.enqueue(rawNotification);
+        try {
+            adyenNotificationListener.processQueuedNotification(notification.getId());
+        } finally {
+            jdbcTemplate.update("delete from adyen_notification_key");
+        }
+
+        assertThat(miraklPayoutLedgerRepository.findOneByShopIdAndInvoiceNumber("2146", "10042").get().getState()).isEqualTo(PayoutLedgerState.CONFIRMED);
+    }
+
+    @Test
+    public void confirmsPayoutByPspReferenceWithoutMerchantReference() {
+        payoutLedgerService.claim("shop-1", "invoice-1", "voucher-1");
+        payoutLedgerService.payoutSent("shop-1", "invoice-1", "payout-psp");
+
+        payoutLedgerService.confirm("shop-1", null, "payout-psp", false);
+
+        assertThat(miraklPayoutLedgerRepository.findOneByPayoutPspReference("payout-psp").get().getState()).isEqualTo(PayoutLedgerState.FAILED);
+    }
+
+    @Test
+    public void reportsPayoutInProgressBeyondItsLeaseOnce() {
+        payoutLedgerService.claim("shop-1", "invoice-1", "voucher-1");
+        payoutLedgerService.claim("shop-2", "invoice-2", "voucher-1");
+        jdbcTemplate.update("update mirakl_payout_ledger set state = ?, updated_at = ? where shop_id = ?",
+                            PayoutLedgerState.SUBSCRIPTION_SENT.name(), Timestamp.from(Instant.now().minus(2, ChronoUnit.HOURS)), "shop-1");
+
+        assertThat(payoutLedgerService.stateOf("shop-1", "invoice-1")).isEqualTo(PayoutLedgerState.UNKNOWN);
+        assertThat(payoutLedgerService.stateOf("shop-2", "invoice-2")).isEqualTo(PayoutLedgerState.CLAIMED);
+        assertThat(payoutLedgerService.reportStalePayouts()).isEqualTo(1);
+        assertThat(payoutLedgerService.reportStalePayouts()).isZero();
+
+        assertThat(miraklPayoutLedgerRepository.findOneByShopIdAndInvoiceNumber("shop-1", "invoice-1").get().getState()).isEqualTo(PayoutLedgerState.UNKNOWN);
+        verify(mailTemplateService).sendOperatorEmailPayoutUnknownState(eq("shop-1"), eq("invoice-1"), eq(PayoutLedgerState.SUBSCRIPTION_SENT), any(ZonedDateTime.class));
+        assertThat(payoutLedgerService.claim("shop-1", "invoice-1", "voucher-1")).isFalse();
+    }
+
+    @Test
+    public void releasesOnlyUnsentClaims() {
+        payoutLedgerService.claim("shop-1", "invoice-1", "voucher-1");
+        payoutLedgerService.release("shop-1", "invoice-1");
+        assertThat(payoutLedgerService.claim("shop-1", "invoice-1", "voucher-1")).isTrue();
+
+        payoutLedgerService.payoutSent("shop-1", "invoice-1", "payout-psp");
+        payoutLedgerService.release("shop-1", "invoice-1");
+        assertThat(payoutLedgerService.claim("shop-1", "invoice-1", "voucher-1")).isFalse();
+    }
+}
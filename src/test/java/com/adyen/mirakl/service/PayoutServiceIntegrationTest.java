@@ -23,7 +23,10 @@
 package com.adyen.mirakl.service;
 
 
+import java.io.ByteArrayInputStream;
+import java.io.InputStreamReader;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
 import org.assertj.core.api.Assertions;
 import org.junit.Before;
@@ -37,8 +40,11 @@ import com.adyen.util.Util;
 import com.adyen.mirakl.AdyenMiraklConnectorApp;
 import com.adyen.mirakl.domain.AdyenPayoutError;
 import com.adyen.mirakl.domain.MiraklVoucherEntry;
+import com.adyen.mirakl.domain.MiraklVoucherQuarantine;
 import com.adyen.mirakl.repository.AdyenPayoutErrorRepository;
+import com.adyen.mirakl.service.util.PayoutRequestCodec;
 import com.adyen.mirakl.repository.MiraklVoucherEntryRepository;
+import com.adyen.mirakl.repository.MiraklVoucherQuarantineRepository;
 import com.adyen.model.Amount;
 import com.adyen.model.marketpay.PayoutAccountHolderRequest;
 import com.google.common.base.Charsets;
@@ -60,6 +66,9 @@ public class PayoutServiceIntegrationTest {
     @Autowired
     private MiraklVoucherEntryRepository miraklVoucherEntryRepository;
 
+    @Autowired
+    private MiraklVoucherQuarantineRepository miraklVoucherQuarantineRepository;
+
     @Before
     public void removeExistingTestAdyenPayoutErrors() {
         final List<AdyenPayoutError> adyenPayoutErrors = adyenPayoutErrorRepository.findAll();
@@ -69,6 +78,9 @@ public class PayoutServiceIntegrationTest {
         final List<MiraklVoucherEntry> miraklVoucherEntries = miraklVoucherEntryRepository.findAll();
         miraklVoucherEntryRepository.delete(miraklVoucherEntries);
         miraklVoucherEntryRepository.flush();
+
+        miraklVoucherQuarantineRepository.deleteAll();
+        miraklVoucherQuarantineRepository.flush();
     }
 
     @Test
@@ -85,7 +97,7 @@ public class PayoutServiceIntegrationTest {
 
         // check if it stores it properly
         final List<AdyenPayoutError> all = adyenPayoutErrorRepository.findAll();
-        Assertions.assertThat(all.get(0).getRawRequest()).isEqualTo(PayoutService.GSON.toJson(payoutAccountHolderRequest));
+        Assertions.assertThat(all.get(0).getRawRequest()).isEqualTo(PayoutRequestCodec.encode(payoutAccountHolderRequest));
     }
 
     @Test
@@ -104,5 +116,57 @@ public class PayoutServiceIntegrationTest {
         assertEquals("EUR", miraklVoucherEntry.getCurrencyIsoCode());
         assertEquals("230207", miraklVoucherEntry.getInvoiceNumber());
         assertEquals("GB26TEST40051512347366", miraklVoucherEntry.getIban());
+        assertEquals(2914L, miraklVoucherEntry.getTransferAmountMinor().longValue());
+        assertEquals(0L, miraklVoucherEntry.getSubscriptionAmountMinor().longValue());
+    }
+
+    @Test
+    public void testParseMiraklCsvQuarantinesInvalidLines() throws Exception {
+        URL url = Resources.getResource("paymentvouchers/PaymentVoucher_PayoutShop01.csv");
+        final List<String> lines = Resources.readLines(url, Charsets.UTF_8);
+        final String csvFile = lines.get(0) + '\n'
+            + lines.get(1) + '\n'
+            + lines.get(1).replace("230207", "invalid").replace(";29.14;", ";29,14;") + '\n'
+            + lines.get(1).replace("230207", "unknown-currency").replace(";EUR;", ";euro;") + '\n';
+
+        payoutService.parseMiraklCsv(csvFile);
+
+        List<MiraklVoucherEntry> all = miraklVoucherEntryRepository.findAll();
+        assertEquals(1, all.size());
+        assertEquals("230207", all.get(0).getInvoiceNumber());
+        List<MiraklVoucherQuarantine> quarantined = miraklVoucherQuarantineRepository.findAll();
+        Assertions.assertThat(quarantined).extracting(MiraklVoucherQuarantine::getInvoiceNumber).containsOnly("invalid", "unknown-currency");
+        Assertions.assertThat(quarantined).extracting(MiraklVoucherQuarantine::getReason).containsOnly("Invalid transfer-amount [29,14]", "Invalid currency-iso-code [euro]");
+    }
+
+    @Test
+    public void testParseMiraklCsvInsertsAllBatches() throws Exception {
+        URL url = Resources.getResource("paymentvouchers/PaymentVoucher_PayoutShop01.csv");
+        final List<String> lines = Resources.readLines(url, Charsets.UTF_8);
+        final StringBuilder csvFile = new StringBuilder(lines.get(0)).append('\n');
+        for (int i = 0; i < 5; i++) {
+            csvFile.append(lines.get(1).replace("230207", "invoice" + i)).append('\n');
+        }
+
+        payoutService.parseMiraklCsv(csvFile.toString());
+
+        List<MiraklVoucherEntry> all = miraklVoucherEntryRepository.findAll();
+        Assertions.assertThat(all).extracting(MiraklVoucherEntry::getInvoiceNumber).containsOnly("invoice0", "invoice1", "invoice2", "invoice3", "invoice4");
+        Assertions.assertThat(all).extracting(MiraklVoucherEntry::getCreatedAt).doesNotContainNull();
+        // the lines of one upload are one voucher, its commission is paid out once
+        Assertions.assertThat(all.stream().map(MiraklVoucherEntry::getVoucherId).distinct().count()).isEqualTo(1L);
+        Assertions.assertThat(all).extracting(MiraklVoucherEntry::getVoucherId).doesNotContainNull();
+    }
+
+    @Test
+    public void testParseMiraklCsvFromUtf8Stream() throws Exception {
+        URL url = Resources.getResource("paymentvouchers/PaymentVoucher_PayoutShop01.csv");
+        final String csvFile = Resources.toString(url, Charsets.UTF_8).replace("PayoutShop01", "Caf\u00e9 M\u00fcller");
+
+        payoutService.parseMiraklCsv(new InputStreamReader(new ByteArrayInputStream(csvFile.getBytes(StandardCharsets.UTF_8)), StandardCharsets.UTF_8));
+
+        List<MiraklVoucherEntry> all = miraklVoucherEntryRepository.findAll();
+        assertEquals(1, all.size());
+        assertEquals("Caf\u00e9 M\u00fcller", all.get(0).getShopName());
     }
 }
@@ -22,6 +22,7 @@
 
 package com.adyen.mirakl.service;
 
+import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.ArgumentCaptor;
@@ -29,9 +30,15 @@ import org.mockito.Captor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.runners.MockitoJUnitRunner;
+import com.adyen.mirakl.config.ApplicationProperties;
 import com.adyen.mirakl.domain.AdyenPayoutError;
 import com.adyen.mirakl.domain.MiraklVoucherEntry;
+import com.adyen.mirakl.domain.enumeration.PayoutLedgerState;
 import com.adyen.mirakl.repository.AdyenPayoutErrorRepository;
+import com.adyen.mirakl.repository.MiraklVoucherEntryBatchWriter;
+import com.adyen.mirakl.repository.MiraklVoucherEntryRepository;
+import com.adyen.mirakl.service.util.ConcurrencyLimiter;
+import com.adyen.model.Amount;
 import com.adyen.model.marketpay.AccountHolderDetails;
 import com.adyen.model.marketpay.BankAccountDetail;
 import com.adyen.model.marketpay.GetAccountHolderRequest;
@@ -42,12 +49,29 @@ import com.adyen.model.marketpay.TransferFundsRequest;
 import com.adyen.service.Account;
 import com.adyen.service.Fund;
 import com.adyen.service.exception.ApiException;
+import com.google.common.collect.ImmutableList;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.data.domain.Pageable;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import java.time.ZonedDateTime;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Matchers.isA;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
+import static org.springframework.test.util.ReflectionTestUtils.setField;
 
 @RunWith(MockitoJUnitRunner.class)
 public class PayoutServiceTest {
@@ -64,6 +88,18 @@ public class PayoutServiceTest {
     @Mock
     private AdyenPayoutErrorRepository adyenPayoutErrorRepository;
 
+    @Mock
+    private MiraklVoucherEntryRepository miraklVoucherEntryRepository;
+
+    @Mock
+    private MiraklVoucherEntryBatchWriter miraklVoucherEntryBatchWriter;
+
+    @Mock
+    private ApplicationProperties applicationProperties;
+
+    @Mock
+    private PayoutLedgerService payoutLedgerService;
+
     @Captor
     private ArgumentCaptor<GetAccountHolderRequest> accountHolderRequestCaptor;
 
@@ -73,6 +109,15 @@ public class PayoutServiceTest {
     @Captor
     private ArgumentCaptor<PayoutAccountHolderRequest> payoutAccountHolderRequestCaptor;
 
+    @Before
+    public void setUp() {
+        setField(payoutService, "accountHolderCache", new AccountHolderCache(adyenAccountServiceMock, new ConcurrencyLimiter("adyen", 0), new ConnectorMetrics(), 300, 100));
+        setField(payoutService, "adyenConcurrencyLimiter", new ConcurrencyLimiter("adyen", 0));
+        setField(payoutService, "connectorMetrics", new ConnectorMetrics());
+        setField(payoutService, "payoutToLiableAccountByVoucher", false);
+        when(payoutLedgerService.claim(any(), any(), any())).thenReturn(true);
+    }
+
     @Test
     public void testGetBankAccountUUID() {
         GetAccountHolderResponse getAccountHolderResponse = getResponseWithBankDetails();
@@ -190,4 +235,274 @@ public class PayoutServiceTest {
         // We shouldn't retry on HTTP 500 (Internal Server Error) from Adyen
         verify(adyenPayoutErrorRepository, never()).save(any(AdyenPayoutError.class));
     }
+
+    @Test
+    public void testProcessMiraklVoucherEntriesInParallelBatches() throws Exception {
+        when(applicationProperties.getPayoutParallelism()).thenReturn(2);
+        when(applicationProperties.getPayoutBatchSize()).thenReturn(2);
+        when(adyenAccountServiceMock.getAccountHolder(any())).thenReturn(getResponseWithBankDetails());
+        when(adyenFundServiceMock.payoutAccountHolder(any())).thenReturn(new PayoutAccountHolderResponse());
+
+        givenClaimedBatches(ImmutableList.of(voucherEntry(1L, "shop-1", "invoice-1"), voucherEntry(2L, "shop-2", "invoice-2")),
+                            ImmutableList.of(voucherEntry(3L, "shop-1", "invoice-3")));
+
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(2);
+        executor.initialize();
+        setField(payoutService, "payoutExecutor", executor);
+        try {
+            payoutService.processMiraklVoucherEntries();
+        } finally {
+            executor.shutdown();
+        }
+
+        verify(adyenFundServiceMock, times(3)).payoutAccountHolder(payoutAccountHolderRequestCaptor.capture());
+        assertThat(payoutAccountHolderRequestCaptor.getAllValues()).extracting(PayoutAccountHolderRequest::getMerchantReference).containsOnly("invoice-1", "invoice-2", "invoice-3");
+        verify(miraklVoucherEntryBatchWriter).updateProcessed(eq(ImmutableList.of(voucherEntry(1L, "shop-1", "invoice-1"), voucherEntry(2L, "shop-2", "invoice-2"))), any(String.class));
+        verify(miraklVoucherEntryBatchWriter).updateProcessed(eq(ImmutableList.of(voucherEntry(3L, "shop-1", "invoice-3"))), any(String.class));
+    }
+
+    @Test
+    public void testVoucherEntriesClaimedByAnotherNodeAreNotPaidOut() throws Exception {
+        when(applicationProperties.getPayoutBatchSize()).thenReturn(10);
+        when(miraklVoucherEntryRepository.findClaimableIds(eq(0L), any(ZonedDateTime.class), any(Pageable.class))).thenReturn(ImmutableList.of(1L, 2L));
+
+        payoutService.processMiraklVoucherEntries();
+
+        verify(miraklVoucherEntryRepository).claim(eq(ImmutableList.of(1L, 2L)), any(String.class), any(ZonedDateTime.class), any(ZonedDateTime.class));
+        verify(adyenFundServiceMock, never()).payoutAccountHolder(any());
+        verify(miraklVoucherEntryBatchWriter, never()).updateProcessed(any(), any());
+    }
+
+    @Test
+    public void testPayoutAmountIsTakenFromMinorUnits() throws Exception {
+        MiraklVoucherEntry miraklVoucherEntry = voucherEntry(1L, "shop-1", "invoice-1");
+        miraklVoucherEntry.setCurrencyIsoCode("JPY");
+        miraklVoucherEntry.setTransferAmount(null);
+        miraklVoucherEntry.setTransferAmountMinor(1500L);
+
+        PayoutAccountHolderRequest request = payoutService.createPayoutAccountHolderRequest(getResponseWithBankDetails(), miraklVoucherEntry);
+
+        assertEquals("JPY", request.getAmount().getCurrency());
+        assertEquals(1500L, request.getAmount().getValue().longValue());
+    }
+
+    @Test
+    public void testCommissionPayoutIsLimitedLikeTheOtherAdyenCalls() throws Exception {
+        final ConcurrencyLimiter adyenConcurrencyLimiter = spy(new ConcurrencyLimiter("adyen", 1));
+        setField(payoutService, "adyenConcurrencyLimiter", adyenConcurrencyLimiter);
+        setField(payoutService, "liableAccountCode", "liable-account");
+        when(adyenAccountServiceMock.getAccountHolder(any())).thenReturn(getResponseWithBankDetails());
+        when(adyenFundServiceMock.payoutAccountHolder(any())).thenReturn(new PayoutAccountHolderResponse());
+        final Amount amount = new Amount();
+        amount.setCurrency("EUR");
+        amount.setValue(36L);
+
+        payoutService.processCommissions(amount);
+
+        verify(adyenConcurrencyLimiter).call(any());
+        verify(adyenFundServiceMock).payoutAccountHolder(payoutAccountHolderRequestCaptor.capture());
+        assertEquals("liable-account", payoutAccountHolderRequestCaptor.getValue().getAccountCode());
+        assertEquals(0, adyenConcurrencyLimiter.getCallsInFlight());
+    }
+
+    @Test
+    public void testCommissionIsCountedPerVoucherLineInMinorUnits() throws Exception {
+        setField(payoutService, "payoutToLiableAccountByVoucher", true);
+        when(applicationProperties.getPayoutParallelism()).thenReturn(1);
+        when(applicationProperties.getPayoutBatchSize()).thenReturn(10);
+        when(adyenAccountServiceMock.getAccountHolder(any())).thenReturn(getResponseWithBankDetails());
+        when(adyenFundServiceMock.payoutAccountHolder(any())).thenReturn(new PayoutAccountHolderResponse());
+
+        final MiraklVoucherEntry firstEuro = commissionEntry(1L, "EUR", "0.10", "0.02");
+        final MiraklVoucherEntry secondEuro = commissionEntry(2L, "EUR", "0.20", "0.04");
+        final MiraklVoucherEntry pound = commissionEntry(3L, "GBP", "1.5", "0.3");
+        final MiraklVoucherEntry invalid = commissionEntry(4L, "EUR", "1.00", "n/a");
+        givenClaimedBatches(ImmutableList.of(firstEuro, secondEuro, pound, invalid));
+
+        payoutService.processMiraklVoucherEntries();
+
+        verify(miraklVoucherEntryBatchWriter).updateProcessed(eq(ImmutableList.of(firstEuro, secondEuro, pound, invalid)), any(String.class));
+        assertThat(ImmutableList.of(firstEuro, secondEuro, pound, invalid)).extracting(MiraklVoucherEntry::isProcessed).containsOnly(true);
+        assertThat(ImmutableList.of(firstEuro, secondEuro, pound, invalid)).extracting(MiraklVoucherEntry::getCommissionMinor).containsExactly(12L, 24L, 180L, null);
+    }
+
+    @Test
+    public void testCommissionIsPaidOutOncePerCurrencyOfTheVoucher() throws Exception {
+        setField(payoutService, "payoutToLiableAccountByVoucher", true);
+        setField(payoutService, "liableAccountCode", "liable-account");
+        when(applicationProperties.getPayoutParallelism()).thenReturn(1);
+        when(applicationProperties.getPayoutBatchSize()).thenReturn(1);
+        when(adyenAccountServiceMock.getAccountHolder(any())).thenReturn(getResponseWithBankDetails());
+        when(adyenFundServiceMock.payoutAccountHolder(any())).thenReturn(new PayoutAccountHolderResponse());
+        givenClaimedBatches(ImmutableList.of(commissionEntry(1L, "EUR", "0.10", "0.02")),
+                            ImmutableList.of(commissionEntry(2L, "EUR", "0.20", "0.04")),
+                            ImmutableList.of(commissionEntry(3L, "GBP", "1.5", "0.3")));
+        when(miraklVoucherEntryRepository.findProcessedVoucherIds()).thenReturn(ImmutableList.of("voucher-1"));
+        when(miraklVoucherEntryRepository.sumCommissionByCurrency("voucher-1")).thenReturn(ImmutableList.of(new Object[] { "EUR", 36L }, new Object[] { "GBP", 180L }));
+
+        payoutService.processMiraklVoucherEntries();
+
+        verify(miraklVoucherEntryBatchWriter, times(3)).updateProcessed(any(), any(String.class));
+        verify(adyenFundServiceMock, times(5)).payoutAccountHolder(payoutAccountHolderRequestCaptor.capture());
+        final List<PayoutAccountHolderRequest> commissions = payoutAccountHolderRequestCaptor.getAllValues()
+                                                                                             .stream()
+                                                                                             .filter(request -> "liable-account".equals(request.getAccountCode()))
+                                                                                             .collect(Collectors.toList());
+        assertEquals(2, commissions.size());
+        assertEquals("EUR", commissions.get(0).getAmount().getCurrency());
+        assertEquals(36L, commissions.get(0).getAmount().getValue().longValue());
+        assertEquals("GBP", commissions.get(1).getAmount().getCurrency());
+        assertEquals(180L, commissions.get(1).getAmount().getValue().longValue());
+        verify(payoutLedgerService).claim("liable-account", "commission-voucher-1-EUR", "voucher-1");
+        verify(payoutLedgerService).claim("liable-account", "commission-voucher-1-GBP", "voucher-1");
+        verify(miraklVoucherEntryRepository).deleteByVoucherId("voucher-1");
+    }
+
+    @Test
+    public void testCommissionOfVoucherIsNotPaidOutAgain() throws Exception {
+        setField(payoutService, "payoutToLiableAccountByVoucher", true);
+        setField(payoutService, "liableAccountCode", "liable-account");
+        when(payoutLedgerService.claim("liable-account", "commission-voucher-1-EUR", "voucher-1")).thenReturn(false);
+        when(payoutLedgerService.stateOf("liable-account", "commission-voucher-1-EUR")).thenReturn(PayoutLedgerState.PAYOUT_SENT);
+        when(miraklVoucherEntryRepository.findProcessedVoucherIds()).thenReturn(ImmutableList.of("voucher-1"));
+        when(miraklVoucherEntryRepository.sumCommissionByCurrency("voucher-1")).thenReturn(ImmutableList.<Object[]>of(new Object[] { "EUR", 36L }));
+
+        payoutService.processMiraklVoucherEntries();
+
+        verify(adyenFundServiceMock, never()).payoutAccountHolder(any());
+        verify(miraklVoucherEntryRepository).deleteByVoucherId("voucher-1");
+    }
+
+    @Test
+    public void testLineOfAnAlreadyPaidInvoiceAddsNoCommission() throws Exception {
+        setField(payoutService, "payoutToLiableAccountByVoucher", true);
+        when(applicationProperties.getPayoutBatchSize()).thenReturn(10);
+        when(payoutLedgerService.claim("shop-1", "invoice-1", "voucher-1")).thenReturn(false);
+        when(payoutLedgerService.stateOf("shop-1", "invoice-1")).thenReturn(PayoutLedgerState.PAYOUT_SENT);
+        final MiraklVoucherEntry reuploaded = commissionEntry(1L, "EUR", "0.10", "0.02");
+        givenClaimedBatches(ImmutableList.of(reuploaded));
+
+        payoutService.processMiraklVoucherEntries();
+
+        verify(adyenFundServiceMock, never()).payoutAccountHolder(any());
+        assertThat(reuploaded.isProcessed()).isTrue();
+        assertThat(reuploaded.getCommissionMinor()).isNull();
+    }
+
+    @Test
+    public void testLineClaimedByAnInterruptedRunOfItsVoucherStillCounts() throws Exception {
+        setField(payoutService, "payoutToLiableAccountByVoucher", true);
+        when(applicationProperties.getPayoutBatchSize()).thenReturn(10);
+        when(payoutLedgerService.claim("shop-1", "invoice-1", "voucher-1")).thenReturn(false);
+        when(payoutLedgerService.stateOf("shop-1", "invoice-1")).thenReturn(PayoutLedgerState.PAYOUT_SENT);
+        when(payoutLedgerService.isClaimedForVoucher("shop-1", "invoice-1", "voucher-1")).thenReturn(true);
+        final MiraklVoucherEntry resumed = commissionEntry(1L, "EUR", "0.10", "0.02");
+        givenClaimedBatches(ImmutableList.of(resumed));
+
+        payoutService.processMiraklVoucherEntries();
+
+        verify(adyenFundServiceMock, never()).payoutAccountHolder(any());
+        assertThat(resumed.getCommissionMinor()).isEqualTo(12L);
+    }
+
+    @Test
+    public void testFailedBatchKeepsTheVoucherForTheNextRun() throws Exception {
+        setField(payoutService, "payoutToLiableAccountByVoucher", true);
+        setField(payoutService, "liableAccountCode", "liable-account");
+        when(applicationProperties.getPayoutParallelism()).thenReturn(1);
+        when(applicationProperties.getPayoutBatchSize()).thenReturn(1);
+        when(adyenAccountServiceMock.getAccountHolder(any())).thenReturn(getResponseWithBankDetails());
+        when(adyenFundServiceMock.payoutAccountHolder(any())).thenReturn(new PayoutAccountHolderResponse());
+        when(payoutLedgerService.claim("shop-2", "invoice-2", "voucher-1")).thenThrow(new DataAccessResourceFailureException("ledger unavailable"));
+
+        final List<MiraklVoucherEntry> firstBatch = ImmutableList.of(commissionEntry(1L, "EUR", "0.10", "0.02"));
+        givenClaimedBatches(firstBatch, ImmutableList.of(commissionEntry(2L, "EUR", "0.20", "0.04")));
+
+        try {
+            payoutService.processMiraklVoucherEntries();
+            fail("Expected the second batch to fail");
+        } catch (DataAccessResourceFailureException e) {
+            // the second batch is kept for the next run
+        }
+
+        verify(miraklVoucherEntryBatchWriter).updateProcessed(eq(firstBatch), any(String.class));
+        verify(miraklVoucherEntryRepository).releaseClaim(any(String.class));
+        verify(adyenFundServiceMock, times(1)).payoutAccountHolder(any());
+        verify(miraklVoucherEntryRepository, never()).deleteByVoucherId(any());
+    }
+
+    @Test
+    public void testAlreadyClaimedInvoiceIsNotPaidOutAgain() throws Exception {
+        when(payoutLedgerService.claim("shop-1", "invoice-1", "voucher-1")).thenReturn(false);
+
+        payoutService.processMiraklVoucherEntry(voucherEntry(1L, "shop-1", "invoice-1"));
+
+        verify(adyenFundServiceMock, never()).payoutAccountHolder(any());
+        verify(adyenPayoutErrorRepository, never()).save(any(AdyenPayoutError.class));
+    }
+
+    @Test
+    public void testPayoutInUnknownStateIsNotPaidOutAgain() throws Exception {
+        final ConnectorMetrics connectorMetrics = new ConnectorMetrics();
+        setField(payoutService, "connectorMetrics", connectorMetrics);
+        when(payoutLedgerService.claim("shop-1", "invoice-1", "voucher-1")).thenReturn(false);
+        when(payoutLedgerService.stateOf("shop-1", "invoice-1")).thenReturn(PayoutLedgerState.UNKNOWN);
+
+        payoutService.processMiraklVoucherEntry(voucherEntry(1L, "shop-1", "invoice-1"));
+
+        verify(adyenFundServiceMock, never()).payoutAccountHolder(any());
+        assertEquals(1L, connectorMetrics.getCount("payout.unknown-state"));
+        assertEquals(0L, connectorMetrics.getCount("payout.duplicate"));
+    }
+
+    @Test
+    public void testPayoutIsRecordedInLedger() throws Exception {
+        when(adyenAccountServiceMock.getAccountHolder(any())).thenReturn(getResponseWithBankDetails());
+        PayoutAccountHolderResponse payoutAccountHolderResponse = new PayoutAccountHolderResponse();
+        payoutAccountHolderResponse.setPspReference("pspReference");
+        when(adyenFundServiceMock.payoutAccountHolder(any())).thenReturn(payoutAccountHolderResponse);
+
+        payoutService.processMiraklVoucherEntry(voucherEntry(1L, "shop-1", "invoice-1"));
+
+        verify(payoutLedgerService).claim("shop-1", "invoice-1", "voucher-1");
+        verify(payoutLedgerService).payoutSent("shop-1", "invoice-1", "pspReference");
+    }
+
+    /**
+     * The batches are claimable in the given order and every claim of this node succeeds
+     */
+    @SafeVarargs
+    private final void givenClaimedBatches(final List<MiraklVoucherEntry>... batches) {
+        Long lastId = 0L;
+        for (List<MiraklVoucherEntry> batch : batches) {
+            final List<Long> ids = batch.stream().map(MiraklVoucherEntry::getId).collect(Collectors.toList());
+            when(miraklVoucherEntryRepository.findClaimableIds(eq(lastId), any(ZonedDateTime.class), any(Pageable.class))).thenReturn(ids);
+            lastId = ids.get(ids.size() - 1);
+        }
+        when(miraklVoucherEntryRepository.findClaimableIds(eq(lastId), any(ZonedDateTime.class), any(Pageable.class))).thenReturn(Collections.emptyList());
+        when(miraklVoucherEntryRepository.findByClaimTokenOrderByIdAsc(any(String.class))).thenReturn(batches[0], Arrays.copyOfRange(batches, 1, batches.length));
+    }
+
+    private MiraklVoucherEntry commissionEntry(final Long id, final String currency, final String totalChargedAmount, final String totalChargedAmountVat) {
+        MiraklVoucherEntry miraklVoucherEntry = voucherEntry(id, "shop-" + id, "invoice-" + id);
+        miraklVoucherEntry.setCurrencyIsoCode(currency);
+        miraklVoucherEntry.setTotalChargedAmount(totalChargedAmount);
+        miraklVoucherEntry.setTotalChargedAmountVat(totalChargedAmountVat);
+        return miraklVoucherEntry;
+    }
+
+    private MiraklVoucherEntry voucherEntry(final Long id, final String shopId, final String invoiceNumber) {
+        MiraklVoucherEntry miraklVoucherEntry = new MiraklVoucherEntry();
+        miraklVoucherEntry.setId(id);
+        miraklVoucherEntry.setVoucherId("voucher-1");
+        miraklVoucherEntry.setShopId(shopId);
+        miraklVoucherEntry.setTransferAmount("10.00");
+        miraklVoucherEntry.setCurrencyIsoCode("EUR");
+        miraklVoucherEntry.setIban("GB29NWBK60161331926819");
+        miraklVoucherEntry.setInvoiceNumber(invoiceNumber);
+        miraklVoucherEntry.setShopName(shopId);
+        miraklVoucherEntry.setSubscriptionAmount("0.00");
+        return miraklVoucherEntry;
+    }
 }
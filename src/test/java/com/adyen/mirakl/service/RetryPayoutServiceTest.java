@@ -22,6 +22,7 @@
 
 package com.adyen.mirakl.service;
 
+import java.time.ZonedDateTime;
 import java.util.List;
 import org.assertj.core.api.Assertions;
 import org.junit.Before;
@@ -30,13 +31,20 @@ import org.junit.runner.RunWith;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.util.ReflectionTestUtils;
 import org.springframework.transaction.annotation.Transactional;
 import com.adyen.util.Util;
 import com.adyen.mirakl.AdyenMiraklConnectorApp;
+import com.adyen.mirakl.config.ApplicationProperties;
 import com.adyen.mirakl.domain.AdyenPayoutError;
+import com.adyen.mirakl.domain.MiraklPayoutLedger;
+import com.adyen.mirakl.domain.enumeration.PayoutLedgerState;
 import com.adyen.mirakl.repository.AdyenPayoutErrorRepository;
+import com.adyen.mirakl.repository.MiraklPayoutLedgerRepository;
+import com.adyen.mirakl.service.util.PayoutRequestCodec;
 import com.adyen.model.Amount;
 import com.adyen.model.marketpay.PayoutAccountHolderRequest;
+import com.google.common.collect.ImmutableList;
 
 @RunWith(SpringRunner.class)
 @SpringBootTest(classes = AdyenMiraklConnectorApp.class)
@@ -52,6 +60,9 @@ public class RetryPayoutServiceTest {
     @Autowired
     private RetryPayoutService retryPayoutService;
 
+    @Autowired
+    private MiraklPayoutLedgerRepository miraklPayoutLedgerRepository;
+
     @Before
     public void removeExistingTestAdyenPayoutErrors() {
         final List<AdyenPayoutError> all = adyenPayoutErrorRepository.findAll();
@@ -74,19 +85,19 @@ public class RetryPayoutServiceTest {
 
         // check if it stores it properly
         List<AdyenPayoutError> all = adyenPayoutErrorRepository.findAll();
-        Assertions.assertThat(all.get(0).getRawRequest()).isEqualTo(PayoutService.GSON.toJson(payoutAccountHolderRequestFirst));
+        Assertions.assertThat(all.get(0).getRawRequest()).isEqualTo(PayoutRequestCodec.encode(payoutAccountHolderRequestFirst));
         Assertions.assertThat(all.get(0).getRetry()).isEqualTo(1);
 
-        Assertions.assertThat(all.get(1).getRawRequest()).isEqualTo(PayoutService.GSON.toJson(payoutAccountHolderRequestSecond));
+        Assertions.assertThat(all.get(1).getRawRequest()).isEqualTo(PayoutRequestCodec.encode(payoutAccountHolderRequestSecond));
         Assertions.assertThat(all.get(1).getRetry()).isEqualTo(1);
 
         // retry failed payouts
         retryPayoutService.retryFailedPayouts();
         all = adyenPayoutErrorRepository.findAll();
-        Assertions.assertThat(all.get(0).getRawRequest()).isEqualTo(PayoutService.GSON.toJson(payoutAccountHolderRequestFirst));
+        Assertions.assertThat(all.get(0).getRawRequest()).isEqualTo(PayoutRequestCodec.encode(payoutAccountHolderRequestFirst));
         Assertions.assertThat(all.get(0).getRetry()).isEqualTo(2);
 
-        Assertions.assertThat(all.get(1).getRawRequest()).isEqualTo(PayoutService.GSON.toJson(payoutAccountHolderRequestSecond));
+        Assertions.assertThat(all.get(1).getRawRequest()).isEqualTo(PayoutRequestCodec.encode(payoutAccountHolderRequestSecond));
         Assertions.assertThat(all.get(1).getRetry()).isEqualTo(2);
 
         // if retry is set to 2 then there should be no failed payouts left
@@ -94,6 +105,68 @@ public class RetryPayoutServiceTest {
         Assertions.assertThat(failedPayouts.size()).isEqualTo(0);
     }
 
+    @Test
+    public void testFailedPayoutIsNotRetriedBeforeNextAttempt() {
+        payoutService.storeAdyenPayoutError(createFailedPayout("1"), null, null);
+        AdyenPayoutError adyenPayoutError = adyenPayoutErrorRepository.findAll().get(0);
+        adyenPayoutError.setNextAttemptAt(ZonedDateTime.now().plusHours(1));
+        adyenPayoutErrorRepository.saveAndFlush(adyenPayoutError);
+
+        retryPayoutService.retryFailedPayouts();
+
+        Assertions.assertThat(adyenPayoutErrorRepository.findAll().get(0).getRetry()).isEqualTo(0);
+    }
+
+    @Test
+    public void testPayoutClaimedByAnotherNodeIsNotClaimedAgain() {
+        payoutService.storeAdyenPayoutError(createFailedPayout("1"), null, null);
+        AdyenPayoutError adyenPayoutError = adyenPayoutErrorRepository.findAll().get(0);
+
+        Assertions.assertThat(retryPayoutService.claimFailedPayouts(ImmutableList.of(adyenPayoutError.getId()))).hasSize(1);
+        Assertions.assertThat(retryPayoutService.claimFailedPayouts(ImmutableList.of(adyenPayoutError.getId()))).isEmpty();
+        Assertions.assertThat(adyenPayoutErrorRepository.findAll().get(0).isProcessing()).isTrue();
+    }
+
+    @Test
+    public void testPayoutSentAccordingToTheLedgerIsNotRetried() {
+        PayoutAccountHolderRequest payoutAccountHolderRequest = createFailedPayout("1");
+        payoutAccountHolderRequest.setMerchantReference("invoice-1");
+        payoutService.storeAdyenPayoutError(payoutAccountHolderRequest, null, null);
+        miraklPayoutLedgerRepository.saveAndFlush(new MiraklPayoutLedger().shopId("1_accountHolderCode").invoiceNumber("invoice-1").state(PayoutLedgerState.PAYOUT_SENT));
+
+        retryPayoutService.retryFailedPayouts();
+
+        Assertions.assertThat(adyenPayoutErrorRepository.findAll()).isEmpty();
+    }
+
+    @Test
+    public void testPayoutInUnknownStateIsNotRetried() {
+        PayoutAccountHolderRequest payoutAccountHolderRequest = createFailedPayout("1");
+        payoutAccountHolderRequest.setMerchantReference("invoice-1");
+        payoutService.storeAdyenPayoutError(payoutAccountHolderRequest, null, null);
+        miraklPayoutLedgerRepository.saveAndFlush(new MiraklPayoutLedger().shopId("1_accountHolderCode").invoiceNumber("invoice-1").state(PayoutLedgerState.UNKNOWN));
+
+        retryPayoutService.retryFailedPayouts();
+
+        final AdyenPayoutError adyenPayoutError = adyenPayoutErrorRepository.findAll().get(0);
+        Assertions.assertThat(adyenPayoutError.getRetry()).isEqualTo(0);
+        Assertions.assertThat(adyenPayoutError.isProcessing()).isFalse();
+        Assertions.assertThat(adyenPayoutError.getClaimToken()).isNull();
+    }
+
+    @Test
+    public void testRetryDelayGrowsExponentiallyWithJitter() {
+        ApplicationProperties applicationProperties = new ApplicationProperties();
+        applicationProperties.setPayoutRetryBaseDelaySeconds(60);
+        applicationProperties.setPayoutRetryMaxDelaySeconds(3600);
+        RetryPayoutService service = new RetryPayoutService();
+        ReflectionTestUtils.setField(service, "applicationProperties", applicationProperties);
+
+        Assertions.assertThat(service.retryDelaySeconds(1)).isGreaterThanOrEqualTo(30L).isLessThanOrEqualTo(60L);
+        Assertions.assertThat(service.retryDelaySeconds(3)).isGreaterThanOrEqualTo(120L).isLessThanOrEqualTo(240L);
+        Assertions.assertThat(service.retryDelaySeconds(20)).isGreaterThanOrEqualTo(1800L).isLessThanOrEqualTo(3600L);
+    }
+
     public void retry() {
         String accountHolderCode = "1000";
         // add 2 failed payouts
@@ -102,7 +175,7 @@ public class RetryPayoutServiceTest {
         retryPayoutService.retryFailedPayoutsForAccountHolder(accountHolderCode);
 
         List<AdyenPayoutError> all = adyenPayoutErrorRepository.findByAccountHolderCode(accountHolderCode);
-        Assertions.assertThat(all.get(0).getRawRequest()).isEqualTo(PayoutService.GSON.toJson(payoutAccountHolderRequestFirst));
+        Assertions.assertThat(all.get(0).getRawRequest()).isEqualTo(PayoutRequestCodec.encode(payoutAccountHolderRequestFirst));
         Assertions.assertThat(all.get(0).getRetry()).isEqualTo(2);
     }
 
@@ -0,0 +1,99 @@
+/*
+ *                       ######
+ *                       ######
+ * ############    ####( ######  #####. ######  ############   ############
+ * #############  #####( ######  #####. ######  #############  #############
+ *        ######  #####( ######  #####. ######  #####  ######  #####  ######
+ * ###### ######  #####( ######  #####. ######  #####  #####   #####  ######
+ * ###### ######  #####( ######  #####. ######  #####          #####  ######
+ * #############  #############  #############  #############  #####  ######
+ *  ############   ############  #############   ############  #####  ######
+ *                                      ######
+ *                               #############
+ *                               ############
+ *
+ * Adyen Mirakl Connector
+ *
+ * Copyright (c) 2018 Adyen B.V.
+ * This file is open source and available under the MIT license.
+ * See the LICENSE file for more info.
+ *
+ */
+
+package com.adyen.mirakl.service;
+
+import com.adyen.mirakl.AdyenMiraklConnectorApp;
+import com.adyen.mirakl.domain.SchedulerLease;
+import com.adyen.mirakl.repository.SchedulerLeaseRepository;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import java.time.ZonedDateTime;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Not transactional, the leases are committed in their own transactions like they are between nodes
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(classes = AdyenMiraklConnectorApp.class)
+public class SchedulerLeaseServiceTest {
+
+    @Autowired
+    private SchedulerLeaseService schedulerLeaseService;
+
+    @Autowired
+    private SchedulerLeaseRepository schedulerLeaseRepository;
+
+    @Autowired
+    private NodeIdentity nodeIdentity;
+
+    @Before
+    @After
+    public void removeLeases() {
+        schedulerLeaseRepository.deleteAll();
+    }
+
+    @Test
+    public void acquiresFreeLeaseOnce() {
+        assertThat(schedulerLeaseService.tryAcquire("job").isPresent()).isTrue();
+        assertThat(schedulerLeaseService.tryAcquire("job").isPresent()).isFalse();
+
+        final SchedulerLease lease = schedulerLeaseRepository.findOne("job");
+        assertThat(lease.getLeaseOwner()).isEqualTo(nodeIdentity.getNodeId());
+        assertThat(lease.getLeasedUntil().isAfter(ZonedDateTime.now())).isTrue();
+    }
+
+    @Test
+    public void doesNotTakeLeaseOfRunningNode() {
+        schedulerLeaseRepository.save(new SchedulerLease().name("job").leaseOwner("other-node").leasedUntil(ZonedDateTime.now().plusMinutes(5)));
+
+        assertThat(schedulerLeaseService.tryAcquire("job").isPresent()).isFalse();
+        assertThat(schedulerLeaseService.renew("job")).isFalse();
+    }
+
+    @Test
+    public void takesOverLeaseOfDeadNode() {
+        schedulerLeaseRepository.save(new SchedulerLease().name("job").leaseOwner("crashed-node").leasedUntil(ZonedDateTime.now().minusMinutes(1)));
+
+        assertThat(schedulerLeaseService.tryAcquire("job").isPresent()).isTrue();
+        assertThat(schedulerLeaseRepository.findOne("job").getLeaseOwner()).isEqualTo(nodeIdentity.getNodeId());
+        assertThat(schedulerLeaseService.renew("job")).isTrue();
+    }
+
+    @Test
+    public void releasedLeaseIsKeptForTheMinimumHold() {
+        final Optional<ZonedDateTime> acquiredAt = schedulerLeaseService.tryAcquire("job");
+        schedulerLeaseService.release("job", acquiredAt.get());
+        assertThat(schedulerLeaseService.tryAcquire("job").isPresent()).isFalse();
+
+        schedulerLeaseService.release("job", ZonedDateTime.now().minusHours(1));
+        assertThat(schedulerLeaseService.tryAcquire("job").isPresent()).isTrue();
+    }
+}
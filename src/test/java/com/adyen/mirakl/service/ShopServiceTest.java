@@ -27,6 +27,9 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.Executor;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 import org.assertj.core.api.Assertions;
@@ -37,9 +40,13 @@ import org.mockito.ArgumentCaptor;
 import org.mockito.Captor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.mockito.runners.MockitoJUnitRunner;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import com.adyen.mirakl.MiraklShopFactory;
 import com.adyen.mirakl.config.ApplicationProperties;
+import com.adyen.mirakl.domain.MiraklShopSyncCheckpoint;
+import com.adyen.mirakl.service.util.ConcurrencyLimiter;
 import com.adyen.mirakl.startup.MiraklStartupValidator;
 import com.adyen.model.Address;
 import com.adyen.model.Amount;
@@ -81,11 +88,13 @@ import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
 import static org.mockito.Mockito.eq;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
+import static org.springframework.test.util.ReflectionTestUtils.setField;
 
 @RunWith(MockitoJUnitRunner.class)
 public class ShopServiceTest {
@@ -117,6 +126,16 @@ public class ShopServiceTest {
     private ShareholderContact shareHolderMock1, shareHolderMock2, shareHolderMock3, shareHolderMock4, shareHolderMockUS, shareHolderMockUK;
     @Mock
     private DocService docServiceMock;
+    @Mock
+    private MiraklShopCache miraklShopCacheMock;
+    @Mock
+    private ClusterMembershipService clusterMembershipServiceMock;
+    @Spy
+    private ConcurrencyLimiter adyenConcurrencyLimiter = new ConcurrencyLimiter("adyen", 0);
+    @Spy
+    private ConcurrencyLimiter miraklConcurrencyLimiter = new ConcurrencyLimiter("mirakl", 0);
+    @Spy
+    private ConnectorMetrics connectorMetrics = new ConnectorMetrics();
 
     @Captor
     private ArgumentCaptor<CreateAccountHolderRequest> createAccountHolderRequestCaptor;
@@ -138,6 +157,8 @@ public class ShopServiceTest {
     @Before
     public void setup() throws Exception {
         shopService.setHouseNumberPatterns(ImmutableMap.of("NL", Pattern.compile("\\s([a-zA-Z]*\\d+[a-zA-Z]*)$")));
+        setField(shopService, "shopPageFetchExecutor", (Executor) Runnable::run);
+        setField(shopService, "accountHolderCache", new AccountHolderCache(adyenAccountServiceMock, adyenConcurrencyLimiter, connectorMetrics, 300, 100));
 
         shop = new MiraklShop();
         miraklShopUS = new MiraklShop();
@@ -326,6 +347,157 @@ public class ShopServiceTest {
         Assertions.assertThat(shareHoldersUK).containsExactlyInAnyOrder(shareHolderMockUK);
     }
 
+    @Test
+    public void testRetrieveUpdatedShopsInParallel() throws Exception {
+        MiraklAdditionalFieldValue.MiraklValueListAdditionalFieldValue additionalField = new MiraklAdditionalFieldValue.MiraklValueListAdditionalFieldValue();
+        additionalField.setCode(String.valueOf(MiraklStartupValidator.CustomMiraklFields.ADYEN_LEGAL_ENTITY_TYPE));
+        additionalField.setValue(MiraklStartupValidator.AdyenLegalEntityType.INDIVIDUAL.toString());
+        setup(ImmutableList.of(additionalField));
+        when(applicationProperties.getShopSyncParallelism()).thenReturn(3);
+        when(adyenAccountServiceMock.createAccountHolder(any())).thenReturn(createAccountHolderResponseMock);
+        when(getAccountHolderResponseMock.getAccountHolderCode()).thenReturn("");
+
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(3);
+        executor.initialize();
+        setField(shopService, "shopSyncExecutor", executor);
+        try {
+            shopService.processUpdatedShops();
+        } finally {
+            executor.shutdown();
+        }
+
+        verify(adyenAccountServiceMock, times(3)).createAccountHolder(any());
+        verify(shareholderMappingService).updateShareholderMapping(createAccountHolderResponseMock, shop);
+        verify(shareholderMappingService).updateShareholderMapping(createAccountHolderResponseMock, miraklShopUS);
+        verify(shareholderMappingService).updateShareholderMapping(createAccountHolderResponseMock, miraklShopUK);
+        verify(deltaService).updateShopDelta(any(ZonedDateTime.class));
+        assertEquals(3L, connectorMetrics.getCount("shop.sync.processed"));
+        assertEquals(0L, connectorMetrics.getCount("shop.sync.failed"));
+    }
+
+    @Test
+    public void testResumesFromShopSyncCheckpoint() throws Exception {
+        final ZonedDateTime windowStart = ZonedDateTime.now().minusDays(1);
+        final MiraklShopSyncCheckpoint checkpoint = new MiraklShopSyncCheckpoint().windowStart(windowStart).windowEnd(ZonedDateTime.now().minusMinutes(5)).nextOffset(100L).lastShopId("100");
+        when(applicationProperties.getShopSyncCheckpointing()).thenReturn(true);
+        when(deltaService.getShopSyncCheckpoint()).thenReturn(Optional.of(checkpoint));
+        when(deltaService.updateShopSyncCheckpoint(any(), anyLong(), any())).thenReturn(checkpoint);
+        when(miraklMarketplacePlatformOperatorApiClientMock.getShops(miraklGetShopsRequestCaptor.capture())).thenReturn(shopPage(101L, "100", "101"));
+
+        shopService.processUpdatedShops();
+
+        assertEquals(99L, miraklGetShopsRequestCaptor.getValue().getOffset());
+        assertEquals(Date.from(windowStart.toInstant()), miraklGetShopsRequestCaptor.getValue().getUpdatedSince());
+        verify(deltaService, never()).getShopDelta();
+        verify(deltaService).updateShopSyncCheckpoint(checkpoint, 101L, "101");
+        verify(deltaService).completeShopSyncCheckpoint(checkpoint);
+        verify(deltaService, never()).updateShopDelta(any());
+        verify(docServiceMock).retryDocumentsForShop("101");
+        verify(docServiceMock, never()).retryDocumentsForShop("100");
+        assertEquals(0L, connectorMetrics.getCount("shop.sync.checkpoint.restarted"));
+    }
+
+    @Test
+    public void testLeavesShopsUpdatedAfterTheCheckpointedWindowToTheNextRun() throws Exception {
+        final ZonedDateTime windowEnd = ZonedDateTime.now().minusMinutes(5);
+        final MiraklShopSyncCheckpoint checkpoint = new MiraklShopSyncCheckpoint().windowStart(windowEnd.minusDays(1)).windowEnd(windowEnd).nextOffset(100L).lastShopId("100");
+        when(applicationProperties.getShopSyncCheckpointing()).thenReturn(true);
+        when(deltaService.getShopSyncCheckpoint()).thenReturn(Optional.of(checkpoint));
+        when(deltaService.updateShopSyncCheckpoint(any(), anyLong(), any())).thenReturn(checkpoint);
+        final MiraklShops page = shopPage(102L, "100", "101", "102");
+        page.getShops().get(1).setLastUpdatedDate(Date.from(windowEnd.minusMinutes(1).toInstant()));
+        page.getShops().get(2).setLastUpdatedDate(Date.from(windowEnd.plusMinutes(1).toInstant()));
+        when(miraklMarketplacePlatformOperatorApiClientMock.getShops(any())).thenReturn(page);
+
+        shopService.processUpdatedShops();
+
+        verify(docServiceMock).retryDocumentsForShop("101");
+        verify(docServiceMock, never()).retryDocumentsForShop("102");
+        verify(deltaService).updateShopSyncCheckpoint(checkpoint, 102L, "102");
+        verify(deltaService).completeShopSyncCheckpoint(checkpoint);
+        assertEquals(1L, connectorMetrics.getCount("shop.sync.processed"));
+    }
+
+    @Test
+    public void testRestartsShopSyncWindowWhenLastShopMoved() throws Exception {
+        final ZonedDateTime windowStart = ZonedDateTime.now().minusDays(1);
+        final MiraklShopSyncCheckpoint checkpoint = new MiraklShopSyncCheckpoint().windowStart(windowStart).windowEnd(ZonedDateTime.now().minusMinutes(5)).nextOffset(2L).lastShopId("2");
+        when(applicationProperties.getShopSyncCheckpointing()).thenReturn(true);
+        when(deltaService.getShopSyncCheckpoint()).thenReturn(Optional.of(checkpoint));
+        when(deltaService.updateShopSyncCheckpoint(any(), anyLong(), any())).thenReturn(checkpoint);
+        // shop 1 was updated again after the checkpoint, it moved to the end of the window and shop 2 moved up
+        when(miraklMarketplacePlatformOperatorApiClientMock.getShops(miraklGetShopsRequestCaptor.capture())).thenReturn(shopPage(3L, "3", "1"), shopPage(3L, "2", "3", "1"));
+
+        shopService.processUpdatedShops();
+
+        assertEquals(1L, miraklGetShopsRequestCaptor.getAllValues().get(0).getOffset());
+        assertEquals(0L, miraklGetShopsRequestCaptor.getAllValues().get(1).getOffset());
+        verify(docServiceMock).retryDocumentsForShop("1");
+        verify(docServiceMock).retryDocumentsForShop("2");
+        verify(docServiceMock).retryDocumentsForShop("3");
+        verify(deltaService).updateShopSyncCheckpoint(checkpoint, 3L, "1");
+        verify(deltaService).completeShopSyncCheckpoint(checkpoint);
+        assertEquals(1L, connectorMetrics.getCount("shop.sync.checkpoint.restarted"));
+    }
+
+    @Test
+    public void testPartitionedSyncOnlyProcessesLeasedPartitions() throws Exception {
+        final Map<Integer, ZonedDateTime> leases = ImmutableMap.of(0, ZonedDateTime.now());
+        final Date partitionDelta = new Date(0);
+        when(applicationProperties.getShopSyncPartitioning()).thenReturn(true);
+        when(clusterMembershipServiceMock.acquireOwnedPartitions("shopPartition")).thenReturn(leases);
+        when(clusterMembershipServiceMock.partitionOf("1")).thenReturn(0);
+        when(clusterMembershipServiceMock.partitionOf("2")).thenReturn(1);
+        when(deltaService.getPartitionShopDelta(leases.keySet())).thenReturn(partitionDelta);
+
+        MiraklShops miraklShops = new MiraklShops();
+        MiraklShop ownShop = new MiraklShop();
+        ownShop.setId("1");
+        MiraklShop otherShop = new MiraklShop();
+        otherShop.setId("2");
+        miraklShops.setShops(ImmutableList.of(ownShop, otherShop));
+        miraklShops.setTotalCount(2L);
+        when(miraklMarketplacePlatformOperatorApiClientMock.getShops(miraklGetShopsRequestCaptor.capture())).thenReturn(miraklShops);
+
+        shopService.processUpdatedShops();
+
+        assertEquals(partitionDelta, miraklGetShopsRequestCaptor.getValue().getUpdatedSince());
+        verify(docServiceMock).retryDocumentsForShop("1");
+        verify(docServiceMock, never()).retryDocumentsForShop("2");
+        verify(deltaService).updatePartitionShopDelta(eq(leases.keySet()), any(ZonedDateTime.class));
+        verify(deltaService, never()).updateShopDelta(any());
+        verify(clusterMembershipServiceMock).releasePartitions("shopPartition", leases);
+    }
+
+    @Test
+    public void testPartitionedSyncWithoutLeasedPartitionsDoesNothing() {
+        when(applicationProperties.getShopSyncPartitioning()).thenReturn(true);
+        when(clusterMembershipServiceMock.acquireOwnedPartitions("shopPartition")).thenReturn(ImmutableMap.of());
+
+        shopService.processUpdatedShops();
+
+        verify(miraklMarketplacePlatformOperatorApiClientMock, never()).getShops(any(MiraklGetShopsRequest.class));
+        verify(deltaService, never()).updatePartitionShopDelta(any(), any());
+    }
+
+    @Test
+    public void testPartitionByShopIdKeepsShopsTogether() {
+        MiraklShop first = new MiraklShop();
+        first.setId("1234");
+        MiraklShop second = new MiraklShop();
+        second.setId("5678");
+        MiraklShop firstAgain = new MiraklShop();
+        firstAgain.setId("1234");
+
+        List<List<MiraklShop>> partitions = ShopService.partitionByShopId(ImmutableList.of(first, second, firstAgain), 4);
+
+        assertEquals(4, partitions.size());
+        List<MiraklShop> partitionOfFirst = partitions.stream().filter(partition -> partition.contains(first)).findAny().orElseThrow(IllegalStateException::new);
+        Assertions.assertThat(partitionOfFirst).containsSequence(first, firstAgain);
+        assertEquals(3, partitions.stream().mapToInt(List::size).sum());
+    }
+
     @Test
     public void testRetrieveUpdatedShopsPagination() throws Exception {
         //Response contains one shop and total_count = 2
@@ -340,7 +512,7 @@ public class ShopServiceTest {
 
         List<MiraklShop> updatedShops = shopService.getUpdatedShops();
 
-        verify(deltaService, times(2)).getShopDelta();
+        verify(deltaService).getShopDelta();
 
         assertEquals(2, updatedShops.size());
 
@@ -712,5 +884,17 @@ public class ShopServiceTest {
         miraklUkBankAccountInformation.setOwner("TestData");
         return miraklUkBankAccountInformation;
     }
-}
 
+    private static MiraklShops shopPage(final Long totalCount, final String... shopIds) {
+        final ImmutableList.Builder<MiraklShop> shops = ImmutableList.builder();
+        for (String shopId : shopIds) {
+            final MiraklShop miraklShop = new MiraklShop();
+            miraklShop.setId(shopId);
+            shops.add(miraklShop);
+        }
+        final MiraklShops miraklShops = new MiraklShops();
+        miraklShops.setShops(shops.build());
+        miraklShops.setTotalCount(totalCount);
+        return miraklShops;
+    }
+}
@@ -38,6 +38,7 @@ import com.adyen.mirakl.repository.DocErrorRepository;
 import com.adyen.mirakl.repository.DocRetryRepository;
 import com.adyen.mirakl.repository.ShareholderMappingRepository;
 import com.adyen.mirakl.service.dto.UboDocumentDTO;
+import com.adyen.mirakl.service.util.ConcurrencyLimiter;
 import com.adyen.model.marketpay.DocumentDetail;
 import com.google.common.collect.ImmutableList;
 import com.mirakl.client.mmp.domain.common.MiraklAdditionalFieldValue;
@@ -52,6 +53,7 @@ import static org.mockito.Matchers.anyString;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
+import static org.springframework.test.util.ReflectionTestUtils.setField;
 
 @RunWith(MockitoJUnitRunner.class)
 public class UboDocumentServiceTest {
@@ -87,6 +89,7 @@ public class UboDocumentServiceTest {
     @Before
     public void setUp() {
         uboDocumentService.setMaxUbos(4);
+        setField(uboDocumentService, "miraklShopCache", new MiraklShopCache(miraklMarketplacePlatformOperatorApiClientMock, new ConcurrencyLimiter("mirakl", 0), new ConnectorMetrics(), 300, 100, 0));
 
         //shop 1
         when(miraklShopDocument1.getTypeCode()).thenReturn("adyen-ubo1-photoid");//front passport used
@@ -144,7 +147,8 @@ public class UboDocumentServiceTest {
                                                                                                  miraklShopDocument6));
 
         List<MiraklGetShopsRequest> requestsToMirakl = miraklGetShopsRequestCaptor.getAllValues();
-        assertThat(requestsToMirakl.size()).isEqualTo(3);
+        // both ubos of shop2 are resolved from the same cached shop
+        assertThat(requestsToMirakl.size()).isEqualTo(2);
         assertThat(requestsToMirakl.get(0).getShopIds()).containsOnly("shop1");
         assertThat(requestsToMirakl.get(1).getShopIds()).containsOnly("shop2");
         assertThat(result.size()).isEqualTo(5);
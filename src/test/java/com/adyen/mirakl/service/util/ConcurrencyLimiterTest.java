@@ -0,0 +1,88 @@
+/*
+ *                       ######
+ *                       ######
+ * ############    ####( ######  #####. ######  ############   ############
+ * #############  #####( ######  #####. ######  #############  #############
+ *        ######  #####( ######  #####. ######  #####  ######  #####  ######
+ * ###### ######  #####( ######  #####. ######  #####  #####   #####  ######
+ * ###### ######  #####( ######  #####. ######  #####          #####  ######
+ * #############  #############  #############  #############  #####  ######
+ *  ############   ############  #############   ############  #####  ######
+ *                                      ######
+ *                               #############
+ *                               ############
+ *
+ * Adyen Mirakl Connector
+ *
+ * Copyright (c) 2018 Adyen B.V.
+ * This file is open source and available under the MIT license.
+ * See the LICENSE file for more info.
+ *
+ */
+
+package com.adyen.mirakl.service.util;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ConcurrencyLimiterTest {
+
+    @Test
+    public void testUnboundedLimiter() throws Exception {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter("adyen", 0);
+
+        assertEquals("result", limiter.call(() -> "result"));
+        assertEquals(0, limiter.getCallsInFlight());
+        assertEquals(0, limiter.getWaitingCallers());
+    }
+
+    @Test
+    public void testConcurrentCallsAreCapped() throws Exception {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter("adyen", 2);
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger maxInFlight = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(10);
+        ExecutorService executorService = Executors.newFixedThreadPool(5);
+
+        for (int i = 0; i < 10; i++) {
+            executorService.submit(() -> {
+                try {
+                    return limiter.call(() -> {
+                        maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+                        Thread.sleep(10);
+                        return inFlight.decrementAndGet();
+                    });
+                } finally {
+                    done.countDown();
+                }
+            });
+        }
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        executorService.shutdown();
+        assertTrue(maxInFlight.get() <= 2);
+        assertEquals(0, limiter.getCallsInFlight());
+    }
+
+    @Test
+    public void testPermitIsReleasedWhenTheCallFails() {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter("mirakl", 1);
+
+        try {
+            limiter.run(() -> {
+                throw new IllegalStateException("mirakl unavailable");
+            });
+            fail("Expected the exception of the call");
+        } catch (IllegalStateException e) {
+            assertEquals("mirakl unavailable", e.getMessage());
+        }
+        assertEquals(0, limiter.getCallsInFlight());
+        assertEquals("result", limiter.get(() -> "result"));
+    }
+}
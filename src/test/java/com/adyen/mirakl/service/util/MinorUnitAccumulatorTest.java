@@ -0,0 +1,84 @@
+/*
+ *                       ######
+ *                       ######
+ * ############    ####( ######  #####. ######  ############   ############
+ * #############  #####( ######  #####. ######  #############  #############
+ *        ######  #####( ######  #####. ######  #####  ######  #####  ######
+ * ###### ######  #####( ######  #####. ######  #####  #####   #####  ######
+ * ###### ######  #####( ######  #####. ######  #####          #####  ######
+ * #############  #############  #############  #############  #####  ######
+ *  ############   ############  #############   ############  #####  ######
+ *                                      ######
+ *                               #############
+ *                               ############
+ *
+ * Adyen Mirakl Connector
+ *
+ * Copyright (c) 2018 Adyen B.V.
+ * This file is open source and available under the MIT license.
+ * See the LICENSE file for more info.
+ *
+ */
+
+package com.adyen.mirakl.service.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.junit.Test;
+import com.adyen.model.Amount;
+
+import static org.junit.Assert.*;
+
+public class MinorUnitAccumulatorTest {
+
+    @Test
+    public void testParseMinorUnits() {
+        assertEquals(1250L, MinorUnitAccumulator.parseMinorUnits("12.50", 2));
+        assertEquals(1250L, MinorUnitAccumulator.parseMinorUnits("12.5", 2));
+        assertEquals(1200L, MinorUnitAccumulator.parseMinorUnits("12", 2));
+        assertEquals(50L, MinorUnitAccumulator.parseMinorUnits(".5", 2));
+        assertEquals(-1250L, MinorUnitAccumulator.parseMinorUnits(" -12.50 ", 2));
+        assertEquals(1250L, MinorUnitAccumulator.parseMinorUnits("12.5000", 2));
+        assertEquals(12L, MinorUnitAccumulator.parseMinorUnits("12", 0));
+        assertEquals(12345L, MinorUnitAccumulator.parseMinorUnits("12.345", 3));
+        assertEquals(1250L, MinorUnitAccumulator.parseMinorUnits("12.50", "EUR"));
+    }
+
+    @Test
+    public void testParseRejectsInvalidAmounts() {
+        for (String invalid : new String[] { null, "", " ", "-", ".", "1.2.3", "1,50", "abc", "12.505", "1e3", "99999999999999999999" }) {
+            try {
+                MinorUnitAccumulator.parseMinorUnits(invalid, 2);
+                fail("Expected NumberFormatException for " + invalid);
+            } catch (NumberFormatException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void testSumsAreExactPerCurrency() {
+        MinorUnitAccumulator accumulator = new MinorUnitAccumulator();
+        for (int i = 0; i < 1000; i++) {
+            accumulator.add("EUR", MinorUnitAccumulator.parseMinorUnits("0.10", 2));
+        }
+        accumulator.add("GBP", 5L);
+        accumulator.add("EUR", -1L);
+
+        Map<String, Long> totals = new LinkedHashMap<>();
+        accumulator.forEach(totals::put);
+
+        assertEquals(9999L, accumulator.getTotal("EUR"));
+        assertEquals(5L, accumulator.getTotal("GBP"));
+        assertEquals(0L, accumulator.getTotal("USD"));
+        assertArrayEquals(new String[] { "EUR", "GBP" }, totals.keySet().toArray());
+    }
+
+    @Test
+    public void testToAmount() {
+        Amount amount = MinorUnitAccumulator.toAmount(9999L, "EUR");
+
+        assertEquals("EUR", amount.getCurrency());
+        assertEquals(9999L, amount.getValue().longValue());
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ *                       ######
+ *                       ######
+ * ############    ####( ######  #####. ######  ############   ############
+ * #############  #####( ######  #####. ######  #############  #############
+ *        ######  #####( ######  #####. ######  #####  ######  #####  ######
+ * ###### ######  #####( ######  #####. ######  #####  #####   #####  ######
+ * ###### ######  #####( ######  #####. ######  #####          #####  ######
+ * #############  #############  #############  #############  #####  ######
+ *  ############   ############  #############   ############  #####  ######
+ *                                      ######
+ *                               #############
+ *                               ############
+ *
+ * Adyen Mirakl Connector
+ *
+ * Copyright (c) 2018 Adyen B.V.
+ * This file is open source and available under the MIT license.
+ * See the LICENSE file for more info.
+ *
+ */
+
+package com.adyen.mirakl.service.util;
+
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.stream.Collectors;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import com.google.common.collect.ImmutableList;
+import com.mirakl.client.mmp.domain.shop.MiraklShop;
+import com.mirakl.client.mmp.domain.shop.MiraklShops;
+import com.mirakl.client.mmp.operator.core.MiraklMarketplacePlatformOperatorApiClient;
+import com.mirakl.client.mmp.request.shop.MiraklGetShopsRequest;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class MiraklShopPagesTest {
+
+    private static final Executor DIRECT_EXECUTOR = Runnable::run;
+
+    @Mock
+    private MiraklMarketplacePlatformOperatorApiClient miraklMarketplacePlatformOperatorApiClientMock;
+
+    @Test
+    public void testIteratesOverAllPages() {
+        final Date updatedSince = new Date();
+        when(miraklMarketplacePlatformOperatorApiClientMock.getShops(any())).thenReturn(page(3L, "1", "2"), page(3L, "3"));
+
+        final MiraklShopPages pages = new MiraklShopPages(miraklMarketplacePlatformOperatorApiClientMock, new ConcurrencyLimiter("mirakl", 0), updatedSince, DIRECT_EXECUTOR);
+
+        assertTrue(pages.hasNext());
+        assertEquals(2, pages.next().size());
+        assertTrue(pages.hasNext());
+        assertEquals("3", pages.next().get(0).getId());
+        assertFalse(pages.hasNext());
+        assertEquals(3L, pages.getOffset());
+
+        final ArgumentCaptor<MiraklGetShopsRequest> requestCaptor = ArgumentCaptor.forClass(MiraklGetShopsRequest.class);
+        verify(miraklMarketplacePlatformOperatorApiClientMock, times(2)).getShops(requestCaptor.capture());
+        assertEquals(0L, requestCaptor.getAllValues().get(0).getOffset());
+        assertEquals(2L, requestCaptor.getAllValues().get(1).getOffset());
+        assertEquals(updatedSince, requestCaptor.getAllValues().get(1).getUpdatedSince());
+    }
+
+    @Test
+    public void testStopsOnEmptyPage() {
+        when(miraklMarketplacePlatformOperatorApiClientMock.getShops(any())).thenReturn(page(10L, "1"), page(10L));
+
+        final List<String> shopIds = new MiraklShopPages(miraklMarketplacePlatformOperatorApiClientMock, new ConcurrencyLimiter("mirakl", 0), new Date(), DIRECT_EXECUTOR).stream()
+                                                                                                                                  .map(MiraklShop::getId)
+                                                                                                                                  .collect(Collectors.toList());
+
+        assertEquals(ImmutableList.of("1"), shopIds);
+        verify(miraklMarketplacePlatformOperatorApiClientMock, times(2)).getShops(any());
+    }
+
+    @Test
+    public void testResumesAfterLastShopWhenItIsStillInPlace() {
+        when(miraklMarketplacePlatformOperatorApiClientMock.getShops(any())).thenReturn(page(4L, "2", "3"), page(4L, "4"));
+
+        final MiraklShopPages pages = MiraklShopPages.resumeAfter(miraklMarketplacePlatformOperatorApiClientMock, new ConcurrencyLimiter("mirakl", 0), new Date(), 2L, "2", DIRECT_EXECUTOR)
+                                                     .orElseThrow(AssertionError::new);
+
+        assertEquals(ImmutableList.of("3", "4"), pages.stream().map(MiraklShop::getId).collect(Collectors.toList()));
+        assertEquals(4L, pages.getOffset());
+        final ArgumentCaptor<MiraklGetShopsRequest> requestCaptor = ArgumentCaptor.forClass(MiraklGetShopsRequest.class);
+        verify(miraklMarketplacePlatformOperatorApiClientMock, times(2)).getShops(requestCaptor.capture());
+        assertEquals(1L, requestCaptor.getAllValues().get(0).getOffset());
+        assertEquals(3L, requestCaptor.getAllValues().get(1).getOffset());
+    }
+
+    @Test
+    public void testDoesNotResumeWhenLastShopMoved() {
+        when(miraklMarketplacePlatformOperatorApiClientMock.getShops(any())).thenReturn(page(4L, "3", "4"));
+
+        assertFalse(MiraklShopPages.resumeAfter(miraklMarketplacePlatformOperatorApiClientMock, new ConcurrencyLimiter("mirakl", 0), new Date(), 2L, "2", DIRECT_EXECUTOR).isPresent());
+    }
+
+    private static MiraklShops page(Long totalCount, String... shopIds) {
+        final ImmutableList.Builder<MiraklShop> shops = ImmutableList.builder();
+        for (String shopId : shopIds) {
+            final MiraklShop shop = new MiraklShop();
+            shop.setId(shopId);
+            shops.add(shop);
+        }
+        final MiraklShops miraklShops = new MiraklShops();
+        miraklShops.setShops(shops.build());
+        miraklShops.setTotalCount(totalCount);
+        return miraklShops;
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ *                       ######
+ *                       ######
+ * ############    ####( ######  #####. ######  ############   ############
+ * #############  #####( ######  #####. ######  #############  #############
+ *        ######  #####( ######  #####. ######  #####  ######  #####  ######
+ * ###### ######  #####( ######  #####. ######  #####  #####   #####  ######
+ * ###### ######  #####( ######  #####. ######  #####          #####  ######
+ * #############  #############  #############  #############  #####  ######
+ *  ############   ############  #############   ############  #####  ######
+ *                                      ######
+ *                               #############
+ *                               ############
+ *
+ * Adyen Mirakl Connector
+ *
+ * Copyright (c) 2018 Adyen B.V.
+ * This file is open source and available under the MIT license.
+ * See the LICENSE file for more info.
+ *
+ */
+
+package com.adyen.mirakl.service.util;
+
+import java.io.IOException;
+import org.junit.Test;
+import com.adyen.model.Amount;
+import com.adyen.model.marketpay.PayoutAccountHolderRequest;
+import com.adyen.model.marketpay.TransferFundsRequest;
+import com.google.common.base.Strings;
+import com.google.gson.Gson;
+
+import static org.junit.Assert.*;
+
+public class PayoutRequestCodecTest {
+
+    @Test
+    public void testSmallRequestIsStoredAsJson() throws IOException {
+        PayoutAccountHolderRequest request = payoutRequest("Invoice number: 1");
+
+        String encoded = PayoutRequestCodec.encode(request);
+
+        assertTrue(encoded.startsWith("1j{"));
+        assertPayoutRequest(request, PayoutRequestCodec.decodePayoutAccountHolderRequest(encoded));
+    }
+
+    @Test
+    public void testLargeRequestIsCompressed() throws IOException {
+        PayoutAccountHolderRequest request = payoutRequest(Strings.repeat("Invoice number: 1, ", 100));
+
+        String encoded = PayoutRequestCodec.encode(request);
+
+        assertTrue(encoded.startsWith("1z"));
+        assertTrue(encoded.length() < new Gson().toJson(request).length());
+        assertPayoutRequest(request, PayoutRequestCodec.decodePayoutAccountHolderRequest(encoded));
+    }
+
+    @Test
+    public void testDecodesRequestsStoredWithGson() throws IOException {
+        PayoutAccountHolderRequest request = payoutRequest("Invoice number: 1");
+
+        assertPayoutRequest(request, PayoutRequestCodec.decodePayoutAccountHolderRequest(new Gson().toJson(request)));
+    }
+
+    @Test
+    public void testTransferFundsRequestRoundTrip() throws IOException {
+        TransferFundsRequest request = new TransferFundsRequest();
+        request.setSourceAccountCode("source");
+        request.setDestinationAccountCode("destination");
+        request.setTransferCode("SUBSCRIPTION");
+        request.setAmount(amount());
+
+        TransferFundsRequest decoded = PayoutRequestCodec.decodeTransferFundsRequest(PayoutRequestCodec.encode(request));
+
+        assertEquals("source", decoded.getSourceAccountCode());
+        assertEquals("destination", decoded.getDestinationAccountCode());
+        assertEquals("SUBSCRIPTION", decoded.getTransferCode());
+        assertEquals(1250L, decoded.getAmount().getValue().longValue());
+    }
+
+    @Test
+    public void testNullValues() throws IOException {
+        assertNull(PayoutRequestCodec.encode(null));
+        assertNull(PayoutRequestCodec.decodeTransferFundsRequest(null));
+    }
+
+    @Test(expected = IOException.class)
+    public void testUnknownEncodingIsRejected() throws IOException {
+        PayoutRequestCodec.decodePayoutAccountHolderRequest("1x{}");
+    }
+
+    private static PayoutAccountHolderRequest payoutRequest(final String description) {
+        PayoutAccountHolderRequest request = new PayoutAccountHolderRequest();
+        request.setAccountCode("accountCode");
+        request.setAccountHolderCode("accountHolderCode");
+        request.setBankAccountUUID("bankAccountUUID");
+        request.setMerchantReference("invoice-1");
+        request.setDescription(description);
+        request.setAmount(amount());
+        return request;
+    }
+
+    private static Amount amount() {
+        Amount amount = new Amount();
+        amount.setCurrency("EUR");
+        amount.setValue(1250L);
+        return amount;
+    }
+
+    private static void assertPayoutRequest(final PayoutAccountHolderRequest expected, final PayoutAccountHolderRequest actual) {
+        assertEquals(expected.getAccountCode(), actual.getAccountCode());
+        assertEquals(expected.getAccountHolderCode(), actual.getAccountHolderCode());
+        assertEquals(expected.getBankAccountUUID(), actual.getBankAccountUUID());
+        assertEquals(expected.getMerchantReference(), actual.getMerchantReference());
+        assertEquals(expected.getDescription(), actual.getDescription());
+        assertEquals(expected.getAmount().getCurrency(), actual.getAmount().getCurrency());
+        assertEquals(expected.getAmount().getValue(), actual.getAmount().getValue());
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ *                       ######
+ *                       ######
+ * ############    ####( ######  #####. ######  ############   ############
+ * #############  #####( ######  #####. ######  #############  #############
+ *        ######  #####( ######  #####. ######  #####  ######  #####  ######
+ * ###### ######  #####( ######  #####. ######  #####  #####   #####  ######
+ * ###### ######  #####( ######  #####. ######  #####          #####  ######
+ * #############  #############  #############  #############  #####  ######
+ *  ############   ############  #############   ############  #####  ######
+ *                                      ######
+ *                               #############
+ *                               ############
+ *
+ * Adyen Mirakl Connector
+ *
+ * Copyright (c) 2018 Adyen B.V.
+ * This file is open source and available under the MIT license.
+ * See the LICENSE file for more info.
+ *
+ */
+
+package com.adyen.mirakl.service.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+
+public class StagedPipelineTest {
+
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() {
+        executor = Executors.newCachedThreadPool();
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testEveryItemPassesAllStages() {
+        final Set<String> succeeded = ConcurrentHashMap.newKeySet();
+        final StagedPipeline<StringBuilder> pipeline = new StagedPipeline<StringBuilder>("test", executor, null, 2)
+            .stage("first", 3, item -> item.append("-first"))
+            .stage("second", 2, item -> item.append("-second"))
+            .onSuccess(item -> succeeded.add(item.toString()));
+
+        final int failed = pipeline.run(items(50));
+
+        assertThat(failed).isZero();
+        assertThat(succeeded).hasSize(50).contains("0-first-second", "49-first-second");
+    }
+
+    @Test
+    public void testFailedItemSkipsRemainingStages() {
+        final Set<String> succeeded = ConcurrentHashMap.newKeySet();
+        final Set<String> failures = ConcurrentHashMap.newKeySet();
+        final AtomicInteger secondStageCalls = new AtomicInteger();
+        final StagedPipeline<StringBuilder> pipeline = new StagedPipeline<StringBuilder>("test", executor, null, 1)
+            .stage("first", 2, item -> {
+                if (item.toString().equals("3")) {
+                    throw new IllegalStateException("broken");
+                }
+            })
+            .stage("second", 2, item -> secondStageCalls.incrementAndGet())
+            .onSuccess(item -> succeeded.add(item.toString()))
+            .onFailure((item, e) -> failures.add(item + ":" + e.getMessage()));
+
+        final int failed = pipeline.run(items(10));
+
+        assertThat(failed).isEqualTo(1);
+        assertThat(failures).containsOnly("3:broken");
+        assertThat(secondStageCalls.get()).isEqualTo(9);
+        assertThat(succeeded).hasSize(9).doesNotContain("3");
+    }
+
+    @Test
+    public void testFullQueueHoldsBackPreviousStage() {
+        final AtomicInteger inFlight = new AtomicInteger();
+        final AtomicInteger maxInFlight = new AtomicInteger();
+        final StagedPipeline<StringBuilder> pipeline = new StagedPipeline<StringBuilder>("test", executor, null, 2)
+            .stage("fast", 1, item -> maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max))
+            .stage("slow", 1, item -> {
+                Thread.sleep(5);
+                inFlight.decrementAndGet();
+            });
+
+        pipeline.run(items(20));
+
+        // one item in the slow stage, two waiting in its queue and one blocked in the fast stage
+        assertThat(maxInFlight.get()).isLessThanOrEqualTo(4);
+        assertThat(inFlight.get()).isZero();
+    }
+
+    @Test
+    public void testConcurrentRunsShareAnExecutorSizedForOneRun() throws Exception {
+        final ExecutorService pool = Executors.newFixedThreadPool(3);
+        final Semaphore workerPermits = new Semaphore(3);
+        final CountDownLatch bothStarted = new CountDownLatch(2);
+        final AtomicInteger succeeded = new AtomicInteger();
+        try {
+            final Callable<Integer> run = () -> {
+                bothStarted.countDown();
+                bothStarted.await();
+                return new StagedPipeline<StringBuilder>("test", pool, workerPermits, 1)
+                    .stage("first", 2, item -> item.append("-first"))
+                    .stage("second", 1, item -> Thread.sleep(1))
+                    .onSuccess(item -> succeeded.incrementAndGet())
+                    .run(items(20));
+            };
+            final ExecutorService callers = Executors.newFixedThreadPool(2);
+            try {
+                final Future<Integer> first = callers.submit(run);
+                final Future<Integer> second = callers.submit(run);
+
+                assertThat(first.get(10, TimeUnit.SECONDS)).isZero();
+                assertThat(second.get(10, TimeUnit.SECONDS)).isZero();
+            } finally {
+                callers.shutdownNow();
+            }
+            assertThat(succeeded.get()).isEqualTo(40);
+            assertThat(workerPermits.availablePermits()).isEqualTo(3);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testStalledStageAbortsTheRun() {
+        final AtomicInteger processed = new AtomicInteger();
+        final StagedPipeline<StringBuilder> pipeline = new StagedPipeline<StringBuilder>("test", executor, null, 1)
+            .offerTimeout(100, TimeUnit.MILLISECONDS)
+            .stage("stalled", 1, item -> {
+                Thread.sleep(500);
+                processed.incrementAndGet();
+            });
+
+        try {
+            pipeline.run(items(5));
+            fail("Expected the run to be aborted");
+        } catch (IllegalStateException e) {
+            assertThat(e.getMessage()).contains("aborted");
+        }
+        // the item in progress finishes, the items behind it are dropped
+        assertThat(processed.get()).isEqualTo(1);
+    }
+
+    @Test
+    public void testRunSequentially() {
+        final List<String> succeeded = new ArrayList<>();
+        final StagedPipeline<StringBuilder> pipeline = new StagedPipeline<StringBuilder>("test", null, null, 0)
+            .stage("first", 4, item -> item.append("-first"))
+            .stage("second", 4, item -> {
+                if (item.toString().startsWith("1")) {
+                    throw new IllegalStateException("broken");
+                }
+            })
+            .onSuccess(item -> succeeded.add(item.toString()));
+
+        final int failed = pipeline.runSequentially(items(3));
+
+        assertThat(failed).isEqualTo(1);
+        assertThat(succeeded).containsExactly("0-first", "2-first");
+    }
+
+    private static List<StringBuilder> items(final int count) {
+        final List<StringBuilder> items = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            items.add(new StringBuilder(String.valueOf(i)));
+        }
+        return items;
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ *                       ######
+ *                       ######
+ * ############    ####( ######  #####. ######  ############   ############
+ * #############  #####( ######  #####. ######  #############  #############
+ *        ######  #####( ######  #####. ######  #####  ######  #####  ######
+ * ###### ######  #####( ######  #####. ######  #####  #####   #####  ######
+ * ###### ######  #####( ######  #####. ######  #####          #####  ######
+ * #############  #############  #############  #############  #####  ######
+ *  ############   ############  #############   ############  #####  ######
+ *                                      ######
+ *                               #############
+ *                               ############
+ *
+ * Adyen Mirakl Connector
+ *
+ * Copyright (c) 2018 Adyen B.V.
+ * This file is open source and available under the MIT license.
+ * See the LICENSE file for more info.
+ *
+ */
+
+package com.adyen.mirakl.service.util;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+import static org.junit.Assume.assumeFalse;
+
+public class VirtualThreadExecutorTest {
+
+    private ExecutorService taskThreads;
+
+    @Before
+    public void setUp() {
+        // a thread per task like the virtual thread executor, so the permits and hand-over are tested on the build JDK
+        taskThreads = Executors.newCachedThreadPool();
+    }
+
+    @After
+    public void tearDown() {
+        taskThreads.shutdownNow();
+    }
+
+    @Test
+    public void testLimitsConcurrentTasks() throws InterruptedException {
+        final VirtualThreadExecutor executor = new VirtualThreadExecutor("test", taskThreads, 2, null, task -> {
+            throw new IllegalStateException("unbounded executor rejected a task");
+        });
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(50);
+        for (int i = 0; i < 50; i++) {
+            executor.execute(() -> {
+                maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                try {
+                    Thread.sleep(2);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                running.decrementAndGet();
+                done.countDown();
+            });
+        }
+
+        assertThat(done.await(10, TimeUnit.SECONDS)).isTrue();
+        assertThat(maxRunning.get()).isLessThanOrEqualTo(2);
+    }
+
+    @Test
+    public void testHandsOverTaskWhenTooManyAreWaiting() throws InterruptedException {
+        final AtomicInteger handedOver = new AtomicInteger();
+        final VirtualThreadExecutor executor = new VirtualThreadExecutor("test", taskThreads, 1, 1, task -> handedOver.incrementAndGet());
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(2);
+        final Runnable blocked = () -> {
+            try {
+                release.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            done.countDown();
+        };
+
+        executor.execute(blocked);
+        executor.execute(blocked);
+        executor.execute(blocked);
+
+        assertThat(handedOver.get()).isEqualTo(1);
+        release.countDown();
+        assertThat(done.await(10, TimeUnit.SECONDS)).isTrue();
+    }
+
+    @Test
+    public void testRequiresAJdk21Runtime() {
+        assumeFalse(VirtualThreadExecutor.isSupported());
+        try {
+            new VirtualThreadExecutor("test", 1, null, task -> {
+            });
+            fail("Expected virtual threads to be unavailable");
+        } catch (IllegalStateException e) {
+            assertThat(e.getMessage()).isEqualTo("Virtual threads need a JDK 21 runtime");
+        }
+    }
+}
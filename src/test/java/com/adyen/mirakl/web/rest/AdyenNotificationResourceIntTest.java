@@ -41,7 +41,10 @@ import org.springframework.test.web.servlet.setup.MockMvcBuilders;
 import org.springframework.transaction.annotation.Transactional;
 import com.adyen.mirakl.AdyenMiraklConnectorApp;
 import com.adyen.mirakl.domain.AdyenNotification;
+import com.adyen.mirakl.domain.enumeration.NotificationStatus;
 import com.adyen.mirakl.repository.AdyenNotificationRepository;
+import com.adyen.mirakl.service.NotificationIngestionService;
+import com.adyen.mirakl.service.NotificationQueueService;
 import com.google.common.base.Charsets;
 import com.google.common.io.Resources;
 import static com.adyen.mirakl.web.rest.TestUtil.createFormattingConversionService;
@@ -64,6 +67,12 @@ public class AdyenNotificationResourceIntTest {
     @Autowired
     private AdyenNotificationRepository adyenNotificationRepository;
 
+    @Autowired
+    private NotificationIngestionService notificationIngestionService;
+
+    @Autowired
+    private NotificationQueueService notificationQueueService;
+
     @Autowired
     private MappingJackson2HttpMessageConverter jacksonMessageConverter;
 
@@ -81,7 +90,7 @@ public class AdyenNotificationResourceIntTest {
     @Before
     public void setup() {
         MockitoAnnotations.initMocks(this);
-        final AdyenNotificationResource adyenNotificationResource = new AdyenNotificationResource(adyenNotificationRepository, publisherMock);
+        final AdyenNotificationResource adyenNotificationResource = new AdyenNotificationResource(notificationIngestionService, notificationQueueService, publisherMock);
         this.restAdyenNotificationMockMvc = MockMvcBuilders.standaloneSetup(adyenNotificationResource)
                                                            .addFilter(springSecurityFilterChain)
                                                            .setCustomArgumentResolvers(pageableArgumentResolver)
@@ -111,6 +120,8 @@ public class AdyenNotificationResourceIntTest {
         AdyenNotification testAdyenNotification = adyenNotificationList.get(adyenNotificationList.size() - 1);
         assertThat(testAdyenNotification.getRawAdyenNotification()).isEqualTo(adyenRequestJson);
         assertThat(testAdyenNotification.isProcessed()).isFalse();
+        assertThat(testAdyenNotification.getStatus()).isEqualTo(NotificationStatus.PENDING);
+        assertThat(testAdyenNotification.getAttempts()).isEqualTo(0);
 
         verify(publisherMock).publishEvent(any());
     }